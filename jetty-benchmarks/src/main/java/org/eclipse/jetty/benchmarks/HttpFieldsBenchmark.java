@@ -0,0 +1,63 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+
+package org.eclipse.jetty.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/* ------------------------------------------------------------ */
+/** Benchmark of {@link HttpFields} date formatting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HttpFieldsBenchmark
+{
+    private final HttpFields _fields = new HttpFields();
+    private long _date=1340000000000L;
+
+    /* ------------------------------------------------------------ */
+    @Benchmark
+    public String formatDate()
+    {
+        _date+=1000;
+        return HttpFields.formatDate(_date);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Benchmark
+    public String formatCookieDate()
+    {
+        _date+=1000;
+        return HttpFields.formatCookieDate(_date);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Benchmark
+    public String putDateField()
+    {
+        _date+=1000;
+        _fields.putDateField(HttpHeaders.LAST_MODIFIED_BUFFER,_date);
+        return _fields.getStringField(HttpHeaders.LAST_MODIFIED_BUFFER);
+    }
+}
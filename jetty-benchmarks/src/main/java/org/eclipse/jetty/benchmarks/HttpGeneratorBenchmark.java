@@ -0,0 +1,97 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+
+package org.eclipse.jetty.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.Generator;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpGenerator;
+import org.eclipse.jetty.http.HttpHeaderValues;
+import org.eclipse.jetty.http.HttpHeaders;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.io.ByteArrayEndPoint;
+import org.eclipse.jetty.io.SimpleBuffers;
+import org.eclipse.jetty.io.View;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* ------------------------------------------------------------ */
+/** Benchmark of {@link HttpGenerator} generating small and large responses,
+ * as a server connection does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HttpGeneratorBenchmark
+{
+    @Param({"128","65536"})
+    public int _size;
+
+    private ByteArrayEndPoint _endp;
+    private HttpGenerator _generator;
+    private final HttpFields _fields = new HttpFields();
+    private Buffer _content;
+    private View _view;
+
+    /* ------------------------------------------------------------ */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        _endp=new ByteArrayEndPoint(new byte[0],_size+8192);
+        _generator=new HttpGenerator(new SimpleBuffers(new ByteArrayBuffer(6144),new ByteArrayBuffer(16384)),_endp);
+
+        byte[] content=new byte[_size];
+        for (int i=0;i<content.length;i++)
+            content[i]=(byte)('a'+i%26);
+        _content=new ByteArrayBuffer(content,0,content.length,Buffer.IMMUTABLE);
+        _view=new View(_content);
+
+        _fields.put(HttpHeaders.CONTENT_TYPE_BUFFER,new ByteArrayBuffer("text/html;charset=utf-8"));
+        _fields.putLongField(HttpHeaders.CONTENT_LENGTH_BUFFER,_size);
+        _fields.put(HttpHeaders.SERVER_BUFFER,new ByteArrayBuffer("Jetty(7.x)"));
+        _fields.put(HttpHeaders.CACHE_CONTROL_BUFFER,HttpHeaderValues.NO_CACHE_BUFFER);
+        _fields.put("X-Custom","custom value");
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of bytes generated
+     */
+    @Benchmark
+    public int response() throws Exception
+    {
+        _endp.reset();
+        _generator.reset();
+        _generator.setVersion(11);
+        _generator.setResponse(200,null);
+
+        _view.update(_content.getIndex(),_content.putIndex());
+        _generator.addContent(_view,Generator.LAST);
+        _generator.completeHeader(_fields,Generator.LAST);
+        _generator.complete();
+        while (!_generator.isComplete())
+            _generator.flushBuffer();
+        return _endp.getOut().length();
+    }
+}
@@ -0,0 +1,159 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+
+package org.eclipse.jetty.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HttpFieldCache;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpParser;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.io.ByteArrayEndPoint;
+import org.eclipse.jetty.io.SimpleBuffers;
+import org.eclipse.jetty.util.StringUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* ------------------------------------------------------------ */
+/** Benchmark of {@link HttpParser} parsing requests into {@link HttpFields},
+ * as a server connection does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HttpParserBenchmark
+{
+    public final static int PIPELINED=16;
+
+    private final static String GET=
+        "GET /context/path/index.html?query=value HTTP/1.1\r\n"+
+        "Host: localhost:8080\r\n"+
+        "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:12.0) Gecko/20100101 Firefox/12.0\r\n"+
+        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"+
+        "Accept-Language: en-us,en;q=0.5\r\n"+
+        "Accept-Encoding: gzip, deflate\r\n"+
+        "Cookie: JSESSIONID=1x2y3z4w5v6u7t8s; theme=dark\r\n"+
+        "Connection: keep-alive\r\n"+
+        "\r\n";
+
+    @Param({"true","false"})
+    public boolean _fieldCache;
+
+    private ByteArrayEndPoint _pipelined;
+    private ByteArrayEndPoint _chunked;
+    private HttpParser _pipelinedParser;
+    private HttpParser _chunkedParser;
+    private final HttpFields _fields = new HttpFields();
+    private long _content;
+
+    /* ------------------------------------------------------------ */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        StringBuilder pipelined=new StringBuilder();
+        for (int i=0;i<PIPELINED;i++)
+            pipelined.append(GET);
+        _pipelined=new ByteArrayEndPoint(pipelined.toString().getBytes(StringUtil.__ISO_8859_1),0);
+        _pipelined.setNonBlocking(true);
+        _pipelinedParser=newParser(_pipelined);
+
+        StringBuilder chunked=new StringBuilder();
+        chunked.append("POST /context/upload HTTP/1.1\r\n");
+        chunked.append("Host: localhost:8080\r\n");
+        chunked.append("Content-Type: application/octet-stream\r\n");
+        chunked.append("Transfer-Encoding: chunked\r\n");
+        chunked.append("\r\n");
+        for (int i=0;i<16;i++)
+        {
+            chunked.append("400\r\n");
+            for (int j=0;j<1024;j++)
+                chunked.append((char)('a'+j%26));
+            chunked.append("\r\n");
+        }
+        chunked.append("0\r\n\r\n");
+        _chunked=new ByteArrayEndPoint(chunked.toString().getBytes(StringUtil.__ISO_8859_1),0);
+        _chunked.setNonBlocking(true);
+        _chunkedParser=newParser(_chunked);
+    }
+
+    /* ------------------------------------------------------------ */
+    private HttpParser newParser(ByteArrayEndPoint endp)
+    {
+        HttpParser parser=new HttpParser(new SimpleBuffers(new ByteArrayBuffer(8192),new ByteArrayBuffer(8192)),endp,new HttpParser.EventHandler()
+        {
+            @Override
+            public void startRequest(Buffer method, Buffer url, Buffer version) throws IOException
+            {
+                _fields.clear();
+            }
+
+            @Override
+            public void parsedHeader(Buffer name, Buffer value) throws IOException
+            {
+                _fields.add(name,value);
+            }
+
+            @Override
+            public void content(Buffer ref) throws IOException
+            {
+                _content+=ref.length();
+                ref.clear();
+            }
+
+            @Override
+            public void startResponse(Buffer version, int status, Buffer reason) throws IOException
+            {
+            }
+        });
+        parser.setFieldCache(_fieldCache?new HttpFieldCache(4096):null);
+        return parser;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of fields parsed by the last request
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED)
+    public int pipelinedGets() throws Exception
+    {
+        _pipelined.reset();
+        for (int i=0;i<PIPELINED;i++)
+            _pipelinedParser.parse();
+        return _fields.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The total content parsed
+     */
+    @Benchmark
+    public long chunkedPost() throws Exception
+    {
+        _chunked.reset();
+        _chunkedParser.parse();
+        return _content;
+    }
+}
@@ -0,0 +1,68 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+
+package org.eclipse.jetty.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.PathMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* ------------------------------------------------------------ */
+/** Benchmark of {@link PathMap#getMatch(String)} with a typical set of
+ * servlet mappings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PathMapBenchmark
+{
+    @Param({"/","/index.jsp","/images/logo.png","/api/v1/users/123","/app/module/page.do","/unmapped/path/file.txt"})
+    public String _path;
+
+    private final PathMap _map = new PathMap();
+
+    /* ------------------------------------------------------------ */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        _map.put("/","default");
+        _map.put("*.jsp","jsp");
+        _map.put("*.jspx","jsp");
+        _map.put("*.do","action");
+        _map.put("/images/*","static");
+        _map.put("/css/*","static");
+        _map.put("/js/*","static");
+        _map.put("/api/*","api");
+        _map.put("/api/v1/*","api1");
+        _map.put("/app/module/*","module");
+        _map.put("/status","status");
+        _map.put("/login","login");
+    }
+
+    /* ------------------------------------------------------------ */
+    @Benchmark
+    public Object getMatch()
+    {
+        return _map.getMatch(_path);
+    }
+}
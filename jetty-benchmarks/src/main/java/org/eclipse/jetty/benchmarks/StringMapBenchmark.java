@@ -0,0 +1,88 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+
+package org.eclipse.jetty.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HttpHeaders;
+import org.eclipse.jetty.util.StringMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* ------------------------------------------------------------ */
+/** Benchmark of {@link StringMap} lookups of header names, as used by the
+ * header caches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StringMapBenchmark
+{
+    private final static String[] NAMES =
+    {
+        HttpHeaders.HOST,
+        HttpHeaders.ACCEPT,
+        HttpHeaders.ACCEPT_ENCODING,
+        HttpHeaders.ACCEPT_LANGUAGE,
+        HttpHeaders.USER_AGENT,
+        HttpHeaders.COOKIE,
+        HttpHeaders.CONNECTION,
+        HttpHeaders.CONTENT_TYPE,
+        HttpHeaders.CONTENT_LENGTH,
+        HttpHeaders.IF_MODIFIED_SINCE,
+        HttpHeaders.REFERER,
+        HttpHeaders.CACHE_CONTROL
+    };
+
+    @Param({"true","false"})
+    public boolean _ignoreCase;
+
+    @Param({"Content-Length","user-agent","X-Unknown-Header"})
+    public String _key;
+
+    private StringMap _map;
+    private char[] _chars;
+
+    /* ------------------------------------------------------------ */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        _map=new StringMap(_ignoreCase);
+        for (int i=0;i<NAMES.length;i++)
+            _map.put(NAMES[i],Integer.valueOf(i));
+        _chars=_key.toCharArray();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Benchmark
+    public Object get()
+    {
+        return _map.get(_key);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Benchmark
+    public Object getEntry()
+    {
+        return _map.getEntry(_chars,0,_chars.length);
+    }
+}
@@ -0,0 +1,66 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+
+package org.eclipse.jetty.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.MultiMap;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.UrlEncoded;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* ------------------------------------------------------------ */
+/** Benchmark of {@link UrlEncoded#decodeUtf8To(byte[], int, int, MultiMap)}
+ * decoding query strings and form content.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UrlEncodedBenchmark
+{
+    @Param({
+        "name=value&other=thing",
+        "q=jetty+http+server&lang=en&page=2&sort=relevance&filter=%2Fpath%2Fto%2Fresource",
+        "text=%E2%82%AC+price+%C3%A9l%C3%A8ve+%E4%B8%AD%E6%96%87&a=1&b=2&c=3&d=4&e=5"
+    })
+    public String _query;
+
+    private byte[] _raw;
+    private final MultiMap<String> _map = new MultiMap<String>();
+
+    /* ------------------------------------------------------------ */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        _raw=_query.getBytes(StringUtil.__ISO_8859_1);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Benchmark
+    public int decodeUtf8To()
+    {
+        _map.clear();
+        UrlEncoded.decodeUtf8To(_raw,0,_raw.length,_map);
+        return _map.size();
+    }
+}
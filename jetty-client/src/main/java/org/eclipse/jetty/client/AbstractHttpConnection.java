@@ -168,18 +168,29 @@ public abstract class AbstractHttpConnection extends AbstractConnection implemen
     }
 
     protected void commitRequest() throws IOException
+    {
+        commitRequest(_exchange);
+    }
+
+    /**
+     * Commits the request of an exchange, which is either the current exchange
+     * or an exchange pipelined behind it.
+     */
+    protected void commitRequest(HttpExchange exchange) throws IOException
     {
         synchronized (this)
         {
-            _status=0;
-            if (_exchange.getStatus() != HttpExchange.STATUS_WAITING_FOR_COMMIT)
+            boolean current = exchange == _exchange;
+            if (current)
+                _status=0;
+            if (exchange.getStatus() != HttpExchange.STATUS_WAITING_FOR_COMMIT)
                 throw new IllegalStateException();
 
-            _exchange.setStatus(HttpExchange.STATUS_SENDING_REQUEST);
-            _generator.setVersion(_exchange.getVersion());
+            exchange.setStatus(HttpExchange.STATUS_SENDING_REQUEST);
+            _generator.setVersion(exchange.getVersion());
 
-            String method=_exchange.getMethod();
-            String uri = _exchange.getRequestURI();
+            String method=exchange.getMethod();
+            String uri = exchange.getRequestURI();
             if (_destination.isProxied())
             {
                 if (!HttpMethods.CONNECT.equals(method) && uri.startsWith("/"))
@@ -199,20 +210,21 @@ public abstract class AbstractHttpConnection extends AbstractConnection implemen
                 }
                 Authentication auth = _destination.getProxyAuthentication();
                 if (auth != null)
-                    auth.setCredentials(_exchange);
+                    auth.setCredentials(exchange);
             }
 
             _generator.setRequest(method, uri);
-            _parser.setHeadResponse(HttpMethods.HEAD.equalsIgnoreCase(method));
+            if (current)
+                _parser.setHeadResponse(HttpMethods.HEAD.equalsIgnoreCase(method));
 
-            HttpFields requestHeaders = _exchange.getRequestFields();
-            if (_exchange.getVersion() >= HttpVersions.HTTP_1_1_ORDINAL)
+            HttpFields requestHeaders = exchange.getRequestFields();
+            if (exchange.getVersion() >= HttpVersions.HTTP_1_1_ORDINAL)
             {
                 if (!requestHeaders.containsKey(HttpHeaders.HOST_BUFFER))
                     requestHeaders.add(HttpHeaders.HOST_BUFFER,_destination.getHostHeader());
             }
 
-            Buffer requestContent = _exchange.getRequestContent();
+            Buffer requestContent = exchange.getRequestContent();
             if (requestContent != null)
             {
                 requestHeaders.putLongField(HttpHeaders.CONTENT_LENGTH, requestContent.length());
@@ -221,7 +233,7 @@ public abstract class AbstractHttpConnection extends AbstractConnection implemen
             }
             else
             {
-                InputStream requestContentStream = _exchange.getRequestContentSource();
+                InputStream requestContentStream = exchange.getRequestContentSource();
                 if (requestContentStream != null)
                 {
                     _generator.completeHeader(requestHeaders, false);
@@ -235,6 +247,15 @@ public abstract class AbstractHttpConnection extends AbstractConnection implemen
                         _generator.addContent(new ByteArrayBuffer(buf, 0, length), false);
                     }
                 }
+                else if (exchange.hasRequestContentChunks())
+                {
+                    long length = exchange.getRequestContentLength();
+                    if (length >= 0)
+                        requestHeaders.putLongField(HttpHeaders.CONTENT_LENGTH, length);
+                    else
+                        requestHeaders.remove(HttpHeaders.CONTENT_LENGTH);
+                    _generator.completeHeader(requestHeaders, false);
+                }
                 else
                 {
                     requestHeaders.remove(HttpHeaders.CONTENT_LENGTH);
@@ -242,7 +263,7 @@ public abstract class AbstractHttpConnection extends AbstractConnection implemen
                 }
             }
 
-            _exchange.setStatus(HttpExchange.STATUS_WAITING_FOR_RESPONSE);
+            exchange.setStatus(HttpExchange.STATUS_WAITING_FOR_RESPONSE);
         }
     }
 
@@ -415,6 +436,14 @@ public abstract class AbstractHttpConnection extends AbstractConnection implemen
         }
     }
 
+    /**
+     * @return true if the idle timeout is scheduled, so that the connection is idle in its destination
+     */
+    boolean isIdleTimeoutScheduled()
+    {
+        return _idle.get();
+    }
+
     public boolean cancelIdleTimeout()
     {
         synchronized (this)
@@ -449,6 +478,34 @@ public abstract class AbstractHttpConnection extends AbstractConnection implemen
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Parses the available input, until the response is complete or reading the response of the exchange is paused.
+     * @param exchange the exchange whose response is parsed
+     * @return true if progress was made
+     * @see HttpExchange#pauseResponse()
+     */
+    protected boolean parseAvailable(HttpExchange exchange) throws IOException
+    {
+        if (exchange != null && exchange.isResponsePaused())
+            return false;
+
+        boolean progress = _parser.parseNext() > 0;
+        while (!_parser.isComplete() && _parser.isMoreInBuffer() && (exchange == null || !exchange.isResponsePaused()))
+            progress |= _parser.parseNext() > 0;
+        return progress;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Called when reading the response of an exchange is resumed.
+     * @param exchange the exchange
+     * @see HttpExchange#resumeResponse()
+     */
+    protected void exchangeResumed(HttpExchange exchange)
+    {
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @see org.eclipse.jetty.util.component.Dumpable#dump()
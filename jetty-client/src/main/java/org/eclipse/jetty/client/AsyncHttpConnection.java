@@ -14,8 +14,13 @@
 package org.eclipse.jetty.client;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 
 import org.eclipse.jetty.http.AbstractGenerator;
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.http.HttpVersions;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.io.AsyncEndPoint;
 import org.eclipse.jetty.io.Buffer;
@@ -30,6 +35,12 @@ import org.eclipse.jetty.util.log.Logger;
 
 /* ------------------------------------------------------------ */
 /** Asynchronous Client HTTP Connection
+ * <p>
+ * If pipelining is enabled with {@link HttpClient#setPipelineDepth(int)}, GET and HEAD
+ * exchanges without request content may be pipelined behind the current exchange. The
+ * request of each pipelined exchange is generated as soon as the previous request is
+ * complete, while the responses are parsed in order. Pipelined exchanges whose response
+ * has not been received when the connection closes are resent.
  */
 public class AsyncHttpConnection extends AbstractHttpConnection implements AsyncConnection
 {
@@ -38,6 +49,8 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
     private boolean _requestComplete;
     private Buffer _requestContentChunk;
     private final AsyncEndPoint _asyncEndp;
+    private final LinkedList<HttpExchange> _pipelined = new LinkedList<HttpExchange>();
+    private int _pipelinedCommitted;
 
     AsyncHttpConnection(Buffers requestBuffers, Buffers responseBuffers, EndPoint endp)
     {
@@ -67,6 +80,7 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
 
                 progress=false;
                 HttpExchange exchange=_exchange;
+                HttpExchange request=getRequestExchange();
 
                 LOG.debug("exchange {} on {}",exchange,this);
 
@@ -80,6 +94,21 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
                         commitRequest();
                     }
 
+                    // Should we commit a pipelined request?
+                    if (_generator.isComplete() && _requestComplete)
+                    {
+                        HttpExchange next=nextPipelinedRequest();
+                        if (next!=null)
+                        {
+                            LOG.debug("commit pipelined {}",next);
+                            progress=true;
+                            _generator.reset();
+                            _requestComplete=false;
+                            request=next;
+                            commitRequest(next);
+                        }
+                    }
+
                     // Generate output
                     if (_generator.isCommitted() && !_generator.isComplete())
                     {
@@ -94,11 +123,11 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
                         {
                             // Look for more content to send.
                             if (_requestContentChunk==null)
-                                _requestContentChunk = exchange.getRequestContentChunk(null);
+                                _requestContentChunk = request.getRequestContentChunk(null);
 
                             if (_requestContentChunk==null)
                             {
-                                LOG.debug("complete {}",exchange);
+                                LOG.debug("complete {}",request);
                                 progress=true;
                                 _generator.complete();
                             }
@@ -107,7 +136,7 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
                                 LOG.debug("addChunk");
                                 progress=true;
                                 Buffer chunk=_requestContentChunk;
-                                _requestContentChunk=exchange.getRequestContentChunk(null);
+                                _requestContentChunk=request.getRequestContentChunk(null);
                                 _generator.addContent(chunk,_requestContentChunk==null);
                             }
                         }
@@ -116,14 +145,14 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
                     // Signal request completion
                     if (_generator.isComplete() && !_requestComplete)
                     {
-                        LOG.debug("requestComplete {}",exchange);
+                        LOG.debug("requestComplete {}",request);
                         progress=true;
                         _requestComplete = true;
-                        exchange.getEventListener().onRequestComplete();
+                        request.getEventListener().onRequestComplete();
                     }
 
-                    // Read any input that is available
-                    if (!_parser.isComplete() && _parser.parseAvailable())
+                    // Read any input that is available, unless reading the response is paused
+                    if (!_parser.isComplete() && parseAvailable(exchange))
                     {
                         LOG.debug("parsed {}",exchange);
                         progress=true;
@@ -175,9 +204,17 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
                 {
                     LOG.debug("finally {} on {} progress={} {}",exchange,this,progress,_endp);
 
-                    boolean complete = failed || _generator.isComplete() && _parser.isComplete();
+                    // A response that is not persistent completes the connection,
+                    // and the pipelined exchanges are resent when it is closed
+                    boolean pipelined = hasPipelined();
+                    boolean complete = failed || _parser.isComplete() && (_generator.isComplete() || pipelined);
 
-                    if (complete)
+                    if (complete && !failed && pipelined && _parser.isPersistent() && nextPipelinedExchange())
+                    {
+                        LOG.debug("pipelined {} on {}",_exchange,this);
+                        progress=true;
+                    }
+                    else if (complete)
                     {
                         boolean persistent = !failed && _parser.isPersistent() && _generator.isPersistent();
                         _generator.setPersistent(persistent);
@@ -225,6 +262,14 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
                                 _pipeline=null;
                             }
 
+                            // handle exchanges pipelined since the response completed
+                            if (_exchange==null && persistent && connection==this && !_pipelined.isEmpty())
+                            {
+                                _exchange=_pipelined.removeFirst();
+                                _pipelinedCommitted=0;
+                                progress=true;
+                            }
+
                             if (_exchange==null && !isReserved())  // TODO how do we return switched connections?
                                 _destination.returnConnection(this, !persistent);
                         }
@@ -243,6 +288,213 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
         return connection;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Pipelines an exchange behind the exchanges in progress on this connection.
+     *
+     * @param ex the exchange to pipeline
+     * @param depth the maximum number of exchanges in progress on the connection
+     * @return true if the exchange was pipelined, false if the connection cannot take it
+     */
+    boolean pipeline(HttpExchange ex, int depth)
+    {
+        synchronized (this)
+        {
+            HttpExchange exchange=_exchange;
+            if (exchange==null || _pipeline!=null || isReserved() || !_endp.isOpen())
+                return false;
+            if (_pipelined.size()+1>=depth || !isPipelinable(exchange) || exchange.getStatus()>=HttpExchange.STATUS_COMPLETED)
+                return false;
+
+            ex.associate(this);
+            if (!ex.setStatus(HttpExchange.STATUS_WAITING_FOR_COMMIT))
+            {
+                ex.disassociate();
+                return false;
+            }
+            _pipelined.add(ex);
+        }
+        _asyncEndp.asyncDispatch();
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param ex an exchange
+     * @return true if the exchange may be pipelined, and so resent if its connection closes,
+     * as it is a GET or HEAD without request content
+     */
+    static boolean isPipelinable(HttpExchange ex)
+    {
+        String method=ex.getMethod();
+        return ex.getVersion()>=HttpVersions.HTTP_1_1_ORDINAL &&
+            ex.getRequestContent()==null && ex.getRequestContentSource()==null && !ex.hasRequestContentChunks() &&
+            (HttpMethods.GET.equalsIgnoreCase(method) ||
+             HttpMethods.HEAD.equalsIgnoreCase(method));
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of exchanges pipelined behind the current exchange
+     */
+    public int getPipelined()
+    {
+        synchronized (this)
+        {
+            return _pipelined.size();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private boolean hasPipelined()
+    {
+        synchronized (this)
+        {
+            return !_pipelined.isEmpty();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the exchange whose request is being generated
+     */
+    private HttpExchange getRequestExchange()
+    {
+        synchronized (this)
+        {
+            return _pipelinedCommitted==0?_exchange:_pipelined.get(_pipelinedCommitted-1);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the next pipelined exchange whose request is to be generated, or null
+     */
+    private HttpExchange nextPipelinedRequest()
+    {
+        synchronized (this)
+        {
+            if (_pipelinedCommitted<_pipelined.size())
+                return _pipelined.get(_pipelinedCommitted++);
+            return null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Makes the first pipelined exchange the current exchange, once the response of the
+     * current exchange is complete.
+     * @return true if the current exchange was replaced
+     */
+    private boolean nextPipelinedExchange() throws IOException
+    {
+        synchronized (this)
+        {
+            // The request of the current exchange must be complete before the generator is reused
+            if (_pipelined.isEmpty() || _pipelinedCommitted==0 && !_generator.isComplete())
+                return false;
+
+            HttpExchange exchange=_exchange;
+            if (exchange!=null)
+                exchange.cancelTimeout(_destination.getHttpClient());
+
+            _exchange=_pipelined.removeFirst();
+            _status=0;
+            _parser.reset();
+            _parser.setHeadResponse(HttpMethods.HEAD.equalsIgnoreCase(_exchange.getMethod()));
+            if (_pipelinedCommitted>0)
+                _pipelinedCommitted--;
+            else
+            {
+                _generator.reset();
+                _requestComplete=false;
+            }
+            return true;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void exchangeExpired(HttpExchange exchange)
+    {
+        boolean pipelined;
+        synchronized (this)
+        {
+            pipelined=_pipelined.contains(exchange);
+        }
+
+        // The response of an expired pipelined exchange will still arrive, so close the connection
+        if (pipelined)
+        {
+            try
+            {
+                _destination.returnConnection(this, true);
+            }
+            catch (IOException x)
+            {
+                LOG.ignore(x);
+            }
+        }
+        else
+            super.exchangeExpired(exchange);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if reading the response of the current exchange is paused, so that the
+     * connection is not interested in reading
+     */
+    @Override
+    public boolean isSuspended()
+    {
+        HttpExchange exchange=_exchange;
+        return exchange!=null && exchange.isResponsePaused();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void exchangeResumed(HttpExchange exchange)
+    {
+        if (exchange==_exchange)
+            _asyncEndp.asyncDispatch();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void close() throws IOException
+    {
+        super.close();
+
+        // Resend the pipelined exchanges that have not had a response
+        List<HttpExchange> pipelined;
+        synchronized (this)
+        {
+            if (_pipelined.isEmpty())
+                return;
+            pipelined=new ArrayList<HttpExchange>(_pipelined);
+            _pipelined.clear();
+            _pipelinedCommitted=0;
+        }
+        for (HttpExchange exchange : pipelined)
+        {
+            exchange.disassociate();
+            if (exchange.isDone())
+                continue;
+            try
+            {
+                exchange.cancelTimeout(_destination.getHttpClient());
+                if (exchange.resetForResend())
+                    _destination.resend(exchange);
+            }
+            catch (Exception x)
+            {
+                LOG.debug(x);
+                if (exchange.setStatus(HttpExchange.STATUS_EXCEPTED))
+                    exchange.getEventListener().onException(x);
+            }
+        }
+    }
+
     public void onInputShutdown() throws IOException
     {
         if (_generator.isIdle())
@@ -129,12 +129,19 @@ public class BlockingHttpConnection extends AbstractHttpConnection
                         exchange.getEventListener().onRequestComplete();
                     }
 
-                    // Read any input that is available
-                    if (!_parser.isComplete() && _parser.parseAvailable())
+                    // Read any input that is available, unless reading the response is paused
+                    if (!_parser.isComplete() && parseAvailable(exchange))
                     {
                         LOG.debug("parsed");
                     }
 
+                    // Wait while reading the response is paused
+                    if (!_parser.isComplete() && exchange.isResponsePaused())
+                    {
+                        LOG.debug("paused");
+                        exchange.waitForResponseResumed();
+                    }
+
                     // Flush output
                     _endp.flush();
                 }
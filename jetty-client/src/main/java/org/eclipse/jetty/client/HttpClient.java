@@ -37,6 +37,7 @@ import org.eclipse.jetty.util.component.AggregateLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
 import org.eclipse.jetty.util.component.LifeCycle;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.HashedWheelTimeout;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.util.thread.ThreadPool;
 import org.eclipse.jetty.util.thread.Timeout;
@@ -76,6 +77,8 @@ public class HttpClient extends AggregateLifeCycle implements HttpBuffers, Attri
     private boolean _connectBlocking = true;
     private int _maxConnectionsPerAddress = Integer.MAX_VALUE;
     private int _maxQueueSizePerAddress = Integer.MAX_VALUE;
+    private int _minIdleConnectionsPerAddress = 0;
+    private int _pipelineDepth = 1;
     private ConcurrentMap<Address, HttpDestination> _destinations = new ConcurrentHashMap<Address, HttpDestination>();
     ThreadPool _threadPool;
     Connector _connector;
@@ -84,6 +87,7 @@ public class HttpClient extends AggregateLifeCycle implements HttpBuffers, Attri
     private int _connectTimeout = 75000;
     private Timeout _timeoutQ = new Timeout();
     private Timeout _idleTimeoutQ = new Timeout();
+    private boolean _useTimeoutWheel;
     private Address _proxy;
     private Authentication _proxyAuthentication;
     private Set<String> _noProxy;
@@ -249,6 +253,8 @@ public class HttpClient extends AggregateLifeCycle implements HttpBuffers, Attri
             HttpDestination other =_destinations.putIfAbsent(remote, destination);
             if (other!=null)
                 destination=other;
+            else
+                destination.warm();
         }
         return destination;
     }
@@ -386,6 +392,28 @@ public class HttpClient extends AggregateLifeCycle implements HttpBuffers, Attri
         _maxConnectionsPerAddress = maxConnectionsPerAddress;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return True if timeouts are scheduled with a hashed timing wheel
+     */
+    public boolean getUseTimeoutWheel()
+    {
+        return _useTimeoutWheel;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set whether exchange, idle and connection timeouts are scheduled with a
+     * {@link HashedWheelTimeout}, which has O(1) schedule and cancel, rather than a
+     * sorted {@link Timeout}. Must be set before the client is started.
+     * @param useTimeoutWheel True to use a timing wheel
+     */
+    public void setUseTimeoutWheel(boolean useTimeoutWheel)
+    {
+        _useTimeoutWheel = useTimeoutWheel;
+    }
+
+    /* ------------------------------------------------------------ */
     public int getMaxQueueSizePerAddress()
     {
         return _maxQueueSizePerAddress;
@@ -396,12 +424,60 @@ public class HttpClient extends AggregateLifeCycle implements HttpBuffers, Attri
         this._maxQueueSizePerAddress = maxQueueSizePerAddress;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the minimum number of idle connections that new destinations keep open
+     * @see HttpDestination#getMinIdleConnections()
+     */
+    public int getMinIdleConnectionsPerAddress()
+    {
+        return _minIdleConnectionsPerAddress;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param minIdleConnectionsPerAddress the minimum number of idle connections that new destinations keep open
+     * @see HttpDestination#setMinIdleConnections(int)
+     */
+    public void setMinIdleConnectionsPerAddress(int minIdleConnectionsPerAddress)
+    {
+        _minIdleConnectionsPerAddress = minIdleConnectionsPerAddress;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum number of exchanges in progress on a connection
+     */
+    public int getPipelineDepth()
+    {
+        return _pipelineDepth;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Sets the maximum number of exchanges in progress on a connection. If greater than 1,
+     * GET and HEAD exchanges without request content are pipelined on the connections of a
+     * destination that has reached its maximum connections, rather than being queued.
+     * Pipelining is only supported by the {@link #CONNECTOR_SELECT_CHANNEL} connector.
+     * @param pipelineDepth the maximum number of exchanges in progress on a connection,
+     * or 1, the default, to not pipeline exchanges.
+     */
+    public void setPipelineDepth(int pipelineDepth)
+    {
+        _pipelineDepth = pipelineDepth;
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     protected void doStart() throws Exception
     {
         setBufferTypes();
 
+        if (_useTimeoutWheel)
+        {
+            _timeoutQ=new HashedWheelTimeout();
+            _idleTimeoutQ=new HashedWheelTimeout();
+        }
         _timeoutQ.setDuration(_timeout);
         _timeoutQ.setNow();
         _idleTimeoutQ.setDuration(_idleTimeout);
@@ -442,6 +518,14 @@ public class HttpClient extends AggregateLifeCycle implements HttpBuffers, Attri
         });
     }
 
+    /* ------------------------------------------------------------ */
+    @Override
+    public void dump(Appendable out, String indent) throws IOException
+    {
+        dumpThis(out);
+        dump(out,indent,getBeans(),_destinations.values());
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     protected void doStop() throws Exception
@@ -19,9 +19,15 @@ import java.net.ProtocolException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.client.HttpClient.Connector;
 import org.eclipse.jetty.client.security.Authentication;
@@ -35,30 +41,51 @@ import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.io.ByteArrayBuffer;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.util.ConcurrentHashSet;
 import org.eclipse.jetty.util.component.AggregateLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
 /**
+ * The connections and queued exchanges of an address.
+ * <p>
+ * The destination does not lock to send exchanges or to return connections. Idle connections
+ * are kept on a lock free stack, so that the most recently used connection is reused first,
+ * exchanges wait in concurrent queues, and the number of connections, including those being
+ * opened, is reserved against the maximum with an atomic counter.
+ * <p>
+ * If a minimum number of idle connections is set, connections are opened in the background
+ * so that a burst of exchanges does not wait for connections to be opened. If pipelining is
+ * enabled with {@link HttpClient#setPipelineDepth(int)}, exchanges that would be queued because
+ * the maximum connections are open may be pipelined on a busy connection instead.
+ *
  * @version $Revision: 879 $ $Date: 2009-09-11 16:13:28 +0200 (Fri, 11 Sep 2009) $
  */
 public class HttpDestination implements Dumpable
 {
     private static final Logger LOG = Log.getLogger(HttpDestination.class);
 
-    private final List<HttpExchange> _queue = new LinkedList<HttpExchange>();
-    private final List<AbstractHttpConnection> _connections = new LinkedList<AbstractHttpConnection>();
+    private final Queue<HttpExchange> _queue = new ConcurrentLinkedQueue<HttpExchange>();
+    private final Queue<HttpExchange> _requeued = new ConcurrentLinkedQueue<HttpExchange>();
+    private final AtomicInteger _queueSize = new AtomicInteger();
+    private final Set<AbstractHttpConnection> _connections = new ConcurrentHashSet<AbstractHttpConnection>();
+    private final AtomicInteger _reservedConnections = new AtomicInteger();
     private final BlockingQueue<Object> _newQueue = new ArrayBlockingQueue<Object>(10, true);
-    private final List<AbstractHttpConnection> _idle = new ArrayList<AbstractHttpConnection>();
+    private final IdleStack _idle = new IdleStack();
+    private final AtomicInteger _idleConnections = new AtomicInteger();
+    private final AtomicInteger _expiredIdle = new AtomicInteger();
     private final HttpClient _client;
     private final Address _address;
     private final boolean _ssl;
     private final ByteArrayBuffer _hostHeader;
     private volatile int _maxConnections;
     private volatile int _maxQueueSize;
-    private int _pendingConnections = 0;
-    private int _newConnection = 0;
+    private volatile int _minIdleConnections;
+    private final AtomicLong _pipelinedExchanges = new AtomicLong();
+    private final AtomicLong _warmedConnections = new AtomicLong();
+    private final AtomicInteger _pendingConnections = new AtomicInteger();
+    private final AtomicInteger _newConnection = new AtomicInteger();
     private volatile Address _proxy;
     private Authentication _proxyAuthentication;
     private PathMap _authorizations;
@@ -73,6 +100,7 @@ public class HttpDestination implements Dumpable
         _ssl = ssl;
         _maxConnections = _client.getMaxConnectionsPerAddress();
         _maxQueueSize = _client.getMaxQueueSizePerAddress();
+        _minIdleConnections = _client.getMinIdleConnectionsPerAddress();
         String addressString = address.getHost();
         if (address.getPort() != (_ssl ? 443 : 80))
             addressString += ":" + address.getPort();
@@ -119,20 +147,48 @@ public class HttpDestination implements Dumpable
         this._maxQueueSize = maxQueueSize;
     }
 
+    public int getMinIdleConnections()
+    {
+        return _minIdleConnections;
+    }
+
+    /**
+     * Sets the minimum number of idle connections. Connections are opened in the background
+     * whenever fewer connections are idle or being opened, up to the maximum connections.
+     * Idle connections still expire after the idle timeout, and are then replaced.
+     *
+     * @param minIdleConnections the minimum number of idle connections to keep open
+     */
+    public void setMinIdleConnections(int minIdleConnections)
+    {
+        _minIdleConnections = minIdleConnections;
+        warm();
+    }
+
+    /**
+     * @return the number of exchanges that have been pipelined on busy connections
+     */
+    public long getPipelinedExchanges()
+    {
+        return _pipelinedExchanges.get();
+    }
+
+    /**
+     * @return the number of connections that have been opened to keep the minimum idle connections
+     */
+    public long getWarmedConnections()
+    {
+        return _warmedConnections.get();
+    }
+
     public int getConnections()
     {
-        synchronized (this)
-        {
-            return _connections.size();
-        }
+        return _connections.size();
     }
 
     public int getIdleConnections()
     {
-        synchronized (this)
-        {
-            return _idle.size();
-        }
+        return _idleConnections.get();
     }
 
     public void addAuthorization(String pathSpec, Authentication authorization)
@@ -174,19 +230,9 @@ public class HttpDestination implements Dumpable
 
         while ((connection == null) && (connection = getIdleConnection()) == null && timeout > 0)
         {
-            boolean startConnection = false;
-            synchronized (this)
-            {
-                int totalConnections = _connections.size() + _pendingConnections;
-                if (totalConnections < _maxConnections)
-                {
-                    _newConnection++;
-                    startConnection = true;
-                }
-            }
-
-            if (startConnection)
+            if (reserveNewConnection())
             {
+                _newConnection.incrementAndGet();
                 startNewConnection();
                 try
                 {
@@ -230,43 +276,214 @@ public class HttpDestination implements Dumpable
 
     public AbstractHttpConnection getIdleConnection() throws IOException
     {
-        AbstractHttpConnection connection = null;
         while (true)
         {
-            synchronized (this)
-            {
-                if (connection != null)
-                {
-                    _connections.remove(connection);
-                    connection.close();
-                    connection = null;
-                }
-                if (_idle.size() > 0)
-                    connection = _idle.remove(_idle.size() - 1);
-            }
-
+            AbstractHttpConnection connection = _idle.pop();
             if (connection == null)
-            {
                 return null;
-            }
-            
+
             // Check if the connection was idle,
             // but it expired just a moment ago
             if (connection.cancelIdleTimeout())
             {
+                _idleConnections.decrementAndGet();
+                warm();
                 return connection;
             }
+
+            // The idle timeout has removed the expired connection
+            _expiredIdle.decrementAndGet();
         }
     }
 
-    protected void startNewConnection()
+    private void offerIdleConnection(AbstractHttpConnection connection)
     {
-        try
+        connection.setIdleTimeout();
+        _idleConnections.incrementAndGet();
+        _idle.push(connection);
+    }
+
+    /**
+     * Reserves a connection against the maximum connections.
+     * The reservation is released when the connection fails to open or is removed.
+     *
+     * @return true if a new connection may be started
+     */
+    private boolean reserveNewConnection()
+    {
+        while (true)
+        {
+            int reserved = _reservedConnections.get();
+            if (reserved >= _maxConnections)
+                return false;
+            if (_reservedConnections.compareAndSet(reserved, reserved + 1))
+                return true;
+        }
+    }
+
+    private void removeConnection(AbstractHttpConnection connection)
+    {
+        if (_connections.remove(connection))
         {
-            synchronized (this)
+            _reservedConnections.decrementAndGet();
+            warm();
+        }
+    }
+
+    /**
+     * Opens connections in the background until the idle and pending
+     * connections reach the minimum idle connections.
+     */
+    void warm()
+    {
+        if (_minIdleConnections <= 0 || !_client.isStarted())
+            return;
+
+        while (_idleConnections.get() + _pendingConnections.get() < _minIdleConnections && reserveNewConnection())
+        {
+            _pendingConnections.incrementAndGet();
+            _warmedConnections.incrementAndGet();
+            boolean dispatched = _client.getThreadPool().dispatch(new Runnable()
+            {
+                public void run()
+                {
+                    openConnection();
+                }
+            });
+            if (!dispatched)
             {
-                _pendingConnections++;
+                _pendingConnections.decrementAndGet();
+                _reservedConnections.decrementAndGet();
+                break;
             }
+        }
+    }
+
+    /**
+     * Pipelines an exchange on a busy connection, if pipelining is enabled
+     * and the maximum connections are open.
+     */
+    private boolean pipeline(HttpExchange ex)
+    {
+        int depth = _client.getPipelineDepth();
+        if (depth <= 1 || _reservedConnections.get() < _maxConnections || !AsyncHttpConnection.isPipelinable(ex))
+            return false;
+
+        AsyncHttpConnection best = null;
+        for (AbstractHttpConnection connection : _connections)
+        {
+            if (connection instanceof AsyncHttpConnection)
+            {
+                AsyncHttpConnection async = (AsyncHttpConnection)connection;
+                if (best == null || async.getPipelined() < best.getPipelined())
+                    best = async;
+            }
+        }
+
+        if (best != null && best.pipeline(ex, depth))
+        {
+            _pipelinedExchanges.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean decrementIfPositive(AtomicInteger counter)
+    {
+        while (true)
+        {
+            int value = counter.get();
+            if (value <= 0)
+                return false;
+            if (counter.compareAndSet(value, value - 1))
+                return true;
+        }
+    }
+
+    /**
+     * Queues an exchange. The exchange is offered before the queue size is incremented,
+     * so that a positive size always has an exchange to poll. The maximum queue size
+     * may be exceeded by exchanges offered concurrently.
+     */
+    private boolean offerExchange(HttpExchange exchange)
+    {
+        if (_queueSize.get() >= _maxQueueSize)
+            return false;
+        _queue.offer(exchange);
+        _queueSize.incrementAndGet();
+        return true;
+    }
+
+    private HttpExchange pollExchange()
+    {
+        HttpExchange exchange = _requeued.poll();
+        if (exchange == null)
+            exchange = _queue.poll();
+        if (exchange != null)
+            _queueSize.decrementAndGet();
+        return exchange;
+    }
+
+    private HttpExchange peekExchange()
+    {
+        HttpExchange exchange = _requeued.peek();
+        return exchange == null ? _queue.peek() : exchange;
+    }
+
+    private boolean removeExchange(HttpExchange exchange)
+    {
+        if (_requeued.remove(exchange) || _queue.remove(exchange))
+        {
+            _queueSize.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends queued exchanges on idle connections.
+     * Called after a connection is made idle, as an exchange may have been
+     * queued while the connection was being returned.
+     */
+    private void sendQueued() throws IOException
+    {
+        while (_queueSize.get() > 0)
+        {
+            AbstractHttpConnection connection = getIdleConnection();
+            if (connection == null)
+                return;
+            HttpExchange exchange = pollExchange();
+            if (exchange == null)
+                offerIdleConnection(connection);
+            else
+                send(connection, exchange);
+        }
+    }
+
+    /**
+     * Starts a new connection if there are queued exchanges and the maximum
+     * connections has not been reached.
+     */
+    private void startQueuedConnection()
+    {
+        if (_queueSize.get() > 0 && _client.isStarted() && reserveNewConnection())
+            startNewConnection();
+    }
+
+    /**
+     * Starts a new connection. The connection must have been reserved
+     * against the maximum connections.
+     */
+    protected void startNewConnection()
+    {
+        _pendingConnections.incrementAndGet();
+        openConnection();
+    }
+
+    private void openConnection()
+    {
+        try
+        {
             final Connector connector = _client._connector;
             if (connector != null)
                 connector.startConnection(this);
@@ -282,31 +499,28 @@ public class HttpDestination implements Dumpable
     {
         Throwable connect_failure = null;
 
-        boolean startConnection = false;
-        synchronized (this)
+        // The connection was never opened, so release its reservation. A failed CONNECT
+        // to a proxy is not reported here, as its connection was opened.
+        if (decrementIfPositive(_pendingConnections))
+            _reservedConnections.decrementAndGet();
+        if (decrementIfPositive(_newConnection))
         {
-            _pendingConnections--;
-            if (_newConnection > 0)
-            {
-                connect_failure = throwable;
-                _newConnection--;
-            }
-            else if (_queue.size() > 0)
+            connect_failure = throwable;
+        }
+        else
+        {
+            HttpExchange ex = pollExchange();
+            if (ex != null)
             {
-                HttpExchange ex = _queue.remove(0);
                 if (ex.setStatus(HttpExchange.STATUS_EXCEPTED))
                     ex.getEventListener().onConnectionFailed(throwable);
 
                 // Since an existing connection had failed, we need to create a
                 // connection if the  queue is not empty and client is running.
-                if (!_queue.isEmpty() && _client.isStarted())
-                    startConnection = true;
+                startQueuedConnection();
             }
         }
 
-        if (startConnection)
-            startNewConnection();
-
         if (connect_failure != null)
         {
             try
@@ -322,15 +536,12 @@ public class HttpDestination implements Dumpable
 
     public void onException(Throwable throwable)
     {
-        synchronized (this)
+        // The connection has been opened and is removed when it is returned
+        HttpExchange ex = pollExchange();
+        if (ex != null)
         {
-            _pendingConnections--;
-            if (_queue.size() > 0)
-            {
-                HttpExchange ex = _queue.remove(0);
-                if(ex.setStatus(HttpExchange.STATUS_EXCEPTED))
-                    ex.getEventListener().onException(throwable);
-            }
+            if(ex.setStatus(HttpExchange.STATUS_EXCEPTED))
+                ex.getEventListener().onException(throwable);
         }
     }
 
@@ -338,37 +549,42 @@ public class HttpDestination implements Dumpable
     {
         Connection q_connection = null;
 
-        synchronized (this)
-        {
-            _pendingConnections--;
-            _connections.add(connection);
+        _pendingConnections.decrementAndGet();
+        _connections.add(connection);
 
-            if (_newConnection > 0)
-            {
-                q_connection = connection;
-                _newConnection--;
-            }
-            else if (_queue.size() == 0)
-            {
-                connection.setIdleTimeout();
-                _idle.add(connection);
-            }
-            else
+        if (decrementIfPositive(_newConnection))
+        {
+            q_connection = connection;
+        }
+        else
+        {
+            EndPoint endPoint = connection.getEndPoint();
+            if (isProxied() && endPoint instanceof SelectConnector.UpgradableEndPoint)
             {
-                EndPoint endPoint = connection.getEndPoint();
-                if (isProxied() && endPoint instanceof SelectConnector.UpgradableEndPoint)
+                HttpExchange exchange = peekExchange();
+                if (exchange == null)
+                {
+                    offerIdleConnection(connection);
+                    sendQueued();
+                }
+                else
                 {
                     SelectConnector.UpgradableEndPoint proxyEndPoint = (SelectConnector.UpgradableEndPoint)endPoint;
-                    HttpExchange exchange = _queue.get(0);
                     ConnectExchange connect = new ConnectExchange(getAddress(), proxyEndPoint, exchange);
                     connect.setAddress(getProxy());
                     send(connection, connect);
                 }
-                else
+            }
+            else
+            {
+                HttpExchange exchange = pollExchange();
+                if (exchange == null)
                 {
-                    HttpExchange exchange = _queue.remove(0);
-                    send(connection, exchange);
+                    offerIdleConnection(connection);
+                    sendQueued();
                 }
+                else
+                    send(connection, exchange);
             }
         }
 
@@ -407,54 +623,43 @@ public class HttpDestination implements Dumpable
 
         if (!close && connection.getEndPoint().isOpen())
         {
-            synchronized (this)
+            HttpExchange ex = pollExchange();
+            if (ex == null)
             {
-                if (_queue.size() == 0)
-                {
-                    connection.setIdleTimeout();
-                    _idle.add(connection);
-                }
-                else
-                {
-                    HttpExchange ex = _queue.remove(0);
-                    send(connection, ex);
-                }
-                this.notifyAll();
+                offerIdleConnection(connection);
+                sendQueued();
+            }
+            else
+            {
+                send(connection, ex);
             }
         }
         else
         {
-            boolean startConnection = false;
-            synchronized (this)
-            {
-                _connections.remove(connection);
-                if (!_queue.isEmpty())
-                    startConnection = true;
-            }
-
-            if (startConnection)
-                startNewConnection();
+            removeConnection(connection);
+            startQueuedConnection();
         }
     }
 
     public void returnIdleConnection(AbstractHttpConnection connection)
+    {
+        // The expired connection is left on the idle stack until it is
+        // popped, or until enough have expired that the stack is purged
+        _idleConnections.decrementAndGet();
+        if (_expiredIdle.incrementAndGet() > Math.max(16, _maxConnections))
+            _expiredIdle.addAndGet(-_idle.purge());
+
+        closeConnection(connection);
+    }
+
+    private void closeConnection(AbstractHttpConnection connection)
     {
         // TODO work out the real idle time;
         long idleForMs=connection!=null&&connection.getEndPoint()!=null?connection.getEndPoint().getMaxIdleTime():-1;
         connection.onIdleExpired(idleForMs);
 
-        boolean startConnection = false;
-        synchronized (this)
-        {
-            _idle.remove(connection);
-            _connections.remove(connection);
-
-            if (!_queue.isEmpty() && _client.isStarted())
-                startConnection = true;
-        }
-
-        if (startConnection)
-            startNewConnection();
+        removeConnection(connection);
+        startQueuedConnection();
     }
 
     public void send(HttpExchange ex) throws IOException
@@ -539,21 +744,14 @@ public class HttpDestination implements Dumpable
         {
             send(connection, ex);
         }
-        else
+        else if (!pipeline(ex))
         {
-            boolean startConnection = false;
-            synchronized (this)
-            {
-                if (_queue.size() == _maxQueueSize)
-                    throw new RejectedExecutionException("Queue full for address " + _address);
+            if (!offerExchange(ex))
+                throw new RejectedExecutionException("Queue full for address " + _address);
 
-                _queue.add(ex);
-                if (_connections.size() + _pendingConnections < _maxConnections)
-                    startConnection = true;
-            }
-
-            if (startConnection)
-                startNewConnection();
+            // A connection may have been made idle since we looked
+            sendQueued();
+            startQueuedConnection();
         }
     }
 
@@ -561,47 +759,41 @@ public class HttpDestination implements Dumpable
     {
         // The exchange may expire while waiting in the
         // destination queue, make sure it is removed
-        synchronized (this)
-        {
-            _queue.remove(exchange);
-        }
+        removeExchange(exchange);
     }
 
     protected void send(AbstractHttpConnection connection, HttpExchange exchange) throws IOException
     {
-        synchronized (this)
+        // If server closes the connection, put the exchange back
+        // to the exchange queue and recycle the connection
+        if (!connection.send(exchange))
         {
-            // If server closes the connection, put the exchange back
-            // to the exchange queue and recycle the connection
-            if (!connection.send(exchange))
+            if (exchange.getStatus() <= HttpExchange.STATUS_WAITING_FOR_CONNECTION)
             {
-                if (exchange.getStatus() <= HttpExchange.STATUS_WAITING_FOR_CONNECTION)
-                    _queue.add(0, exchange);
-                returnIdleConnection(connection);
+                _requeued.offer(exchange);
+                _queueSize.incrementAndGet();
             }
+            closeConnection(connection);
         }
     }
 
     @Override
-    public synchronized String toString()
+    public String toString()
     {
-        return String.format("HttpDestination@%x//%s:%d(%d/%d,%d,%d/%d)%n",hashCode(),_address.getHost(),_address.getPort(),_connections.size(),_maxConnections,_idle.size(),_queue.size(),_maxQueueSize);
+        return String.format("HttpDestination@%x//%s:%d(%d/%d,%d,%d/%d)%n",hashCode(),_address.getHost(),_address.getPort(),_connections.size(),_maxConnections,_idleConnections.get(),_queueSize.get(),_maxQueueSize);
     }
 
-    public synchronized String toDetailString()
+    public String toDetailString()
     {
         StringBuilder b = new StringBuilder();
         b.append(toString());
         b.append('\n');
-        synchronized (this)
+        for (AbstractHttpConnection connection : _connections)
         {
-            for (AbstractHttpConnection connection : _connections)
-            {
-                b.append(connection.toDetailString());
-                if (_idle.contains(connection))
-                    b.append(" IDLE");
-                b.append('\n');
-            }
+            b.append(connection.toDetailString());
+            if (connection.isIdleTimeoutScheduled())
+                b.append(" IDLE");
+            b.append('\n');
         }
         b.append("--");
         b.append('\n');
@@ -636,12 +828,9 @@ public class HttpDestination implements Dumpable
 
     public void close() throws IOException
     {
-        synchronized (this)
+        for (AbstractHttpConnection connection : _connections)
         {
-            for (AbstractHttpConnection connection : _connections)
-            {
-                connection.close();
-            }
+            connection.close();
         }
     }
 
@@ -660,11 +849,9 @@ public class HttpDestination implements Dumpable
      */
     public void dump(Appendable out, String indent) throws IOException
     {
-        synchronized (this)
-        {
-            out.append(String.valueOf(this)+"idle="+_idle.size()+" pending="+_pendingConnections).append("\n");
-            AggregateLifeCycle.dump(out,indent,_connections);
-        }
+        out.append(String.valueOf(this)+"idle="+_idleConnections.get()+"/"+_minIdleConnections+" pending="+_pendingConnections.get()+
+                " warmed="+_warmedConnections.get()+" pipelined="+_pipelinedExchanges.get()).append("\n");
+        AggregateLifeCycle.dump(out,indent,_connections);
     }
 
     private class ConnectExchange extends ContentExchange
@@ -706,13 +893,17 @@ public class HttpDestination implements Dumpable
         @Override
         protected void onConnectionFailed(Throwable x)
         {
-            HttpDestination.this.onConnectionFailed(x);
+            // The connection to the proxy was opened, so it is no longer pending and
+            // its reservation is released when it is removed
+            removeExchange(exchange);
+            if (exchange.setStatus(STATUS_EXCEPTED))
+                exchange.getEventListener().onConnectionFailed(x);
         }
 
         @Override
         protected void onException(Throwable x)
         {
-            _queue.remove(exchange);
+            removeExchange(exchange);
             if (exchange.setStatus(STATUS_EXCEPTED))
                 exchange.getEventListener().onException(x);
         }
@@ -720,10 +911,76 @@ public class HttpDestination implements Dumpable
         @Override
         protected void onExpire()
         {
-            _queue.remove(exchange);
+            removeExchange(exchange);
             if (exchange.setStatus(STATUS_EXPIRED))
                 exchange.getEventListener().onExpire();
         }
 
     }
+
+    /* ------------------------------------------------------------ */
+    /** A lock free stack of idle connections.
+     * <p>
+     * Connections whose idle timeout has expired are not removed from the
+     * stack, but are discarded when popped, as they fail to cancel their
+     * idle timeout, or when the stack is purged.
+     */
+    private static class IdleStack
+    {
+        private final AtomicReference<Node> _top = new AtomicReference<Node>();
+
+        void push(AbstractHttpConnection connection)
+        {
+            Node node = new Node(connection);
+            do
+            {
+                node._next = _top.get();
+            }
+            while (!_top.compareAndSet(node._next, node));
+        }
+
+        AbstractHttpConnection pop()
+        {
+            while (true)
+            {
+                Node top = _top.get();
+                if (top == null)
+                    return null;
+                if (_top.compareAndSet(top, top._next))
+                    return top._connection;
+            }
+        }
+
+        /**
+         * Removes the connections that are no longer idle.
+         * The idle connections are briefly not available while the stack is purged.
+         * @return the number of connections removed
+         */
+        int purge()
+        {
+            List<AbstractHttpConnection> idle = new ArrayList<AbstractHttpConnection>();
+            int removed = 0;
+            for (Node node = _top.getAndSet(null); node != null; node = node._next)
+            {
+                if (node._connection.isIdleTimeoutScheduled())
+                    idle.add(node._connection);
+                else
+                    removed++;
+            }
+            for (int i = idle.size(); i-- > 0;)
+                push(idle.get(i));
+            return removed;
+        }
+
+        private static class Node
+        {
+            private final AbstractHttpConnection _connection;
+            private Node _next;
+
+            private Node(AbstractHttpConnection connection)
+            {
+                _connection = connection;
+            }
+        }
+    }
 }
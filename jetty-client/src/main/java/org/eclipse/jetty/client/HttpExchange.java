@@ -44,10 +44,11 @@ import org.eclipse.jetty.util.thread.Timeout;
  * <li>The HTTP server address, see {@link #setAddress(Address)}, or {@link #setURI(URI)}, or {@link #setURL(String)})
  * <li>The HTTP request method, URI and HTTP version (see {@link #setMethod(String)}, {@link #setRequestURI(String)}, and {@link #setVersion(int)})
  * <li>The request headers (see {@link #addRequestHeader(String, String)} or {@link #setRequestHeader(String, String)})
- * <li>The request content (see {@link #setRequestContent(Buffer)} or {@link #setRequestContentSource(InputStream)})
+ * <li>The request content (see {@link #setRequestContent(Buffer)} or {@link #setRequestContentSource(InputStream)}, or {@link StreamingExchange})
  * <li>The status of the exchange (see {@link #getStatus()})
  * <li>Callbacks to handle state changes (see the onXxx methods such as {@link #onRequestComplete()} or {@link #onResponseComplete()})
  * <li>The ability to intercept callbacks (see {@link #setEventListener(HttpEventListener)}
+ * <li>The ability to pause reading the response (see {@link #pauseResponse()} and {@link #resumeResponse()})
  * </ul>
  *
  * <p>
@@ -103,6 +104,7 @@ public class HttpExchange
     private boolean _configureListeners = true;
     private HttpEventListener _listener = new Listener();
     private volatile AbstractHttpConnection _connection;
+    private volatile boolean _responsePaused;
 
     private Address _localAddress = null;
 
@@ -177,10 +179,40 @@ public class HttpExchange
             _onRequestCompleteDone = false;
             _onResponseCompleteDone = false;
             _onDone = false;
+            _responsePaused = false;
             setStatus(STATUS_START);
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Resets a pipelined exchange whose connection closed before any of its
+     * response was received, so that it can be resent.
+     * Unlike {@link #reset()}, this only resets an exchange that is waiting
+     * to send its request, sending it or waiting for the response, so that an
+     * exchange that has been cancelled, expired or completed is never restarted.
+     * @return True if the exchange was reset.
+     */
+    boolean resetForResend()
+    {
+        synchronized (this)
+        {
+            int status = _status.get();
+            switch (status)
+            {
+                case STATUS_WAITING_FOR_COMMIT:
+                case STATUS_SENDING_REQUEST:
+                case STATUS_WAITING_FOR_RESPONSE:
+                    if (!_status.compareAndSet(status,STATUS_START))
+                        return false;
+                    reset();
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @param newStatus
@@ -747,6 +779,73 @@ public class HttpExchange
         return _requestContent;
     }
 
+    /**
+     * @return true if the request has content that is only provided by {@link #getRequestContentChunk(Buffer)}
+     * @see StreamingExchange
+     */
+    public boolean hasRequestContentChunks()
+    {
+        return false;
+    }
+
+    /**
+     * @return the length of the content provided by {@link #getRequestContentChunk(Buffer)}, or -1 if it is not
+     * known and the content is sent chunked
+     */
+    public long getRequestContentLength()
+    {
+        return -1;
+    }
+
+    /**
+     * Pauses reading the response. The response content already read may still be passed to
+     * {@link #onResponseContent(Buffer)}, but no more is read from the connection, so that the server
+     * is flow controlled, until {@link #resumeResponse()} is called. The timeout of the exchange
+     * and the idle timeout of the connection still apply while reading is paused.
+     */
+    public void pauseResponse()
+    {
+        _responsePaused = true;
+    }
+
+    /**
+     * Resumes reading the response after {@link #pauseResponse()}.
+     */
+    public void resumeResponse()
+    {
+        AbstractHttpConnection connection;
+        synchronized (this)
+        {
+            if (!_responsePaused)
+                return;
+            _responsePaused = false;
+            connection = _connection;
+            notifyAll();
+        }
+        if (connection != null)
+            connection.exchangeResumed(this);
+    }
+
+    /**
+     * @return true if reading the response is paused
+     */
+    public boolean isResponsePaused()
+    {
+        return _responsePaused;
+    }
+
+    /**
+     * Waits until reading the response is resumed or the exchange is done.
+     */
+    void waitForResponseResumed() throws InterruptedException
+    {
+        synchronized (this)
+        {
+            while (_responsePaused && !_onDone)
+                wait();
+        }
+    }
+
     /**
      * @return whether a retry will be attempted or not
      */
@@ -54,6 +54,7 @@ class SelectConnector extends AggregateLifeCycle implements HttpClient.Connector
     SelectConnector(HttpClient httpClient)
     {
         _httpClient = httpClient;
+        _selectorManager.setUseTimeoutWheel(httpClient.getUseTimeoutWheel());
         addBean(_httpClient,false);
         addBean(_selectorManager,true);
     }
@@ -0,0 +1,196 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.View;
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+
+/**
+ * An exchange that streams its request and response content.
+ * <p>
+ * The request content may be read from a {@link FileChannel}, or taken from a sequence of {@link Buffer}s.
+ * The content of a file channel is read into direct buffers that are written to the connection without
+ * being copied onto the heap, and is sent with its length. The buffers of a sequence are written as they
+ * are, without being copied, and are sent chunked unless the length of the content is given. The sequence
+ * may block while waiting for more content, as an {@link java.io.InputStream} source may.
+ * <p>
+ * Unlike {@link ContentExchange}, the response content is not retained. It is passed to
+ * {@link #onResponseContent(Buffer)} as it is parsed, in buffers that are views of the connection
+ * buffers and so are only valid during the call. An exchange that cannot consume the content as fast
+ * as it arrives may {@link #pauseResponse() pause} reading the response and
+ * {@link #resumeResponse() resume} it later, so that the server is flow controlled.
+ */
+public class StreamingExchange extends HttpExchange
+{
+    private final Buffer[] _chunks = new Buffer[2];
+    private int _chunk;
+    private int _chunkSize = 16 * 1024;
+    private FileChannel _channel;
+    private long _position;
+    private long _read;
+    private long _length = -1;
+    private Iterable<Buffer> _buffers;
+    private Iterator<Buffer> _iterator;
+
+    /**
+     * @return the size of the direct buffers that the content of a file channel is read into
+     */
+    public synchronized int getChunkSize()
+    {
+        return _chunkSize;
+    }
+
+    /**
+     * @param chunkSize the size of the direct buffers that the content of a file channel is read into
+     */
+    public synchronized void setChunkSize(int chunkSize)
+    {
+        _chunkSize = chunkSize;
+        Arrays.fill(_chunks, null);
+    }
+
+    /**
+     * Sets the request content to the remaining content of a file channel.
+     * @param channel the file channel to read the request content from
+     * @throws IOException if the position or size of the channel cannot be read
+     */
+    public void setRequestContentChannel(FileChannel channel) throws IOException
+    {
+        long position = channel.position();
+        setRequestContentChannel(channel, position, channel.size() - position);
+    }
+
+    /**
+     * Sets the request content to a region of a file channel. The position of the channel
+     * is not changed, so the exchange may be retried by reading the region again.
+     * @param channel the file channel to read the request content from
+     * @param position the position of the content in the channel
+     * @param length the length of the content
+     */
+    public synchronized void setRequestContentChannel(FileChannel channel, long position, long length)
+    {
+        _channel = channel;
+        _position = position;
+        _read = 0;
+        _length = length;
+        _buffers = null;
+        _iterator = null;
+    }
+
+    /**
+     * Sets the request content to a sequence of buffers, which is sent with its length.
+     * @param buffers the buffers of the request content
+     */
+    public void setRequestContentBuffers(Buffer... buffers)
+    {
+        long length = 0;
+        for (Buffer buffer : buffers)
+            length += buffer.length();
+        setRequestContentBuffers(Arrays.asList(buffers), length);
+    }
+
+    /**
+     * Sets the request content to a sequence of buffers. The buffers are not consumed, so
+     * the exchange may be retried if the sequence can be iterated again.
+     * @param buffers the buffers of the request content
+     * @param length the length of the content, or -1 if not known and the content is sent chunked
+     */
+    public synchronized void setRequestContentBuffers(Iterable<Buffer> buffers, long length)
+    {
+        _buffers = buffers;
+        _iterator = null;
+        _length = length;
+        _channel = null;
+    }
+
+    @Override
+    public synchronized boolean hasRequestContentChunks()
+    {
+        return _channel != null || _buffers != null;
+    }
+
+    @Override
+    public synchronized long getRequestContentLength()
+    {
+        return hasRequestContentChunks() ? _length : -1;
+    }
+
+    @Override
+    public synchronized Buffer getRequestContentChunk(Buffer buffer) throws IOException
+    {
+        if (_channel != null)
+            return readChunk();
+
+        if (_buffers != null)
+        {
+            if (_iterator == null)
+                _iterator = _buffers.iterator();
+            while (_iterator.hasNext())
+            {
+                Buffer next = _iterator.next();
+                if (next != null && next.length() > 0)
+                    return new View(next);
+            }
+            return null;
+        }
+
+        return super.getRequestContentChunk(buffer);
+    }
+
+    /**
+     * Reads the next chunk of the file channel. The connection takes the next chunk before it has
+     * written the previous one, so the chunks alternate between two direct buffers.
+     */
+    private Buffer readChunk() throws IOException
+    {
+        long remaining = _length - _read;
+        if (remaining <= 0)
+            return null;
+
+        Buffer chunk = _chunks[_chunk];
+        if (chunk == null)
+            chunk = _chunks[_chunk] = new DirectNIOBuffer(_chunkSize);
+        _chunk = (_chunk + 1) % _chunks.length;
+
+        ByteBuffer bytes = ((DirectNIOBuffer)chunk).getByteBuffer().duplicate();
+        bytes.clear();
+        bytes.limit((int)Math.min(bytes.capacity(), remaining));
+        while (bytes.hasRemaining())
+        {
+            if (_channel.read(bytes, _position + _read + bytes.position()) < 0)
+                throw new EOFException("Request content channel ended " + (remaining - bytes.position()) + " bytes short");
+        }
+
+        chunk.clear();
+        chunk.setPutIndex(bytes.position());
+        _read += bytes.position();
+        return chunk;
+    }
+
+    @Override
+    protected synchronized void onRetry() throws IOException
+    {
+        _read = 0;
+        _iterator = null;
+        super.onRetry();
+    }
+}
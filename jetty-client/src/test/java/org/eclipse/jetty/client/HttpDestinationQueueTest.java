@@ -12,10 +12,24 @@ package org.eclipse.jetty.client;
 //You may elect to redistribute this code under either of these licenses.
 //========================================================================
 
+import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -216,4 +230,257 @@ public class HttpDestinationQueueTest
 
         server.close();
     }
+
+    @Test
+    public void testConcurrentExchangesShareMaxConnections() throws Exception
+    {
+        final int maxConnections = 4;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+
+        Server server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler()
+        {
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                int a = active.incrementAndGet();
+                while (true)
+                {
+                    int m = maxActive.get();
+                    if (a <= m || maxActive.compareAndSet(m, a))
+                        break;
+                }
+                try
+                {
+                    Thread.sleep(5);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new ServletException(e);
+                }
+                active.decrementAndGet();
+                baseRequest.setHandled(true);
+            }
+        });
+        server.start();
+
+        HttpClient client = new HttpClient();
+        client.setMaxConnectionsPerAddress(maxConnections);
+        client.start();
+        try
+        {
+            final int threads = 8;
+            final int exchanges = 50;
+            final String url = "http://localhost:" + connector.getLocalPort() + "/";
+            final List<ContentExchange> sent = new ArrayList<ContentExchange>();
+            final CountDownLatch latch = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++)
+            {
+                final HttpClient httpClient = client;
+                new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            for (int i = 0; i < exchanges; i++)
+                            {
+                                ContentExchange exchange = new ContentExchange();
+                                exchange.setURL(url);
+                                synchronized (sent)
+                                {
+                                    sent.add(exchange);
+                                }
+                                httpClient.send(exchange);
+                            }
+                        }
+                        catch (IOException x)
+                        {
+                            x.printStackTrace();
+                        }
+                        finally
+                        {
+                            latch.countDown();
+                        }
+                    }
+                }.start();
+            }
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+            Assert.assertEquals(threads * exchanges, sent.size());
+            for (ContentExchange exchange : sent)
+            {
+                Assert.assertEquals(HttpExchange.STATUS_COMPLETED, exchange.waitForDone());
+                Assert.assertEquals(200, exchange.getResponseStatus());
+            }
+
+            HttpDestination destination = client.getDestination(new Address("localhost", connector.getLocalPort()), false);
+            Assert.assertTrue(maxActive.get() <= maxConnections);
+            Assert.assertTrue(destination.getConnections() <= maxConnections);
+            waitForIdleConnections(destination, destination.getConnections());
+        }
+        finally
+        {
+            client.stop();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testPipelinedExchanges() throws Exception
+    {
+        Server server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler()
+        {
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                try
+                {
+                    Thread.sleep(20);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new ServletException(e);
+                }
+                response.getWriter().print(target);
+                baseRequest.setHandled(true);
+            }
+        });
+        server.start();
+
+        HttpClient client = new HttpClient();
+        client.setMaxConnectionsPerAddress(1);
+        client.setPipelineDepth(4);
+        client.start();
+        try
+        {
+            String url = "http://localhost:" + connector.getLocalPort() + "/";
+
+            // Open the connection, so that the exchanges are pipelined rather than queued
+            ContentExchange first = new ContentExchange();
+            first.setURL(url);
+            client.send(first);
+            Assert.assertEquals(HttpExchange.STATUS_COMPLETED, first.waitForDone());
+            HttpDestination destination = client.getDestination(new Address("localhost", connector.getLocalPort()), false);
+            waitForIdleConnections(destination, 1);
+
+            List<ContentExchange> sent = new ArrayList<ContentExchange>();
+            for (int i = 0; i < 12; i++)
+            {
+                ContentExchange exchange = new ContentExchange();
+                exchange.setURL(url + i);
+                client.send(exchange);
+                sent.add(exchange);
+            }
+
+            for (int i = 0; i < sent.size(); i++)
+            {
+                ContentExchange exchange = sent.get(i);
+                Assert.assertEquals(HttpExchange.STATUS_COMPLETED, exchange.waitForDone());
+                Assert.assertEquals(200, exchange.getResponseStatus());
+                Assert.assertEquals("/" + i, exchange.getResponseContent());
+            }
+
+            Assert.assertTrue(destination.getPipelinedExchanges() > 0);
+            Assert.assertEquals(1, destination.getConnections());
+            Assert.assertTrue(client.dump().contains("pipelined=" + destination.getPipelinedExchanges()));
+        }
+        finally
+        {
+            client.stop();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testOnlyGetAndHeadArePipelinedAndResent() throws Exception
+    {
+        HttpExchange exchange = new HttpExchange();
+        exchange.setMethod("GET");
+        Assert.assertTrue(AsyncHttpConnection.isPipelinable(exchange));
+        exchange.setMethod("HEAD");
+        Assert.assertTrue(AsyncHttpConnection.isPipelinable(exchange));
+        exchange.setMethod("DELETE");
+        Assert.assertFalse(AsyncHttpConnection.isPipelinable(exchange));
+        exchange.setMethod("OPTIONS");
+        Assert.assertFalse(AsyncHttpConnection.isPipelinable(exchange));
+
+        // Only the resend path restarts an exchange waiting for its response
+        exchange.setMethod("GET");
+        Assert.assertTrue(exchange.setStatus(HttpExchange.STATUS_WAITING_FOR_COMMIT));
+        Assert.assertTrue(exchange.setStatus(HttpExchange.STATUS_SENDING_REQUEST));
+        Assert.assertTrue(exchange.setStatus(HttpExchange.STATUS_WAITING_FOR_RESPONSE));
+        try
+        {
+            exchange.setStatus(HttpExchange.STATUS_START);
+            Assert.fail();
+        }
+        catch (IllegalStateException x)
+        {
+            // expected
+        }
+        Assert.assertTrue(exchange.resetForResend());
+        Assert.assertEquals(HttpExchange.STATUS_START, exchange.getStatus());
+
+        // and never an exchange that is done
+        Assert.assertTrue(exchange.setStatus(HttpExchange.STATUS_CANCELLING));
+        Assert.assertFalse(exchange.resetForResend());
+        Assert.assertEquals(HttpExchange.STATUS_CANCELLING, exchange.getStatus());
+    }
+
+    @Test
+    public void testMinIdleConnections() throws Exception
+    {
+        Server server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler()
+        {
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+            }
+        });
+        server.start();
+
+        HttpClient client = new HttpClient();
+        client.setMaxConnectionsPerAddress(4);
+        client.setMinIdleConnectionsPerAddress(2);
+        client.start();
+        try
+        {
+            HttpDestination destination = client.getDestination(new Address("localhost", connector.getLocalPort()), false);
+            waitForIdleConnections(destination, 2);
+            Assert.assertEquals(2, destination.getConnections());
+
+            // Using an idle connection opens another one in the background
+            ContentExchange exchange = new ContentExchange();
+            exchange.setURL("http://localhost:" + connector.getLocalPort() + "/");
+            client.send(exchange);
+            Assert.assertEquals(HttpExchange.STATUS_COMPLETED, exchange.waitForDone());
+            Assert.assertEquals(200, exchange.getResponseStatus());
+            Assert.assertTrue(destination.getWarmedConnections() >= 2);
+            Assert.assertTrue(destination.getConnections() <= 4);
+            waitForIdleConnections(destination, destination.getConnections());
+            Assert.assertTrue(destination.getIdleConnections() >= 2);
+        }
+        finally
+        {
+            client.stop();
+            server.stop();
+        }
+    }
+
+    private void waitForIdleConnections(HttpDestination destination, int idle) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while (destination.getIdleConnections() < idle && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        Assert.assertTrue(destination.getIdleConnections() >= idle);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,253 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.util.IO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingExchangeTest
+{
+    private final byte[] _content = new byte[1024 * 1024 + 123];
+    private Server _server;
+    private SelectChannelConnector _connector;
+    private HttpClient _client;
+    private String _url;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        new Random(42).nextBytes(_content);
+
+        _server = new Server();
+        _connector = new SelectChannelConnector();
+        _server.addConnector(_connector);
+        _server.setHandler(new AbstractHandler()
+        {
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.setHeader("X-Request-Length", String.valueOf(request.getContentLength()));
+                OutputStream out = response.getOutputStream();
+                if (HttpMethods.GET.equals(request.getMethod()))
+                    out.write(_content);
+                else
+                    IO.copy(request.getInputStream(), out);
+            }
+        });
+        _server.start();
+        _url = "http://localhost:" + _connector.getLocalPort() + "/";
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (_client != null)
+            _client.stop();
+        _server.stop();
+    }
+
+    private void startClient(int connectorType) throws Exception
+    {
+        _client = new HttpClient();
+        _client.setConnectorType(connectorType);
+        _client.start();
+    }
+
+    @Test
+    public void testRequestContentChannel() throws Exception
+    {
+        startClient(HttpClient.CONNECTOR_SELECT_CHANNEL);
+
+        File file = File.createTempFile("streaming", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(_content);
+        out.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            StreamingContentExchange exchange = new StreamingContentExchange();
+            exchange.setURL(_url);
+            exchange.setMethod(HttpMethods.PUT);
+            exchange.setChunkSize(4096);
+            exchange.setRequestContentChannel(channel);
+            _client.send(exchange);
+
+            assertEquals(HttpExchange.STATUS_COMPLETED, exchange.waitForDone());
+            assertEquals(200, exchange.getResponseStatus());
+            assertEquals(String.valueOf(_content.length), exchange.getResponseFields().getStringField("X-Request-Length"));
+            assertArrayEquals(_content, exchange.getContent());
+            assertEquals(0, channel.position());
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testRequestContentBuffers() throws Exception
+    {
+        startClient(HttpClient.CONNECTOR_SELECT_CHANNEL);
+
+        List<Buffer> chunks = new ArrayList<Buffer>();
+        for (int i = 0; i < _content.length; i += 4096)
+            chunks.add(new ByteArrayBuffer(_content, i, Math.min(4096, _content.length - i)));
+        Buffer[] buffers = chunks.toArray(new Buffer[chunks.size()]);
+
+        // With a length
+        StreamingContentExchange exchange = new StreamingContentExchange();
+        exchange.setURL(_url);
+        exchange.setMethod(HttpMethods.POST);
+        exchange.setRequestContentBuffers(buffers);
+        _client.send(exchange);
+        assertEquals(HttpExchange.STATUS_COMPLETED, exchange.waitForDone());
+        assertEquals(String.valueOf(_content.length), exchange.getResponseFields().getStringField("X-Request-Length"));
+        assertArrayEquals(_content, exchange.getContent());
+
+        // Chunked, and the buffers are not consumed
+        exchange = new StreamingContentExchange();
+        exchange.setURL(_url);
+        exchange.setMethod(HttpMethods.POST);
+        exchange.setRequestContentBuffers(Arrays.asList(buffers), -1);
+        _client.send(exchange);
+        assertEquals(HttpExchange.STATUS_COMPLETED, exchange.waitForDone());
+        assertEquals("-1", exchange.getResponseFields().getStringField("X-Request-Length"));
+        assertArrayEquals(_content, exchange.getContent());
+    }
+
+    @Test
+    public void testPauseResponseSelectChannel() throws Exception
+    {
+        startClient(HttpClient.CONNECTOR_SELECT_CHANNEL);
+        testPauseResponse();
+    }
+
+    @Test
+    public void testPauseResponseSocket() throws Exception
+    {
+        startClient(HttpClient.CONNECTOR_SOCKET);
+        testPauseResponse();
+    }
+
+    private void testPauseResponse() throws Exception
+    {
+        final CountDownLatch paused = new CountDownLatch(1);
+        StreamingContentExchange exchange = new StreamingContentExchange()
+        {
+            @Override
+            protected void onResponseContent(Buffer content) throws IOException
+            {
+                super.onResponseContent(content);
+                if (paused.getCount() > 0)
+                {
+                    pauseResponse();
+                    paused.countDown();
+                }
+            }
+        };
+        exchange.setURL(_url);
+        _client.send(exchange);
+
+        assertTrue(paused.await(5, TimeUnit.SECONDS));
+        int received = exchange.getContentLength();
+        Thread.sleep(500);
+        assertTrue(exchange.isResponsePaused());
+        assertEquals(received, exchange.getContentLength());
+        assertTrue(received < _content.length);
+
+        exchange.resumeResponse();
+        assertEquals(HttpExchange.STATUS_COMPLETED, exchange.waitForDone());
+        assertArrayEquals(_content, exchange.getContent());
+    }
+
+    private static class StreamingContentExchange extends StreamingExchange
+    {
+        private final ByteArrayOutputStream _received = new ByteArrayOutputStream();
+        private volatile int _status;
+        private final HttpFields _fields = new HttpFields();
+
+        @Override
+        protected void onResponseStatus(Buffer version, int status, Buffer reason) throws IOException
+        {
+            _status = status;
+        }
+
+        @Override
+        protected void onResponseHeader(Buffer name, Buffer value) throws IOException
+        {
+            _fields.add(name, value);
+        }
+
+        @Override
+        protected synchronized void onResponseContent(Buffer content) throws IOException
+        {
+            content.writeTo(_received);
+        }
+
+        public int getResponseStatus()
+        {
+            return _status;
+        }
+
+        public HttpFields getResponseFields()
+        {
+            return _fields;
+        }
+
+        public synchronized int getContentLength()
+        {
+            return _received.size();
+        }
+
+        public synchronized byte[] getContent()
+        {
+            return _received.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.http;
+
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.BufferCache.CachedBuffer;
+
+/* ------------------------------------------------------------ */
+/** Learning cache of header fields.
+ * <p>
+ * A per connection cache that interns the name and value of header fields that
+ * are not known to {@link HttpHeaders#CACHE} and {@link HttpHeaderValues#CACHE}.
+ * Requests on a persistent connection typically repeat the same fields, such as
+ * User-Agent, Accept and Cookie, which would otherwise be copied into new immutable
+ * buffers for every request. Once a field has been seen twice, its name and value
+ * are copied into immutable buffers that are returned for every later occurrence,
+ * so that parsing the field allocates nothing.
+ * <p>
+ * The cache is a direct mapped table, in which a field replaces the field in its
+ * slot when it has been seen twice in succession. The total size of the interned
+ * buffers is limited by the max bytes of the cache.
+ * <p>
+ * The cache is not thread safe and is intended to be used by a single {@link HttpParser}.
+ */
+public class HttpFieldCache
+{
+    public final static int DEFAULT_SLOTS=32;
+
+    private final Field[] _fields;
+    private final int[] _seen;
+    private final int _maxBytes;
+    private int _bytes;
+    private long _hits;
+    private long _misses;
+
+    /* ------------------------------------------------------------ */
+    public HttpFieldCache(int maxBytes)
+    {
+        this(maxBytes,DEFAULT_SLOTS);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxBytes The maximum total size in bytes of the interned names and values
+     * @param slots The number of fields that may be cached, rounded up to a power of 2
+     */
+    public HttpFieldCache(int maxBytes, int slots)
+    {
+        int size=1;
+        while (size<slots)
+            size<<=1;
+        _fields=new Field[size];
+        _seen=new int[size];
+        _maxBytes=maxBytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The maximum total size in bytes of the interned names and values
+     */
+    public int getMaxBytes()
+    {
+        return _maxBytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The total size in bytes of the interned names and values
+     */
+    public int getBytes()
+    {
+        return _bytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of lookups that returned an interned field
+     */
+    public long getHits()
+    {
+        return _hits;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of lookups that did not return an interned field
+     */
+    public long getMisses()
+    {
+        return _misses;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Look up a header field.
+     * If the field has been seen before, an interned field is returned, otherwise
+     * the field is remembered so that it may be interned when next seen.
+     * @param name The field name, which may be a volatile view of the parsed header
+     * @param value The field value, which may be a volatile view of the parsed header
+     * @return The interned field with immutable name and value, or null if the field is not interned.
+     */
+    public Field lookup(Buffer name, Buffer value)
+    {
+        int hash=hash(hash(0,name),value);
+        int slot=hash&(_fields.length-1);
+
+        Field field=_fields[slot];
+        if (field!=null && field._hash==hash && matches(field._name,name) && matches(field._value,value))
+        {
+            _hits++;
+            return field;
+        }
+        _misses++;
+
+        // Intern only fields seen twice in succession, so that one off fields do not replace useful ones
+        if (_seen[slot]!=hash)
+        {
+            _seen[slot]=hash;
+            return null;
+        }
+
+        int bytes=(name instanceof CachedBuffer?0:name.length())+(value instanceof CachedBuffer?0:value.length());
+        int old=field==null?0:field._bytes;
+        if (_bytes-old+bytes>_maxBytes)
+            return null;
+
+        field=new Field(name.asImmutableBuffer(),value.asImmutableBuffer(),hash,bytes);
+        _fields[slot]=field;
+        _bytes+=bytes-old;
+        return field;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Remove all interned fields.
+     */
+    public void clear()
+    {
+        for (int i=0;i<_fields.length;i++)
+        {
+            _fields[i]=null;
+            _seen[i]=0;
+        }
+        _bytes=0;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static boolean matches(Buffer interned, Buffer buffer)
+    {
+        if (interned==buffer)
+            return true;
+        int length=buffer.length();
+        if (interned.length()!=length || interned instanceof CachedBuffer || buffer instanceof CachedBuffer)
+            return false;
+
+        byte[] a=interned.array();
+        int ai=interned.getIndex();
+        byte[] b=buffer.array();
+        int bi=buffer.getIndex();
+        if (b!=null)
+        {
+            for (int i=length;i-->0;)
+                if (a[ai+i]!=b[bi+i])
+                    return false;
+        }
+        else
+        {
+            for (int i=length;i-->0;)
+                if (a[ai+i]!=buffer.peek(bi+i))
+                    return false;
+        }
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int hash(int hash, Buffer buffer)
+    {
+        if (buffer instanceof CachedBuffer)
+            return 31*hash+((CachedBuffer)buffer).getOrdinal();
+
+        int index=buffer.getIndex();
+        int end=buffer.putIndex();
+        byte[] array=buffer.array();
+        if (array!=null)
+        {
+            for (int i=index;i<end;i++)
+                hash=31*hash+array[i];
+        }
+        else
+        {
+            for (int i=index;i<end;i++)
+                hash=31*hash+buffer.peek(i);
+        }
+        return 31*hash+end-index;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%d/%d bytes,%d hits,%d misses}",getClass().getSimpleName(),hashCode(),_bytes,_maxBytes,_hits,_misses);
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** An interned header field.
+     */
+    public static class Field
+    {
+        private final Buffer _name;
+        private final Buffer _value;
+        private final int _hash;
+        private final int _bytes;
+
+        /* ------------------------------------------------------------ */
+        Field(Buffer name, Buffer value, int hash, int bytes)
+        {
+            _name=name;
+            _value=value;
+            _hash=hash;
+            _bytes=bytes;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The immutable field name
+         */
+        public Buffer getName()
+        {
+            return _name;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The immutable field value
+         */
+        public Buffer getValue()
+        {
+            return _value;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String toString()
+        {
+            return _name+": "+_value;
+        }
+    }
+}
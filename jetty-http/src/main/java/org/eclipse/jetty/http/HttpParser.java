@@ -56,6 +56,8 @@ public class HttpParser implements Parser
     public static final int STATE_CHUNK=6;
     public static final int STATE_SEEKING_EOF=7;
 
+    private static final int __FIELD_CACHE=Integer.getInteger("org.eclipse.jetty.http.HttpParser.FIELD_CACHE",4096).intValue();
+
     private final EventHandler _handler;
     private final Buffers _buffers; // source of buffers
     private final EndPoint _endp;
@@ -69,6 +71,8 @@ public class HttpParser implements Parser
     private int _responseStatus; // If >0 then we are parsing a response
     private boolean _forceContentBuffer;
     private boolean _persistent;
+    private HttpFieldCache _fieldCache;
+    private boolean _fieldCaching=__FIELD_CACHE>0;
 
     /* ------------------------------------------------------------------------------- */
     protected final View  _contentView=new View(); // View of the content in the buffer for {@link Input}
@@ -125,6 +129,29 @@ public class HttpParser implements Parser
         return _contentPosition;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The learning cache of header fields, or null if fields are not cached or none have been parsed
+     */
+    public HttpFieldCache getFieldCache()
+    {
+        return _fieldCache;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Set the learning cache of header fields.
+     * By default a cache limited to the system property
+     * <code>org.eclipse.jetty.http.HttpParser.FIELD_CACHE</code> bytes (default 4096)
+     * is created when the first field is parsed, so that fields repeated on a persistent
+     * connection are passed to the {@link EventHandler} as the same immutable buffers.
+     * @param cache The cache of header fields or null if fields are not to be cached.
+     */
+    public void setFieldCache(HttpFieldCache cache)
+    {
+        _fieldCache=cache;
+        _fieldCaching=cache!=null;
+    }
+
     /* ------------------------------------------------------------ */
     /** Set if a HEAD response is expected
      * @param head
@@ -584,6 +611,19 @@ public class HttpParser implements Parser
                                         }
                                     }
 
+                                    // Intern fields unknown to the header caches
+                                    if (_fieldCaching && !(header instanceof CachedBuffer && value instanceof CachedBuffer))
+                                    {
+                                        if (_fieldCache==null)
+                                            _fieldCache=new HttpFieldCache(__FIELD_CACHE);
+                                        HttpFieldCache.Field field=_fieldCache.lookup(header,value);
+                                        if (field!=null)
+                                        {
+                                            header=field.getName();
+                                            value=field.getValue();
+                                        }
+                                    }
+
                                     _handler.parsedHeader(header, value);
                                     _tok0.setPutIndex(_tok0.getIndex());
                                     _tok1.setPutIndex(_tok1.getIndex());
@@ -14,9 +14,13 @@
 package org.eclipse.jetty.http;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.io.ByteArrayBuffer;
@@ -360,6 +364,103 @@ public class HttpParserTest
         }
     }
 
+    @Test
+    public void testFieldCache() throws Exception
+    {
+        String request="GET / HTTP/1.1\015\012"
+            + "Host: test\015\012"
+            + "User-Agent: Test/1.0 (Agent)\015\012"
+            + "X-Custom: custom\015\012"
+            + "\015\012";
+        StringEndPoint io=new StringEndPoint();
+        io.setInput(request+request+request);
+        ByteArrayBuffer buffer= new ByteArrayBuffer(4096);
+        SimpleBuffers buffers=new SimpleBuffers(buffer,null);
+
+        final List<Buffer> names = new ArrayList<Buffer>();
+        final List<Buffer> values = new ArrayList<Buffer>();
+        final List<String> fields = new ArrayList<String>();
+        HttpParser parser= new HttpParser(buffers,io,new HttpParser.EventHandler()
+        {
+            public void startRequest(Buffer method, Buffer url, Buffer version) {}
+            public void startResponse(Buffer version, int status, Buffer reason) {}
+            public void content(Buffer ref) {}
+            public void parsedHeader(Buffer name, Buffer value)
+            {
+                names.add(name);
+                values.add(value);
+                fields.add(name+": "+value);
+            }
+        });
+
+        parser.parse();
+        parser.parse();
+        parser.parse();
+        assertEquals(9,names.size());
+
+        // Seen twice before being interned
+        for (int i=0;i<9;i++)
+            assertEquals(fields.get(i%3),fields.get(i));
+        assertEquals("User-Agent: Test/1.0 (Agent)",fields.get(7));
+        assertSame(values.get(4),values.get(7));
+        assertSame(names.get(5),names.get(8));
+        assertSame(values.get(5),values.get(8));
+        assertTrue(values.get(8).isImmutable());
+
+        HttpFieldCache cache=parser.getFieldCache();
+        assertNotNull(cache);
+        assertEquals(3,cache.getHits());
+        assertTrue(cache.getBytes()<=cache.getMaxBytes());
+    }
+
+    @Test
+    public void testFieldCacheIntoHttpFields() throws Exception
+    {
+        // With the cache, the interned buffers are immutable so HttpFields keeps them without copying
+        List<Buffer> cached=parseUserAgents(new HttpFieldCache(4096));
+        assertEquals(4,cached.size());
+        assertTrue(cached.get(0)!=cached.get(1));
+        assertSame(cached.get(1),cached.get(2));
+        assertSame(cached.get(2),cached.get(3));
+
+        List<Buffer> uncached=parseUserAgents(null);
+        assertEquals(4,uncached.size());
+        for (int i=1;i<uncached.size();i++)
+        {
+            assertEquals(uncached.get(0).toString(),uncached.get(i).toString());
+            assertTrue(uncached.get(i-1)!=uncached.get(i));
+        }
+    }
+
+    private List<Buffer> parseUserAgents(HttpFieldCache cache) throws Exception
+    {
+        String request="GET /index.html HTTP/1.1\015\012"
+            + "Host: localhost\015\012"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:12.0) Gecko/20100101 Firefox/12.0\015\012"
+            + "Accept-Language: en-us,en;q=0.5\015\012"
+            + "\015\012";
+
+        StringEndPoint io=new StringEndPoint();
+        io.setInput(request+request+request+request);
+        ByteArrayBuffer buffer= new ByteArrayBuffer(4096);
+        SimpleBuffers buffers=new SimpleBuffers(buffer,null);
+        final List<Buffer> agents=new ArrayList<Buffer>();
+        final HttpFields fields=new HttpFields();
+        HttpParser parser= new HttpParser(buffers,io,new HttpParser.EventHandler()
+        {
+            public void startRequest(Buffer method, Buffer url, Buffer version) { fields.clear(); }
+            public void startResponse(Buffer version, int status, Buffer reason) {}
+            public void content(Buffer ref) {}
+            public void parsedHeader(Buffer name, Buffer value) { fields.add(name,value); }
+            public void headerComplete() { agents.add(fields.get(HttpHeaders.USER_AGENT_BUFFER)); }
+        });
+        parser.setFieldCache(cache);
+
+        for (int i=0;i<4;i++)
+            parser.parse();
+        return agents;
+    }
+
     @Test
     public void testResponseParse0() throws Exception
     {
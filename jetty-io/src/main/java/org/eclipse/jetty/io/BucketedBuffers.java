@@ -0,0 +1,283 @@
+package org.eclipse.jetty.io;
+//========================================================================
+//Copyright 2011-2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//All rights reserved. This program and the accompanying materials
+//are made available under the terms of the Eclipse Public License v1.0
+//and Apache License v2.0 which accompanies this distribution.
+//The Eclipse Public License is available at
+//http://www.eclipse.org/legal/epl-v10.html
+//The Apache License v2.0 is available at
+//http://www.opensource.org/licenses/apache2.0.php
+//You may elect to redistribute this code under either of these licenses.
+//========================================================================
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.io.nio.IndirectNIOBuffer;
+
+/* ------------------------------------------------------------ */
+/** Size bucketed buffer pool.
+ * <p>
+ * Header and buffer sized buffers are pooled in their own buckets, while
+ * buffers obtained with {@link #getBuffer(int)} are rounded up to a power of
+ * two capacity and pooled in a bucket per size class, so that requests for
+ * differing sizes can be satisfied without allocation.
+ * <p>
+ * Each bucket is striped into several lock free queues (one per available
+ * processor) selected by the calling thread, so that concurrent threads
+ * rarely contend on the same queue. A thread that finds its own stripe
+ * empty will take a buffer from another stripe before allocating.
+ * <p>
+ * The total capacity of the pooled buffers is limited by the max retained
+ * bytes, above which returned buffers are discarded.
+ */
+public class BucketedBuffers extends AbstractBuffers
+{
+    public final static int DEFAULT_MIN_CAPACITY=1024;
+    public final static int DEFAULT_MAX_CAPACITY=1024*1024;
+
+    private final Bucket _headers;
+    private final Bucket _buffers;
+    private final Bucket[] _others;
+    private final int _stripes;
+    private final int _minShift;
+    private final int _minCapacity;
+    private final int _maxCapacity;
+    private final long _maxRetainedBytes;
+    private final AtomicLong _retainedBytes = new AtomicLong();
+    private final boolean _otherHeaders;
+    private final boolean _otherBuffers;
+
+    /* ------------------------------------------------------------ */
+    public BucketedBuffers(Buffers.Type headerType, int headerSize, Buffers.Type bufferType, int bufferSize, Buffers.Type otherType,long maxRetainedBytes)
+    {
+        this(headerType,headerSize,bufferType,bufferSize,otherType,DEFAULT_MIN_CAPACITY,DEFAULT_MAX_CAPACITY,maxRetainedBytes);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param headerType the type of header buffers
+     * @param headerSize the size of header buffers
+     * @param bufferType the type of content buffers
+     * @param bufferSize the size of content buffers
+     * @param otherType the type of buffers obtained with {@link #getBuffer(int)}
+     * @param minCapacity the capacity of the smallest size class, rounded up to a power of two
+     * @param maxCapacity the capacity of the largest size class, rounded up to a power of two.
+     * Larger buffers are allocated but never pooled.
+     * @param maxRetainedBytes the maximum total capacity of the pooled buffers
+     */
+    public BucketedBuffers(Buffers.Type headerType, int headerSize, Buffers.Type bufferType, int bufferSize, Buffers.Type otherType,
+            int minCapacity, int maxCapacity, long maxRetainedBytes)
+    {
+        super(headerType,headerSize,bufferType,bufferSize,otherType);
+        if (minCapacity<=0 || maxCapacity<minCapacity)
+            throw new IllegalArgumentException("capacity "+minCapacity+"-"+maxCapacity);
+
+        _stripes=roundUp(Runtime.getRuntime().availableProcessors());
+        _minShift=log2(minCapacity);
+        _minCapacity=1<<_minShift;
+        _maxCapacity=1<<log2(maxCapacity);
+        _maxRetainedBytes=maxRetainedBytes;
+        _otherHeaders=headerType==otherType;
+        _otherBuffers=bufferType==otherType;
+
+        _headers=new Bucket(_stripes);
+        _buffers=new Bucket(_stripes);
+        _others=new Bucket[log2(_maxCapacity)-_minShift+1];
+        for (int i=0;i<_others.length;i++)
+            _others[i]=new Bucket(_stripes);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The total capacity in bytes of the buffers currently pooled.
+     */
+    public long getRetainedBytes()
+    {
+        return _retainedBytes.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The maximum total capacity in bytes of pooled buffers.
+     */
+    public long getMaxRetainedBytes()
+    {
+        return _maxRetainedBytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    public Buffer getHeader()
+    {
+        Buffer buffer=acquire(_headers);
+        if (buffer==null)
+            buffer=newHeader();
+        return buffer;
+    }
+
+    /* ------------------------------------------------------------ */
+    public Buffer getBuffer()
+    {
+        Buffer buffer=acquire(_buffers);
+        if (buffer==null)
+            buffer=newBuffer();
+        return buffer;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Get a buffer of at least the given size.
+     * The capacity of the returned buffer is rounded up to the size class
+     * of the request, unless it is larger than the max capacity.
+     * @see org.eclipse.jetty.io.Buffers#getBuffer(int)
+     */
+    public Buffer getBuffer(int size)
+    {
+        if (_otherHeaders && size==getHeaderSize())
+            return getHeader();
+        if (_otherBuffers && size==getBufferSize())
+            return getBuffer();
+        if (size>_maxCapacity)
+            return newBuffer(size);
+
+        int index=size<=_minCapacity?0:(log2(size)-_minShift);
+        Buffer buffer=acquire(_others[index]);
+        if (buffer==null)
+            buffer=newBuffer(_minCapacity<<index);
+        return buffer;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void returnBuffer(Buffer buffer)
+    {
+        buffer.clear();
+        if (buffer.isVolatile() || buffer.isImmutable())
+            return;
+
+        Bucket bucket;
+        if (isHeader(buffer))
+            bucket=_headers;
+        else if (isBuffer(buffer))
+            bucket=_buffers;
+        else
+        {
+            int capacity=buffer.capacity();
+            if (capacity<_minCapacity || capacity>_maxCapacity || (capacity&(capacity-1))!=0 || !isOther(buffer))
+                return;
+            bucket=_others[log2(capacity)-_minShift];
+        }
+
+        int capacity=buffer.capacity();
+        if (_retainedBytes.addAndGet(capacity)>_maxRetainedBytes)
+            _retainedBytes.addAndGet(-capacity);
+        else
+            bucket.stripe().offer(buffer);
+    }
+
+    /* ------------------------------------------------------------ */
+    private Buffer acquire(Bucket bucket)
+    {
+        int stripe=bucket.index();
+        for (int i=0;i<_stripes;i++)
+        {
+            Buffer buffer=bucket._stripes[(stripe+i)&(_stripes-1)].poll();
+            if (buffer!=null)
+            {
+                _retainedBytes.addAndGet(-buffer.capacity());
+                return buffer;
+            }
+        }
+        return null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param buffer
+     * @return True if the buffer is the correct type to be an other buffer
+     */
+    private boolean isOther(Buffer buffer)
+    {
+        switch(_otherType)
+        {
+            case BYTE_ARRAY:
+                return buffer instanceof ByteArrayBuffer && !(buffer instanceof IndirectNIOBuffer);
+            case DIRECT:
+                return buffer instanceof DirectNIOBuffer;
+            case INDIRECT:
+                return buffer instanceof IndirectNIOBuffer;
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return log base 2 of the smallest power of two not less than value
+     */
+    private static int log2(int value)
+    {
+        return 32-Integer.numberOfLeadingZeros(value-1);
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int roundUp(int value)
+    {
+        return 1<<log2(value);
+    }
+
+    /* ------------------------------------------------------------ */
+    public String toString()
+    {
+        StringBuilder others=new StringBuilder();
+        for (int i=0;i<_others.length;i++)
+        {
+            int size=_others[i].size();
+            if (size>0)
+                others.append(others.length()==0?"":",").append(size).append('@').append(_minCapacity<<i);
+        }
+        return String.format("%s [%d@%d,%d@%d,{%s} %d/%d bytes]",
+                getClass().getSimpleName(),
+                _headers.size(),_headerSize,
+                _buffers.size(),_bufferSize,
+                others,
+                _retainedBytes.get(),_maxRetainedBytes);
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static class Bucket
+    {
+        private final Queue<Buffer>[] _stripes;
+
+        Bucket(int stripes)
+        {
+            // Generic arrays cannot be created, so only this assignment is unchecked
+            @SuppressWarnings({"unchecked","rawtypes"})
+            Queue<Buffer>[] queues=new Queue[stripes];
+            for (int i=0;i<stripes;i++)
+                queues[i]=new ConcurrentLinkedQueue<Buffer>();
+            _stripes=queues;
+        }
+
+        int index()
+        {
+            return (int)Thread.currentThread().getId()&(_stripes.length-1);
+        }
+
+        Queue<Buffer> stripe()
+        {
+            return _stripes[index()];
+        }
+
+        int size()
+        {
+            int size=0;
+            for (Queue<Buffer> stripe : _stripes)
+                size+=stripe.size();
+            return size;
+        }
+    }
+}
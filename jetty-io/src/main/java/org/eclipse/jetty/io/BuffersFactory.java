@@ -12,12 +12,33 @@ package org.eclipse.jetty.io;
 //You may elect to redistribute this code under either of these licenses.
 //========================================================================
 
+/* ------------------------------------------------------------ */
+/** Buffers Factory.
+ * <p>
+ * Creates a {@link ThreadLocalBuffers} for a negative max size, otherwise a
+ * {@link PooledBuffers}. If the system property
+ * <code>org.eclipse.jetty.io.BuffersFactory.BUCKETED</code> is true, a
+ * {@link BucketedBuffers} is created instead of a {@link PooledBuffers}, with
+ * max retained bytes taken from the system property
+ * <code>org.eclipse.jetty.io.BuffersFactory.MAX_RETAINED_BYTES</code> or else
+ * max size times the larger of the header and buffer sizes.
+ */
 public class BuffersFactory
 {
+    private static final boolean __bucketed=Boolean.getBoolean("org.eclipse.jetty.io.BuffersFactory.BUCKETED");
+    private static final long __maxRetainedBytes=Long.getLong("org.eclipse.jetty.io.BuffersFactory.MAX_RETAINED_BYTES",-1).longValue();
+
     public static Buffers newBuffers(Buffers.Type headerType, int headerSize, Buffers.Type bufferType, int bufferSize, Buffers.Type otherType,int maxSize)
     {
         if (maxSize>=0)
+        {
+            if (__bucketed)
+            {
+                long maxRetainedBytes=__maxRetainedBytes>=0?__maxRetainedBytes:(long)maxSize*Math.max(headerSize,bufferSize);
+                return new BucketedBuffers(headerType,headerSize,bufferType,bufferSize,otherType,maxRetainedBytes);
+            }
             return new PooledBuffers(headerType,headerSize,bufferType,bufferSize,otherType,maxSize);
+        }
         return new ThreadLocalBuffers(headerType,headerSize,bufferType,bufferSize,otherType);
     }
 }
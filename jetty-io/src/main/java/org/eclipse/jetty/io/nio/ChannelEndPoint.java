@@ -40,6 +40,7 @@ public class ChannelEndPoint implements EndPoint
 
     protected final ByteChannel _channel;
     protected final ByteBuffer[] _gather2=new ByteBuffer[2];
+    private ByteBuffer[] _gather;
     protected final Socket _socket;
     protected final InetSocketAddress _local;
     protected final InetSocketAddress _remote;
@@ -318,38 +319,87 @@ public class ChannelEndPoint implements EndPoint
      */
     public int flush(Buffer header, Buffer buffer, Buffer trailer) throws IOException
     {
-        int length=0;
-
-        Buffer buf0 = header==null?null:header.buffer();
-        Buffer buf1 = buffer==null?null:buffer.buffer();
-
-        if (_channel instanceof GatheringByteChannel &&
-            header!=null && header.length()!=0 && buf0 instanceof NIOBuffer &&
-            buffer!=null && buffer.length()!=0 && buf1 instanceof NIOBuffer)
+        // A header and a buffer without a trailer, as for most responses, are gathered
+        // without allocating an array of buffers
+        if (trailer==null || trailer.length()==0)
         {
-            length = gatheringFlush(header,((NIOBuffer)buf0).getByteBuffer(),buffer,((NIOBuffer)buf1).getByteBuffer());
+            Buffer buf0 = header==null?null:header.buffer();
+            Buffer buf1 = buffer==null?null:buffer.buffer();
+
+            if (_channel instanceof GatheringByteChannel &&
+                header!=null && header.length()!=0 && buf0 instanceof NIOBuffer &&
+                buffer!=null && buffer.length()!=0 && buf1 instanceof NIOBuffer)
+                return gatheringFlush(header,((NIOBuffer)buf0).getByteBuffer(),buffer,((NIOBuffer)buf1).getByteBuffer());
         }
-        else
+
+        return flushBuffers(new Buffer[]{header,buffer,trailer});
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Flush a sequence of buffers.
+     * <p>The buffers are flushed in order and a buffer is only written once all preceding
+     * buffers have been completely written. If the channel is a {@link GatheringByteChannel},
+     * consecutive buffers that are backed by an NIO buffer or a byte array (including
+     * {@link org.eclipse.jetty.io.View}s of them) are written with a single gathering write.
+     * @param buffers The buffers to flush, which may include null or empty buffers.
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    public int flush(Buffer[] buffers) throws IOException
+    {
+        return flushBuffers(buffers);
+    }
+
+    /* ------------------------------------------------------------ */
+    private int flushBuffers(Buffer[] buffers) throws IOException
+    {
+        int length=0;
+        boolean gathering=_channel instanceof GatheringByteChannel;
+
+        while (true)
         {
-            // flush header
-            if (header!=null && header.length()>0)
-                length=flush(header);
-
-            // flush buffer
-            if ((header==null || header.length()==0) &&
-                 buffer!=null && buffer.length()>0)
-                length+=flush(buffer);
-
-            // flush trailer
-            if ((header==null || header.length()==0) &&
-                (buffer==null || buffer.length()==0) &&
-                 trailer!=null && trailer.length()>0)
-                length+=flush(trailer);
+            // Find the first buffer with content and how many buffers from there can be gathered
+            int first=-1;
+            int last=-1;
+            int count=0;
+            for (int i=0;i<buffers.length;i++)
+            {
+                Buffer buffer=buffers[i];
+                if (buffer==null || buffer.length()==0)
+                    continue;
+                if (first<0)
+                    first=last=i;
+                if (!gathering || !isGatherable(buffer))
+                    break;
+                last=i;
+                count++;
+            }
+
+            if (first<0)
+                return length;
+
+            int len=count>1?gatheringFlush(buffers,count):flush(buffers[first]);
+            if (len<=0)
+                return length;
+            length+=len;
+
+            // Stop if the channel did not take everything offered
+            if (buffers[last].length()>0)
+                return length;
         }
+    }
 
-        return length;
+    /* ------------------------------------------------------------ */
+    /**
+     * @param buffer
+     * @return True if the buffer can be written as part of a gathering write
+     */
+    protected boolean isGatherable(Buffer buffer)
+    {
+        return buffer.buffer() instanceof NIOBuffer || buffer.array()!=null;
     }
 
+    /* ------------------------------------------------------------ */
     protected int gatheringFlush(Buffer header, ByteBuffer bbuf0, Buffer buffer, ByteBuffer bbuf1) throws IOException
     {
         int length;
@@ -384,6 +434,69 @@ public class ChannelEndPoint implements EndPoint
         return length;
     }
 
+    /* ------------------------------------------------------------ */
+    /** Write buffers with a single gathering write.
+     * @param buffers The buffers to write. Null and empty buffers are skipped.
+     * @param count The number of non empty buffers to write, all of which must be
+     * {@link #isGatherable(Buffer) gatherable}.
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    protected int gatheringFlush(Buffer[] buffers, int count) throws IOException
+    {
+        int length;
+
+        synchronized(this)
+        {
+            if (_gather==null || _gather.length<count)
+                _gather=new ByteBuffer[count];
+
+            int n=0;
+            for (int i=0;n<count;i++)
+            {
+                Buffer buffer=buffers[i];
+                if (buffer==null || buffer.length()==0)
+                    continue;
+
+                Buffer buf=buffer.buffer();
+                ByteBuffer bbuf;
+                if (buf instanceof NIOBuffer)
+                {
+                    bbuf=((NIOBuffer)buf).getByteBuffer().asReadOnlyBuffer();
+                    bbuf.limit(buffer.putIndex());
+                    bbuf.position(buffer.getIndex());
+                }
+                else
+                    bbuf=ByteBuffer.wrap(buffer.array(),buffer.getIndex(),buffer.length());
+                _gather[n++]=bbuf;
+            }
+
+            try
+            {
+                // do the gathering write.
+                length=(int)((GatheringByteChannel)_channel).write(_gather,0,count);
+            }
+            finally
+            {
+                for (int i=0;i<count;i++)
+                    _gather[i]=null;
+            }
+
+            // Skip the written bytes in each of the buffers
+            int skip=length;
+            for (int i=0;skip>0 && i<buffers.length;i++)
+            {
+                Buffer buffer=buffers[i];
+                if (buffer==null)
+                    continue;
+                int l=Math.min(skip,buffer.length());
+                buffer.skip(l);
+                skip-=l;
+            }
+        }
+        return length;
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @return Returns the channel.
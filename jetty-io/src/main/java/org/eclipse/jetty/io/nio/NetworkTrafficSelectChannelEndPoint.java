@@ -44,6 +44,15 @@ public class NetworkTrafficSelectChannelEndPoint extends SelectChannelEndPoint
         return read;
     }
 
+    /**
+     * Output is never aggregated, so that listeners are notified of the
+     * outgoing bytes of each flush as they are written.
+     */
+    @Override
+    public void setCorked(boolean corked)
+    {
+    }
+
     @Override
     public int flush(Buffer buffer) throws IOException
     {
@@ -65,6 +74,30 @@ public class NetworkTrafficSelectChannelEndPoint extends SelectChannelEndPoint
         return written;
     }
 
+    @Override
+    protected int gatheringFlush(Buffer[] buffers, int count) throws IOException
+    {
+        int[] positions = new int[buffers.length];
+        int[] lengths = new int[buffers.length];
+        for (int i = 0; i < buffers.length; ++i)
+        {
+            if (buffers[i] != null)
+            {
+                positions[i] = buffers[i].getIndex();
+                lengths[i] = buffers[i].length();
+            }
+        }
+        int written = super.gatheringFlush(buffers, count);
+        int remaining = written;
+        for (int i = 0; i < buffers.length && remaining > 0; ++i)
+        {
+            int length = Math.min(remaining, lengths[i]);
+            notifyOutgoing(buffers[i], positions[i], length);
+            remaining -= length;
+        }
+        return written;
+    }
+
     public void notifyOpened()
     {
         if (listeners != null && !listeners.isEmpty())
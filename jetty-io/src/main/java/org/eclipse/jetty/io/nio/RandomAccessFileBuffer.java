@@ -186,5 +186,18 @@ public class RandomAccessFileBuffer extends AbstractBuffer implements Buffer
             return (int)_channel.transferTo(index,length,channel);
         }
     }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Close the underlying file.
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        synchronized (_file)
+        {
+            _file.close();
+        }
+    }
     
 }
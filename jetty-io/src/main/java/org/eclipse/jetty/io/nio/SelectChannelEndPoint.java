@@ -37,13 +37,15 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
 {
     public static final Logger LOG=Log.getLogger("org.eclipse.jetty.io.nio");
 
+    private static final int __CORK_SIZE=Integer.getInteger("org.eclipse.jetty.io.nio.CORK_SIZE",16*1024);
+
     private final boolean WORK_AROUND_JVM_BUG_6346658 = System.getProperty("os.name").toLowerCase().contains("win");
     private final SelectorManager.SelectSet _selectSet;
     private final SelectorManager _manager;
     private  SelectionKey _key;
     private final Runnable _handler = new Runnable()
         {
-            public void run() { handle(); }
+            public void run() { _selectSet.dispatched(_dispatchedNanos); handle(); }
         };
 
     /** The desired value for {@link SelectionKey#interestOps()} */
@@ -57,6 +59,9 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
      */
     private volatile AsyncConnection _connection;
 
+    /** the {@link System#nanoTime()} at which the handler was last dispatched */
+    private long _dispatchedNanos;
+
     /** true if a thread has been dispatched to handle this endpoint */
     private boolean _dispatched = false;
 
@@ -80,6 +85,15 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
 
     private boolean _ishut;
 
+    /** true if flushed output is aggregated in the cork buffer rather than written */
+    private boolean _corked;
+
+    /** true while the cork buffer is being written */
+    private boolean _uncorking;
+
+    /** the output aggregated while corked and not yet written, or null */
+    private Buffer _corkBuffer;
+
     /* ------------------------------------------------------------ */
     public SelectChannelEndPoint(SocketChannel channel, SelectSet selectSet, SelectionKey key, int maxIdleTime)
         throws IOException
@@ -212,6 +226,7 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
             if (!_dispatched)
             {
                 _dispatched = true;
+                _dispatchedNanos = System.nanoTime();
                 boolean dispatched = _manager.dispatch(_handler);
                 if(!dispatched)
                 {
@@ -327,6 +342,9 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
     @Override
     public int flush(Buffer header, Buffer buffer, Buffer trailer) throws IOException
     {
+        if (isCorking())
+            return flush(new Buffer[]{header,buffer,trailer});
+
         int l = super.flush(header, buffer, trailer);
 
         // If there was something to write and it wasn't written, then we are not writable.
@@ -347,12 +365,48 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
         return l;
     }
 
+    /* ------------------------------------------------------------ */
+    @Override
+    public int flush(Buffer[] buffers) throws IOException
+    {
+        int l = isCorking()?corkedFlush(buffers):super.flush(buffers);
+
+        // If there was something to write and it wasn't written, then we are not writable.
+        if (l==0 && (hasContent(buffers) || !_corked && _corkBuffer!=null && _corkBuffer.hasContent()))
+        {
+            synchronized (this)
+            {   
+                _writable=false;
+                if (!_dispatched)
+                    updateKey();
+            }
+        }
+        else if (l>0)
+        {
+            _writable=true;
+            notIdle();
+        }
+        return l;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static boolean hasContent(Buffer[] buffers)
+    {
+        for (Buffer buffer : buffers)
+            if (buffer!=null && buffer.hasContent())
+                return true;
+        return false;
+    }
+
     /* ------------------------------------------------------------ */
     /*
      */
     @Override
     public int flush(Buffer buffer) throws IOException
     {
+        if (isCorking())
+            return flush(new Buffer[]{buffer});
+
         int l = super.flush(buffer);
 
         // If there was something to write and it wasn't written, then we are not writable.
@@ -374,6 +428,130 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
         return l;
     }
 
+    /* ------------------------------------------------------------ */
+    /** Write any output aggregated while corked, if the endpoint is no longer corked.
+     * @see #setCorked(boolean)
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if (!_corked && _corkBuffer!=null)
+            flush(new Buffer[0]);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return True if flushed output is aggregated rather than written
+     * @see #setCorked(boolean)
+     */
+    public boolean isCorked()
+    {
+        return _corked;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Cork the endpoint.
+     * <p>
+     * While corked, the buffers passed to flush are copied into a cork buffer rather than
+     * written, as long as they fit, so that the output of many small flushes may be written
+     * to the channel with a single gathering write. When the cork buffer is full, it is
+     * written together with the flushed buffers. Once uncorked, the aggregated output is
+     * written before any other output, either by the next flush or by {@link #flush()}.
+     * <p>
+     * This is intended for connections that know more output will shortly follow, such as
+     * an HTTP connection handling pipelined requests, which must uncork and flush once that
+     * output has been generated.
+     * @param corked True if flushed output is to be aggregated
+     */
+    public void setCorked(boolean corked)
+    {
+        _corked=corked;
+    }
+
+    /* ------------------------------------------------------------ */
+    private boolean isCorking()
+    {
+        return !_uncorking && (_corked || _corkBuffer!=null);
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Flush buffers while corked or while the cork buffer holds unwritten output.
+     * @return the number of bytes of the passed buffers that were aggregated or written
+     */
+    private int corkedFlush(Buffer[] buffers) throws IOException
+    {
+        int length=0;
+        boolean aggregate=_corked;
+        for (Buffer buffer : buffers)
+        {
+            if (buffer!=null && buffer.hasContent())
+            {
+                length+=buffer.length();
+                aggregate&=isGatherable(buffer);
+            }
+        }
+
+        if (aggregate)
+        {
+            if (_corkBuffer==null)
+                _corkBuffer=new IndirectNIOBuffer(__CORK_SIZE);
+            if (length>_corkBuffer.space())
+                _corkBuffer.compact();
+            if (length<=_corkBuffer.space())
+            {
+                for (Buffer buffer : buffers)
+                {
+                    if (buffer!=null && buffer.hasContent())
+                    {
+                        _corkBuffer.put(buffer);
+                        buffer.skip(buffer.length());
+                    }
+                }
+                return length;
+            }
+        }
+
+        // Write the cork buffer and the buffers together
+        Buffer[] all=new Buffer[buffers.length+1];
+        all[0]=_corkBuffer;
+        System.arraycopy(buffers,0,all,1,buffers.length);
+        int corked=_corkBuffer==null?0:_corkBuffer.length();
+        _uncorking=true;
+        try
+        {
+            int written=super.flush(all);
+            if (_corkBuffer!=null && !_corkBuffer.hasContent())
+            {
+                _corkBuffer.clear();
+                if (!_corked)
+                    _corkBuffer=null;
+            }
+            int uncorked=corked-(_corkBuffer==null?0:_corkBuffer.length());
+            return written-uncorked;
+        }
+        finally
+        {
+            _uncorking=false;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Shutdown output, once any aggregated output has been written.
+     * @see org.eclipse.jetty.io.nio.ChannelEndPoint#shutdownOutput()
+     */
+    @Override
+    public void shutdownOutput() throws IOException
+    {
+        _corked=false;
+        while (_corkBuffer!=null && isOpen() && !isOutputShutdown())
+        {
+            flush();
+            if (_corkBuffer!=null && !blockWritable(getMaxIdleTime()))
+                break;
+        }
+        super.shutdownOutput();
+    }
+
     /* ------------------------------------------------------------ */
     /*
      * Allows thread to block waiting for further events.
@@ -381,6 +559,13 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
     @Override
     public boolean blockReadable(long timeoutMs) throws IOException
     {
+        // The other end may be waiting for aggregated output before sending more
+        if (_corkBuffer!=null)
+        {
+            _corked=false;
+            flush();
+        }
+
         synchronized (this)
         {
             if (isInputShutdown())
@@ -692,12 +877,37 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
     }
 
     /* ------------------------------------------------------------ */
-    /*
+    /** Close the endpoint, once any aggregated output that can be written without blocking has been written.
+     * <p>
+     * Close may be called by the selector thread, which cannot wait to be writable, so aggregated
+     * output that the channel does not accept is discarded, as is output not yet flushed to an
+     * uncorked endpoint. Use {@link #shutdownOutput()} before closing to wait for it to be written.
      * @see org.eclipse.io.nio.ChannelEndPoint#close()
      */
     @Override
     public void close() throws IOException
     {
+        if (_corkBuffer!=null)
+        {
+            _corked=false;
+            try
+            {
+                int length=-1;
+                while (_corkBuffer!=null && _corkBuffer.length()!=length && isOpen() && !isOutputShutdown())
+                {
+                    length=_corkBuffer.length();
+                    flush();
+                }
+                if (_corkBuffer!=null && _corkBuffer.hasContent())
+                    LOG.debug("Discarded {} corked bytes on close of {}",_corkBuffer.length(),this);
+            }
+            catch (IOException e)
+            {
+                LOG.ignore(e);
+            }
+            _corkBuffer=null;
+        }
+
         // On unix systems there is a JVM issue that if you cancel before closing, it can 
         // cause the selector to block waiting for a channel to close and that channel can 
         // block waiting for the remote end.  But on windows, if you don't cancel before a 
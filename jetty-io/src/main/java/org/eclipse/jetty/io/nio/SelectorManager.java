@@ -41,6 +41,9 @@ import org.eclipse.jetty.util.component.AggregateLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
+import org.eclipse.jetty.util.thread.HashedWheelTimeout;
 import org.eclipse.jetty.util.thread.Timeout;
 import org.eclipse.jetty.util.thread.Timeout.Task;
 
@@ -59,6 +62,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
     private static final int __MAX_SELECTS=Integer.getInteger("org.eclipse.jetty.io.nio.MAX_SELECTS",100000).intValue();
     private static final int __BUSY_PAUSE=Integer.getInteger("org.eclipse.jetty.io.nio.BUSY_PAUSE",50).intValue();
     private static final int __IDLE_TICK=Integer.getInteger("org.eclipse.jetty.io.nio.IDLE_TICK",400).intValue();
+    private static final int __ACCEPT_BATCH=Integer.getInteger("org.eclipse.jetty.io.nio.ACCEPT_BATCH",16).intValue();
 
     private int _maxIdleTime;
     private int _lowResourcesMaxIdleTime;
@@ -68,6 +72,8 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
     private volatile int _set=0;
     private boolean _deferringInterestedOps0=true;
     private int _selectorPriorityDelta=0;
+    private boolean _useTimeoutWheel;
+    private int _acceptBatch=__ACCEPT_BATCH;
 
     /* ------------------------------------------------------------ */
     /**
@@ -168,17 +174,116 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
 
     /* ------------------------------------------------------------ */
     /** Register a {@link ServerSocketChannel}
+     * <p>
+     * The non blocking channel is registered with every select set, so that each
+     * selector accepts connections for itself without blocking, rather than having
+     * them accepted by other threads and handed over with {@link #register(SocketChannel)}.
+     * A selector accepts at most {@link #getAcceptBatch()} connections each time it
+     * selects, so that the backlog is drained in batches shared between the selectors
+     * and a burst of connections does not starve the already accepted connections.
      * @param acceptChannel
      */
     public void register(ServerSocketChannel acceptChannel)
     {
-        int s=_set++;
-        if (s<0)
-            s=-s;
-        s=s%_selectSets;
-        SelectSet set=_selectSet[s];
-        set.addChange(acceptChannel);
-        set.wakeup();
+        SelectSet[] sets=_selectSet;
+        if (sets!=null)
+        {
+            for (SelectSet set : sets)
+            {
+                set.addChange(acceptChannel);
+                set.wakeup();
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The maximum number of connections accepted by a select set each time it selects
+     * @see #register(ServerSocketChannel)
+     */
+    public int getAcceptBatch()
+    {
+        return _acceptBatch;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param acceptBatch The maximum number of connections accepted by a select set each time it selects
+     * @see #register(ServerSocketChannel)
+     */
+    public void setAcceptBatch(int acceptBatch)
+    {
+        if (acceptBatch<=0)
+            throw new IllegalArgumentException("acceptBatch "+acceptBatch);
+        _acceptBatch=acceptBatch;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of connections accepted by each select set, or an empty array if not started
+     * @see #register(ServerSocketChannel)
+     */
+    public long[] getAccepted()
+    {
+        SelectSet[] sets=_selectSet;
+        long[] accepted=new long[sets==null?0:sets.length];
+        for (int i=0;i<accepted.length;i++)
+            accepted[i]=sets[i].getAccepted();
+        return accepted;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return A summary of the select loop statistics of each select set, or an empty array if not started
+     * @see SelectSet#getStatistics()
+     */
+    public String[] getSelectSetStatistics()
+    {
+        SelectSet[] sets=_selectSet;
+        String[] statistics=new String[sets==null?0:sets.length];
+        for (int i=0;i<statistics.length;i++)
+            statistics[i]=sets[i].getStatistics();
+        return statistics;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of times the selectors have been rebuilt
+     */
+    public long getSelectorRebuilds()
+    {
+        SelectSet[] sets=_selectSet;
+        long rebuilds=0;
+        if (sets!=null)
+            for (SelectSet set : sets)
+                rebuilds+=set.getRebuilds();
+        return rebuilds;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Reset the select loop statistics of each select set.
+     */
+    public void resetSelectSetStatistics()
+    {
+        SelectSet[] sets=_selectSet;
+        if (sets!=null)
+            for (SelectSet set : sets)
+                set.resetStatistics();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The rate of connections per second accepted by each select set, or an empty array if not started
+     * @see #register(ServerSocketChannel)
+     */
+    public long[] getAcceptRates()
+    {
+        SelectSet[] sets=_selectSet;
+        long[] rates=new long[sets==null?0:sets.length];
+        for (int i=0;i<rates.length;i++)
+            rates[i]=sets[i].getAcceptRate();
+        return rates;
     }
 
     /* ------------------------------------------------------------ */
@@ -241,6 +346,17 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
     }
 
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if resources other than connections are low, such as the threads that tasks
+     * are dispatched to, so that connections are allowed to be idle for only
+     * {@link #getLowResourcesMaxIdleTime()}.
+     */
+    protected boolean isLowResources()
+    {
+        return false;
+    }
+
     /* ------------------------------------------------------------------------------- */
     public abstract boolean dispatch(Runnable task);
 
@@ -346,6 +462,18 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
     /* ------------------------------------------------------------------------------- */
     public abstract AsyncConnection newConnection(SocketChannel channel, AsyncEndPoint endpoint, Object attachment);
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Called by a select set for each connection that it accepts from a registered
+     * {@link ServerSocketChannel}, before the connection is registered with the selector.
+     * @param channel the accepted channel
+     * @throws IOException if the channel cannot be configured, in which case it is closed
+     */
+    protected void accepted(SocketChannel channel) throws IOException
+    {
+        channel.configureBlocking(false);
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * Create a new end point
@@ -396,6 +524,15 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         private boolean _pausing;
         private boolean _paused;
         private volatile long _idleTick;
+        private volatile long _accepted;
+        private volatile long _acceptRate;
+        private long _acceptedMark;
+        private volatile int _rebuilds;
+        private volatile int _busyPauses;
+        private final HistogramStatistic _loopTime = new HistogramStatistic();
+        private final SampleStatistic _selectedKeys = new SampleStatistic();
+        private final SampleStatistic _changeDepth = new SampleStatistic();
+        private final HistogramStatistic _dispatchLatency = new HistogramStatistic();
         private ConcurrentMap<SelectChannelEndPoint,Object> _endPoints = new ConcurrentHashMap<SelectChannelEndPoint, Object>();
 
         /* ------------------------------------------------------------ */
@@ -404,7 +541,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
             _setID=acceptorID;
 
             _idleTick = System.currentTimeMillis();
-            _timeout = new Timeout(this);
+            _timeout = _useTimeoutWheel?new HashedWheelTimeout(this):new Timeout(this);
             _timeout.setDuration(0L);
 
             // create a selector;
@@ -445,9 +582,14 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                 if (selector == null)
                     return;
 
+                // Time the loop, excluding waiting in select or pausing
+                final long start=System.nanoTime();
+                long waited=0;
+
                 // Make any key changes required
                 Object change;
                 int changes=_changes.size();
+                _changeDepth.set(changes);
                 while (changes-->0 && (change=_changes.poll())!=null)
                 {
                     Channel ch=null;
@@ -492,6 +634,13 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                             key.attach(endpoint);
                             endpoint.schedule();
                         }
+                        else if (change instanceof ServerSocketChannel)
+                        {
+                            // Accept connections on a registered server channel
+                            final ServerSocketChannel channel=(ServerSocketChannel)change;
+                            if (channel.isOpen())
+                                channel.register(selector,SelectionKey.OP_ACCEPT,null);
+                        }
                         else if (change instanceof ChangeTask)
                         {
                             ((Runnable)change).run();
@@ -538,6 +687,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                     // If we are in pausing mode
                     if (_pausing)
                     {
+                        long before=System.nanoTime();
                         try
                         {
                             Thread.sleep(__BUSY_PAUSE); // pause to reduce impact of  busy loop
@@ -546,6 +696,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                         {
                             LOG.ignore(e);
                         }
+                        waited+=System.nanoTime()-before;
                         now=System.currentTimeMillis();
                     }
 
@@ -561,7 +712,9 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                     if (wait>0)
                     {
                         long before=now;
+                        long beforeNanos=System.nanoTime();
                         selector.select(wait);
+                        waited+=System.nanoTime()-beforeNanos;
                         now = System.currentTimeMillis();
                         _timeout.setNow(now);
 
@@ -573,6 +726,8 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                             if (++_busySelects>__MAX_SELECTS)
                             {
                                 // Start injecting pauses
+                                if (!_pausing)
+                                    _busyPauses++;
                                 _pausing=true;
 
                                 // if this is the first pause
@@ -592,6 +747,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                     return;
 
                 // Look for things to do
+                _selectedKeys.set(selector.selectedKeys().size());
                 for (SelectionKey key: selector.selectedKeys())
                 {
                     SocketChannel channel=null;
@@ -613,6 +769,11 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                             if (key.isReadable()||key.isWritable())
                                 ((SelectChannelEndPoint)att).schedule();
                         }
+                        else if (key.isAcceptable())
+                        {
+                            // Accept a batch of connections from a registered server channel
+                            accept(selector,(ServerSocketChannel)key.channel());
+                        }
                         else if (key.isConnectable())
                         {
                             // Complete a connection of a registered channel
@@ -696,7 +857,8 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                 {
                     _idleTick=now;
 
-                    final long idle_now=((_lowResourcesConnections>0 && selector.keys().size()>_lowResourcesConnections))
+                    final long idle_now=((_lowResourcesConnections>0 && selector.keys().size()>_lowResourcesConnections) ||
+                        (_lowResourcesMaxIdleTime>0 && isLowResources()))
                         ?(now+_maxIdleTime-_lowResourcesMaxIdleTime)
                         :now;
 
@@ -719,9 +881,16 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                 {
                     _busySelects=0;
                     _pausing=false;
+
+                    long accepted=_accepted;
+                    _acceptRate=(accepted-_acceptedMark)*1000/(now-_monitorNext+__MONITOR_PERIOD);
+                    _acceptedMark=accepted;
+
                     _monitorNext=now+__MONITOR_PERIOD;
 
                 }
+
+                _loopTime.set((System.nanoTime()-start-waited)/1000);
             }
             catch (ClosedSelectorException e)
             {
@@ -741,6 +910,185 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         }
 
 
+        /* ------------------------------------------------------------ */
+        /**
+         * Accept up to {@link SelectorManager#getAcceptBatch()} connections from a server
+         * channel and register them with this select set.
+         * @param selector the selector of this select set
+         * @param server the non blocking server channel
+         */
+        private void accept(Selector selector, ServerSocketChannel server)
+        {
+            int batch=_acceptBatch;
+            int accepted=0;
+            try
+            {
+                while (accepted<batch)
+                {
+                    SocketChannel channel=server.accept();
+                    if (channel==null)
+                        break;
+                    accepted++;
+
+                    try
+                    {
+                        SelectorManager.this.accepted(channel);
+                        SelectionKey key = channel.register(selector,SelectionKey.OP_READ,null);
+                        SelectChannelEndPoint endpoint = createEndPoint(channel,key);
+                        key.attach(endpoint);
+                        endpoint.schedule();
+                    }
+                    catch (IOException e)
+                    {
+                        LOG.warn(e);
+                        try
+                        {
+                            channel.close();
+                        }
+                        catch(IOException e2)
+                        {
+                            LOG.debug(e2);
+                        }
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                // The server channel is closed or the process is out of file descriptors.
+                if (isRunning() && server.isOpen())
+                    LOG.warn(e);
+                else
+                    LOG.ignore(e);
+            }
+            finally
+            {
+                _accepted+=accepted;
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The number of connections accepted by this select set
+         * @see SelectorManager#register(ServerSocketChannel)
+         */
+        public long getAccepted()
+        {
+            return _accepted;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The rate of connections per second accepted by this select set,
+         * measured over the last monitor period
+         * @see SelectorManager#register(ServerSocketChannel)
+         */
+        public long getAcceptRate()
+        {
+            return _acceptRate;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * Record the time between the dispatch of an endpoint and a thread starting to handle it.
+         * @param dispatched the {@link System#nanoTime()} at which the endpoint was dispatched
+         */
+        void dispatched(long dispatched)
+        {
+            _dispatchLatency.set((System.nanoTime()-dispatched)/1000);
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The histogram of the duration in microseconds of the select loop,
+         * excluding the time spent waiting in select or pausing
+         */
+        public HistogramStatistic getLoopTime()
+        {
+            return _loopTime;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The statistic of the number of keys selected per select loop
+         */
+        public SampleStatistic getSelectedKeys()
+        {
+            return _selectedKeys;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The statistic of the depth of the change queue at the start of each select loop
+         */
+        public SampleStatistic getChangeDepth()
+        {
+            return _changeDepth;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The current depth of the change queue
+         */
+        public int getChanges()
+        {
+            return _changes.size();
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The histogram of the time in microseconds between an endpoint being
+         * dispatched and a thread starting to handle it
+         */
+        public HistogramStatistic getDispatchLatency()
+        {
+            return _dispatchLatency;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The number of times the selector has been rebuilt
+         */
+        public int getRebuilds()
+        {
+            return _rebuilds;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The number of monitor periods in which the selector was found busy
+         * spinning and pauses were injected
+         */
+        public int getBusyPauses()
+        {
+            return _busyPauses;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * Reset the select loop statistics.
+         */
+        public void resetStatistics()
+        {
+            _loopTime.reset();
+            _selectedKeys.reset();
+            _changeDepth.reset();
+            _dispatchLatency.reset();
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return A summary of the select loop statistics
+         */
+        public String getStatistics()
+        {
+            return String.format("loop={%s}us keys={mean=%.1f max=%d} changes={now=%d mean=%.1f max=%d} dispatch={%s}us rebuilds=%d busyPauses=%d",
+                    _loopTime,
+                    _selectedKeys.getCount()==0?0.0:_selectedKeys.getMean(),_selectedKeys.getMax(),
+                    _changes.size(),_changeDepth.getCount()==0?0.0:_changeDepth.getMean(),_changeDepth.getMax(),
+                    _dispatchLatency,
+                    _rebuilds,_busyPauses);
+        }
+
         /* ------------------------------------------------------------ */
         private void renewSelector()
         {
@@ -751,6 +1099,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                     Selector selector=_selector;
                     if (selector==null)
                         return;
+                    _rebuilds++;
                     final Selector new_selector = Selector.open();
                     for (SelectionKey k: selector.keys())
                     {
@@ -920,7 +1269,10 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         /* ------------------------------------------------------------ */
         public void dump(Appendable out, String indent) throws IOException
         {
-            out.append(String.valueOf(this)).append(" id=").append(String.valueOf(_setID)).append("\n");
+            out.append(String.valueOf(this)).append(" id=").append(String.valueOf(_setID));
+            if (_accepted>0)
+                out.append(" accepted=").append(String.valueOf(_accepted)).append(" acceptRate=").append(String.valueOf(_acceptRate)).append("/s");
+            out.append("\n");
 
             Thread selecting = _selecting;
 
@@ -941,6 +1293,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
             {
                 final ArrayList<Object> dump = new ArrayList<Object>(selector.keys().size()*2);
                 dump.add(where);
+                dump.add(getStatistics());
 
                 final CountDownLatch latch = new CountDownLatch(1);
 
@@ -1018,6 +1371,29 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         _deferringInterestedOps0 = deferringInterestedOps0;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return True if the select sets schedule timeouts with a {@link HashedWheelTimeout}
+     */
+    public boolean getUseTimeoutWheel()
+    {
+        return _useTimeoutWheel;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param useTimeoutWheel True if the select sets should keep the tasks passed to
+     * {@link SelectSet#scheduleTimeout(Timeout.Task, long)}, such as async request timeouts,
+     * in a {@link HashedWheelTimeout}, which has O(1) schedule and cancel, rather than a sorted
+     * {@link Timeout}. Endpoint idle timeouts are not scheduled tasks and are still checked by
+     * the periodic idle sweep of each select set.
+     * Applies to select sets created after this call (ie when started).
+     */
+    public void setUseTimeoutWheel(boolean useTimeoutWheel)
+    {
+        _useTimeoutWheel = useTimeoutWheel;
+    }
+
 
     /* ------------------------------------------------------------ */
     /* ------------------------------------------------------------ */
@@ -0,0 +1,108 @@
+// ========================================================================
+// Copyright (c) 2011-2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.junit.Test;
+
+public class BucketedBuffersTest
+{
+    @Test
+    public void testHeadersAndBuffers() throws Exception
+    {
+        BucketedBuffers buffers = new BucketedBuffers(Buffers.Type.DIRECT,128,Buffers.Type.BYTE_ARRAY,256,Buffers.Type.INDIRECT,1024*1024);
+
+        Buffer h1 = buffers.getHeader();
+        Buffer b1 = buffers.getBuffer();
+        assertEquals(128,h1.capacity());
+        assertTrue(h1 instanceof DirectNIOBuffer);
+        assertEquals(256,b1.capacity());
+
+        buffers.returnBuffer(h1);
+        buffers.returnBuffer(b1);
+        assertEquals(128+256,buffers.getRetainedBytes());
+
+        assertTrue(h1==buffers.getHeader());
+        assertTrue(b1==buffers.getBuffer());
+        assertTrue(b1!=buffers.getBuffer());
+        assertEquals(0,buffers.getRetainedBytes());
+    }
+
+    @Test
+    public void testSizeClasses() throws Exception
+    {
+        BucketedBuffers buffers = new BucketedBuffers(Buffers.Type.BYTE_ARRAY,128,Buffers.Type.BYTE_ARRAY,256,Buffers.Type.BYTE_ARRAY,1024,16*1024,1024*1024);
+
+        // sizes equal to the header and buffer sizes come from those buckets
+        assertEquals(128,buffers.getBuffer(128).capacity());
+        assertEquals(256,buffers.getBuffer(256).capacity());
+
+        // other sizes are rounded up to their size class
+        assertEquals(1024,buffers.getBuffer(10).capacity());
+        assertEquals(4096,buffers.getBuffer(3000).capacity());
+        assertEquals(4096,buffers.getBuffer(4096).capacity());
+        assertEquals(8192,buffers.getBuffer(4097).capacity());
+
+        // larger than the max capacity are allocated exactly
+        assertEquals(20000,buffers.getBuffer(20000).capacity());
+
+        Buffer b4k = buffers.getBuffer(4000);
+        Buffer b16k = buffers.getBuffer(16000);
+        buffers.returnBuffer(b4k);
+        buffers.returnBuffer(b16k);
+
+        assertTrue(b4k==buffers.getBuffer(2049));
+        assertTrue(b16k==buffers.getBuffer(9000));
+        assertTrue(b4k!=buffers.getBuffer(4096));
+
+        // unpooled sizes are discarded
+        buffers.returnBuffer(buffers.getBuffer(20000));
+        buffers.returnBuffer(new ByteArrayBuffer(3000));
+        assertEquals(0,buffers.getRetainedBytes());
+    }
+
+    @Test
+    public void testMaxRetainedBytes() throws Exception
+    {
+        BucketedBuffers buffers = new BucketedBuffers(Buffers.Type.BYTE_ARRAY,128,Buffers.Type.BYTE_ARRAY,256,Buffers.Type.BYTE_ARRAY,1024,16*1024,4096);
+
+        Buffer b1 = buffers.getBuffer(4096);
+        Buffer b2 = buffers.getBuffer(4096);
+        buffers.returnBuffer(b1);
+        buffers.returnBuffer(b2);
+        assertEquals(4096,buffers.getRetainedBytes());
+
+        assertTrue(b1==buffers.getBuffer(4096));
+        assertTrue(b2!=buffers.getBuffer(4096));
+        assertEquals(0,buffers.getRetainedBytes());
+    }
+
+    @Test
+    public void testWrongType() throws Exception
+    {
+        BucketedBuffers buffers = new BucketedBuffers(Buffers.Type.BYTE_ARRAY,128,Buffers.Type.BYTE_ARRAY,256,Buffers.Type.DIRECT,1024*1024);
+
+        Buffer b1 = new ByteArrayBuffer(4096);
+        buffers.returnBuffer(b1);
+        assertEquals(0,buffers.getRetainedBytes());
+
+        Buffer b2 = buffers.getBuffer(4096);
+        assertTrue(b2 instanceof DirectNIOBuffer);
+        buffers.returnBuffer(b2);
+        assertTrue(b2==buffers.getBuffer(4096));
+    }
+}
@@ -12,12 +12,18 @@ package org.eclipse.jetty.io.nio;
 //You may elect to redistribute this code under either of these licenses.
 //========================================================================
 
+import static org.junit.Assert.assertEquals;
+
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
 import org.eclipse.jetty.io.EndPointTest;
+import org.eclipse.jetty.io.View;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 public class ChannelEndPointTest extends EndPointTest<ChannelEndPoint>
 {
@@ -52,4 +58,70 @@ public class ChannelEndPointTest extends EndPointTest<ChannelEndPoint>
     {
         super.testClientServerExchange();
     }
+
+    @Test
+    public void testGatheringFlush() throws Exception
+    {
+        EndPointPair<ChannelEndPoint> c = newConnection();
+
+        ByteArrayBuffer array = new ByteArrayBuffer("xxArrayxx");
+        View view = new View(array,-1,2,7,Buffer.READONLY);
+        Buffer[] buffers = new Buffer[]
+        {
+            new DirectNIOBuffer(16),
+            null,
+            new ByteArrayBuffer("Bytes,"),
+            new ByteArrayBuffer(0),
+            new IndirectNIOBuffer(16),
+            view
+        };
+        buffers[0].put(new ByteArrayBuffer("Direct,"));
+        buffers[4].put(new ByteArrayBuffer("Indirect,"));
+
+        int len = c.client.flush(buffers);
+        assertEquals(27,len);
+        for (Buffer buffer : buffers)
+            assertEquals(0,buffer==null?0:buffer.length());
+        assertEquals("xxArrayxx",array.toString());
+
+        Buffer in = new IndirectNIOBuffer(64);
+        while (in.length()<len)
+            c.server.fill(in);
+        assertEquals("Direct,Bytes,Indirect,Array",in.toString());
+
+        c.client.close();
+        c.server.close();
+    }
+
+    @Test
+    public void testFlushHeaderBufferTrailer() throws Exception
+    {
+        EndPointPair<ChannelEndPoint> c = newConnection();
+
+        // A header and a buffer are gathered without a trailer
+        Buffer header = new DirectNIOBuffer(16);
+        Buffer buffer = new IndirectNIOBuffer(16);
+        header.put(new ByteArrayBuffer("Header,"));
+        buffer.put(new ByteArrayBuffer("Buffer,"));
+        int len = c.client.flush(header,buffer,null);
+        assertEquals(14,len);
+        assertEquals(0,header.length());
+        assertEquals(0,buffer.length());
+
+        // and with one
+        header.put(new ByteArrayBuffer("Header,"));
+        Buffer chunk = new ByteArrayBuffer("Chunk,");
+        Buffer trailer = new ByteArrayBuffer("Trailer");
+        len += c.client.flush(header,chunk,trailer);
+        assertEquals(34,len);
+        assertEquals(0,trailer.length());
+
+        Buffer in = new IndirectNIOBuffer(64);
+        while (in.length()<len)
+            c.server.fill(in);
+        assertEquals("Header,Buffer,Header,Chunk,Trailer",in.toString());
+
+        c.client.close();
+        c.server.close();
+    }
 }
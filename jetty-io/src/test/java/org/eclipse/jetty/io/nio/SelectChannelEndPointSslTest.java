@@ -79,6 +79,13 @@ public class SelectChannelEndPointSslTest extends SelectChannelEndPointTest
         // SSL does not do half closes
     }
 
+    @Test
+    @Override
+    public void testCloseWhileCorked() throws Exception
+    {
+        // The corked endpoint is below the SSL connection, so it would write plain text to the client
+    }
+
     @Test
     public void testTcpClose() throws Exception
     {
@@ -34,6 +34,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.AsyncEndPoint;
+import org.eclipse.jetty.io.ByteArrayBuffer;
 import org.eclipse.jetty.io.ConnectedEndPoint;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
@@ -238,6 +239,33 @@ public class SelectChannelEndPointTest
     }
 
 
+    @Test
+    public void testSelectSetStatistics() throws Exception
+    {
+        Socket client = newClient();
+        client.setSoTimeout(500);
+
+        SocketChannel server = _connector.accept();
+        server.configureBlocking(false);
+        _manager.register(server);
+
+        client.getOutputStream().write("HelloWorld".getBytes("UTF-8"));
+        for (char c : "HelloWorld".toCharArray())
+            assertEquals(c,(char)client.getInputStream().read());
+        client.close();
+
+        SelectorManager.SelectSet set = _manager.getSelectSet(0);
+        assertThat(set.getLoopTime().getCount(),greaterThan(0L));
+        assertThat(set.getSelectedKeys().getMax(),greaterThan(0L));
+        assertThat(set.getChangeDepth().getMax(),greaterThan(0L));
+        assertThat(set.getDispatchLatency().getCount(),greaterThan(0L));
+        assertEquals(0,set.getRebuilds());
+        assertEquals(_manager.getSelectSets(),_manager.getSelectSetStatistics().length);
+
+        _manager.resetSelectSetStatistics();
+        assertEquals(0,set.getDispatchLatency().getCount());
+    }
+
     @Test
     public void testShutdown() throws Exception
     {
@@ -293,6 +321,55 @@ public class SelectChannelEndPointTest
 
 
 
+    @Test
+    public void testCloseWhileCorked() throws Exception
+    {
+        Socket client = newClient();
+
+        client.setSoTimeout(500);
+
+        SocketChannel server = _connector.accept();
+        server.configureBlocking(false);
+
+        _manager.register(server);
+
+        // Write client to server
+        client.getOutputStream().write("HelloWorld".getBytes("UTF-8"));
+
+        // Verify echo server to client
+        for (char c : "HelloWorld".toCharArray())
+        {
+            int b = client.getInputStream().read();
+            assertTrue(b>0);
+            assertEquals(c,(char)b);
+        }
+
+        // aggregate output while corked
+        SelectChannelEndPoint endp = _lastEndp;
+        endp.setCorked(true);
+        assertEquals(7,endp.flush(new ByteArrayBuffer("Goodbye")));
+        long start=System.currentTimeMillis();
+        try
+        {
+            client.getInputStream().read();
+            Assert.fail();
+        }
+        catch(SocketTimeoutException e)
+        {
+            assertTrue(System.currentTimeMillis()-start>=400);
+        }
+
+        // close writes the aggregated output
+        endp.close();
+        for (char c : "Goodbye".toCharArray())
+        {
+            int b = client.getInputStream().read();
+            assertTrue(b>0);
+            assertEquals(c,(char)b);
+        }
+        assertEquals(-1,client.getInputStream().read());
+    }
+
     @Test
     public void testBlockIn() throws Exception
     {
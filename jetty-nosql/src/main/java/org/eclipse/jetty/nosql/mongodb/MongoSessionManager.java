@@ -18,8 +18,13 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -30,10 +35,24 @@ import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
 
+/**
+ * MongoSessionManager
+ *
+ * Sessions are saved and loaded concurrently; saves of the same session are
+ * ordered by the session. If flush threads are configured, saves are queued
+ * rather than written by the request thread. The queued updates of a session
+ * are coalesced, and each flush thread writes batches of updates over a single
+ * connection. Every update is acknowledged, with the write concern of the
+ * collection or at least {@link WriteConcern#SAFE}, and the updates that fail
+ * to be written are queued again and retried. The updates of a session are
+ * always written by the same flush thread, so they are written in order.
+ */
 public class MongoSessionManager extends NoSqlSessionManager
 {
     private static final Logger LOG = Log.getLogger(MongoSessionManager.class);
@@ -62,6 +81,10 @@ public class MongoSessionManager extends NoSqlSessionManager
     private DBCollection _sessions;
     private DBObject __version_1;
 
+    private int _flushThreads=0;
+    private int _flushBatchSize=64;
+    private Flusher[] _flushers;
+
 
     /* ------------------------------------------------------------ */
     public MongoSessionManager() throws UnknownHostException, MongoException
@@ -92,6 +115,121 @@ public class MongoSessionManager extends NoSqlSessionManager
         _contextId = createContextId(hosts,contextPath);
 
         __version_1 = new BasicDBObject(getContextKey(__VERSION),1);
+
+        if (_flushThreads>0)
+        {
+            Flusher[] flushers = new Flusher[_flushThreads];
+            for (int i=0;i<flushers.length;i++)
+            {
+                flushers[i]=new Flusher();
+                Thread thread=new Thread(flushers[i],"MongoSessionFlusher-"+i+"@"+Integer.toHexString(hashCode()));
+                thread.setDaemon(true);
+                thread.start();
+            }
+            _flushers=flushers;
+        }
+    }
+
+    /*------------------------------------------------------------ */
+    @Override
+    public void doStop() throws Exception
+    {
+        // sessions are saved by super.doStop, so flush after
+        super.doStop();
+
+        Flusher[] flushers=_flushers;
+        _flushers=null;
+        if (flushers!=null)
+        {
+            for (Flusher flusher : flushers)
+                flusher.stop();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of threads that write queued session saves, or 0 if
+     * sessions are written by the thread that saves them.
+     */
+    public int getFlushThreads()
+    {
+        return _flushThreads;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param flushThreads the number of threads that write queued session saves,
+     * or 0 if sessions are written by the thread that saves them. Takes effect when
+     * the manager is started.
+     */
+    public void setFlushThreads(int flushThreads)
+    {
+        _flushThreads=flushThreads;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum number of session updates written together by a flush thread
+     */
+    public int getFlushBatchSize()
+    {
+        return _flushBatchSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param flushBatchSize the maximum number of session updates written together by a flush thread
+     */
+    public void setFlushBatchSize(int flushBatchSize)
+    {
+        _flushBatchSize=flushBatchSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of sessions with updates that are queued or being written
+     */
+    public int getFlushPending()
+    {
+        int pending=0;
+        Flusher[] flushers=_flushers;
+        if (flushers!=null)
+            for (Flusher flusher : flushers)
+                pending+=flusher.getPending();
+        return pending;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Wait until all the updates queued by the flush threads have been written.
+     */
+    public void flushAll()
+    {
+        Flusher[] flushers=_flushers;
+        if (flushers!=null)
+            for (Flusher flusher : flushers)
+                flusher.flushAll();
+    }
+
+    /* ------------------------------------------------------------ */
+    private Flusher getFlusher(String clusterId)
+    {
+        Flusher[] flushers=_flushers;
+        if (flushers==null)
+            return null;
+        return flushers[(clusterId.hashCode()&0x7fffffff)%flushers.length];
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Wait until any queued updates of a session have been written.
+     * @param clusterId
+     */
+    private void flush(String clusterId)
+    {
+        Flusher flusher=getFlusher(clusterId);
+        if (flusher!=null)
+            flusher.flush(clusterId);
     }
 
     /* ------------------------------------------------------------ */
@@ -109,7 +247,7 @@ public class MongoSessionManager extends NoSqlSessionManager
 
     /* ------------------------------------------------------------ */
     @Override
-    protected synchronized Object save(NoSqlSession session, Object version, boolean activateAfterSave)
+    protected Object save(NoSqlSession session, Object version, boolean activateAfterSave)
     {
         try
         {
@@ -120,7 +258,7 @@ public class MongoSessionManager extends NoSqlSessionManager
             BasicDBObject key = new BasicDBObject(__ID,session.getClusterId());
 
             // Form updates
-            BasicDBObject update = new BasicDBObject();
+            boolean inc = false;
             boolean upsert = false;
             BasicDBObject sets = new BasicDBObject();
             BasicDBObject unsets = new BasicDBObject();
@@ -138,7 +276,7 @@ public class MongoSessionManager extends NoSqlSessionManager
             else
             {
                 version = new Long(((Long)version).intValue() + 1);
-                update.put("$inc",__version_1); 
+                inc = true;
             }
 
             // handle valid or invalid
@@ -167,14 +305,19 @@ public class MongoSessionManager extends NoSqlSessionManager
                 unsets.put(getContextKey(),1); 
             }
 
-            // Do the upsert
-            if (!sets.isEmpty())
-                update.put("$set",sets);
-            if (!unsets.isEmpty())
-                update.put("$unset",unsets);
-
-            _sessions.update(key,update,upsert,false);
-            __log.debug("MongoSessionManager:save:db.sessions.update(" + key + "," + update + ",true)");
+            Update update = new Update(key,sets,unsets,inc?1:0,upsert);
+            Flusher flusher = getFlusher(session.getClusterId());
+            if (flusher != null)
+            {
+                // Queue the update
+                flusher.queue(session.getClusterId(),update);
+            }
+            else
+            {
+                // Do the upsert
+                _sessions.update(key,update.getUpdate(),upsert,false);
+                __log.debug("MongoSessionManager:save:db.sessions.update(" + key + "," + update + ",true)");
+            }
 
             if (activateAfterSave)
                 session.didActivate();
@@ -197,6 +340,14 @@ public class MongoSessionManager extends NoSqlSessionManager
         // check if our in memory version is the same as what is on the disk
         if (version != null)
         {
+            // our in memory version is newer than what is on the disk
+            Flusher flusher = getFlusher(session.getClusterId());
+            if (flusher != null && flusher.isPending(session.getClusterId()))
+            {
+                __log.debug("MongoSessionManager:refresh not needed, save pending");
+                return version;
+            }
+
             DBObject o = _sessions.findOne(new BasicDBObject(__ID,session.getClusterId()),__version_1);
 
             if (o != null)
@@ -288,8 +439,9 @@ public class MongoSessionManager extends NoSqlSessionManager
 
     /*------------------------------------------------------------ */
     @Override
-    protected synchronized NoSqlSession loadSession(String clusterId)
+    protected NoSqlSession loadSession(String clusterId)
     {
+        flush(clusterId);
         DBObject o = _sessions.findOne(new BasicDBObject(__ID,clusterId));
         
         __log.debug("MongoSessionManager:loaded " + o);
@@ -355,6 +507,7 @@ public class MongoSessionManager extends NoSqlSessionManager
          * Check if the session exists and if it does remove the context
          * associated with this session
          */
+        flush(session.getClusterId());
         BasicDBObject key = new BasicDBObject(__ID,session.getClusterId());
         
         DBObject o = _sessions.findOne(key,__version_1);
@@ -382,6 +535,7 @@ public class MongoSessionManager extends NoSqlSessionManager
         __log.debug("MongoSessionManager:invalidateSession:invalidating " + idInCluster);
         
         super.invalidateSession(idInCluster);
+        flush(idInCluster);
         
         /*
          * pull back the 'valid' value, we can check if its false, if is we don't need to
@@ -564,7 +718,317 @@ public class MongoSessionManager extends NoSqlSessionManager
         return temp.get(keyChain[keyChain.length - 1]);
     }
 
-    
+
+    /* ------------------------------------------------------------ */
+    /**
+     * The $set, $unset and $inc of a session update, which can be coalesced
+     * with later updates of the same session.
+     */
+    private class Update
+    {
+        final DBObject _key;
+        final BasicDBObject _sets;
+        final BasicDBObject _unsets;
+        int _inc;
+        boolean _upsert;
+
+        Update(DBObject key, BasicDBObject sets, BasicDBObject unsets, int inc, boolean upsert)
+        {
+            _key=key;
+            _sets=sets;
+            _unsets=unsets;
+            _inc=inc;
+            _upsert=upsert;
+        }
+
+        /**
+         * Coalesce a later update of the same session into this update.
+         * @param update the later update
+         * @return false if the updates cannot be combined into a single update,
+         * because the later update sets a field within a field unset by this update,
+         * or sets the version incremented by this update.
+         */
+        boolean coalesce(Update update)
+        {
+            if (_inc!=0 && update._sets.containsField(getContextKey(__VERSION)))
+                return false;
+            for (String name : update._sets.keySet())
+                for (String unset : _unsets.keySet())
+                    if (name.startsWith(unset+"."))
+                        return false;
+
+            for (String name : update._unsets.keySet())
+            {
+                removeNested(_sets,name);
+                removeNested(_unsets,name);
+                _unsets.put(name,1);
+            }
+            for (String name : update._sets.keySet())
+            {
+                _unsets.removeField(name);
+                _sets.put(name,update._sets.get(name));
+            }
+
+            // a new session sets the version rather than incrementing it
+            String version=getContextKey(__VERSION);
+            Object set=_sets.get(version);
+            if (set instanceof Number)
+                _sets.put(version,new Long(((Number)set).longValue()+update._inc));
+            else
+                _inc+=update._inc;
+
+            _upsert|=update._upsert;
+            return true;
+        }
+
+        private void removeNested(BasicDBObject fields, String name)
+        {
+            for (Iterator<String> i=fields.keySet().iterator();i.hasNext();)
+            {
+                String field=i.next();
+                if (field.startsWith(name+"."))
+                    i.remove();
+            }
+        }
+
+        DBObject getUpdate()
+        {
+            BasicDBObject update = new BasicDBObject();
+            if (_inc!=0)
+                update.put("$inc",new BasicDBObject(getContextKey(__VERSION),_inc));
+            if (!_sets.isEmpty())
+                update.put("$set",_sets);
+            if (!_unsets.isEmpty())
+                update.put("$unset",_unsets);
+            return update;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.valueOf(getUpdate());
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Writes the queued updates of the sessions assigned to it.
+     */
+    private class Flusher implements Runnable
+    {
+        private final Map<String,List<Update>> _queued = new LinkedHashMap<String,List<Update>>();
+        private final Set<String> _writing = new HashSet<String>();
+        private boolean _running = true;
+        private boolean _stopped;
+
+        synchronized void queue(String clusterId, Update update)
+        {
+            if (!_running)
+            {
+                // saved while stopping, so write it now
+                List<Update> updates = new ArrayList<Update>(1);
+                updates.add(update);
+                Map<String,List<Update>> batch = new LinkedHashMap<String,List<Update>>();
+                batch.put(clusterId,updates);
+                if (write(batch)!=null)
+                    LOG.warn("Lost update of session {} saved while stopping",clusterId);
+                return;
+            }
+            List<Update> updates = _queued.get(clusterId);
+            if (updates==null)
+            {
+                updates=new ArrayList<Update>(1);
+                _queued.put(clusterId,updates);
+                notifyAll();
+            }
+            if (updates.isEmpty() || !updates.get(updates.size()-1).coalesce(update))
+                updates.add(update);
+        }
+
+        synchronized boolean isPending(String clusterId)
+        {
+            return _queued.containsKey(clusterId) || _writing.contains(clusterId);
+        }
+
+        synchronized int getPending()
+        {
+            int pending=_queued.size();
+            for (String clusterId : _writing)
+                if (!_queued.containsKey(clusterId))
+                    pending++;
+            return pending;
+        }
+
+        synchronized void flush(String clusterId)
+        {
+            boolean interrupted=false;
+            while (!_stopped && isPending(clusterId))
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted=true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        synchronized void flushAll()
+        {
+            boolean interrupted=false;
+            while (!_stopped && (!_queued.isEmpty() || !_writing.isEmpty()))
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted=true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        synchronized void stop() throws InterruptedException
+        {
+            _running=false;
+            notifyAll();
+            while (!_stopped)
+                wait();
+        }
+
+        public void run()
+        {
+            Map<String,List<Update>> batch = new LinkedHashMap<String,List<Update>>();
+            try
+            {
+                while (true)
+                {
+                    synchronized (this)
+                    {
+                        _writing.clear();
+                        notifyAll();
+                        while (_running && _queued.isEmpty())
+                            wait();
+                        if (_queued.isEmpty())
+                            break;
+
+                        // take sessions in the order they were first queued
+                        int size=0;
+                        for (Iterator<Map.Entry<String,List<Update>>> i=_queued.entrySet().iterator();i.hasNext() && size<_flushBatchSize;)
+                        {
+                            Map.Entry<String,List<Update>> entry=i.next();
+                            batch.put(entry.getKey(),entry.getValue());
+                            size+=entry.getValue().size();
+                            _writing.add(entry.getKey());
+                            i.remove();
+                        }
+                    }
+
+                    Map<String,List<Update>> failed=write(batch);
+                    batch.clear();
+                    if (failed!=null)
+                        requeue(failed);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                LOG.ignore(e);
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    _stopped=true;
+                    _writing.clear();
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Queue updates that failed to be written ahead of any later updates of
+         * their sessions, and wait a while before they are retried.
+         */
+        private synchronized void requeue(Map<String,List<Update>> failed) throws InterruptedException
+        {
+            if (!_running)
+            {
+                LOG.warn("Lost updates of {} sessions while stopping",failed.size());
+                return;
+            }
+
+            for (Map.Entry<String,List<Update>> entry : failed.entrySet())
+            {
+                List<Update> updates=entry.getValue();
+                List<Update> later=_queued.remove(entry.getKey());
+                if (later!=null)
+                    for (Update update : later)
+                        if (!updates.get(updates.size()-1).coalesce(update))
+                            updates.add(update);
+                _queued.put(entry.getKey(),updates);
+            }
+
+            // the sessions remain pending while waiting to retry
+            wait(1000);
+        }
+
+        /**
+         * Write a batch over a single connection. Every update waits for the
+         * write concern of the collection, or at least {@link WriteConcern#SAFE},
+         * so that each update is known to be written.
+         * @return the updates of each session that were not written, or null if all were written
+         */
+        private Map<String,List<Update>> write(Map<String,List<Update>> batch)
+        {
+            WriteConcern concern=_sessions.getWriteConcern();
+            if (!concern.callGetLastError())
+                concern=WriteConcern.SAFE;
+
+            Map<String,List<Update>> failed=null;
+            DB db=_sessions.getDB();
+            db.requestStart();
+            try
+            {
+                for (Map.Entry<String,List<Update>> entry : batch.entrySet())
+                {
+                    List<Update> updates=entry.getValue();
+                    int written=0;
+                    if (failed==null)
+                    {
+                        try
+                        {
+                            for (Update update : updates)
+                            {
+                                _sessions.update(update._key,update.getUpdate(),update._upsert,false,concern);
+                                __log.debug("MongoSessionManager:flush:db.sessions.update(" + update._key + "," + update + ")");
+                                written++;
+                            }
+                            continue;
+                        }
+                        catch (Exception e)
+                        {
+                            LOG.warn("Problem writing session updates, will retry",e);
+                            failed=new LinkedHashMap<String,List<Update>>();
+                        }
+                    }
+                    failed.put(entry.getKey(),new ArrayList<Update>(updates.subList(written,updates.size())));
+                }
+            }
+            finally
+            {
+                db.requestDone();
+            }
+            return failed;
+        }
+    }
+
      /**
      * ClassLoadingObjectInputStream
      *
@@ -37,6 +37,8 @@ import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.statistic.CounterStatistic;
 import org.eclipse.jetty.util.statistic.SampleStatistic;
+import org.eclipse.jetty.util.statistic.StripedCounterStatistic;
+import org.eclipse.jetty.util.statistic.StripedSampleStatistic;
 import org.eclipse.jetty.util.thread.ThreadPool;
 
 /**
@@ -88,11 +90,11 @@ public abstract class AbstractConnector extends AggregateLifeCycle implements Ht
     private final AtomicLong _statsStartedAt = new AtomicLong(-1L);
 
     /** connections to server */
-    private final CounterStatistic _connectionStats = new CounterStatistic();
+    private final CounterStatistic _connectionStats = new StripedCounterStatistic();
     /** requests per connection */
-    private final SampleStatistic _requestStats = new SampleStatistic();
+    private final SampleStatistic _requestStats = new StripedSampleStatistic();
     /** duration of a connection */
-    private final SampleStatistic _connectionDurationStats = new SampleStatistic();
+    private final SampleStatistic _connectionDurationStats = new StripedSampleStatistic();
 
     protected final HttpBuffersImpl _buffers = new HttpBuffersImpl();
 
@@ -278,6 +280,16 @@ public abstract class AbstractConnector extends AggregateLifeCycle implements Ht
         return _acceptors;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of acceptor threads to dispatch when started. This is the
+     * number of acceptors, unless the connector accepts connections by other means.
+     */
+    protected int getAcceptorThreads()
+    {
+        return getAcceptors();
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @param acceptors
@@ -321,7 +333,7 @@ public abstract class AbstractConnector extends AggregateLifeCycle implements Ht
         // Start selector thread
         synchronized (this)
         {
-            _acceptorThreads = new Thread[getAcceptors()];
+            _acceptorThreads = new Thread[getAcceptorThreads()];
 
             for (int i = 0; i < _acceptorThreads.length; i++)
                 if (!_threadPool.dispatch(new Acceptor(i)))
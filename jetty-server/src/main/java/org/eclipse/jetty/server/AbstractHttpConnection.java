@@ -13,6 +13,7 @@
 
 package org.eclipse.jetty.server;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
@@ -46,6 +47,9 @@ import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.io.RuntimeIOException;
 import org.eclipse.jetty.io.UncheckedPrintWriter;
+import org.eclipse.jetty.io.View;
+import org.eclipse.jetty.io.nio.ChannelEndPoint;
+import org.eclipse.jetty.io.nio.RandomAccessFileBuffer;
 import org.eclipse.jetty.server.nio.NIOConnector;
 import org.eclipse.jetty.server.ssl.SslConnector;
 import org.eclipse.jetty.util.QuotedStringTokenizer;
@@ -1079,17 +1083,19 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
                 if (httpContent.getContentLength() > 0)
                     _responseFields.putLongField(HttpHeaders.CONTENT_LENGTH_BUFFER, httpContent.getContentLength());
                 Buffer lm = httpContent.getLastModified();
-                long lml=httpContent.getResource().lastModified();
                 if (lm != null)
                     _responseFields.put(HttpHeaders.LAST_MODIFIED_BUFFER, lm);
                 else if (httpContent.getResource()!=null)
                 {
+                    long lml=httpContent.getResource().lastModified();
                     if (lml!=-1)
                         _responseFields.putDateField(HttpHeaders.LAST_MODIFIED_BUFFER, lml);
                 }
 
                 boolean direct=_connector instanceof NIOConnector && ((NIOConnector)_connector).getUseDirectBuffers() && !(_connector instanceof SslConnector);
                 content = direct?httpContent.getDirectBuffer():httpContent.getIndirectBuffer();
+                if (content==null)
+                    content=getFileBuffer(httpContent.getResource());
                 if (content==null)
                     content=httpContent.getInputStream();
             }
@@ -1097,11 +1103,28 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
             {
                 resource=(Resource)content;
                 _responseFields.putDateField(HttpHeaders.LAST_MODIFIED_BUFFER, resource.lastModified());
-                content=resource.getInputStream();
+                content=getFileBuffer(resource);
+                if (content==null)
+                    content=resource.getInputStream();
             }
 
             // Process content.
-            if (content instanceof Buffer)
+            if (content instanceof RandomAccessFileBuffer)
+            {
+                // The file is transferred directly to the channel, so wait until it is flushed before closing it
+                RandomAccessFileBuffer file = (RandomAccessFileBuffer)content;
+                try
+                {
+                    super._generator.addContent(new View(file), Generator.LAST);
+                    commitResponse(Generator.LAST);
+                    _out.flush();
+                }
+                finally
+                {
+                    file.close();
+                }
+            }
+            else if (content instanceof Buffer)
             {
                 super._generator.addContent((Buffer) content, Generator.LAST);
                 commitResponse(Generator.LAST);
@@ -1143,6 +1166,27 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
 
 
         }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @param resource The resource to send
+         * @return A buffer of the resource file, that is flushed by a {@link ChannelEndPoint} with
+         * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+         * without copying the content, or null if the resource is not a file or the endpoint is not a
+         * plain (non SSL) channel.
+         * @throws IOException
+         */
+        private Buffer getFileBuffer(Resource resource) throws IOException
+        {
+            if (resource==null || !(_endp instanceof ChannelEndPoint) || _connector instanceof SslConnector)
+                return null;
+
+            File file = resource.getFile();
+            if (file==null || !file.isFile() || file.length()>Integer.MAX_VALUE)
+                return null;
+
+            return new RandomAccessFileBuffer(file,(int)file.length(),Buffer.READONLY);
+        }
     }
 
     /* ------------------------------------------------------------ */
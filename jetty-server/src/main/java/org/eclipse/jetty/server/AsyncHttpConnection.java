@@ -22,6 +22,7 @@ import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.nio.AsyncConnection;
 import org.eclipse.jetty.io.nio.SelectChannelEndPoint;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -39,11 +40,15 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
     private int _total_no_progress;
     private final AsyncEndPoint _asyncEndp;
     private boolean _readInterested = true;
+    private final SelectChannelEndPoint _batchEndp;
+    private int _batch;
 
     public AsyncHttpConnection(Connector connector, EndPoint endpoint, Server server)
     {
         super(connector,endpoint,server);
         _asyncEndp=(AsyncEndPoint)endpoint;
+        _batchEndp=(connector instanceof SelectChannelConnector && ((SelectChannelConnector)connector).getBatchPipelinedResponses() && endpoint instanceof SelectChannelEndPoint)
+            ?(SelectChannelEndPoint)endpoint:null;
     }
 
     @Override
@@ -150,6 +155,14 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
                     }
                 }
             }
+
+            // Write the responses batched while handling pipelined requests
+            if (_batchEndp!=null)
+            {
+                _batchEndp.setCorked(false);
+                endBatch();
+                _endp.flush();
+            }
         }
         finally
         {
@@ -185,6 +198,35 @@ public class AsyncHttpConnection extends AbstractHttpConnection implements Async
         return connection;
     }
 
+    /**
+     * If pipelined responses are batched, the output of the request is aggregated
+     * while more requests are already buffered, so that the responses to those
+     * requests are written together.
+     * @see SelectChannelConnector#setBatchPipelinedResponses(boolean)
+     */
+    @Override
+    protected void handleRequest() throws IOException
+    {
+        if (_batchEndp!=null && !_request._async.isAsync())
+        {
+            boolean more=_parser.isMoreInBuffer();
+            _batchEndp.setCorked(more);
+            _batch++;
+            if (!more)
+                endBatch();
+        }
+        super.handleRequest();
+    }
+
+    private void endBatch()
+    {
+        if (_batch>0)
+        {
+            ((SelectChannelConnector)_connector).responsesBatched(_batch);
+            _batch=0;
+        }
+    }
+
     public void onInputShutdown() throws IOException
     {
         // If we don't have a committed response and we are not suspended
@@ -0,0 +1,478 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.http.HttpContent;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.io.View;
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.resource.Resource;
+
+
+/* ------------------------------------------------------------ */
+/** Memory mapped file cache.
+ * <p>
+ * A cache tier for a {@link ResourceCache}, which holds files that are too large for
+ * the {@link ResourceCache} as read only memory mapped buffers, so that a hot set of
+ * hundreds of MB may be served without using heap or copying.
+ * <p>
+ * Entries are evicted with the CLOCK algorithm: a lookup only marks an entry as
+ * referenced, and eviction takes entries from the hand of the clock, giving a second
+ * chance to those that have been referenced since the hand last passed them. Both
+ * lookup and eviction are O(1) and nothing is sorted.
+ * <p>
+ * Rather than checking the last modified time of a file on every lookup, the cached
+ * files are watched by a timer thread that checks them every check interval and
+ * invalidates those that have been modified or removed. Changes to a file may thus be
+ * served stale for up to the check interval. An invalidated entry is only flagged, and
+ * is dropped when the hand of the clock reaches it.
+ * <p>
+ * Mapped buffers are not unmapped when an entry is evicted or invalidated, as a response
+ * may still be writing them, but only when they are garbage collected. The address space
+ * used by mappings may thus exceed the maximum cache size until then. The watcher does
+ * not protect a mapping from a file being truncated in place: reading the truncated part
+ * of a mapping, which a response may do at any time until the mapping is collected,
+ * raises SIGBUS and may crash the JVM. Files served from this cache should only be
+ * replaced by writing a new file and renaming it over the old one, which leaves the
+ * mappings of the old file valid.
+ */
+public class MappedResourceCache extends AbstractLifeCycle
+{
+    private static final Logger LOG = Log.getLogger(MappedResourceCache.class);
+
+    private final ConcurrentMap<String,Content> _cache=new ConcurrentHashMap<String,Content>();
+    private final Queue<Content> _clock=new ConcurrentLinkedQueue<Content>();
+    private final AtomicLong _cachedSize=new AtomicLong();
+    private final AtomicInteger _cachedFiles=new AtomicInteger();
+    private final AtomicInteger _invalidInClock=new AtomicInteger();
+    private final MimeTypes _mimeTypes;
+
+    private long _maxCacheSize=256*1024*1024;
+    private int _maxCachedFileSize=64*1024*1024;
+    private int _maxCachedFiles=4096;
+    private long _checkInterval=1000;
+    private Timer _timer;
+
+    /* ------------------------------------------------------------ */
+    public MappedResourceCache(MimeTypes mimeTypes)
+    {
+        _mimeTypes=mimeTypes;
+    }
+
+    /* ------------------------------------------------------------ */
+    public long getCachedSize()
+    {
+        return _cachedSize.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getCachedFiles()
+    {
+        return _cachedFiles.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The maximum total size of the mapped files that are cached
+     */
+    public long getMaxCacheSize()
+    {
+        return _maxCacheSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxCacheSize The maximum total size of the mapped files that are cached. Evicted
+     * files remain mapped until their buffers are garbage collected, so this does not limit
+     * the address space used by mappings.
+     */
+    public void setMaxCacheSize(long maxCacheSize)
+    {
+        _maxCacheSize=maxCacheSize;
+        shrinkCache();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The maximum size of a mapped file
+     */
+    public int getMaxCachedFileSize()
+    {
+        return _maxCachedFileSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxCachedFileSize The maximum size of a mapped file
+     */
+    public void setMaxCachedFileSize(int maxCachedFileSize)
+    {
+        _maxCachedFileSize=maxCachedFileSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The maximum number of mapped files
+     */
+    public int getMaxCachedFiles()
+    {
+        return _maxCachedFiles;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxCachedFiles The maximum number of mapped files
+     */
+    public void setMaxCachedFiles(int maxCachedFiles)
+    {
+        _maxCachedFiles=maxCachedFiles;
+        shrinkCache();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The interval in ms at which the mapped files are checked for modification
+     */
+    public long getCheckInterval()
+    {
+        return _checkInterval;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param checkInterval The interval in ms at which the mapped files are checked for
+     * modification, or 0 if they are never checked. Takes effect when the cache is started.
+     */
+    public void setCheckInterval(long checkInterval)
+    {
+        _checkInterval=checkInterval;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (_checkInterval>0)
+        {
+            _timer=new Timer("MappedResourceCache@"+Integer.toHexString(hashCode()),true);
+            _timer.schedule(new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    checkCache();
+                }
+            },_checkInterval,_checkInterval);
+        }
+        super.doStart();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStop() throws Exception
+    {
+        if (_timer!=null)
+            _timer.cancel();
+        _timer=null;
+        flushCache();
+        super.doStop();
+    }
+
+    /* ------------------------------------------------------------ */
+    public void flushCache()
+    {
+        while (_cache.size()>0)
+        {
+            for (String path : _cache.keySet())
+            {
+                Content content = _cache.remove(path);
+                if (content!=null)
+                    content.invalidate();
+            }
+        }
+        _clock.clear();
+        _invalidInClock.set(0);
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Get a cached entry.
+     * The entry is not checked for modification.
+     * @param pathInContext The key into the cache
+     * @return The cached entry, or null if it is not cached.
+     */
+    public HttpContent get(String pathInContext)
+    {
+        Content content=_cache.get(pathInContext);
+        if (content!=null && !content._referenced)
+            content._referenced=true;
+        return content;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Map and cache a resource.
+     * @param pathInContext The key into the cache
+     * @param resource The resource to cache
+     * @return The cached entry, or null if the resource is not a file that can be mapped
+     * within the limits of the cache.
+     */
+    public HttpContent load(String pathInContext, Resource resource)
+    {
+        Content content=_cache.get(pathInContext);
+        if (content!=null)
+            return content;
+
+        if (!isCacheable(resource))
+            return null;
+
+        try
+        {
+            content=new Content(pathInContext,resource);
+        }
+        catch(IOException e)
+        {
+            LOG.warn(e);
+            return null;
+        }
+
+        Content added=_cache.putIfAbsent(pathInContext,content);
+        if (added!=null)
+            return added;
+
+        _cachedSize.addAndGet(content._length);
+        _cachedFiles.incrementAndGet();
+        _clock.offer(content);
+        shrinkCache();
+        return content;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param resource
+     * @return True if the resource is a file that fits in the cache.
+     */
+    protected boolean isCacheable(Resource resource)
+    {
+        try
+        {
+            if (resource==null || resource.isDirectory() || resource.getFile()==null)
+                return false;
+        }
+        catch(IOException e)
+        {
+            LOG.ignore(e);
+            return false;
+        }
+        long len=resource.length();
+        return len>0 && len<=_maxCachedFileSize && len<=_maxCacheSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Evict entries from the hand of the clock until the cache is within its limits.
+     * Invalidated entries are dropped as the hand passes them, and the hand is also moved
+     * to drop them once they outnumber the cached entries.
+     */
+    private void shrinkCache()
+    {
+        int moves=0;
+        while (true)
+        {
+            boolean full=_cachedFiles.get()>_maxCachedFiles || _cachedSize.get()>_maxCacheSize;
+            int invalid=_invalidInClock.get();
+            if (!full && (invalid<=_cachedFiles.get() || moves++>_cachedFiles.get()+invalid))
+                break;
+
+            Content content=_clock.poll();
+            if (content==null)
+                break;
+            if (content._invalid)
+                _invalidInClock.decrementAndGet();
+            else if (!full)
+                _clock.offer(content);
+            else if (content._referenced)
+            {
+                content._referenced=false;
+                _clock.offer(content);
+            }
+            else if (_cache.remove(content._key,content))
+                content.invalidate();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Invalidate the entries of files that have been modified or removed.
+     */
+    protected void checkCache()
+    {
+        for (Content content : _cache.values())
+        {
+            if (content.isModified() && _cache.remove(content._key,content))
+            {
+                LOG.debug("modified {}",content);
+                // Left in the clock for the hand to drop, as removing it is O(n)
+                content.invalidate();
+                _invalidInClock.incrementAndGet();
+            }
+        }
+        shrinkCache();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%d files,%d/%d bytes}",getClass().getSimpleName(),hashCode(),_cachedFiles.get(),_cachedSize.get(),_maxCacheSize);
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A mapped file.
+     */
+    public class Content implements HttpContent
+    {
+        final String _key;
+        final Resource _resource;
+        final File _file;
+        final int _length;
+        final long _lastModified;
+        final Buffer _lastModifiedBytes;
+        final Buffer _contentType;
+        final Buffer _buffer;
+        volatile boolean _referenced;
+        volatile boolean _invalid;
+
+        /* ------------------------------------------------------------ */
+        Content(String pathInContext, Resource resource) throws IOException
+        {
+            _key=pathInContext;
+            _resource=resource;
+            _file=resource.getFile();
+            _lastModified=_file.lastModified();
+            _lastModifiedBytes=new ByteArrayBuffer(HttpFields.formatDate(_lastModified));
+            _contentType=_mimeTypes.getMimeByExtension(_resource.toString());
+
+            RandomAccessFile raf=new RandomAccessFile(_file,"r");
+            try
+            {
+                FileChannel channel=raf.getChannel();
+                MappedByteBuffer mapped=channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+                _buffer=new DirectNIOBuffer(mapped,true);
+                _length=_buffer.length();
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        public String getKey()
+        {
+            return _key;
+        }
+
+        /* ------------------------------------------------------------ */
+        boolean isModified()
+        {
+            return _file.lastModified()!=_lastModified || _file.length()!=_length;
+        }
+
+        /* ------------------------------------------------------------ */
+        protected void invalidate()
+        {
+            _invalid=true;
+            _cachedSize.addAndGet(-_length);
+            _cachedFiles.decrementAndGet();
+            _resource.release();
+        }
+
+        /* ------------------------------------------------------------ */
+        public Buffer getContentType()
+        {
+            return _contentType;
+        }
+
+        /* ------------------------------------------------------------ */
+        public Buffer getLastModified()
+        {
+            return _lastModifiedBytes;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return null, as mapped files are not copied to the heap.
+         */
+        public Buffer getIndirectBuffer()
+        {
+            return null;
+        }
+
+        /* ------------------------------------------------------------ */
+        public Buffer getDirectBuffer()
+        {
+            return new View(_buffer);
+        }
+
+        /* ------------------------------------------------------------ */
+        public Resource getResource()
+        {
+            return _resource;
+        }
+
+        /* ------------------------------------------------------------ */
+        public long getContentLength()
+        {
+            return _length;
+        }
+
+        /* ------------------------------------------------------------ */
+        public InputStream getInputStream() throws IOException
+        {
+            return _resource.getInputStream();
+        }
+
+        /* ------------------------------------------------------------ */
+        public void release()
+        {
+            // don't release while cached. Release when invalidated.
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String toString()
+        {
+            return String.format("%s %d %s %s",_resource,_length,_contentType,_lastModifiedBytes);
+        }
+    }
+}
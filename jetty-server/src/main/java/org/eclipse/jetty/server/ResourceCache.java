@@ -53,6 +53,7 @@ public class ResourceCache
     private final ResourceFactory _factory;
     private final ResourceCache _parent;
     private final MimeTypes _mimeTypes;
+    private MappedResourceCache _mappedCache;
 
     private boolean  _useFileMappedBuffer=true;
     private int _maxCachedFileSize =4*1024*1024;
@@ -149,6 +150,24 @@ public class ResourceCache
         _useFileMappedBuffer = useFileMappedBuffer;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The cache tier for files too large for this cache, or null
+     */
+    public MappedResourceCache getMappedCache()
+    {
+        return _mappedCache;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param mappedCache The cache tier in which files too large for this cache are memory mapped, or null
+     */
+    public void setMappedCache(MappedResourceCache mappedCache)
+    {
+        _mappedCache = mappedCache;
+    }
+
     /* ------------------------------------------------------------ */
     public void flushCache()
     {
@@ -164,6 +183,8 @@ public class ResourceCache
                 }
             }
         }
+        if (_mappedCache!=null)
+            _mappedCache.flushCache();
     }
 
     /* ------------------------------------------------------------ */
@@ -184,6 +205,14 @@ public class ResourceCache
         Content content =_cache.get(pathInContext);
         if (content!=null && (content).isValid())
             return content;
+
+        // Is the content in the mapped cache?
+        if (_mappedCache!=null)
+        {
+            HttpContent mapped=_mappedCache.get(pathInContext);
+            if (mapped!=null)
+                return mapped;
+        }
        
         // try loading the content from our factory.
         Resource resource=_factory.getResource(pathInContext);
@@ -243,6 +272,14 @@ public class ResourceCache
 
             return content;
         }
+
+        // Can it be mapped?
+        if (!resource.isDirectory() && _mappedCache!=null)
+        {
+            HttpContent mapped=_mappedCache.load(pathInContext,resource);
+            if (mapped!=null)
+                return mapped;
+        }
         
         return new HttpContent.ResourceAsHttpContent(resource,_mimeTypes.getMimeByExtension(resource.toString()),getMaxCachedFileSize());
         
@@ -441,8 +441,7 @@ public class ResourceHandler extends HandlerWrapper
         // See if a short direct method can be used?
         if (out instanceof AbstractHttpConnection.Output)
         {
-            // TODO file mapped buffers
-            ((AbstractHttpConnection.Output)out).sendContent(resource.getInputStream());
+            ((AbstractHttpConnection.Output)out).sendContent(resource);
         }
         else
         {
@@ -14,7 +14,12 @@
 package org.eclipse.jetty.server.handler;
 
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletException;
@@ -26,28 +31,55 @@ import org.eclipse.jetty.continuation.ContinuationListener;
 import org.eclipse.jetty.server.AsyncContinuation;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.UserIdentity;
+import org.eclipse.jetty.util.TypeUtil;
 import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
 import org.eclipse.jetty.util.statistic.SampleStatistic;
-
+import org.eclipse.jetty.util.statistic.StripedCounterStatistic;
+import org.eclipse.jetty.util.statistic.StripedLong;
+import org.eclipse.jetty.util.statistic.StripedSampleStatistic;
+
+/* ------------------------------------------------------------ */
+/** Request statistics handler.
+ * <p>
+ * Collects statistics of the requests, dispatches and responses of the wrapped handler.
+ * Optionally the request times are also broken down by context path and by servlet, each into
+ * a percentile histogram per context or servlet. The number of histograms of a breakdown is
+ * limited by {@link #setMaxBreakdowns(int)}, beyond which requests are counted under "*".
+ * A request is keyed by the servlet that handled it, or if it was not handled by a servlet,
+ * by the context of this handler. Requests handled by neither are not broken down.
+ */
 public class StatisticsHandler extends HandlerWrapper
 {
+    private static final String OTHER = "*";
+
     private final AtomicLong _statsStartedAt = new AtomicLong();
     
-    private final CounterStatistic _requestStats = new CounterStatistic();
-    private final SampleStatistic _requestTimeStats = new SampleStatistic();
-    private final CounterStatistic _dispatchedStats = new CounterStatistic();
-    private final SampleStatistic _dispatchedTimeStats = new SampleStatistic();
-    private final CounterStatistic _suspendStats = new CounterStatistic();
-
-    private final AtomicInteger _resumes = new AtomicInteger();
-    private final AtomicInteger _expires = new AtomicInteger();
+    private final CounterStatistic _requestStats = new StripedCounterStatistic();
+    private final SampleStatistic _requestTimeStats = new StripedSampleStatistic();
+    private final HistogramStatistic _requestTimeHistogram = new HistogramStatistic();
+    private final CounterStatistic _dispatchedStats = new StripedCounterStatistic();
+    private final SampleStatistic _dispatchedTimeStats = new StripedSampleStatistic();
+    private final HistogramStatistic _dispatchedTimeHistogram = new HistogramStatistic();
+    private final CounterStatistic _suspendStats = new StripedCounterStatistic();
+
+    private final StripedLong _resumes = new StripedLong();
+    private final StripedLong _expires = new StripedLong();
     
-    private final AtomicInteger _responses1xx = new AtomicInteger();
-    private final AtomicInteger _responses2xx = new AtomicInteger();
-    private final AtomicInteger _responses3xx = new AtomicInteger();
-    private final AtomicInteger _responses4xx = new AtomicInteger();
-    private final AtomicInteger _responses5xx = new AtomicInteger();
-    private final AtomicLong _responsesTotalBytes = new AtomicLong();
+    private final StripedLong _responses1xx = new StripedLong();
+    private final StripedLong _responses2xx = new StripedLong();
+    private final StripedLong _responses3xx = new StripedLong();
+    private final StripedLong _responses4xx = new StripedLong();
+    private final StripedLong _responses5xx = new StripedLong();
+    private final StripedLong _responsesTotalBytes = new StripedLong();
+
+    private final LatencyBreakdown _contextBreakdown = new LatencyBreakdown();
+    private final LatencyBreakdown _servletBreakdown = new LatencyBreakdown();
+    private volatile boolean _breakdownByContext;
+    private volatile boolean _breakdownByServlet;
+    private volatile int _maxBreakdowns = 100;
+    private volatile boolean _breakdownResetOnRead;
 
     private final ContinuationListener _onCompletion = new ContinuationListener()
     {
@@ -58,6 +90,8 @@ public class StatisticsHandler extends HandlerWrapper
             
             _requestStats.decrement();
             _requestTimeStats.set(elapsed);
+            _requestTimeHistogram.set(elapsed);
+            updateBreakdowns(request,elapsed);
             
             updateResponse(request);
             
@@ -67,7 +101,7 @@ public class StatisticsHandler extends HandlerWrapper
 
         public void onTimeout(Continuation continuation)
         {
-            _expires.incrementAndGet();
+            _expires.increment();
         }
     };
     
@@ -80,18 +114,22 @@ public class StatisticsHandler extends HandlerWrapper
         
         _requestStats.reset();
         _requestTimeStats.reset();
+        _requestTimeHistogram.reset();
         _dispatchedStats.reset();
         _dispatchedTimeStats.reset();
+        _dispatchedTimeHistogram.reset();
         _suspendStats.reset();
 
-        _resumes.set(0);
-        _expires.set(0);
-        _responses1xx.set(0);
-        _responses2xx.set(0);
-        _responses3xx.set(0);
-        _responses4xx.set(0);
-        _responses5xx.set(0);
-        _responsesTotalBytes.set(0L);
+        _resumes.reset();
+        _expires.reset();
+        _responses1xx.reset();
+        _responses2xx.reset();
+        _responses3xx.reset();
+        _responses4xx.reset();
+        _responses5xx.reset();
+        _responsesTotalBytes.reset();
+        _contextBreakdown.reset();
+        _servletBreakdown.reset();
     }
 
     @Override
@@ -113,7 +151,7 @@ public class StatisticsHandler extends HandlerWrapper
             start = System.currentTimeMillis();
             _suspendStats.decrement();
             if (continuation.isResumed())
-                _resumes.incrementAndGet();
+                _resumes.increment();
         }
 
         try
@@ -127,6 +165,7 @@ public class StatisticsHandler extends HandlerWrapper
             
             _dispatchedStats.decrement();
             _dispatchedTimeStats.set(dispatched);
+            _dispatchedTimeHistogram.set(dispatched);
             
             if (continuation.isSuspended())
             {
@@ -138,6 +177,8 @@ public class StatisticsHandler extends HandlerWrapper
             {
                 _requestStats.decrement();
                 _requestTimeStats.set(dispatched);
+                _requestTimeHistogram.set(dispatched);
+                updateBreakdowns(request,dispatched);
                 updateResponse(request);
             }
             // else onCompletion will handle it.
@@ -150,24 +191,48 @@ public class StatisticsHandler extends HandlerWrapper
         switch (response.getStatus() / 100)
         {
             case 1:
-                _responses1xx.incrementAndGet();
+                _responses1xx.increment();
                 break;
             case 2:
-                _responses2xx.incrementAndGet();
+                _responses2xx.increment();
                 break;
             case 3:
-                _responses3xx.incrementAndGet();
+                _responses3xx.increment();
                 break;
             case 4:
-                _responses4xx.incrementAndGet();
+                _responses4xx.increment();
                 break;
             case 5:
-                _responses5xx.incrementAndGet();
+                _responses5xx.increment();
                 break;
             default:
                 break;
         }
-        _responsesTotalBytes.addAndGet(response.getContentCount());
+        _responsesTotalBytes.add(response.getContentCount());
+    }
+
+    private void updateBreakdowns(Request request, long elapsed)
+    {
+        if (!_breakdownByContext && !_breakdownByServlet)
+            return;
+
+        // The servlet scope is left on the request after it is handled, but the context is
+        // only known here if this handler is within the context.
+        UserIdentity.Scope scope = request.getUserIdentityScope();
+        String contextPath;
+        if (scope != null)
+            contextPath = scope.getContextPath();
+        else if (request.getContext() != null)
+            contextPath = request.getContext().getContextHandler().getContextPath();
+        else
+            return;
+        if (contextPath == null || contextPath.length() == 0)
+            contextPath = "/";
+
+        if (_breakdownByContext)
+            _contextBreakdown.set(contextPath,elapsed,_maxBreakdowns);
+        if (_breakdownByServlet && scope != null)
+            _servletBreakdown.set(scope.getName()+"@"+contextPath,elapsed,_maxBreakdowns);
     }
 
     @Override
@@ -177,6 +242,92 @@ public class StatisticsHandler extends HandlerWrapper
         statsReset();
     }
 
+    /**
+     * @return true if request times are broken down by context path
+     */
+    public boolean isBreakdownByContext()
+    {
+        return _breakdownByContext;
+    }
+
+    /**
+     * @param breakdown true if request times are broken down by context path
+     */
+    public void setBreakdownByContext(boolean breakdown)
+    {
+        _breakdownByContext = breakdown;
+    }
+
+    /**
+     * @return true if request times are broken down by servlet
+     */
+    public boolean isBreakdownByServlet()
+    {
+        return _breakdownByServlet;
+    }
+
+    /**
+     * @param breakdown true if request times are broken down by servlet
+     */
+    public void setBreakdownByServlet(boolean breakdown)
+    {
+        _breakdownByServlet = breakdown;
+    }
+
+    /**
+     * @return the maximum number of histograms of each breakdown
+     */
+    public int getMaxBreakdowns()
+    {
+        return _maxBreakdowns;
+    }
+
+    /**
+     * @param max the maximum number of histograms of each breakdown, beyond which
+     * requests are counted under "*". Each histogram takes some kilobytes of memory.
+     */
+    public void setMaxBreakdowns(int max)
+    {
+        _maxBreakdowns = max;
+    }
+
+    /**
+     * @return true if the breakdowns are reset each time they are read
+     */
+    public boolean isBreakdownResetOnRead()
+    {
+        return _breakdownResetOnRead;
+    }
+
+    /**
+     * @param reset true if the breakdowns are reset each time they are read, so that each read
+     * gives the request times since the previous read rather than since {@link #statsReset()}.
+     */
+    public void setBreakdownResetOnRead(boolean reset)
+    {
+        _breakdownResetOnRead = reset;
+    }
+
+    /**
+     * @return the count, mean, percentiles and max of the time (in milliseconds) of request
+     * handling for each context path since {@link #statsReset()} was last called, or since
+     * last read if {@link #isBreakdownResetOnRead()}.
+     */
+    public String[] getContextRequestTimes()
+    {
+        return _contextBreakdown.toStrings(_breakdownResetOnRead);
+    }
+
+    /**
+     * @return the count, mean, percentiles and max of the time (in milliseconds) of request
+     * handling for each servlet since {@link #statsReset()} was last called, or since
+     * last read if {@link #isBreakdownResetOnRead()}.
+     */
+    public String[] getServletRequestTimes()
+    {
+        return _servletBreakdown.toStrings(_breakdownResetOnRead);
+    }
+
     /**
      * @return the number of requests handled by this handler
      * since {@link #statsReset()} was last called, excluding
@@ -246,6 +397,33 @@ public class StatisticsHandler extends HandlerWrapper
         return _requestTimeStats.getStdDev();
     }
 
+    /**
+     * @return the median time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     */
+    public long getRequestTimeP50()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(50.0);
+    }
+
+    /**
+     * @return the 99th percentile of time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     */
+    public long getRequestTimeP99()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(99.0);
+    }
+
+    /**
+     * @return the 99.9th percentile of time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     */
+    public long getRequestTimeP999()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(99.9);
+    }
+
     /**
      * @return the number of dispatches seen by this handler
      * since {@link #statsReset()} was last called, excluding
@@ -316,6 +494,33 @@ public class StatisticsHandler extends HandlerWrapper
         return _dispatchedTimeStats.getStdDev();
     }
     
+    /**
+     * @return the median time (in milliseconds) of request dispatch
+     * since {@link #statsReset()} was last called.
+     */
+    public long getDispatchedTimeP50()
+    {
+        return _dispatchedTimeHistogram.getValueAtPercentile(50.0);
+    }
+
+    /**
+     * @return the 99th percentile of time (in milliseconds) of request dispatch
+     * since {@link #statsReset()} was last called.
+     */
+    public long getDispatchedTimeP99()
+    {
+        return _dispatchedTimeHistogram.getValueAtPercentile(99.0);
+    }
+
+    /**
+     * @return the 99.9th percentile of time (in milliseconds) of request dispatch
+     * since {@link #statsReset()} was last called.
+     */
+    public long getDispatchedTimeP999()
+    {
+        return _dispatchedTimeHistogram.getValueAtPercentile(99.9);
+    }
+
     /**
      * @return the number of requests handled by this handler
      * since {@link #statsReset()} was last called, including
@@ -351,7 +556,7 @@ public class StatisticsHandler extends HandlerWrapper
      */
     public int getResumes()
     {
-        return _resumes.get();
+        return (int)_resumes.get();
     }
 
     /**
@@ -360,7 +565,7 @@ public class StatisticsHandler extends HandlerWrapper
      */
     public int getExpires()
     {
-        return _expires.get();
+        return (int)_expires.get();
     }
 
     /**
@@ -369,7 +574,7 @@ public class StatisticsHandler extends HandlerWrapper
      */
     public int getResponses1xx()
     {
-        return _responses1xx.get();
+        return (int)_responses1xx.get();
     }
 
     /**
@@ -378,7 +583,7 @@ public class StatisticsHandler extends HandlerWrapper
      */
     public int getResponses2xx()
     {
-        return _responses2xx.get();
+        return (int)_responses2xx.get();
     }
 
     /**
@@ -387,7 +592,7 @@ public class StatisticsHandler extends HandlerWrapper
      */
     public int getResponses3xx()
     {
-        return _responses3xx.get();
+        return (int)_responses3xx.get();
     }
 
     /**
@@ -396,7 +601,7 @@ public class StatisticsHandler extends HandlerWrapper
      */
     public int getResponses4xx()
     {
-        return _responses4xx.get();
+        return (int)_responses4xx.get();
     }
 
     /**
@@ -405,7 +610,7 @@ public class StatisticsHandler extends HandlerWrapper
      */
     public int getResponses5xx()
     {
-        return _responses5xx.get();
+        return (int)_responses5xx.get();
     }
 
     /**
@@ -439,6 +644,7 @@ public class StatisticsHandler extends HandlerWrapper
         sb.append("Mean request time: ").append(getRequestTimeMean()).append("<br />\n");
         sb.append("Max request time: ").append(getRequestTimeMax()).append("<br />\n");
         sb.append("Request time standard deviation: ").append(getRequestTimeStdDev()).append("<br />\n");
+        sb.append("Request time 50/99/99.9 percentiles: ").append(getRequestTimeP50()).append('/').append(getRequestTimeP99()).append('/').append(getRequestTimeP999()).append("<br />\n");
         
 
         sb.append("<h2>Dispatches:</h2>\n");
@@ -449,6 +655,7 @@ public class StatisticsHandler extends HandlerWrapper
         sb.append("Mean dispatched time: ").append(getDispatchedTimeMean()).append("<br />\n");
         sb.append("Max dispatched time: ").append(getDispatchedTimeMax()).append("<br />\n");
         sb.append("Dispatched time standard deviation: ").append(getDispatchedTimeStdDev()).append("<br />\n");
+        sb.append("Dispatched time 50/99/99.9 percentiles: ").append(getDispatchedTimeP50()).append('/').append(getDispatchedTimeP99()).append('/').append(getDispatchedTimeP999()).append("<br />\n");
 
 
         sb.append("Total requests suspended: ").append(getSuspends()).append("<br />\n");
@@ -463,7 +670,81 @@ public class StatisticsHandler extends HandlerWrapper
         sb.append("5xx responses: ").append(getResponses5xx()).append("<br />\n");
         sb.append("Bytes sent total: ").append(getResponsesBytesTotal()).append("<br />\n");
 
+        if (_breakdownByContext)
+        {
+            sb.append("<h2>Request time by context:</h2>\n");
+            for (String times : _contextBreakdown.toStrings(false))
+                sb.append(times).append("<br />\n");
+        }
+        if (_breakdownByServlet)
+        {
+            sb.append("<h2>Request time by servlet:</h2>\n");
+            for (String times : _servletBreakdown.toStrings(false))
+                sb.append(times).append("<br />\n");
+        }
+
         return sb.toString();
 
     }
+
+    @Override
+    public void dump(Appendable out, String indent) throws IOException
+    {
+        dumpThis(out);
+        List<String> breakdowns = new ArrayList<String>();
+        if (_breakdownByContext)
+            for (String times : _contextBreakdown.toStrings(false))
+                breakdowns.add("context "+times);
+        if (_breakdownByServlet)
+            for (String times : _servletBreakdown.toStrings(false))
+                breakdowns.add("servlet "+times);
+        dump(out,indent,getBeans(),TypeUtil.asList(getHandlers()),breakdowns);
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Request time histograms by key.
+     * Samples recorded while the histograms are read and reset may be counted in either window.
+     */
+    private static class LatencyBreakdown
+    {
+        private volatile ConcurrentMap<String, HistogramStatistic> _histograms = new ConcurrentHashMap<String, HistogramStatistic>();
+
+        void set(String key, long sample, int max)
+        {
+            ConcurrentMap<String, HistogramStatistic> histograms = _histograms;
+            HistogramStatistic histogram = histograms.get(key);
+            if (histogram == null)
+            {
+                if (histograms.size() >= max)
+                {
+                    key = OTHER;
+                    histogram = histograms.get(key);
+                }
+                if (histogram == null)
+                {
+                    histogram = new HistogramStatistic();
+                    HistogramStatistic existing = histograms.putIfAbsent(key,histogram);
+                    if (existing != null)
+                        histogram = existing;
+                }
+            }
+            histogram.set(sample);
+        }
+
+        void reset()
+        {
+            _histograms = new ConcurrentHashMap<String, HistogramStatistic>();
+        }
+
+        String[] toStrings(boolean reset)
+        {
+            Map<String, HistogramStatistic> histograms = _histograms;
+            if (reset)
+                reset();
+            List<String> strings = new ArrayList<String>(histograms.size());
+            for (Map.Entry<String, HistogramStatistic> entry : new TreeMap<String, HistogramStatistic>(histograms).entrySet())
+                strings.add(entry.getKey()+": "+entry.getValue());
+            return strings.toArray(new String[strings.size()]);
+        }
+    }
 }
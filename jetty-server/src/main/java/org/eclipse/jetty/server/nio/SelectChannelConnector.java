@@ -31,6 +31,7 @@ import org.eclipse.jetty.io.nio.SelectorManager;
 import org.eclipse.jetty.io.nio.SelectorManager.SelectSet;
 import org.eclipse.jetty.server.AsyncHttpConnection;
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
 import org.eclipse.jetty.util.thread.ThreadPool;
 
 /* ------------------------------------------------------------------------------- */
@@ -65,6 +66,9 @@ public class SelectChannelConnector extends AbstractNIOConnector
     private int _lowResourcesConnections;
     private int _lowResourcesMaxIdleTime;
     private int _localPort=-1;
+    private boolean _selectorAccept;
+    private boolean _batchPipelinedResponses;
+    private final SampleStatistic _responseBatchStats = new SampleStatistic();
 
     private final SelectorManager _manager = new ConnectorSelectorManager();
 
@@ -232,7 +236,8 @@ public class SelectChannelConnector extends AbstractNIOConnector
     /* ------------------------------------------------------------ */
     /**
      * Set the period in ms that a connection is allowed to be idle when this there are more
-     * than {@link #getLowResourcesConnections()} connections.  This allows the server to rapidly close idle connections
+     * than {@link #getLowResourcesConnections()} connections, or when the thread pool is
+     * {@link ThreadPool#isLowOnThreads() low on threads}.  This allows the server to rapidly close idle connections
      * in order to gracefully handle high load situations.
      * @param lowResourcesMaxIdleTime the period in ms that a connection is allowed to be idle when resources are low.
      * @see #setMaxIdleTime(int)
@@ -245,6 +250,207 @@ public class SelectChannelConnector extends AbstractNIOConnector
     }
 
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return True if idle and async timeouts are scheduled with a hashed timing wheel
+     * @see SelectorManager#getUseTimeoutWheel()
+     */
+    public boolean getUseTimeoutWheel()
+    {
+        return _manager.getUseTimeoutWheel();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set whether async timeouts, such as those of suspended requests, are scheduled with a
+     * hashed timing wheel, which has O(1) schedule and cancel, rather than a sorted list.
+     * This is useful when there are many suspended requests. Connection idle timeouts
+     * are not affected, as they are checked by a periodic sweep of the endpoints.
+     * @param useTimeoutWheel True to use a {@link org.eclipse.jetty.util.thread.HashedWheelTimeout}
+     * @see SelectorManager#setUseTimeoutWheel(boolean)
+     */
+    public void setUseTimeoutWheel(boolean useTimeoutWheel)
+    {
+        _manager.setUseTimeoutWheel(useTimeoutWheel);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return True if connections are accepted by the selectors rather than by acceptor threads
+     */
+    public boolean getSelectorAccept()
+    {
+        return _selectorAccept;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set whether connections are accepted by the selectors.
+     * <p>
+     * By default, acceptor threads block accepting connections from the server channel
+     * and hand them to the select sets in turn. If selector accept is set, there are no
+     * acceptor threads and instead the server channel is non blocking and registered
+     * with every select set, each of which accepts connections in batches as part of its
+     * select loop. This drains the accept queue more rapidly when many connections arrive
+     * at once and avoids handing each connection between threads.
+     * The number of select sets is still set by {@link #setAcceptors(int)}.
+     * @param selectorAccept True if connections are accepted by the selectors
+     * @see SelectorManager#register(ServerSocketChannel)
+     */
+    public void setSelectorAccept(boolean selectorAccept)
+    {
+        if (isStarted())
+            throw new IllegalStateException();
+        _selectorAccept=selectorAccept;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The maximum number of connections accepted by a selector each time it selects
+     * @see SelectorManager#getAcceptBatch()
+     */
+    public int getAcceptBatch()
+    {
+        return _manager.getAcceptBatch();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param acceptBatch The maximum number of connections accepted by a selector each time it selects
+     * when {@link #setSelectorAccept(boolean)} is true
+     * @see SelectorManager#setAcceptBatch(int)
+     */
+    public void setAcceptBatch(int acceptBatch)
+    {
+        _manager.setAcceptBatch(acceptBatch);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of connections accepted by each selector when {@link #getSelectorAccept()} is true
+     */
+    public long[] getSelectorAccepted()
+    {
+        return _manager.getAccepted();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The rate of connections per second accepted by each selector when {@link #getSelectorAccept()} is true
+     */
+    public long[] getSelectorAcceptRates()
+    {
+        return _manager.getAcceptRates();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return A summary of the select loop statistics of each selector
+     * @see SelectorManager#getSelectSetStatistics()
+     */
+    public String[] getSelectSetStatistics()
+    {
+        return _manager.getSelectSetStatistics();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of times the selectors have been rebuilt
+     */
+    public long getSelectorRebuilds()
+    {
+        return _manager.getSelectorRebuilds();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Reset the select loop statistics of each selector.
+     */
+    public void resetSelectSetStatistics()
+    {
+        _manager.resetSelectSetStatistics();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return True if the responses to pipelined requests are written together
+     */
+    public boolean getBatchPipelinedResponses()
+    {
+        return _batchPipelinedResponses;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set whether the responses to pipelined requests are written together.
+     * <p>
+     * If true, while a connection handles a request that is followed by further requests
+     * already read into its buffer, the response is aggregated rather than written, so that
+     * the responses to a burst of pipelined requests are written with a single write.
+     * The aggregated responses are written when no more pipelined requests are buffered,
+     * when the aggregate is full, when the connection blocks for input or when a request
+     * is suspended. A slow request may thus delay the responses to the requests before it.
+     * @param batch True if the responses to pipelined requests are written together
+     * @see SelectChannelEndPoint#setCorked(boolean)
+     */
+    public void setBatchPipelinedResponses(boolean batch)
+    {
+        _batchPipelinedResponses=batch;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Record a batch of responses written together.
+     * @param responses The number of responses in the batch
+     */
+    public void responsesBatched(int responses)
+    {
+        _responseBatchStats.set(responses);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of batches of responses written when {@link #getBatchPipelinedResponses()} is true
+     */
+    public long getResponseBatches()
+    {
+        return _responseBatchStats.getCount();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The mean number of responses written together when {@link #getBatchPipelinedResponses()} is true
+     */
+    public double getResponseBatchSizeMean()
+    {
+        return _responseBatchStats.getMean();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The maximum number of responses written together when {@link #getBatchPipelinedResponses()} is true
+     */
+    public long getResponseBatchSizeMax()
+    {
+        return _responseBatchStats.getMax();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Reset the response batch statistics.
+     */
+    public void resetResponseBatchStatistics()
+    {
+        _responseBatchStats.reset();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected int getAcceptorThreads()
+    {
+        return _selectorAccept?0:super.getAcceptorThreads();
+    }
+
     /* ------------------------------------------------------------ */
     /*
      * @see org.eclipse.jetty.server.server.AbstractConnector#doStart()
@@ -258,6 +464,15 @@ public class SelectChannelConnector extends AbstractNIOConnector
         _manager.setLowResourcesMaxIdleTime(getLowResourcesMaxIdleTime());
 
         super.doStart();
+
+        if (_selectorAccept)
+        {
+            synchronized(this)
+            {
+                _acceptChannel.configureBlocking(false);
+                _manager.register(_acceptChannel);
+            }
+        }
     }
 
     /* ------------------------------------------------------------ */
@@ -295,6 +510,19 @@ public class SelectChannelConnector extends AbstractNIOConnector
             return pool.dispatch(task);
         }
 
+        @Override
+        protected boolean isLowResources()
+        {
+            return SelectChannelConnector.this.isLowResources();
+        }
+
+        @Override
+        protected void accepted(SocketChannel channel) throws IOException
+        {
+            super.accepted(channel);
+            configure(channel.socket());
+        }
+
         @Override
         protected void endPointClosed(final SelectChannelEndPoint endpoint)
         {
@@ -113,7 +113,7 @@ public abstract class AbstractSessionIdManager extends AbstractLifeCycle impleme
             
             // pick a new unique ID!
             String id=null;
-            while (id==null||id.length()==0||idInUse(id))
+            while (id==null||id.length()==0||newIdInUse(id))
             {
                 long r0=_weakRandom
                 ?(hashCode()^Runtime.getRuntime().freeMemory()^_random.nextInt()^(((long)request.hashCode())<<32))
@@ -138,6 +138,22 @@ public abstract class AbstractSessionIdManager extends AbstractLifeCycle impleme
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Check if a newly generated random session id is in use.
+     * <p>
+     * By default this is {@link #idInUse(String)}, but as a random id is very unlikely
+     * to be in use, implementations may use a cheaper check that can give a false
+     * negative for an id that has only recently been used elsewhere.
+     *
+     * @param id the newly generated cluster id
+     * @return true if the id is in use
+     */
+    protected boolean newIdInUse(String id)
+    {
+        return idInUse(id);
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     protected void doStart() throws Exception
@@ -0,0 +1,134 @@
+package org.eclipse.jetty.server.session;
+//========================================================================
+//Copyright 2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//All rights reserved. This program and the accompanying materials
+//are made available under the terms of the Eclipse Public License v1.0
+//and Apache License v2.0 which accompanies this distribution.
+//The Eclipse Public License is available at
+//http://www.eclipse.org/legal/epl-v10.html
+//The Apache License v2.0 is available at
+//http://www.opensource.org/licenses/apache2.0.php
+//You may elect to redistribute this code under either of these licenses.
+//========================================================================
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* ------------------------------------------------------------ */
+/** A Bloom filter of strings.
+ * <p>
+ * The filter may give false positives, but never false negatives, for strings that
+ * have been added to it. Strings cannot be removed, so a filter of a changing set of
+ * strings must be rebuilt from time to time. Adding and checking strings are lock free.
+ */
+public class BloomFilter
+{
+    private final AtomicLongArray _bits;
+    private final int _size;
+    private final int _hashes;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param expected The expected number of strings
+     * @param falsePositives The false positive probability once the expected number of strings is added
+     */
+    public BloomFilter(int expected, double falsePositives)
+    {
+        if (expected<1)
+            expected=1;
+        if (falsePositives<=0 || falsePositives>=1)
+            throw new IllegalArgumentException("falsePositives="+falsePositives);
+        double ln2=Math.log(2);
+        long size=(long)Math.ceil(-expected*Math.log(falsePositives)/(ln2*ln2));
+        size=Math.min(Integer.MAX_VALUE&~63,Math.max(64,(size+63)&~63));
+        _size=(int)size;
+        _hashes=Math.max(1,(int)Math.round(ln2*_size/expected));
+        _bits=new AtomicLongArray(_size>>>6);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param s The string to add
+     */
+    public void add(String s)
+    {
+        int h1=s.hashCode();
+        int h2=hash(s);
+        for (int i=0;i<_hashes;i++)
+        {
+            int bit=index(h1+i*h2);
+            int word=bit>>>6;
+            long mask=1L<<bit;
+            while (true)
+            {
+                long bits=_bits.get(word);
+                if ((bits&mask)!=0 || _bits.compareAndSet(word,bits,bits|mask))
+                    break;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param s The string to check
+     * @return false if the string has definitely not been added, true if it may have been
+     */
+    public boolean mightContain(String s)
+    {
+        int h1=s.hashCode();
+        int h2=hash(s);
+        for (int i=0;i<_hashes;i++)
+        {
+            int bit=index(h1+i*h2);
+            if ((_bits.get(bit>>>6)&(1L<<bit))==0)
+                return false;
+        }
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of bits in the filter
+     */
+    public int getSize()
+    {
+        return _size;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of bits set for each string
+     */
+    public int getHashes()
+    {
+        return _hashes;
+    }
+
+    /* ------------------------------------------------------------ */
+    private int index(int hash)
+    {
+        return (hash&Integer.MAX_VALUE)%_size;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** A FNV-1a hash, independent of {@link String#hashCode()}, that is forced odd
+     * so that the combined hashes cover the filter.
+     */
+    private static int hash(String s)
+    {
+        int h=0x811c9dc5;
+        for (int i=0;i<s.length();i++)
+        {
+            h^=s.charAt(i);
+            h*=0x01000193;
+        }
+        return h|1;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%d bits,%d hashes}",getClass().getSimpleName(),hashCode(),_size,_hashes);
+    }
+}
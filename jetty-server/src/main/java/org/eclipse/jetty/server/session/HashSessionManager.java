@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -32,6 +31,7 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.HashedWheelTimeout;
 
 
 /* ------------------------------------------------------------ */
@@ -42,7 +42,12 @@ import org.eclipse.jetty.util.log.Logger;
  * <p>
  * This manager will create it's own Timer instance to scavenge threads, unless it discovers a shared Timer instance
  * set as the "org.eclipse.jetty.server.session.timer" attribute of the ContextHandler.
- *
+ * <p>
+ * Sessions are indexed by the time at which they may next expire or be idled, in a
+ * {@link HashedWheelTimeout} with a tick of a second, so that a scavenge only checks the
+ * sessions that are due rather than all sessions. Accessing a session does not update the
+ * index, as it can only make the session due later: a session found not to be due when its
+ * time comes is rescheduled.
  */
 public class HashSessionManager extends AbstractSessionManager
 {
@@ -61,6 +66,8 @@ public class HashSessionManager extends AbstractSessionManager
     private boolean _lazyLoad=false;
     private volatile boolean _sessionsLoaded=false;
     private boolean _deleteUnrestorableSessions=false;
+    private final Object _scavengeLock=new Object();
+    private final HashedWheelTimeout _scavengeIndex=new HashedWheelTimeout(_scavengeLock,1000,4096);
     
 
 
@@ -129,6 +136,7 @@ public class HashSessionManager extends AbstractSessionManager
         super.doStop();
 
         _sessions.clear();
+        _scavengeIndex.cancelAll();
 
     }
 
@@ -179,6 +187,10 @@ public class HashSessionManager extends AbstractSessionManager
     public void setIdleSavePeriod(int seconds)
     {
       _idleSavePeriodMs = seconds * 1000L;
+
+      // sessions may now be due earlier
+      for (HashedSession session : _sessions.values())
+          scheduleScavenge(session,true);
     }
 
     /* ------------------------------------------------------------ */
@@ -280,8 +292,9 @@ public class HashSessionManager extends AbstractSessionManager
 
     /* -------------------------------------------------------------- */
     /**
-     * Find sessions that have timed out and invalidate them. This runs in the
-     * SessionScavenger thread.
+     * Find sessions that have timed out and invalidate them, and idle sessions
+     * that have not been accessed for the idle save period. Only the sessions that
+     * are due in the scavenge index are checked. This runs in the SessionScavenger thread.
      */
     protected void scavenge()
     {
@@ -296,22 +309,12 @@ public class HashSessionManager extends AbstractSessionManager
             if (_loader!=null)
                 thread.setContextClassLoader(_loader);
 
-            // For each session
-            long now=System.currentTimeMillis();
-            for (Iterator<HashedSession> i=_sessions.values().iterator(); i.hasNext();)
+            // For each due session
+            synchronized (_scavengeLock)
             {
-                HashedSession session=i.next();
-                long idleTime=session.getMaxInactiveInterval()*1000L;
-                if (idleTime>0&&session.getAccessed()+idleTime<now)
-                {
-                    // Found a stale session, add it to the list
-                    session.timeout();
-                }
-                else if (_idleSavePeriodMs>0&&session.getAccessed()+_idleSavePeriodMs<now)
-                {
-                    session.idle();
-                }
+                _scavengeIndex.setNow();
             }
+            _scavengeIndex.tick();
         }
         catch (Throwable t)
         {
@@ -323,12 +326,77 @@ public class HashSessionManager extends AbstractSessionManager
         }
     }
 
+    /* -------------------------------------------------------------- */
+    /**
+     * Check a session that is due in the scavenge index, then reschedule it.
+     * @param session
+     */
+    protected void scavenge(HashedSession session)
+    {
+        long now=_scavengeIndex.getNow();
+        long idleTime=session.getMaxInactiveInterval()*1000L;
+        if (idleTime>0&&session.getAccessed()+idleTime<now)
+        {
+            // Found a stale session
+            session.timeout();
+            return;
+        }
+        if (_idleSavePeriodMs>0&&session.getAccessed()+_idleSavePeriodMs<now)
+            session.idle();
+        scheduleScavenge(session,false);
+    }
+
+    /* -------------------------------------------------------------- */
+    /**
+     * Schedule a session in the scavenge index at the next time at which it may
+     * expire or be idled.
+     * @param session
+     * @param earlier If true, only reschedule the session if it is now due earlier
+     * than it is scheduled
+     */
+    protected void scheduleScavenge(HashedSession session, boolean earlier)
+    {
+        HashedSession.ScavengeTask task=session._scavengeTask;
+        if (!session.isValid())
+        {
+            task.cancel();
+            return;
+        }
+
+        long now=System.currentTimeMillis();
+        long accessed=session.getAccessed();
+        long due=Long.MAX_VALUE;
+        long idleTime=session.getMaxInactiveInterval()*1000L;
+        if (idleTime>0)
+            due=accessed+idleTime+1;
+        if (_idleSavePeriodMs>0&&accessed+_idleSavePeriodMs>=now)
+            due=Math.min(due,accessed+_idleSavePeriodMs+1);
+
+        if (due==Long.MAX_VALUE)
+        {
+            if (!earlier)
+                task.cancel();
+            return;
+        }
+
+        if (earlier && task.isScheduled() && task.getTimestamp()<=due)
+            return;
+
+        synchronized (_scavengeLock)
+        {
+            _scavengeIndex.schedule(task,due-_scavengeIndex.getNow());
+        }
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     protected void addSession(AbstractSession session)
     {
         if (isRunning())
+        {
             _sessions.put(session.getClusterId(),(HashedSession)session);
+            scheduleScavenge((HashedSession)session,false);
+        }
     }
 
     /* ------------------------------------------------------------ */
@@ -411,7 +479,11 @@ public class HashSessionManager extends AbstractSessionManager
     @Override
     protected boolean removeSession(String clusterId)
     {
-        return _sessions.remove(clusterId)!=null;
+        HashedSession session=_sessions.remove(clusterId);
+        if (session==null)
+            return false;
+        session._scavengeTask.cancel();
+        return true;
     }
 
     /* ------------------------------------------------------------ */
@@ -27,6 +27,7 @@ import javax.servlet.http.HttpServletRequest;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Timeout;
 
 public class HashedSession extends AbstractSession
 {
@@ -45,6 +46,9 @@ public class HashedSession extends AbstractSession
      * data stored in the session that is not serializable. */
     private transient boolean _saveFailed = false;
 
+    /** The entry of the session in the scavenge index of the manager. */
+    final ScavengeTask _scavengeTask = new ScavengeTask();
+
     /* ------------------------------------------------------------- */
     protected HashedSession(HashSessionManager hashSessionManager, HttpServletRequest request)
     {
@@ -74,6 +78,19 @@ public class HashedSession extends AbstractSession
         super.setMaxInactiveInterval(secs);
         if (getMaxInactiveInterval()>0&&(getMaxInactiveInterval()*1000L/10)<_hashSessionManager._scavengePeriodMs)
             _hashSessionManager.setScavengePeriod((secs+9)/10);
+        _hashSessionManager.scheduleScavenge(this,false);
+    }
+
+    /* ------------------------------------------------------------- */
+    @Override
+    protected boolean access(long time)
+    {
+        if (!super.access(time))
+            return false;
+        // A session that has been idled may be due to be idled again before it is scheduled
+        if (_hashSessionManager._idleSavePeriodMs>0)
+            _hashSessionManager.scheduleScavenge(this,true);
+        return true;
     }
 
     /* ------------------------------------------------------------ */
@@ -117,7 +134,10 @@ public class HashedSession extends AbstractSession
                 if (reactivate)
                     didActivate();
                 else
+                {
                     clearAttributes();
+                    _idled=true;
+                }
             }
             catch (Exception e)
             {
@@ -235,4 +255,15 @@ public class HashedSession extends AbstractSession
         _saveFailed = true;
     }
 
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    class ScavengeTask extends Timeout.Task
+    {
+        @Override
+        public void expired()
+        {
+            _hashSessionManager.scavenge(HashedSession.this);
+        }
+    }
+
 }
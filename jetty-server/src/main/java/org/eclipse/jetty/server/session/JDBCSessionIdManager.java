@@ -25,9 +25,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -40,6 +40,7 @@ import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.SessionManager;
 import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.ConcurrentHashSet;
 import org.eclipse.jetty.util.log.Logger;
 
 
@@ -49,13 +50,18 @@ import org.eclipse.jetty.util.log.Logger;
  *
  * SessionIdManager implementation that uses a database to store in-use session ids, 
  * to support distributed sessions.
- * 
+ * <p>
+ * The ids of sessions managed by this node are kept in a concurrent set, and a
+ * {@link BloomFilter} of all the ids in the id table is periodically rebuilt, so that
+ * newly generated session ids can be checked without locking or going to the database.
+ * Ids that are requested by clients but not known to this node are always checked
+ * in the database.
  */
 public class JDBCSessionIdManager extends AbstractSessionIdManager
 {    
     final static Logger LOG = SessionHandler.LOG;
     
-    protected final HashSet<String> _sessionIds = new HashSet<String>();
+    protected final Set<String> _sessionIds = new ConcurrentHashSet<String>();
     protected Server _server;
     protected Driver _driver;
     protected String _driverClassName;
@@ -70,6 +76,10 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
     protected TimerTask _task; //scavenge task
     protected long _lastScavengeTime;
     protected long _scavengeIntervalMs = 1000L * 60 * 10; //10mins
+    protected TimerTask _filterTask; //id filter refresh task
+    protected long _idFilterRefreshMs = 0; //no id filter unless set
+    protected double _idFilterFalsePositives = 0.01;
+    protected volatile BloomFilter _idFilter; //filter of the ids in the id table
     protected String _blobType; //if not set, is deduced from the type of the database at runtime
     protected String _longType; //if not set, is deduced from the type of the database at runtime
     
@@ -82,12 +92,14 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
     protected String _insertId;
     protected String _deleteId;
     protected String _queryId;
+    protected String _selectIds;
     
     protected  String _insertSession;
     protected  String _deleteSession;
     protected  String _updateSession;
     protected  String _updateSessionNode;
     protected  String _updateSessionAccessTime;
+    protected  String _selectSessionVersion;
     
     protected DatabaseAdaptor _dbAdaptor;
 
@@ -357,24 +369,63 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
         return _scavengeIntervalMs/1000;
     }
     
+    /**
+     * Set the interval at which the filter of session ids in the id table is
+     * rebuilt. Newly generated session ids that are not in the filter are not
+     * checked in the database. Rebuilding the filter scans the whole id table,
+     * so there is no filter unless an interval is set.
+     * 
+     * @param sec the refresh interval in seconds, or 0 (the default) to not use a filter
+     */
+    public void setIdFilterRefreshInterval (long sec)
+    {
+        if (isStarted())
+            throw new IllegalStateException();
+        _idFilterRefreshMs=sec*1000L;
+    }
+    
+    public long getIdFilterRefreshInterval ()
+    {
+        return _idFilterRefreshMs/1000;
+    }
+    
+    /**
+     * @param falsePositives the false positive probability of the id filter, which is
+     * the probability that a newly generated id is checked in the database
+     */
+    public void setIdFilterFalsePositives (double falsePositives)
+    {
+        if (isStarted())
+            throw new IllegalStateException();
+        _idFilterFalsePositives=falsePositives;
+    }
+    
+    public double getIdFilterFalsePositives ()
+    {
+        return _idFilterFalsePositives;
+    }
+    
     
     public void addSession(HttpSession session)
     {
         if (session == null)
             return;
         
-        synchronized (_sessionIds)
+        String id = ((JDBCSessionManager.Session)session).getClusterId();
+        //the id is already in the table if another context on this node has a session with it
+        if (!_sessionIds.add(id))
+            return;
+        try
         {
-            String id = ((JDBCSessionManager.Session)session).getClusterId();            
-            try
-            {
-                insert(id);
-                _sessionIds.add(id);
-            }
-            catch (Exception e)
-            {
-                LOG.warn("Problem storing session id="+id, e);
-            }
+            insert(id);
+            BloomFilter filter = _idFilter;
+            if (filter != null)
+                filter.add(id);
+        }
+        catch (Exception e)
+        {
+            _sessionIds.remove(id);
+            LOG.warn("Problem storing session id="+id, e);
         }
     }
     
@@ -394,21 +445,17 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
         if (id == null)
             return;
         
-        synchronized (_sessionIds)
-        {  
-            if (LOG.isDebugEnabled())
-                LOG.debug("Removing session id="+id);
-            try
-            {               
-                _sessionIds.remove(id);
-                delete(id);
-            }
-            catch (Exception e)
-            {
-                LOG.warn("Problem removing session id="+id, e);
-            }
+        if (LOG.isDebugEnabled())
+            LOG.debug("Removing session id="+id);
+        try
+        {               
+            _sessionIds.remove(id);
+            delete(id);
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Problem removing session id="+id, e);
         }
-        
     }
     
 
@@ -444,13 +491,7 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
             return false;
         
         String clusterId = getClusterId(id);
-        boolean inUse = false;
-        synchronized (_sessionIds)
-        {
-            inUse = _sessionIds.contains(clusterId);
-        }
-        
-        if (inUse)
+        if (_sessionIds.contains(clusterId))
             return true; //optimisation - if this session is one we've been managing, we can check locally
 
         //otherwise, we need to go to the database to check
@@ -465,6 +506,26 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
         }
     }
 
+    /**
+     * Check a newly generated id against the ids of this node and the id filter,
+     * only going to the database if the filter may contain the id. The filter
+     * may be stale, but a random id that has been used elsewhere since the filter
+     * was built is no more likely than one used between this check and the insert
+     * of the id.
+     * 
+     * @see org.eclipse.jetty.server.session.AbstractSessionIdManager#newIdInUse(java.lang.String)
+     */
+    @Override
+    protected boolean newIdInUse(String id)
+    {
+        if (_sessionIds.contains(id))
+            return true;
+        BloomFilter filter = _idFilter;
+        if (filter != null && !filter.mightContain(id))
+            return false;
+        return idInUse(id);
+    }
+
     /** 
      * Invalidate the session matching the id on all contexts.
      * 
@@ -475,22 +536,19 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
         //take the id out of the list of known sessionids for this node
         removeSession(id);
         
-        synchronized (_sessionIds)
+        //tell all contexts that may have a session object with this id to
+        //get rid of them
+        Handler[] contexts = _server.getChildHandlersByClass(ContextHandler.class);
+        for (int i=0; contexts!=null && i<contexts.length; i++)
         {
-            //tell all contexts that may have a session object with this id to
-            //get rid of them
-            Handler[] contexts = _server.getChildHandlersByClass(ContextHandler.class);
-            for (int i=0; contexts!=null && i<contexts.length; i++)
+            SessionHandler sessionHandler = (SessionHandler)((ContextHandler)contexts[i]).getChildHandlerByClass(SessionHandler.class);
+            if (sessionHandler != null) 
             {
-                SessionHandler sessionHandler = (SessionHandler)((ContextHandler)contexts[i]).getChildHandlerByClass(SessionHandler.class);
-                if (sessionHandler != null) 
-                {
-                    SessionManager manager = sessionHandler.getSessionManager();
+                SessionManager manager = sessionHandler.getSessionManager();
 
-                    if (manager != null && manager instanceof JDBCSessionManager)
-                    {
-                        ((JDBCSessionManager)manager).invalidateSession(id);
-                    }
+                if (manager != null && manager instanceof JDBCSessionManager)
+                {
+                    ((JDBCSessionManager)manager).invalidateSession(id);
                 }
             }
         }
@@ -515,6 +573,22 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
                 LOG.debug("Scavenging interval = "+getScavengeInterval()+" sec");
             _timer=new Timer("JDBCSessionScavenger", true);
             setScavengeInterval(getScavengeInterval());
+            if (_idFilterRefreshMs > 0)
+            {
+                refreshIdFilter();
+                synchronized (this)
+                {
+                    _filterTask = new TimerTask()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            refreshIdFilter();
+                        }
+                    };
+                    _timer.schedule(_filterTask,_idFilterRefreshMs,_idFilterRefreshMs);
+                }
+            }
         }
         catch (Exception e)
         {
@@ -533,10 +607,14 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
         {
             if (_task!=null)
                 _task.cancel();
+            if (_filterTask!=null)
+                _filterTask.cancel();
+            _filterTask=null;
             if (_timer!=null)
                 _timer.cancel();
             _timer=null;
         }
+        _idFilter=null;
         super.doStop();
     }
   
@@ -595,6 +673,7 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
         _insertId = "insert into "+_sessionIdTable+" (id)  values (?)";
         _deleteId = "delete from "+_sessionIdTable+" where id = ?";
         _queryId = "select * from "+_sessionIdTable+" where id = ?";
+        _selectIds = "select id from "+_sessionIdTable;
 
         Connection connection = null;
         try
@@ -671,6 +750,9 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
             _updateSessionAccessTime = "update "+_sessionTable+
             " set lastNode = ?, accessTime = ?, lastAccessTime = ?, lastSavedTime = ?, expiryTime = ? where "+_sessionTableRowId+" = ?";
 
+            _selectSessionVersion = "select lastSavedTime, lastNode from "+_sessionTable+
+            " where "+_sessionTableRowId+" = ?";
+
             
         }
         finally
@@ -765,6 +847,62 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
         }
     }
     
+    /**
+     * Rebuild the filter of the session ids in the id table.
+     * 
+     * Bloom filters cannot have ids removed, and the id table has no column to
+     * select recently inserted ids by, so the filter is rebuilt from a scan of
+     * the id table. Ids inserted by this node are added to the current filter
+     * as they are inserted.
+     */
+    protected void refreshIdFilter ()
+    {
+        Connection connection = null;
+        try
+        {
+            List<String> ids = new ArrayList<String>();
+            connection = getConnection();
+            connection.setAutoCommit(true);
+            PreparedStatement statement = connection.prepareStatement(_selectIds);
+            ResultSet result = statement.executeQuery();
+            while (result.next())
+                ids.add(result.getString(1));
+
+            //leave room for the ids inserted before the next refresh
+            BloomFilter filter = new BloomFilter(Math.max(1024,2*ids.size()),_idFilterFalsePositives);
+            for (String id : ids)
+                filter.add(id);
+            //ids of this node inserted during the scan
+            for (String id : _sessionIds)
+                filter.add(id);
+            _idFilter = filter;
+            if (LOG.isDebugEnabled()) 
+                LOG.debug("Refreshed id filter with "+ids.size()+" ids "+filter);
+        }
+        catch (Exception e)
+        {
+            _idFilter = null;
+            if (isStopping() || isStopped())
+                LOG.ignore(e);
+            else
+                LOG.warn("Problem refreshing session id filter", e);
+        }
+        finally
+        {
+            if (connection != null)
+            {
+                try
+                {
+                    connection.close();
+                }
+                catch (SQLException e)
+                {
+                    LOG.warn(e);
+                }
+            }
+        }
+    }
+
     /**
      * Look for sessions in the database that have expired.
      * 
@@ -25,11 +25,17 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.http.HttpServletRequest;
@@ -64,6 +70,18 @@ import org.eclipse.jetty.util.log.Logger;
  * the accessTime and lastAccessTime every time the session is accessed. Rather,
  * we write it out every so often. The frequency is controlled by the saveIntervalSec
  * field.
+ *
+ * Sessions are kept in memory, and once the saveIntervalSec has passed since a session
+ * was saved, the session is revalidated against its lastSavedTime and lastNode in the
+ * database. The session attributes are only loaded again if another node has used the
+ * session since, so a node that keeps seeing the same sessions rarely deserializes them.
+ *
+ * If write behind is enabled, changed sessions are not written to the database by the
+ * request thread. Instead the session data is captured when the request exits the
+ * session and queued, and writer threads write the queued sessions with JDBC batch
+ * updates. Repeated changes to a session that is already queued are coalesced into a
+ * single write. If the queue is full, the request thread writes the session itself.
+ * Other nodes may see the previous session data until the queued write is done.
  */
 public class JDBCSessionManager extends AbstractSessionManager
 {
@@ -72,6 +90,15 @@ public class JDBCSessionManager extends AbstractSessionManager
     private ConcurrentHashMap<String, AbstractSession> _sessions;
     protected JDBCSessionIdManager _jdbcSessionIdMgr = null;
     protected long _saveIntervalSec = 60; //only persist changes to session access times every 60 secs
+    protected boolean _writeBehind = false;
+    protected int _writeBehindThreads = 1;
+    protected int _writeBehindQueueSize = 1024;
+    protected int _writeBehindBatchSize = 64;
+    private ConcurrentHashMap<String, SessionUpdate> _pendingUpdates;
+    private BlockingQueue<String> _updateQueue;
+    private final Set<String> _writingRowIds = new HashSet<String>();
+    private Thread[] _writers;
+    private volatile boolean _writing;
 
     /**
      * SessionData
@@ -348,12 +375,18 @@ public class JDBCSessionManager extends AbstractSessionManager
                     //The session attributes have changed, write to the db, ensuring
                     //http passivation/activation listeners called
                     willPassivate();
-                    updateSession(_data);
+                    if (_writeBehind)
+                        scheduleUpdate(_data,true);
+                    else
+                        updateSession(_data);
                     didActivate();
                 }
                 else if ((_data._accessed - _data._lastSaved) >= (getSaveInterval() * 1000L))
                 {
-                    updateSessionAccessTime(_data);
+                    if (_writeBehind)
+                        scheduleUpdate(_data,false);
+                    else
+                        updateSessionAccessTime(_data);
                 }
             }
             catch (Exception e)
@@ -410,6 +443,121 @@ public class JDBCSessionManager extends AbstractSessionManager
     }
 
 
+    /**
+     * SessionUpdate
+     *
+     * The data of a session captured to be written by the writer threads.
+     */
+    protected static class SessionUpdate
+    {
+        final String _rowId;
+        final long _accessed;
+        final long _lastAccessed;
+        final long _expiryTime;
+        final long _saved;
+        final byte[] _attributes;
+
+        SessionUpdate (SessionData data, long saved, byte[] attributes)
+        {
+            _rowId=data.getRowId();
+            _accessed=data.getAccessed();
+            _lastAccessed=data.getLastAccessed();
+            _expiryTime=data.getExpiryTime();
+            _saved=saved;
+            _attributes=attributes;
+        }
+
+        SessionUpdate (SessionUpdate update, byte[] attributes)
+        {
+            _rowId=update._rowId;
+            _accessed=update._accessed;
+            _lastAccessed=update._lastAccessed;
+            _expiryTime=update._expiryTime;
+            _saved=update._saved;
+            _attributes=attributes;
+        }
+
+        /**
+         * @param queued the update already queued for the session
+         * @return an update that replaces the queued update
+         */
+        SessionUpdate coalesce (SessionUpdate queued)
+        {
+            if (_attributes==null && queued._attributes!=null)
+                return new SessionUpdate(this,queued._attributes);
+            return this;
+        }
+    }
+
+
+    /**
+     * SessionWriter
+     *
+     * Writes queued sessions in batches.
+     */
+    private class SessionWriter implements Runnable
+    {
+        public void run()
+        {
+            List<String> rowIds = new ArrayList<String>();
+            List<SessionUpdate> updates = new ArrayList<SessionUpdate>();
+            while (_writing)
+            {
+                try
+                {
+                    String rowId = _updateQueue.poll(1, TimeUnit.SECONDS);
+                    if (rowId==null)
+                        continue;
+                    rowIds.add(rowId);
+                    _updateQueue.drainTo(rowIds, _writeBehindBatchSize-1);
+
+                    // Skip sessions being written by another thread, which queues them again when done
+                    for (String id : rowIds)
+                    {
+                        SessionUpdate update = takeUpdate(id,false);
+                        if (update!=null)
+                            updates.add(update);
+                    }
+                    if (!updates.isEmpty())
+                    {
+                        boolean written=false;
+                        try
+                        {
+                            writeUpdates(updates);
+                            written=true;
+                        }
+                        finally
+                        {
+                            releaseUpdates(updates,written);
+                        }
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    LOG.ignore(e);
+                }
+                catch (Exception e)
+                {
+                    LOG.warn("Problem persisting queued session data, will retry", e);
+                    try
+                    {
+                        Thread.sleep(1000);
+                    }
+                    catch (InterruptedException x)
+                    {
+                        LOG.ignore(x);
+                    }
+                }
+                finally
+                {
+                    rowIds.clear();
+                    updates.clear();
+                }
+            }
+        }
+    }
+
+
 
 
     /**
@@ -441,6 +589,87 @@ public class JDBCSessionManager extends AbstractSessionManager
     }
 
 
+    /**
+     * Set whether changed sessions are written to the database by
+     * writer threads rather than by the request thread.
+     *
+     * @param writeBehind
+     */
+    public void setWriteBehind (boolean writeBehind)
+    {
+        if (isStarted())
+            throw new IllegalStateException();
+        _writeBehind=writeBehind;
+    }
+
+    public boolean isWriteBehind ()
+    {
+        return _writeBehind;
+    }
+
+
+    /**
+     * @param threads the number of threads that write queued sessions
+     */
+    public void setWriteBehindThreads (int threads)
+    {
+        if (isStarted())
+            throw new IllegalStateException();
+        _writeBehindThreads=threads;
+    }
+
+    public int getWriteBehindThreads ()
+    {
+        return _writeBehindThreads;
+    }
+
+
+    /**
+     * @param size the maximum number of queued session writes, above which
+     * the request thread writes the session itself
+     */
+    public void setWriteBehindQueueSize (int size)
+    {
+        if (isStarted())
+            throw new IllegalStateException();
+        _writeBehindQueueSize=size;
+    }
+
+    public int getWriteBehindQueueSize ()
+    {
+        return _writeBehindQueueSize;
+    }
+
+
+    /**
+     * @param size the maximum number of sessions written by a single batch update
+     */
+    public void setWriteBehindBatchSize (int size)
+    {
+        _writeBehindBatchSize=size;
+    }
+
+    public int getWriteBehindBatchSize ()
+    {
+        return _writeBehindBatchSize;
+    }
+
+
+    /**
+     * @return the number of sessions queued to be written or being written
+     */
+    public int getWriteBehindPending ()
+    {
+        ConcurrentHashMap<String, SessionUpdate> pending=_pendingUpdates;
+        if (pending==null)
+            return 0;
+        synchronized (_writingRowIds)
+        {
+            return pending.size()+_writingRowIds.size();
+        }
+    }
+
+
 
     /**
      * A method that can be implemented in subclasses to support
@@ -513,8 +742,18 @@ public class JDBCSessionManager extends AbstractSessionManager
 
                 if (session==null || ((now - session._data._lastSaved) >= (_saveIntervalSec * 1000L)))
                 {
-                    LOG.debug("getSession("+idInCluster+"): no session in session map or stale session. Reloading session data from db.");
-                    data = loadSession(idInCluster, canonicalize(_context.getContextPath()), getVirtualHost(_context));
+                    if (_writeBehind)
+                        flushUpdate(calculateRowId(idInCluster));
+                    if (session!=null && isSessionCurrent(session._data))
+                    {
+                        LOG.debug("getSession("+idInCluster+"): session in session map is current");
+                        data = session._data;
+                    }
+                    else
+                    {
+                        LOG.debug("getSession("+idInCluster+"): no session in session map or stale session. Reloading session data from db.");
+                        data = loadSession(idInCluster, canonicalize(_context.getContextPath()), getVirtualHost(_context));
+                    }
                 }
                 else if ((now - session._data._lastSaved) >= (_saveIntervalSec * 1000L))
                 {
@@ -600,6 +839,20 @@ public class JDBCSessionManager extends AbstractSessionManager
         _jdbcSessionIdMgr = (JDBCSessionIdManager)_sessionIdManager;
         
         _sessions = new ConcurrentHashMap<String, AbstractSession>();
+
+        if (_writeBehind)
+        {
+            _pendingUpdates = new ConcurrentHashMap<String, SessionUpdate>();
+            _updateQueue = new ArrayBlockingQueue<String>(_writeBehindQueueSize);
+            _writing = true;
+            _writers = new Thread[_writeBehindThreads];
+            for (int i=0;i<_writers.length;i++)
+            {
+                _writers[i] = new Thread(new SessionWriter(),"JDBCSessionWriter-"+i+"@"+Integer.toHexString(hashCode()));
+                _writers[i].setDaemon(true);
+                _writers[i].start();
+            }
+        }
         super.doStart();
     }
 
@@ -612,6 +865,36 @@ public class JDBCSessionManager extends AbstractSessionManager
     @Override
     public void doStop() throws Exception
     {
+        if (_writers!=null)
+        {
+            _writing = false;
+            for (Thread writer : _writers)
+            {
+                writer.interrupt();
+                writer.join();
+            }
+            _writers = null;
+
+            //write any sessions still queued
+            List<SessionUpdate> updates = new ArrayList<SessionUpdate>();
+            for (String rowId : _pendingUpdates.keySet())
+            {
+                SessionUpdate update = _pendingUpdates.remove(rowId);
+                if (update!=null)
+                    updates.add(update);
+            }
+            _updateQueue.clear();
+            try
+            {
+                if (!updates.isEmpty())
+                    writeUpdates(updates);
+            }
+            catch (Exception e)
+            {
+                LOG.warn("Problem persisting queued session data", e);
+            }
+        }
+
         _sessions.clear();
         _sessions = null;
 
@@ -663,6 +946,8 @@ public class JDBCSessionManager extends AbstractSessionManager
             Session session = (Session)_sessions.remove(idInCluster);
             try
             {
+                if (session != null && _writeBehind)
+                    _pendingUpdates.remove(session._data.getRowId());
                 if (session != null)
                     deleteSession(session._data);
             }
@@ -885,6 +1170,44 @@ public class JDBCSessionManager extends AbstractSessionManager
         return _reference.get();
     }
 
+    /**
+     * Check if the session data in memory is the same as the session in the database,
+     * without loading the session attributes.
+     *
+     * The lastSavedTime of the session is used as its version: every write of the session
+     * by any node updates it, so if it is unchanged since this node last saved the session
+     * and this node was the last to use it, the session has not been changed by another node.
+     *
+     * @param data
+     * @return true if the session data in memory is current
+     * @throws Exception
+     */
+    protected boolean isSessionCurrent (SessionData data)
+    throws Exception
+    {
+        Connection connection = getConnection();
+        PreparedStatement statement = null;
+        try
+        {
+            statement = connection.prepareStatement(_jdbcSessionIdMgr._selectSessionVersion);
+            statement.setString(1, data.getRowId());
+            ResultSet result = statement.executeQuery();
+            if (!result.next())
+                return false;
+            long lastSaved = result.getLong("lastSavedTime");
+            String lastNode = result.getString("lastNode");
+            boolean current = lastSaved==data.getLastSaved() && getSessionIdManager().getWorkerName().equals(lastNode);
+            if (LOG.isDebugEnabled())
+                LOG.debug("Session "+data.getId()+(current?" is":" is not")+" current, lastSaved="+lastSaved+" lastNode="+lastNode);
+            return current;
+        }
+        finally
+        {
+            if (connection!=null)
+                connection.close();
+        }
+    }
+
     /**
      * Insert a session into the database.
      *
@@ -990,6 +1313,217 @@ public class JDBCSessionManager extends AbstractSessionManager
     }
 
 
+    /**
+     * Queue a session to be written by the writer threads.
+     *
+     * The session data is captured by the calling thread. If the session is already
+     * queued, the queued write is replaced, keeping the queued attributes if only the
+     * access time has changed since. If the queue is full, the session is written by
+     * the calling thread.
+     *
+     * @param data
+     * @param attributes true if the attributes have changed
+     * @throws Exception
+     */
+    protected void scheduleUpdate (SessionData data, boolean attributes)
+    throws Exception
+    {
+        long now = System.currentTimeMillis();
+        SessionUpdate update = new SessionUpdate(data,now,attributes?serialize(data.getAttributeMap()):null);
+        data.setLastSaved(now);
+
+        while (true)
+        {
+            SessionUpdate queued = _pendingUpdates.get(update._rowId);
+            if (queued == null)
+            {
+                if (_pendingUpdates.putIfAbsent(update._rowId,update) == null)
+                {
+                    if (!_updateQueue.offer(update._rowId))
+                        flushUpdate(update._rowId);
+                    return;
+                }
+            }
+            else if (_pendingUpdates.replace(update._rowId,queued,update.coalesce(queued)))
+                return;
+        }
+    }
+
+
+    /**
+     * Write a queued session, if any, with the calling thread, after waiting
+     * for any write of the session already in progress by a writer thread.
+     * If the write fails, the session is queued again.
+     *
+     * @param rowId
+     * @throws Exception
+     */
+    protected void flushUpdate (String rowId)
+    throws Exception
+    {
+        SessionUpdate update = takeUpdate(rowId,true);
+        if (update != null)
+        {
+            List<SessionUpdate> updates = new ArrayList<SessionUpdate>(1);
+            updates.add(update);
+            boolean written=false;
+            try
+            {
+                writeUpdates(updates);
+                written=true;
+            }
+            finally
+            {
+                releaseUpdates(updates,written);
+            }
+        }
+    }
+
+
+    /**
+     * Take the queued update of a session to write it. Only one thread at a time
+     * writes a session, so that its updates are written in order.
+     *
+     * @param rowId
+     * @param wait true to wait for a write of the session in progress, false to return null
+     * @return the queued update or null if none or the session is being written
+     * @throws InterruptedException
+     */
+    private SessionUpdate takeUpdate (String rowId, boolean wait)
+    throws InterruptedException
+    {
+        synchronized (_writingRowIds)
+        {
+            while (_writingRowIds.contains(rowId))
+            {
+                if (!wait)
+                    return null;
+                _writingRowIds.wait();
+            }
+            SessionUpdate update = _pendingUpdates.remove(rowId);
+            if (update != null)
+                _writingRowIds.add(rowId);
+            return update;
+        }
+    }
+
+
+    /**
+     * Release the sessions taken by {@link #takeUpdate(String, boolean)}. If the write
+     * failed, the updates are queued again unless replaced by newer ones. Sessions updated
+     * while they were being written are queued again, as their queued row ids may have been
+     * skipped by another writer thread.
+     *
+     * @param updates
+     * @param written true if the updates were written
+     * @throws Exception
+     */
+    private void releaseUpdates (List<SessionUpdate> updates, boolean written)
+    throws Exception
+    {
+        synchronized (_writingRowIds)
+        {
+            for (SessionUpdate update : updates)
+            {
+                if (!written)
+                    restoreUpdate(update);
+                _writingRowIds.remove(update._rowId);
+            }
+            _writingRowIds.notifyAll();
+        }
+
+        if (_writing)
+        {
+            for (SessionUpdate update : updates)
+            {
+                if (_pendingUpdates.containsKey(update._rowId) && !_updateQueue.offer(update._rowId) && written)
+                    flushUpdate(update._rowId);
+            }
+        }
+    }
+
+
+    /**
+     * Queue again an update that failed to be written, keeping any newer update queued since.
+     *
+     * @param update
+     */
+    private void restoreUpdate (SessionUpdate update)
+    {
+        while (true)
+        {
+            SessionUpdate queued = _pendingUpdates.get(update._rowId);
+            if (queued == null)
+            {
+                if (_pendingUpdates.putIfAbsent(update._rowId,update) == null)
+                    return;
+            }
+            else if (_pendingUpdates.replace(update._rowId,queued,queued.coalesce(update)))
+                return;
+        }
+    }
+
+
+    /**
+     * Write queued sessions with batch updates.
+     *
+     * @param updates
+     * @throws Exception
+     */
+    protected void writeUpdates (List<SessionUpdate> updates)
+    throws Exception
+    {
+        Connection connection = getConnection();
+        PreparedStatement updateSession = null;
+        PreparedStatement updateAccessTime = null;
+        try
+        {
+            connection.setAutoCommit(true);
+            String nodeId = getSessionIdManager().getWorkerName();
+            for (SessionUpdate update : updates)
+            {
+                if (update._attributes!=null)
+                {
+                    if (updateSession==null)
+                        updateSession = connection.prepareStatement(_jdbcSessionIdMgr._updateSession);
+                    updateSession.setString(1, nodeId);//my node id
+                    updateSession.setLong(2, update._accessed);//accessTime
+                    updateSession.setLong(3, update._lastAccessed); //lastAccessTime
+                    updateSession.setLong(4, update._saved); //last saved time
+                    updateSession.setLong(5, update._expiryTime);
+                    updateSession.setBinaryStream(6, new ByteArrayInputStream(update._attributes), update._attributes.length);//attribute map as blob
+                    updateSession.setString(7, update._rowId); //rowId
+                    updateSession.addBatch();
+                }
+                else
+                {
+                    if (updateAccessTime==null)
+                        updateAccessTime = connection.prepareStatement(_jdbcSessionIdMgr._updateSessionAccessTime);
+                    updateAccessTime.setString(1, nodeId);
+                    updateAccessTime.setLong(2, update._accessed);
+                    updateAccessTime.setLong(3, update._lastAccessed);
+                    updateAccessTime.setLong(4, update._saved);
+                    updateAccessTime.setLong(5, update._expiryTime);
+                    updateAccessTime.setString(6, update._rowId);
+                    updateAccessTime.addBatch();
+                }
+            }
+            if (updateSession!=null)
+                updateSession.executeBatch();
+            if (updateAccessTime!=null)
+                updateAccessTime.executeBatch();
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("Wrote "+updates.size()+" queued sessions");
+        }
+        finally
+        {
+            if (connection!=null)
+                connection.close();
+        }
+    }
+
+
     /**
      * Update the node on which the session was last seen to be my node.
      *
@@ -1107,13 +1641,35 @@ public class JDBCSessionManager extends AbstractSessionManager
      * @return
      */
     private String calculateRowId (SessionData data)
+    {
+        return calculateRowId(data.getId());
+    }
+
+    private String calculateRowId (String sessionId)
     {
         String rowId = canonicalize(_context.getContextPath());
         rowId = rowId + "_" + getVirtualHost(_context);
-        rowId = rowId+"_"+data.getId();
+        rowId = rowId+"_"+sessionId;
         return rowId;
     }
 
+    /**
+     * Serialize the attributes of a session.
+     *
+     * @param attributes
+     * @return
+     * @throws IOException
+     */
+    private byte[] serialize (Map<String,Object> attributes)
+    throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(attributes);
+        oos.flush();
+        return baos.toByteArray();
+    }
+
     /**
      * Get the first virtual host for the context.
      *
@@ -0,0 +1,236 @@
+package org.eclipse.jetty.server.session;
+//========================================================================
+//Copyright 2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//All rights reserved. This program and the accompanying materials
+//are made available under the terms of the Eclipse Public License v1.0
+//and Apache License v2.0 which accompanies this distribution.
+//The Eclipse Public License is available at
+//http://www.eclipse.org/legal/epl-v10.html
+//The Apache License v2.0 is available at
+//http://www.opensource.org/licenses/apache2.0.php
+//You may elect to redistribute this code under either of these licenses.
+//========================================================================
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/** A session whose attributes are kept serialized in a {@link SessionArena} while it is not in use.
+ * <p>
+ * The session is compacted when it is idled, by serializing its attributes into the arena
+ * and clearing them from the heap. It is inflated again whenever it is checked for validity,
+ * which is before any access to its attributes. Compacting and inflating the session are
+ * passivation and activation, so attribute listeners are not called.
+ */
+public class OffHeapSession extends HashedSession
+{
+    private static final Logger LOG = Log.getLogger(OffHeapSession.class);
+
+    private final OffHeapSessionManager _offHeapSessionManager;
+
+    /** The block holding the serialized attributes if the session is compacted. */
+    private transient SessionArena.Block _block;
+    private transient int _compactAttributes;
+    private transient boolean _compactFailed;
+
+    /* ------------------------------------------------------------- */
+    protected OffHeapSession(OffHeapSessionManager manager, HttpServletRequest request)
+    {
+        super(manager,request);
+        _offHeapSessionManager=manager;
+    }
+
+    /* ------------------------------------------------------------- */
+    protected OffHeapSession(OffHeapSessionManager manager, long created, long accessed, String clusterId)
+    {
+        super(manager,created,accessed,clusterId);
+        _offHeapSessionManager=manager;
+    }
+
+    /* ------------------------------------------------------------- */
+    @Override
+    protected void checkValid()
+    {
+        inflate();
+        super.checkValid();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void complete()
+    {
+        super.complete();
+        if (_offHeapSessionManager.isCompactOnComplete())
+            compact();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doInvalidate() throws IllegalStateException
+    {
+        // inflate so that the attributes are unbound
+        inflate();
+        super.doInvalidate();
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Idle the session by compacting it, or if its attributes cannot be compacted and
+     * there is a store directory, by saving it as a {@link HashedSession} is idled.
+     */
+    @Override
+    public synchronized void idle()
+    {
+        compact();
+        if (_block==null && !isIdled() && _offHeapSessionManager.getStoreDirectory()!=null && !getNames().isEmpty())
+            super.idle();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public synchronized void deIdle()
+    {
+        super.deIdle();
+        inflate();
+    }
+
+    /* ------------------------------------------------------------ */
+    public synchronized boolean isCompact()
+    {
+        return _block!=null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Serialize the attributes into the arena and clear them from the heap.
+     * The session is not compacted if it is in use, if it has no attributes or if
+     * the arena cannot hold the attributes.
+     */
+    public synchronized void compact()
+    {
+        if (_block!=null || _compactFailed || getRequests()>0 || !isValid())
+            return;
+
+        Set<String> names=getNames();
+        if (names.isEmpty())
+            return;
+
+        SessionArena arena=_offHeapSessionManager.getArena();
+        if (arena==null)
+            return;
+
+        willPassivate();
+        try
+        {
+            ByteArrayOutputStream bout=new ByteArrayOutputStream();
+            ObjectOutputStream oos=new ObjectOutputStream(bout);
+            for (String name : names)
+            {
+                oos.writeUTF(name);
+                oos.writeObject(doGet(name));
+            }
+            oos.close();
+
+            _block=arena.allocate(bout.toByteArray());
+            if (_block!=null)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Compacted {} {}",getClusterId(),_block.getLength());
+                _compactAttributes=names.size();
+                for (String name : names)
+                    doPutOrRemove(name,null);
+                return;
+            }
+        }
+        catch (Exception e)
+        {
+            // We won't try again for this session
+            _compactFailed=true;
+            LOG.warn("Problem compacting session " + getClusterId(), e);
+        }
+        didActivate();
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Deserialize the attributes from the arena and free the arena block.
+     */
+    public synchronized void inflate()
+    {
+        SessionArena.Block block=_block;
+        if (block==null)
+            return;
+        _block=null;
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Inflating {} {}",getClusterId(),block.getLength());
+
+        ObjectInputStream ois=null;
+        try
+        {
+            ois=_offHeapSessionManager.new ClassLoadingObjectInputStream(block.getInputStream());
+            for (int i=0;i<_compactAttributes;i++)
+            {
+                String name=ois.readUTF();
+                Object value=ois.readObject();
+                doPutOrRemove(name,value);
+            }
+            _compactAttributes=0;
+            didActivate();
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Problem inflating session " + getClusterId(), e);
+            invalidate();
+        }
+        finally
+        {
+            IO.close(ois);
+            free(block);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Writes the session in the format of {@link HashedSession#save(OutputStream)}. If the
+     * session is compacted, the serialized attributes are copied from the arena.
+     */
+    @Override
+    public synchronized void save(OutputStream os) throws IOException
+    {
+        if (_block==null)
+        {
+            super.save(os);
+            return;
+        }
+
+        DataOutputStream out=new DataOutputStream(os);
+        out.writeUTF(getClusterId());
+        out.writeUTF(getNodeId());
+        out.writeLong(getCreationTime());
+        out.writeLong(getAccessed());
+        out.writeInt(getRequests());
+        out.writeInt(_compactAttributes);
+        InputStream in=_block.getInputStream();
+        IO.copy(in,out);
+        out.close();
+    }
+
+    /* ------------------------------------------------------------ */
+    private void free(SessionArena.Block block)
+    {
+        SessionArena arena=_offHeapSessionManager.getArena();
+        if (arena!=null)
+            arena.free(block);
+    }
+}
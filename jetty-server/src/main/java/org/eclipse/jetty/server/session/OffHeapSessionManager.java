@@ -0,0 +1,182 @@
+package org.eclipse.jetty.server.session;
+//========================================================================
+//Copyright 2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//All rights reserved. This program and the accompanying materials
+//are made available under the terms of the Eclipse Public License v1.0
+//and Apache License v2.0 which accompanies this distribution.
+//The Eclipse Public License is available at
+//http://www.eclipse.org/legal/epl-v10.html
+//The Apache License v2.0 is available at
+//http://www.opensource.org/licenses/apache2.0.php
+//You may elect to redistribute this code under either of these licenses.
+//========================================================================
+
+import java.io.File;
+
+import javax.servlet.http.HttpServletRequest;
+
+
+/* ------------------------------------------------------------ */
+/** An in-memory SessionManager that keeps the attributes of sessions that are not in use off the heap.
+ * <p>
+ * The attributes of a session are serialized into a {@link SessionArena} of direct buffers, or
+ * of a memory mapped file if an arena file is set, and are only deserialized onto the heap while
+ * the session is used. Sessions are compacted into the arena when their last request completes,
+ * or if compact on complete is false, after the idle save period. Sessions whose attributes do
+ * not fit in the arena stay on the heap.
+ * <p>
+ * The session objects themselves, holding the ids and times of the sessions, stay on the heap,
+ * so that sessions are scavenged as they are by {@link HashSessionManager}. Saving sessions to
+ * the store directory is also as for {@link HashSessionManager}, and does not inflate the sessions.
+ */
+public class OffHeapSessionManager extends HashSessionManager
+{
+    private SessionArena _arena;
+    private File _arenaFile;
+    private int _segmentSize=1024*1024;
+    private long _maxArenaSize=256*1024*1024;
+    private boolean _compactOnComplete=true;
+
+    /* ------------------------------------------------------------ */
+    public OffHeapSessionManager()
+    {
+        super();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void doStart() throws Exception
+    {
+        _arena=new SessionArena(_arenaFile,_segmentSize,_maxArenaSize);
+        super.doStart();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void doStop() throws Exception
+    {
+        super.doStop();
+        SessionArena arena=_arena;
+        _arena=null;
+        if (arena!=null)
+            arena.close();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the arena holding the attributes of compacted sessions, or null if not started
+     */
+    public SessionArena getArena()
+    {
+        return _arena;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the file that the arena is mapped from, or null if the arena is direct buffers
+     */
+    public File getArenaFile()
+    {
+        return _arenaFile;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param file the file that the arena is mapped from, or null if the arena is direct buffers.
+     * The file is scratch space and is deleted when the manager is stopped.
+     */
+    public void setArenaFile(File file)
+    {
+        _arenaFile=file;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the size of a segment of the arena, which is the maximum serialized size of compacted attributes
+     */
+    public int getSegmentSize()
+    {
+        return _segmentSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param size the size of a segment of the arena, which is the maximum serialized size of compacted attributes
+     */
+    public void setSegmentSize(int size)
+    {
+        _segmentSize=size;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum size of the arena
+     */
+    public long getMaxArenaSize()
+    {
+        return _maxArenaSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param size the maximum size of the arena
+     */
+    public void setMaxArenaSize(long size)
+    {
+        _maxArenaSize=size;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if sessions are compacted when their last request completes
+     */
+    public boolean isCompactOnComplete()
+    {
+        return _compactOnComplete;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param compact true if sessions are compacted when their last request completes, false
+     * if they are compacted after the idle save period
+     */
+    public void setCompactOnComplete(boolean compact)
+    {
+        _compactOnComplete=compact;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of compacted sessions
+     */
+    public int getCompactSessions()
+    {
+        SessionArena arena=_arena;
+        return arena==null?0:arena.getBlocks();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the serialized size of the attributes of compacted sessions
+     */
+    public long getCompactSize()
+    {
+        SessionArena arena=_arena;
+        return arena==null?0:arena.getStored();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected AbstractSession newSession(HttpServletRequest request)
+    {
+        return new OffHeapSession(this,request);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected AbstractSession newSession(long created, long accessed, String clusterId)
+    {
+        return new OffHeapSession(this,created,accessed,clusterId);
+    }
+}
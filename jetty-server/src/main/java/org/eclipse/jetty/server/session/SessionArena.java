@@ -0,0 +1,298 @@
+package org.eclipse.jetty.server.session;
+//========================================================================
+//Copyright 2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//All rights reserved. This program and the accompanying materials
+//are made available under the terms of the Eclipse Public License v1.0
+//and Apache License v2.0 which accompanies this distribution.
+//The Eclipse Public License is available at
+//http://www.eclipse.org/legal/epl-v10.html
+//The Apache License v2.0 is available at
+//http://www.opensource.org/licenses/apache2.0.php
+//You may elect to redistribute this code under either of these licenses.
+//========================================================================
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/** An off heap arena of serialized session data.
+ * <p>
+ * The arena is made of fixed size segments, which are either direct buffers or, if a
+ * file is given, memory mapped regions of that file. Segments are divided into blocks
+ * whose sizes are powers of two, and freed blocks are kept in a free list per size
+ * so that they can be reused by data of a similar size. Data larger than a segment
+ * cannot be stored.
+ * <p>
+ * The arena is scratch space: a mapped file is not a persistent session store and
+ * is deleted when the arena is closed.
+ */
+public class SessionArena
+{
+    private static final Logger LOG = Log.getLogger(SessionArena.class);
+    private static final int MIN_BLOCK_BITS=6;
+
+    private final File _file;
+    private final int _segmentSize;
+    private final long _maxSize;
+    private final List<ByteBuffer> _segments=new ArrayList<ByteBuffer>();
+    private final List<List<Block>> _free=new ArrayList<List<Block>>();
+    private RandomAccessFile _raf;
+    private ByteBuffer _segment;
+    private long _allocated;
+    private long _stored;
+    private int _blocks;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param file The file to map the segments from, or null for direct buffers
+     * @param segmentSize The size of a segment, which is also the largest data that can be stored
+     * @param maxSize The maximum total size of the segments
+     * @throws IOException
+     */
+    public SessionArena(File file, int segmentSize, long maxSize) throws IOException
+    {
+        if (segmentSize<(1<<MIN_BLOCK_BITS))
+            throw new IllegalArgumentException("segmentSize="+segmentSize);
+        _file=file;
+        _segmentSize=segmentSize;
+        _maxSize=maxSize;
+        for (int bits=MIN_BLOCK_BITS;(1<<bits)<=segmentSize;bits++)
+            _free.add(new ArrayList<Block>());
+        if (_file!=null)
+            _raf=new RandomAccessFile(_file,"rw");
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Store data in the arena.
+     * @param data The data to store
+     * @return The block holding the data, or null if the data is too large or the arena is full.
+     * @throws IOException
+     */
+    public synchronized Block allocate(byte[] data) throws IOException
+    {
+        if (data.length>_segmentSize)
+            return null;
+
+        int sizeClass=0;
+        while ((1<<(sizeClass+MIN_BLOCK_BITS))<data.length)
+            sizeClass++;
+        if (sizeClass>=_free.size())
+            return null;
+
+        Block block;
+        List<Block> free=_free.get(sizeClass);
+        if (free.size()>0)
+            block=free.remove(free.size()-1);
+        else
+        {
+            int size=1<<(sizeClass+MIN_BLOCK_BITS);
+            if (_segment==null || _segment.remaining()<size)
+            {
+                if (!newSegment())
+                    return null;
+            }
+            block=new Block(slice(_segment,size),sizeClass);
+        }
+
+        block._buffer.clear();
+        block._buffer.put(data);
+        block._length=data.length;
+        _allocated+=block._buffer.capacity();
+        _stored+=data.length;
+        _blocks++;
+        return block;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Free a block for reuse.
+     * @param block The block to free
+     */
+    public synchronized void free(Block block)
+    {
+        if (_segments.isEmpty())
+            return;
+        _allocated-=block._buffer.capacity();
+        _stored-=block._length;
+        _blocks--;
+        block._length=0;
+        _free.get(block._sizeClass).add(block);
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Release the segments of the arena and delete its file, if any.
+     */
+    public synchronized void close()
+    {
+        _segments.clear();
+        for (List<Block> free : _free)
+            free.clear();
+        _segment=null;
+        _allocated=0;
+        _stored=0;
+        _blocks=0;
+        if (_raf!=null)
+        {
+            try
+            {
+                _raf.close();
+            }
+            catch (IOException e)
+            {
+                LOG.ignore(e);
+            }
+            _raf=null;
+            _file.delete();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The total size of the segments
+     */
+    public synchronized long getCapacity()
+    {
+        return (long)_segments.size()*_segmentSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The total size of the allocated blocks
+     */
+    public synchronized long getAllocated()
+    {
+        return _allocated;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The total size of the stored data
+     */
+    public synchronized long getStored()
+    {
+        return _stored;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of allocated blocks
+     */
+    public synchronized int getBlocks()
+    {
+        return _blocks;
+    }
+
+    /* ------------------------------------------------------------ */
+    private boolean newSegment() throws IOException
+    {
+        if ((long)(_segments.size()+1)*_segmentSize>_maxSize)
+            return false;
+
+        // Free the remainder of the current segment in the largest blocks that fit
+        if (_segment!=null)
+        {
+            for (int sizeClass=_free.size()-1;sizeClass>=0;sizeClass--)
+            {
+                int size=1<<(sizeClass+MIN_BLOCK_BITS);
+                while (_segment.remaining()>=size)
+                    _free.get(sizeClass).add(new Block(slice(_segment,size),sizeClass));
+            }
+        }
+
+        if (_raf==null)
+            _segment=ByteBuffer.allocateDirect(_segmentSize);
+        else
+            _segment=_raf.getChannel().map(FileChannel.MapMode.READ_WRITE,(long)_segments.size()*_segmentSize,_segmentSize);
+        _segments.add(_segment);
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static ByteBuffer slice(ByteBuffer segment, int size)
+    {
+        ByteBuffer slice=segment.duplicate();
+        slice.limit(slice.position()+size);
+        segment.position(segment.position()+size);
+        return slice.slice();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("%s@%x{%d blocks,%d/%d/%d bytes}",getClass().getSimpleName(),hashCode(),_blocks,_stored,_allocated,getCapacity());
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A block of stored data.
+     */
+    public static class Block
+    {
+        final ByteBuffer _buffer;
+        final int _sizeClass;
+        int _length;
+
+        /* ------------------------------------------------------------ */
+        Block(ByteBuffer buffer, int sizeClass)
+        {
+            _buffer=buffer;
+            _sizeClass=sizeClass;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The length of the stored data
+         */
+        public int getLength()
+        {
+            return _length;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return A stream of the stored data, read directly from the arena
+         */
+        public InputStream getInputStream()
+        {
+            final ByteBuffer buffer=_buffer.duplicate();
+            buffer.position(0);
+            buffer.limit(_length);
+            return new InputStream()
+            {
+                @Override
+                public int read()
+                {
+                    return buffer.hasRemaining()?(buffer.get()&0xff):-1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len)
+                {
+                    if (len==0)
+                        return 0;
+                    if (!buffer.hasRemaining())
+                        return -1;
+                    len=Math.min(len,buffer.remaining());
+                    buffer.get(b,off,len);
+                    return len;
+                }
+
+                @Override
+                public int available()
+                {
+                    return buffer.remaining();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,198 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.eclipse.jetty.http.HttpContent;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.util.resource.Resource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedResourceCacheTest
+{
+    private File[] _files=new File[6];
+    private String[] _names=new String[_files.length];
+    private ResourceCache _cache;
+    private MappedResourceCache _mapped;
+
+    @Before
+    public void init() throws Exception
+    {
+        for (int i=0;i<_files.length;i++)
+        {
+            _files[i]=File.createTempFile("M-"+i+"-",".txt");
+            _files[i].deleteOnExit();
+            _names[i]=_files[i].getName();
+            write(_files[i],100+i,(char)('a'+i));
+        }
+
+        Resource directory=Resource.newResource(_files[0].getParentFile().getAbsolutePath());
+        _cache=new ResourceCache(null,directory,new MimeTypes(),false);
+        _cache.setMaxCachedFileSize(50);
+
+        _mapped=new MappedResourceCache(new MimeTypes());
+        _mapped.setMaxCacheSize(350);
+        _mapped.setCheckInterval(0);
+        _mapped.start();
+        _cache.setMappedCache(_mapped);
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        _mapped.stop();
+        for (File file : _files)
+            file.delete();
+    }
+
+    @Test
+    public void testMapped() throws Exception
+    {
+        HttpContent content=_cache.lookup(_names[0]);
+        assertTrue(content instanceof MappedResourceCache.Content);
+        assertEquals(100,content.getContentLength());
+        assertNull(content.getIndirectBuffer());
+        Buffer buffer=content.getDirectBuffer();
+        assertEquals(100,buffer.length());
+        assertEquals('a',buffer.peek(buffer.getIndex()));
+        assertEquals(0,_cache.getCachedFiles());
+        assertEquals(1,_mapped.getCachedFiles());
+        assertEquals(100,_mapped.getCachedSize());
+
+        assertSame(content,_cache.lookup(_names[0]));
+
+        _cache.flushCache();
+        assertEquals(0,_mapped.getCachedFiles());
+        assertEquals(0,_mapped.getCachedSize());
+    }
+
+    @Test
+    public void testClockEviction() throws Exception
+    {
+        HttpContent c0=_cache.lookup(_names[0]);
+        HttpContent c1=_cache.lookup(_names[1]);
+        _cache.lookup(_names[2]);
+        assertEquals(303,_mapped.getCachedSize());
+
+        // A referenced entry is given a second chance
+        assertSame(c0,_cache.lookup(_names[0]));
+        _cache.lookup(_names[3]);
+        assertEquals(3,_mapped.getCachedFiles());
+        assertEquals(305,_mapped.getCachedSize());
+        assertNull(_mapped.get(_names[1]));
+
+        // Unreferenced entries are evicted in clock order
+        _cache.lookup(_names[4]);
+        assertNull(_mapped.get(_names[2]));
+        _cache.lookup(_names[5]);
+        assertNull(_mapped.get(_names[3]));
+        assertEquals(309,_mapped.getCachedSize());
+
+        // The hand cleared the reference, so the entry is evicted when the hand returns
+        HttpContent c1b=_cache.lookup(_names[1]);
+        assertNull(_mapped.get(_names[0]));
+        assertTrue(c1!=c1b);
+        assertEquals(3,_mapped.getCachedFiles());
+        assertEquals(310,_mapped.getCachedSize());
+    }
+
+    @Test
+    public void testCheckModified() throws Exception
+    {
+        HttpContent content=_cache.lookup(_names[0]);
+
+        // Not checked on lookup
+        write(_files[0],120,'z');
+        assertTrue(_files[0].setLastModified(content.getResource().lastModified()+2000));
+        assertSame(content,_cache.lookup(_names[0]));
+
+        _mapped.checkCache();
+        assertEquals(0,_mapped.getCachedFiles());
+        HttpContent modified=_cache.lookup(_names[0]);
+        assertTrue(modified!=content);
+        assertEquals(120,modified.getContentLength());
+        assertEquals(120,_mapped.getCachedSize());
+    }
+
+    @Test
+    public void testInvalidSkippedByClock() throws Exception
+    {
+        HttpContent c0=_cache.lookup(_names[0]);
+        _cache.lookup(_names[1]);
+        _cache.lookup(_names[2]);
+        assertEquals(303,_mapped.getCachedSize());
+
+        // The invalidated entry is left in the clock and dropped by the hand
+        write(_files[0],100,'z');
+        assertTrue(_files[0].setLastModified(c0.getResource().lastModified()+2000));
+        _mapped.checkCache();
+        assertEquals(2,_mapped.getCachedFiles());
+        assertEquals(203,_mapped.getCachedSize());
+
+        _cache.lookup(_names[3]);
+        assertEquals(3,_mapped.getCachedFiles());
+        assertEquals(306,_mapped.getCachedSize());
+
+        // The hand drops the invalid entry rather than evicting a valid one for it
+        _cache.lookup(_names[4]);
+        assertNull(_mapped.get(_names[1]));
+        assertTrue(_mapped.get(_names[2])!=null);
+        assertEquals(3,_mapped.getCachedFiles());
+        assertEquals(309,_mapped.getCachedSize());
+    }
+
+    @Test
+    public void testWatched() throws Exception
+    {
+        MappedResourceCache mapped=new MappedResourceCache(new MimeTypes());
+        mapped.setCheckInterval(20);
+        mapped.start();
+        try
+        {
+            _cache.setMappedCache(mapped);
+            HttpContent content=_cache.lookup(_names[5]);
+            assertEquals(1,mapped.getCachedFiles());
+
+            _files[5].delete();
+            long end=System.currentTimeMillis()+5000;
+            while (mapped.getCachedFiles()>0 && System.currentTimeMillis()<end)
+                Thread.sleep(10);
+            assertEquals(0,mapped.getCachedFiles());
+            assertTrue(content!=null);
+            assertNull(_cache.lookup(_names[5]));
+        }
+        finally
+        {
+            mapped.stop();
+        }
+    }
+
+    private static void write(File file, int length, char c) throws Exception
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        for (int j=0;j<length;j++)
+            out.write(c);
+        out.close();
+    }
+}
@@ -0,0 +1,79 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.net.Socket;
+
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * HttpServer Tester for connections accepted by the selectors.
+ */
+public class SelectChannelAcceptServerTest extends HttpServerTestBase
+{
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setAcceptors(2);
+        connector.setSelectorAccept(true);
+        connector.setAcceptBatch(4);
+        startServer(connector);
+    }
+
+    @Test
+    public void testSelectorAccepted() throws Exception
+    {
+        configureServer(new HelloWorldHandler());
+
+        SelectChannelConnector connector = (SelectChannelConnector)_connector;
+        long before=sum(connector.getSelectorAccepted());
+
+        for (int i=0;i<10;i++)
+        {
+            Socket client=newSocket(HOST,_connector.getLocalPort());
+            try
+            {
+                OutputStream os=client.getOutputStream();
+                os.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes("ISO-8859-1"));
+                os.flush();
+
+                String response=readResponse(client);
+                assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            }
+            finally
+            {
+                client.close();
+            }
+        }
+
+        assertEquals(2,connector.getSelectorAccepted().length);
+        assertEquals(2,connector.getSelectorAcceptRates().length);
+        assertEquals(before+10,sum(connector.getSelectorAccepted()));
+    }
+
+    private static long sum(long[] values)
+    {
+        long sum=0;
+        for (long value : values)
+            sum+=value;
+        return sum;
+    }
+}
@@ -0,0 +1,91 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * HttpServer Tester for batched responses to pipelined requests.
+ */
+public class SelectChannelBatchServerTest extends HttpServerTestBase
+{
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setBatchPipelinedResponses(true);
+        startServer(connector);
+    }
+
+    @Test
+    public void testBatchedPipeline() throws Exception
+    {
+        configureServer(new AbstractHandler()
+        {
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.setStatus(200);
+                response.getOutputStream().print("uri="+request.getRequestURI()+"\n");
+            }
+        });
+
+        SelectChannelConnector connector = (SelectChannelConnector)_connector;
+        connector.resetResponseBatchStatistics();
+
+        Socket client=newSocket(HOST,_connector.getLocalPort());
+        try
+        {
+            StringBuilder requests=new StringBuilder();
+            for (int i=0;i<20;i++)
+                requests.append("GET /").append(i).append(" HTTP/1.1\r\nHost: localhost\r\n").append(i==19?"Connection: close\r\n":"").append("\r\n");
+
+            OutputStream os=client.getOutputStream();
+            os.write(requests.toString().getBytes("ISO-8859-1"));
+            os.flush();
+
+            String response=readResponse(client);
+            int offset=0;
+            for (int i=0;i<20;i++)
+            {
+                offset=response.indexOf("HTTP/1.1 200 OK",offset);
+                assertTrue(offset>=0);
+                offset=response.indexOf("uri=/"+i+"\n",offset);
+                assertTrue(offset>=0);
+            }
+        }
+        finally
+        {
+            client.close();
+        }
+
+        assertTrue(connector.getResponseBatches()<20);
+        assertTrue(connector.getResponseBatchSizeMax()>1);
+        assertEquals(20,Math.round(connector.getResponseBatches()*connector.getResponseBatchSizeMean()));
+    }
+}
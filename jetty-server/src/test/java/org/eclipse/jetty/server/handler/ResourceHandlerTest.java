@@ -12,6 +12,11 @@ package org.eclipse.jetty.server.handler;
 //You may elect to redistribute this code under either of these licenses.
 //========================================================================
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
 import java.net.URI;
 
 import junit.framework.Assert;
@@ -20,6 +25,8 @@ import junit.framework.TestCase;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
 import org.eclipse.jetty.toolchain.test.SimpleRequest;
 import org.junit.AfterClass;
@@ -35,6 +42,7 @@ public class ResourceHandlerTest extends TestCase
 {
     private static Server _server;
     private static Connector _connector;
+    private static Connector _nioConnector;
     private static ContextHandler _contextHandler;
     private static ResourceHandler _resourceHandler;
  
@@ -44,7 +52,8 @@ public class ResourceHandlerTest extends TestCase
     {
         _server = new Server();
         _connector = new SocketConnector();
-        _server.setConnectors(new Connector[] { _connector });
+        _nioConnector = new SelectChannelConnector();
+        _server.setConnectors(new Connector[] { _connector, _nioConnector });
 
         _resourceHandler = new ResourceHandler();
 
@@ -72,5 +81,45 @@ public class ResourceHandlerTest extends TestCase
         
         Assert.assertNotNull("missing jetty.css" , sr.getString("/resource/jetty-dir.css"));     
     }
+
+    @Test
+    public void testBigFile() throws Exception
+    {
+        File dir = MavenTestingUtils.getTargetTestingDir("ResourceHandlerBigFile");
+        dir.mkdirs();
+        byte[] data = new byte[1024*1024+7];
+        for (int i=0;i<data.length;i++)
+            data[i]=(byte)('0'+i%10);
+        OutputStream out = new FileOutputStream(new File(dir,"big.txt"));
+        out.write(data);
+        out.close();
+        _resourceHandler.setResourceBase(dir.getAbsolutePath());
+
+        // the select channel connector transfers the file directly to the channel
+        for (Connector connector : new Connector[] { _connector, _nioConnector })
+        {
+            Socket socket = new Socket("localhost",connector.getLocalPort());
+            try
+            {
+                socket.getOutputStream().write("GET /resource/big.txt HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes("ISO-8859-1"));
+                socket.getOutputStream().flush();
+
+                InputStream in = socket.getInputStream();
+                byte[] response = IO.readBytes(in);
+                String head = new String(response,0,256,"ISO-8859-1");
+                Assert.assertTrue(head.startsWith("HTTP/1.1 200 OK"));
+                Assert.assertTrue(head.contains("Content-Length: "+data.length));
+
+                int offset = new String(response,"ISO-8859-1").indexOf("\r\n\r\n")+4;
+                Assert.assertEquals(data.length,response.length-offset);
+                for (int i=0;i<data.length;i++)
+                    Assert.assertEquals(data[i],response[offset+i]);
+            }
+            finally
+            {
+                socket.close();
+            }
+        }
+    }
     
 }
@@ -19,6 +19,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
@@ -34,6 +35,7 @@ import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.server.LocalConnector;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.UserIdentity;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -556,6 +558,89 @@ public class StatisticsHandlerTest
         assertTrue(_statsHandler.getDispatchedTimeTotal()<_statsHandler.getRequestTimeTotal());
         assertEquals(_statsHandler.getDispatchedTimeTotal(),_statsHandler.getDispatchedTimeMax());
         assertEquals(_statsHandler.getDispatchedTimeTotal(),_statsHandler.getDispatchedTimeMean(), 0.01);
+
+        // percentiles of a single sample are that sample
+        assertEquals(_statsHandler.getRequestTimeMax(),_statsHandler.getRequestTimeP50());
+        assertEquals(_statsHandler.getRequestTimeMax(),_statsHandler.getRequestTimeP999());
+        assertEquals(_statsHandler.getDispatchedTimeMax(),_statsHandler.getDispatchedTimeP99());
+    }
+
+    @Test
+    public void testBreakdowns() throws Exception
+    {
+        _statsHandler.setBreakdownByContext(true);
+        _statsHandler.setBreakdownByServlet(true);
+        _statsHandler.setHandler(new AbstractHandler()
+        {
+            public void handle(String path, Request request, HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException, ServletException
+            {
+                request.setHandled(true);
+                // stand in for the servlet handler setting the servlet as the scope
+                final String[] names = path.split("/");
+                if (names.length == 3)
+                {
+                    request.setUserIdentityScope(new UserIdentity.Scope()
+                    {
+                        public String getContextPath()
+                        {
+                            return "/"+names[1];
+                        }
+
+                        public String getName()
+                        {
+                            return names[2];
+                        }
+
+                        public Map<String, String> getRoleRefMap()
+                        {
+                            return null;
+                        }
+                    });
+                }
+            }
+        });
+        _server.start();
+
+        execute("/a/one","/a/one","/a/two","/b/one","/nocontext");
+
+        String[] contexts = _statsHandler.getContextRequestTimes();
+        assertEquals(2, contexts.length);
+        assertTrue(contexts[0].startsWith("/a: count=3 "));
+        assertTrue(contexts[1].startsWith("/b: count=1 "));
+        String[] servlets = _statsHandler.getServletRequestTimes();
+        assertEquals(3, servlets.length);
+        assertTrue(servlets[0].startsWith("one@/a: count=2 "));
+        assertTrue(servlets[1].startsWith("one@/b: count=1 "));
+        assertTrue(servlets[2].startsWith("two@/a: count=1 "));
+
+        StringBuilder dump = new StringBuilder();
+        _statsHandler.dump(dump,"");
+        assertTrue(dump.toString().contains("context /b: count=1 "));
+        assertTrue(_statsHandler.toStatsHTML().contains("two@/a: count=1 "));
+
+        // reset on read gives the request times since the last read
+        _statsHandler.setBreakdownResetOnRead(true);
+        assertEquals(2, _statsHandler.getContextRequestTimes().length);
+        assertEquals(0, _statsHandler.getContextRequestTimes().length);
+
+        // beyond the maximum breakdowns, requests are counted together
+        _statsHandler.setMaxBreakdowns(1);
+        execute("/a/one","/b/one","/c/one");
+        contexts = _statsHandler.getContextRequestTimes();
+        assertEquals(2, contexts.length);
+        assertTrue(contexts[0].startsWith("*: count=2 "));
+        assertTrue(contexts[1].startsWith("/a: count=1 "));
+
+        _statsHandler.statsReset();
+        assertEquals(0, _statsHandler.getServletRequestTimes().length);
+    }
+
+    private void execute(String... paths) throws Exception
+    {
+        _latchHandler.reset(paths.length);
+        for (String path : paths)
+            _connector.executeRequest("GET "+path+" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        assertTrue(_latchHandler.await(1000));
     }
 
 
@@ -0,0 +1,47 @@
+package org.eclipse.jetty.server.session;
+//========================================================================
+//Copyright 2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//All rights reserved. This program and the accompanying materials
+//are made available under the terms of the Eclipse Public License v1.0
+//and Apache License v2.0 which accompanies this distribution.
+//The Eclipse Public License is available at
+//http://www.eclipse.org/legal/epl-v10.html
+//The Apache License v2.0 is available at
+//http://www.opensource.org/licenses/apache2.0.php
+//You may elect to redistribute this code under either of these licenses.
+//========================================================================
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BloomFilterTest
+{
+    @Test
+    public void testNoFalseNegatives() throws Exception
+    {
+        BloomFilter filter=new BloomFilter(10000,0.01);
+        for (int i=0;i<10000;i++)
+            filter.add("id"+i);
+        for (int i=0;i<10000;i++)
+            assertTrue(filter.mightContain("id"+i));
+    }
+
+    @Test
+    public void testFalsePositives() throws Exception
+    {
+        Random random=new Random(42);
+        BloomFilter filter=new BloomFilter(10000,0.01);
+        for (int i=0;i<10000;i++)
+            filter.add(Long.toString(Math.abs(random.nextLong()),36));
+
+        int positives=0;
+        for (int i=0;i<10000;i++)
+            if (filter.mightContain("x"+Long.toString(Math.abs(random.nextLong()),36)))
+                positives++;
+        assertTrue("positives="+positives,positives<300);
+    }
+}
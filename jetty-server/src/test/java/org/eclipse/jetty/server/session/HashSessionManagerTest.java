@@ -0,0 +1,102 @@
+package org.eclipse.jetty.server.session;
+//========================================================================
+//Copyright 2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//All rights reserved. This program and the accompanying materials
+//are made available under the terms of the Eclipse Public License v1.0
+//and Apache License v2.0 which accompanies this distribution.
+//The Eclipse Public License is available at
+//http://www.eclipse.org/legal/epl-v10.html
+//The Apache License v2.0 is available at
+//http://www.opensource.org/licenses/apache2.0.php
+//You may elect to redistribute this code under either of these licenses.
+//========================================================================
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.jetty.server.Request;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashSessionManagerTest
+{
+    private final List<String> _scavenged=new CopyOnWriteArrayList<String>();
+    private HashSessionManager _manager;
+
+    @Before
+    public void init() throws Exception
+    {
+        _manager=new HashSessionManager()
+        {
+            @Override
+            protected void scavenge(HashedSession session)
+            {
+                _scavenged.add(session.getClusterId());
+                super.scavenge(session);
+            }
+        };
+        _manager.setSessionIdManager(new HashSessionIdManager());
+        _manager.start();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        _manager.stop();
+    }
+
+    private HashedSession newSession(int maxInactive)
+    {
+        HashedSession session=(HashedSession)_manager.newHttpSession(new Request());
+        session.setMaxInactiveInterval(maxInactive);
+        _manager.complete(session);
+        return session;
+    }
+
+    @Test
+    public void testScavengeDueSessions() throws Exception
+    {
+        HashedSession expiring=newSession(1);
+        HashedSession accessed=newSession(1);
+        HashedSession lasting=newSession(100);
+        HashedSession immortal=newSession(-1);
+        assertFalse(immortal._scavengeTask.isScheduled());
+
+        Thread.sleep(600);
+        _manager.access(accessed,false);
+        _manager.complete(accessed);
+
+        Thread.sleep(600);
+        _manager.scavenge();
+        assertFalse(expiring.isValid());
+        assertTrue(accessed.isValid());
+        assertTrue(accessed._scavengeTask.isScheduled());
+        assertTrue(lasting.isValid());
+        assertTrue(immortal.isValid());
+
+        Thread.sleep(600);
+        _manager.scavenge();
+        assertFalse(accessed.isValid());
+        assertTrue(lasting.isValid());
+
+        // Only the sessions that were due have been checked
+        assertTrue(_scavenged.contains(expiring.getClusterId()));
+        assertTrue(_scavenged.contains(accessed.getClusterId()));
+        assertFalse(_scavenged.contains(lasting.getClusterId()));
+        assertFalse(_scavenged.contains(immortal.getClusterId()));
+
+        // A session is scheduled again if its max inactive interval is reduced
+        immortal.setMaxInactiveInterval(1);
+        assertTrue(immortal._scavengeTask.isScheduled());
+        lasting.setMaxInactiveInterval(1);
+        Thread.sleep(1100);
+        _manager.scavenge();
+        assertFalse(immortal.isValid());
+        assertFalse(lasting.isValid());
+    }
+}
@@ -0,0 +1,287 @@
+package org.eclipse.jetty.server.session;
+//========================================================================
+//Copyright 2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//All rights reserved. This program and the accompanying materials
+//are made available under the terms of the Eclipse Public License v1.0
+//and Apache License v2.0 which accompanies this distribution.
+//The Eclipse Public License is available at
+//http://www.eclipse.org/legal/epl-v10.html
+//The Apache License v2.0 is available at
+//http://www.opensource.org/licenses/apache2.0.php
+//You may elect to redistribute this code under either of these licenses.
+//========================================================================
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.http.HttpSessionAttributeListener;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.IO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapSessionManagerTest
+{
+    private OffHeapSessionManager _manager;
+    private File _dir;
+
+    @Before
+    public void init() throws Exception
+    {
+        _dir=File.createTempFile("offheap",".dir");
+        _dir.delete();
+        _dir.mkdir();
+        _manager=newManager();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        if (_manager.isStarted())
+            _manager.stop();
+        IO.delete(_dir);
+    }
+
+    private OffHeapSessionManager newManager()
+    {
+        OffHeapSessionManager manager=new OffHeapSessionManager();
+        manager.setSessionIdManager(new HashSessionIdManager());
+        return manager;
+    }
+
+    private OffHeapSession newSession(OffHeapSessionManager manager)
+    {
+        return (OffHeapSession)manager.newHttpSession(new Request());
+    }
+
+    @Test
+    public void testCompactOnComplete() throws Exception
+    {
+        _manager.start();
+        OffHeapSession session=newSession(_manager);
+        List<String> list=new ArrayList<String>();
+        list.add("value");
+        session.setAttribute("a","A");
+        session.setAttribute("list",list);
+        assertFalse(session.isCompact());
+
+        _manager.complete(session);
+        assertTrue(session.isCompact());
+        assertEquals(1,_manager.getCompactSessions());
+        assertTrue(_manager.getCompactSize()>0);
+        assertTrue(session.getNames().isEmpty());
+
+        // Accessing an attribute inflates the session
+        assertEquals("A",session.getAttribute("a"));
+        assertFalse(session.isCompact());
+        assertEquals(list,session.getAttribute("list"));
+        assertEquals(0,_manager.getCompactSessions());
+        assertEquals(0,_manager.getCompactSize());
+
+        // Not compacted while in use
+        _manager.access(session,false);
+        _manager.access(session,false);
+        _manager.complete(session);
+        assertFalse(session.isCompact());
+        _manager.complete(session);
+        assertTrue(session.isCompact());
+    }
+
+    @Test
+    public void testIdleCompact() throws Exception
+    {
+        _manager.setCompactOnComplete(false);
+        _manager.start();
+        OffHeapSession session=newSession(_manager);
+        session.setAttribute("a","A");
+        _manager.complete(session);
+        assertFalse(session.isCompact());
+
+        session.idle();
+        assertTrue(session.isCompact());
+        assertEquals(session,_manager.getSession(session.getClusterId()));
+        assertEquals("A",session.getAttribute("a"));
+    }
+
+    @Test
+    public void testIdleSave() throws Exception
+    {
+        _manager.setStoreDirectory(_dir);
+        _manager.setIdleSavePeriod(1);
+        _manager.setCompactOnComplete(false);
+        _manager.setSegmentSize(1024);
+        _manager.start();
+        OffHeapSession session=newSession(_manager);
+        String id=session.getClusterId();
+        char[] large=new char[2048];
+        Arrays.fill(large,'x');
+        session.setAttribute("large",new String(large));
+        _manager.complete(session);
+
+        // Too large for the arena, so idled to the store directory
+        session.idle();
+        assertFalse(session.isCompact());
+        assertTrue(session.isIdled());
+        assertTrue(session.getNames().isEmpty());
+        assertTrue(new File(_dir,id).exists());
+
+        assertEquals(session,_manager.getSession(id));
+        assertFalse(session.isIdled());
+        assertEquals(new String(large),session.getAttribute("large"));
+        assertFalse(new File(_dir,id).exists());
+    }
+
+    @Test
+    public void testPassivation() throws Exception
+    {
+        final List<String> events=new ArrayList<String>();
+        _manager.addEventListener(new HttpSessionAttributeListener()
+        {
+            public void attributeAdded(HttpSessionBindingEvent event)
+            {
+                events.add("added "+event.getName());
+            }
+
+            public void attributeRemoved(HttpSessionBindingEvent event)
+            {
+                events.add("removed "+event.getName());
+            }
+
+            public void attributeReplaced(HttpSessionBindingEvent event)
+            {
+                events.add("replaced "+event.getName());
+            }
+        });
+        _manager.start();
+
+        Bound.__unbound=0;
+        OffHeapSession session=newSession(_manager);
+        session.setAttribute("bound",new Bound());
+        _manager.complete(session);
+        assertTrue(session.isCompact());
+        assertTrue(session.getAttribute("bound") instanceof Bound);
+        _manager.complete(session);
+        assertTrue(session.isCompact());
+        assertEquals("[added bound]",events.toString());
+
+        // Invalidation inflates the session so that values are unbound
+        session.invalidate();
+        assertEquals(1,Bound.__unbound);
+        assertEquals("[added bound, removed bound]",events.toString());
+        assertEquals(0,_manager.getCompactSessions());
+    }
+
+    @Test
+    public void testMappedArena() throws Exception
+    {
+        File file=new File(_dir,"arena");
+        _manager.setArenaFile(file);
+        _manager.setSegmentSize(4096);
+        _manager.start();
+        assertTrue(file.exists());
+
+        List<OffHeapSession> sessions=new ArrayList<OffHeapSession>();
+        for (int i=0;i<20;i++)
+        {
+            OffHeapSession session=newSession(_manager);
+            session.setAttribute("i",i);
+            _manager.complete(session);
+            assertTrue(session.isCompact());
+            sessions.add(session);
+        }
+        assertEquals(20,_manager.getCompactSessions());
+        for (int i=0;i<20;i++)
+            assertEquals(i,sessions.get(i).getAttribute("i"));
+
+        _manager.stop();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testSaveCompact() throws Exception
+    {
+        _manager.setStoreDirectory(_dir);
+        _manager.start();
+        OffHeapSession session=newSession(_manager);
+        String id=session.getClusterId();
+        session.setAttribute("a","A");
+        session.setAttribute("b",42);
+        _manager.complete(session);
+        assertTrue(session.isCompact());
+        _manager.stop();
+        assertTrue(new File(_dir,id).exists());
+
+        _manager=newManager();
+        _manager.setStoreDirectory(_dir);
+        _manager.start();
+        OffHeapSession restored=(OffHeapSession)_manager.getSession(id);
+        assertNotNull(restored);
+        assertEquals("A",restored.getAttribute("a"));
+        assertEquals(42,restored.getAttribute("b"));
+    }
+
+    @Test
+    public void testArena() throws Exception
+    {
+        SessionArena arena=new SessionArena(null,1024,2048);
+
+        // too large for a segment
+        assertNull(arena.allocate(new byte[1025]));
+
+        SessionArena.Block b1=arena.allocate(new byte[600]);
+        assertNotNull(b1);
+        assertEquals(1024,arena.getCapacity());
+        SessionArena.Block b2=arena.allocate(new byte[1000]);
+        assertNotNull(b2);
+        assertEquals(2048,arena.getCapacity());
+        assertEquals(2048,arena.getAllocated());
+        assertEquals(1600,arena.getStored());
+
+        // the arena is full
+        assertNull(arena.allocate(new byte[600]));
+        assertEquals(2,arena.getBlocks());
+
+        // freed blocks are reused
+        arena.free(b1);
+        byte[] data=new byte[513];
+        data[512]=(byte)0x7f;
+        SessionArena.Block b3=arena.allocate(data);
+        assertNotNull(b3);
+        assertEquals(513,b3.getLength());
+        byte[] read=new byte[b3.getLength()];
+        assertEquals(513,b3.getInputStream().read(read));
+        assertEquals(0x7f,read[512]);
+
+        arena.close();
+        assertEquals(0,arena.getCapacity());
+    }
+
+    public static class Bound implements HttpSessionBindingListener, Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        static int __unbound;
+
+        public void valueBound(HttpSessionBindingEvent event)
+        {
+        }
+
+        public void valueUnbound(HttpSessionBindingEvent event)
+        {
+            __unbound++;
+        }
+    }
+}
@@ -45,6 +45,7 @@ import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Dispatcher;
 import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.InclusiveByteRange;
+import org.eclipse.jetty.server.MappedResourceCache;
 import org.eclipse.jetty.server.ResourceCache;
 import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.handler.ContextHandler;
@@ -115,6 +116,17 @@ import org.eclipse.jetty.util.resource.ResourceFactory;
  *  maxCachedFileSize The maximum size of a file to cache
  *  maxCachedFiles    The maximum number of files to cache
  *
+ *  maxMappedCacheSize
+ *                    If set, files too large for the cache are memory mapped
+ *                    in a {@link MappedResourceCache} of this maximum total size.
+ *                    Evicted files stay mapped until garbage collected, and mapped
+ *                    files must be replaced by renaming rather than truncated or
+ *                    rewritten in place, which may crash the JVM with SIGBUS.
+ *  maxMappedFileSize The maximum size of a memory mapped file
+ *  mappedCheckInterval
+ *                    The interval in ms at which memory mapped files are checked
+ *                    for modification
+ *
  *  useFileMappedBuffer
  *                    If set to true, it will use mapped file buffer to serve static content
  *                    when using NIO connector. Setting this value to false means that
@@ -149,6 +161,7 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
 
     private Resource _resourceBase;
     private ResourceCache _cache;
+    private MappedResourceCache _mappedCache;
 
     private MimeTypes _mimeTypes;
     private String[] _welcomes;
@@ -268,6 +281,21 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
                     _cache.setMaxCachedFileSize(max_cached_file_size);
                 if (max_cached_files>=-1)
                     _cache.setMaxCachedFiles(max_cached_files);
+
+                int max_mapped_cache_size=getInitInt("maxMappedCacheSize", -2);
+                if (max_mapped_cache_size>0)
+                {
+                    _mappedCache=new MappedResourceCache(_mimeTypes);
+                    _mappedCache.setMaxCacheSize(max_mapped_cache_size);
+                    int max_mapped_file_size=getInitInt("maxMappedFileSize", -2);
+                    if (max_mapped_file_size>0)
+                        _mappedCache.setMaxCachedFileSize(max_mapped_file_size);
+                    int check_interval=getInitInt("mappedCheckInterval", -2);
+                    if (check_interval>=0)
+                        _mappedCache.setCheckInterval(check_interval);
+                    _mappedCache.start();
+                    _cache.setMappedCache(_mappedCache);
+                }
             }
         }
         catch (Exception e)
@@ -1030,6 +1058,17 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
     {
         if (_cache!=null)
             _cache.flushCache();
+        if (_mappedCache!=null)
+        {
+            try
+            {
+                _mappedCache.stop();
+            }
+            catch(Exception e)
+            {
+                LOG.warn(e);
+            }
+        }
         super.destroy();
     }
 
@@ -0,0 +1,173 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jetty.util.Atomics;
+
+
+/* ------------------------------------------------------------ */
+/**
+ * HistogramStatistic
+ * <p>
+ * Provides max, total, mean, count and percentiles of a sequence of
+ * non negative samples, such as latencies.
+ * <p>
+ * Samples are counted in buckets on a log linear scale: each power of two
+ * range of values is divided into 16 equal buckets, so that a percentile is
+ * accurate to within about 6% of its value regardless of its magnitude,
+ * while the histogram has a fixed size and recording a sample is a single
+ * atomic increment of its bucket. Like the total and count, which are
+ * {@link StripedLong}s, the buckets are striped: each thread increments the
+ * buckets of one of several copies of the histogram, chosen by the thread id,
+ * so that threads recording similar samples, such as the latencies of similar
+ * requests, rarely contend on the same cache lines. Reading a percentile sums
+ * the copies. There are at most 8 copies of the 960 buckets, so a histogram
+ * takes up to about 60KB, which matters where many are kept, such as the per
+ * key latency breakdowns of the StatisticsHandler.
+ */
+public class HistogramStatistic
+{
+    private static final int SUB_BITS=4;
+    private static final int SUB=1<<SUB_BITS;
+    private static final int BUCKETS=(64-SUB_BITS)*SUB;
+    /** copies of the buckets, limited as each copy is BUCKETS longs */
+    private static final int STRIPES=Math.min(StripedLong.stripes(),8);
+
+    protected final AtomicLong _max = new AtomicLong();
+    protected final StripedLong _total = new StripedLong();
+    protected final StripedLong _count = new StripedLong();
+    protected final AtomicLongArray _buckets = new AtomicLongArray(STRIPES*BUCKETS);
+
+    public void reset()
+    {
+        _max.set(0);
+        _total.reset();
+        _count.reset();
+        for (int i=0;i<STRIPES*BUCKETS;i++)
+            _buckets.set(i,0);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param sample the sample to record. Negative samples are recorded as 0.
+     */
+    public void set(long sample)
+    {
+        if (sample<0)
+            sample=0;
+        _buckets.incrementAndGet((StripedLong.cell()/StripedLong.PAD)%STRIPES*BUCKETS+bucket(sample));
+        _total.add(sample);
+        _count.increment();
+        if (sample > _max.get())
+            Atomics.updateMax(_max, sample);
+    }
+
+    /**
+     * @return the max value
+     */
+    public long getMax()
+    {
+        return _max.get();
+    }
+
+    public long getTotal()
+    {
+        return _total.get();
+    }
+
+    public long getCount()
+    {
+        return _count.get();
+    }
+
+    public double getMean()
+    {
+        return (double)_total.get()/_count.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param percentile the percentile between 0.0 and 100.0
+     * @return the highest value in the bucket of the given percentile, limited by the max,
+     * or 0 if there are no samples.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long[] buckets=new long[BUCKETS];
+        for (int i=0;i<STRIPES*BUCKETS;i++)
+            buckets[i%BUCKETS]+=_buckets.get(i);
+        long count=0;
+        for (long bucket : buckets)
+            count+=bucket;
+        if (count==0)
+            return 0;
+
+        long rank=(long)Math.ceil(count*Math.min(100.0,Math.max(0.0,percentile))/100.0);
+        if (rank<1)
+            rank=1;
+
+        long seen=0;
+        for (int i=0;i<BUCKETS;i++)
+        {
+            seen+=buckets[i];
+            if (seen>=rank)
+                return Math.min(highest(i),_max.get());
+        }
+        return _max.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param sample a non negative sample
+     * @return the index of the bucket that counts the sample
+     */
+    static int bucket(long sample)
+    {
+        if (sample<SUB)
+            return (int)sample;
+        int exponent=63-Long.numberOfLeadingZeros(sample);
+        int mantissa=(int)(sample>>>(exponent-SUB_BITS));
+        return (exponent-SUB_BITS+1)*SUB+mantissa-SUB;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param bucket the index of a bucket
+     * @return the highest sample counted by the bucket
+     */
+    static long highest(int bucket)
+    {
+        if (bucket<SUB)
+            return bucket;
+        int exponent=bucket/SUB+SUB_BITS-1;
+        long lowest=((long)(SUB+bucket%SUB))<<(exponent-SUB_BITS);
+        return lowest+(1L<<(exponent-SUB_BITS))-1;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("count=%d mean=%.1f p50=%d p99=%d p999=%d max=%d",
+                getCount(),
+                getCount()==0?0.0:getMean(),
+                getValueAtPercentile(50.0),
+                getValueAtPercentile(99.0),
+                getValueAtPercentile(99.9),
+                getMax());
+    }
+}
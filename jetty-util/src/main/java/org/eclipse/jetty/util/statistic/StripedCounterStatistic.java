@@ -0,0 +1,87 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.util.statistic;
+
+import org.eclipse.jetty.util.Atomics;
+
+
+/* ------------------------------------------------------------ */
+/** Statistics on a counter value, with a striped current value and total.
+ * <p>
+ * As {@link CounterStatistic}, but the current value and the total are
+ * {@link StripedLong}s, so that threads incrementing and decrementing the
+ * counter rarely contend with each other. The current value is not known
+ * when it is changed, so the maximum is approximate: it is sampled when the
+ * current value or the maximum is read, and misses peaks between reads.
+ */
+public class StripedCounterStatistic extends CounterStatistic
+{
+    private final StripedLong _stripedCurr = new StripedLong();
+    private final StripedLong _stripedTotal = new StripedLong();
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void reset(final long value)
+    {
+        _max.set(value);
+        _stripedCurr.set(value);
+        _stripedTotal.reset();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param delta the amount to add to the count
+     */
+    @Override
+    public void add(final long delta)
+    {
+        _stripedCurr.add(delta);
+        if (delta > 0)
+            _stripedTotal.add(delta);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum of the current values sampled so far
+     */
+    @Override
+    public long getMax()
+    {
+        getCurrent();
+        return _max.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return current value
+     */
+    @Override
+    public long getCurrent()
+    {
+        long value=_stripedCurr.get();
+        if (value > _max.get())
+            Atomics.updateMax(_max,value);
+        return value;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return total value
+     */
+    @Override
+    public long getTotal()
+    {
+        return _stripedTotal.get();
+    }
+}
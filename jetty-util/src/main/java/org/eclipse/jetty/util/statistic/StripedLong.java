@@ -0,0 +1,117 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/* ------------------------------------------------------------ */
+/**
+ * StripedLong
+ * <p>
+ * A long value that is added to by many threads, such as a count
+ * or a total. Each thread adds to one of several cells, each on its
+ * own cache line, chosen by the thread id, so that threads contend
+ * with each other much less than they do on a single AtomicLong.
+ * Reading the value sums the cells, so it is more expensive than
+ * adding to it, and it is not a snapshot while the value is updated.
+ */
+public class StripedLong
+{
+    /** longs per cache line */
+    static final int PAD=8;
+    private static final int STRIPES;
+    static
+    {
+        int stripes=1;
+        while (stripes<2*Runtime.getRuntime().availableProcessors() && stripes<64)
+            stripes<<=1;
+        STRIPES=stripes;
+    }
+
+    private final AtomicLongArray _cells = new AtomicLongArray(STRIPES*PAD);
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param delta the amount to add
+     */
+    public void add(long delta)
+    {
+        _cells.addAndGet(cell(),delta);
+    }
+
+    /* ------------------------------------------------------------ */
+    public void increment()
+    {
+        add(1);
+    }
+
+    /* ------------------------------------------------------------ */
+    public void decrement()
+    {
+        add(-1);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the sum of the cells
+     */
+    public long get()
+    {
+        long sum=0;
+        for (int i=0;i<STRIPES;i++)
+            sum+=_cells.get(i*PAD);
+        return sum;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value the value to set. Adds made while the value is set may be lost.
+     */
+    public void set(long value)
+    {
+        for (int i=1;i<STRIPES;i++)
+            _cells.set(i*PAD,0);
+        _cells.set(0,value);
+    }
+
+    /* ------------------------------------------------------------ */
+    public void reset()
+    {
+        set(0);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the index of the cell of the current thread in an array of {@link #STRIPES} padded cells
+     */
+    static int cell()
+    {
+        long id=Thread.currentThread().getId();
+        return (int)((id*0x9E3779B97F4A7C15L)>>>(64-6))%STRIPES*PAD;
+    }
+
+    /* ------------------------------------------------------------ */
+    static int stripes()
+    {
+        return STRIPES;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return Long.toString(get());
+    }
+}
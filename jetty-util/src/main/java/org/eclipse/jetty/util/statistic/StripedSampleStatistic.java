@@ -0,0 +1,101 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jetty.util.Atomics;
+
+
+/* ------------------------------------------------------------ */
+/**
+ * StripedSampleStatistic
+ * <p>
+ * As {@link SampleStatistic}, but the total, count and sum of squares of the
+ * samples are striped over cells, as for {@link StripedLong}, so that threads
+ * setting samples do not contend with each other, and the maximum is only
+ * written when it increases.
+ * <p>
+ * The running mean needed by the on-line variance algorithm of {@link SampleStatistic}
+ * cannot be read cheaply from striped values, so the variance is instead calculated
+ * from the sum of the squares of the samples, which is kept as a double so that it
+ * does not overflow.
+ */
+public class StripedSampleStatistic extends SampleStatistic
+{
+    private final StripedLong _stripedTotal = new StripedLong();
+    private final StripedLong _stripedCount = new StripedLong();
+    private final AtomicLongArray _squares = new AtomicLongArray(StripedLong.stripes()*StripedLong.PAD);
+
+    @Override
+    public void reset()
+    {
+        _max.set(0);
+        _stripedTotal.reset();
+        _stripedCount.reset();
+        for (int i=0;i<_squares.length();i+=StripedLong.PAD)
+            _squares.set(i,Double.doubleToLongBits(0.0));
+    }
+
+    @Override
+    public void set(final long sample)
+    {
+        _stripedTotal.add(sample);
+        _stripedCount.increment();
+
+        int cell=StripedLong.cell();
+        while (true)
+        {
+            long bits=_squares.get(cell);
+            long squares=Double.doubleToLongBits(Double.longBitsToDouble(bits)+(double)sample*sample);
+            if (_squares.compareAndSet(cell,bits,squares))
+                break;
+        }
+
+        if (sample > _max.get())
+            Atomics.updateMax(_max, sample);
+    }
+
+    @Override
+    public long getTotal()
+    {
+        return _stripedTotal.get();
+    }
+
+    @Override
+    public long getCount()
+    {
+        return _stripedCount.get();
+    }
+
+    @Override
+    public double getMean()
+    {
+        return (double)getTotal()/getCount();
+    }
+
+    @Override
+    public double getVariance()
+    {
+        final long count = getCount();
+        if (count<=1)
+            return 0.0;
+
+        double squares=0.0;
+        for (int i=0;i<_squares.length();i+=StripedLong.PAD)
+            squares+=Double.longBitsToDouble(_squares.get(i));
+        double total=getTotal();
+        return Math.max(0.0,(squares-total*total/count)/(count-1));
+    }
+}
@@ -0,0 +1,320 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.util.thread;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+
+/* ------------------------------------------------------------ */
+/** Hashed Timing Wheel Timeout queue.
+ * <p>
+ * A {@link Timeout} that keeps its tasks in a hashed timing wheel rather than a
+ * single sorted list, so that scheduling and cancelling a task are O(1) operations
+ * regardless of the number of scheduled tasks.
+ * <p>
+ * The wheel is an array of slots, each covering a tick of time. A task is linked into
+ * the slot of the tick of its timestamp and when the timeout is ticked, only the slots
+ * between the last tick and the current tick are checked for expired tasks. Tasks
+ * scheduled further ahead than one revolution of the wheel share slots with nearer
+ * tasks and are skipped until their round comes.
+ * <p>
+ * The ordering of expiry within a tick is not guaranteed, and {@link #getTimeToNext()}
+ * is an estimate that is never later than the next expiry.
+ * <p>
+ * The number of tasks is counted so that {@link #isEmpty()} does not walk the wheel, and
+ * the tick of the earliest task is cached as a lower bound that is lowered by
+ * {@link #schedule(Task, long)} and only ever advanced past slots that have been checked,
+ * so that {@link #getTimeToNext()}, which is called for every select, checks each slot at
+ * most once per revolution rather than walking the whole wheel each time.
+ */
+public class HashedWheelTimeout extends Timeout
+{
+    private static final Logger LOG = Log.getLogger(HashedWheelTimeout.class);
+
+    public final static long DEFAULT_TICK=100;
+    public final static int DEFAULT_SLOTS=1024;
+
+    private final long _tick;
+    private final Task[] _slots;
+    private final int _mask;
+    private long _current=-1;
+    private long _next=-1;
+    private int _size;
+
+    /* ------------------------------------------------------------ */
+    public HashedWheelTimeout()
+    {
+        this(new Object(),DEFAULT_TICK,DEFAULT_SLOTS);
+    }
+
+    /* ------------------------------------------------------------ */
+    public HashedWheelTimeout(Object lock)
+    {
+        this(lock,DEFAULT_TICK,DEFAULT_SLOTS);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param lock The lock to use for the timeout
+     * @param tick The duration in ms of a slot of the wheel
+     * @param slots The number of slots in the wheel, rounded up to a power of 2
+     */
+    public HashedWheelTimeout(Object lock, long tick, int slots)
+    {
+        super(lock);
+        if (tick<=0 || slots<=0)
+            throw new IllegalArgumentException();
+        _tick=tick;
+        int size=1;
+        while (size<slots)
+            size<<=1;
+        _slots=new Task[size];
+        _mask=size-1;
+        for (int i=0;i<size;i++)
+            _slots[i]=newSlot();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The duration in ms of a slot of the wheel
+     */
+    public long getTick()
+    {
+        return _tick;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of slots in the wheel
+     */
+    public int getSlots()
+    {
+        return _slots.length;
+    }
+
+    /* ------------------------------------------------------------ */
+    private Task newSlot()
+    {
+        Task slot=new Task();
+        slot._timeout=this;
+        return slot;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Get the next expired task.
+     * Must be called holding the lock.
+     * @param expiry the timestamp at or before which tasks have expired
+     * @return the next expired task, already unlinked, or null
+     */
+    private Task next(long expiry)
+    {
+        if (_current<0)
+            _current=getNow()/_tick;
+        long last=Math.max(expiry/_tick,_current);
+        if (last-_current>=_slots.length)
+            _current=last-_slots.length+1;
+
+        while (_current<=last)
+        {
+            Task slot=_slots[(int)(_current&_mask)];
+            for (Task task=slot._next;task!=slot;task=task._next)
+            {
+                if (task._timestamp<=expiry)
+                {
+                    _size--;
+                    task.unlink();
+                    task._expired=true;
+                    return task;
+                }
+            }
+
+            // The last slot may still receive tasks, so it is checked again next time
+            if (_current==last)
+                break;
+            _current++;
+        }
+        return null;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public Task expired()
+    {
+        synchronized (_lock)
+        {
+            return next(getNow()-getDuration());
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void tick()
+    {
+        final long expiry = getNow()-getDuration();
+
+        Task task=null;
+        while (true)
+        {
+            try
+            {
+                synchronized (_lock)
+                {
+                    task=next(expiry);
+                    if (task==null)
+                        break;
+                    task.expire();
+                }
+
+                task.expired();
+            }
+            catch(Throwable th)
+            {
+                LOG.warn(Log.EXCEPTION,th);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param task
+     * @param delay A delay in addition to the default duration of the timeout
+     */
+    @Override
+    public void schedule(Task task,long delay)
+    {
+        synchronized (_lock)
+        {
+            if (task._timestamp!=0)
+            {
+                if (task._timeout==this && task.isScheduled())
+                    _size--;
+                task.unlink();
+                task._timestamp=0;
+            }
+            task._timeout=this;
+            task._expired=false;
+            task._delay=delay;
+            task._timestamp = getNow()+delay;
+
+            // Tasks that are already due go in the current slot so they are not missed
+            if (_current<0)
+                _current=getNow()/_tick;
+            long tick=Math.max(task._timestamp/_tick,_current);
+            _slots[(int)(tick&_mask)]._prev.link(task);
+            _size++;
+            if (_next<0 || tick<_next)
+                _next=tick;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    void cancelled(Task task)
+    {
+        // The cached tick of the next task remains a lower bound
+        if (task._timeout==this)
+            _size--;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void cancelAll()
+    {
+        synchronized (_lock)
+        {
+            for (Task slot : _slots)
+            {
+                // Unlink the tasks, so that a later cancel does not count them again
+                Task task=slot._next;
+                while (task!=slot)
+                {
+                    Task next=task._next;
+                    task._next=task._prev=task;
+                    task._timestamp=0;
+                    task=next;
+                }
+                slot._next=slot._prev=slot;
+            }
+            _size=0;
+            _next=-1;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public boolean isEmpty()
+    {
+        synchronized (_lock)
+        {
+            return _size==0;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return An estimate of the time to the next expiry: the time to the earliest task
+     * found in the first occupied slot of the current round, or the time to the end of
+     * the revolution if only later rounds are scheduled, or -1 if there are no tasks.
+     */
+    @Override
+    public long getTimeToNext()
+    {
+        synchronized (_lock)
+        {
+            if (_size==0)
+                return -1;
+            if (_current<0)
+                return 0;
+
+            // No task of the current round is in a slot before _next, so start there
+            if (_next<_current)
+                _next=_current;
+            long end=_current+_slots.length;
+            while (_next<end)
+            {
+                Task slot=_slots[(int)(_next&_mask)];
+                long next=Long.MAX_VALUE;
+                for (Task task=slot._next;task!=slot;task=task._next)
+                {
+                    if (task._timestamp/_tick<=_next && task._timestamp<next)
+                        next=task._timestamp;
+                }
+                if (next!=Long.MAX_VALUE)
+                {
+                    long to_next=getDuration()+next-getNow();
+                    return to_next<0?0:to_next;
+                }
+                _next++;
+            }
+
+            long to_next=getDuration()+end*_tick-getNow();
+            return to_next<0?0:to_next;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append(getClass().getSimpleName()).append('@').append(Integer.toHexString(hashCode()));
+
+        synchronized (_lock)
+        {
+            buf.append('[').append(_size).append(" tasks,").append(_slots.length).append('x').append(_tick).append("ms]");
+        }
+        return buf.toString();
+    }
+}
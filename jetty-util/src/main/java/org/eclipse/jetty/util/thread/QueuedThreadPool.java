@@ -36,6 +36,18 @@ import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.thread.ThreadPool.SizedThreadPool;
 
+/* ------------------------------------------------------------ */
+/** A thread pool with a queue of jobs.
+ * <p>
+ * Threads are started when a job is dispatched and there are no idle threads to run it,
+ * and are stopped when they have been idle for {@link #getMaxIdleTimeMs()}.
+ * <p>
+ * If the pool is {@link #setAdaptive(boolean) adaptive}, the time that jobs wait in the queue
+ * is measured and kept as an exponentially weighted moving average. Threads are also started
+ * while the queue latency is above {@link #getTargetQueueLatencyMs()}, threads are not stopped
+ * while it is above half the target, and the pool is only {@link #isLowOnThreads() low on threads}
+ * if it is at max threads and the queue latency is above the target.
+ */
 public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPool, Executor, Dumpable
 {
     private static final Logger LOG = Log.getLogger(QueuedThreadPool.class);
@@ -55,6 +67,10 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
     private boolean _daemon=false;
     private int _maxStopTime=100;
     private boolean _detailedDump=false;
+    private boolean _adaptive=false;
+    private int _targetQueueLatencyMs=50;
+    /** The moving average of the queue latency in ns. Updated without atomicity, as lost samples do not matter */
+    private volatile long _queueLatency;
 
     /* ------------------------------------------------------------------- */
     /** Construct
@@ -344,6 +360,96 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
         _detailedDump = detailedDump;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if the pool is sized by the time jobs wait in the queue
+     */
+    public boolean isAdaptive()
+    {
+        return _adaptive;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param adaptive true if the pool is sized by the time jobs wait in the queue
+     * @see #setTargetQueueLatencyMs(int)
+     */
+    public void setAdaptive(boolean adaptive)
+    {
+        if (isRunning())
+            throw new IllegalStateException("started");
+        _adaptive=adaptive;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the queue latency in ms that an adaptive pool is sized for
+     */
+    public int getTargetQueueLatencyMs()
+    {
+        return _targetQueueLatencyMs;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param latencyMs the queue latency in ms that an adaptive pool is sized for. Above it, threads
+     * are started and the pool is low on threads once at max threads.
+     */
+    public void setTargetQueueLatencyMs(int latencyMs)
+    {
+        _targetQueueLatencyMs=latencyMs;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the average time in ms that jobs wait in the queue of an adaptive pool, or
+     * the time that the oldest queued job has waited if longer.
+     */
+    public long getQueueLatencyMs()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(getQueueLatency());
+    }
+
+    /* ------------------------------------------------------------ */
+    private long getQueueLatency()
+    {
+        long latency=_queueLatency;
+        // If jobs are not being run, the average is not updated, so check the oldest job
+        Runnable oldest=_jobs==null?null:_jobs.peek();
+        if (oldest instanceof QueuedJob)
+            latency=Math.max(latency,System.nanoTime()-((QueuedJob)oldest)._queued);
+        return latency;
+    }
+
+    /* ------------------------------------------------------------ */
+    private boolean isQueueLatencyAbove(long latencyMs)
+    {
+        return _adaptive && getQueueLatency()>TimeUnit.MILLISECONDS.toNanos(latencyMs);
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Update the moving average of the queue latency with the wait of a job.
+     * @param job the dequeued job
+     * @return the job to run
+     */
+    private Runnable dequeued(Runnable job)
+    {
+        if (job instanceof QueuedJob)
+        {
+            QueuedJob queued=(QueuedJob)job;
+            sampleQueueLatency(System.nanoTime()-queued._queued);
+            return queued._job;
+        }
+        return job;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void sampleQueueLatency(long latency)
+    {
+        long average=_queueLatency;
+        _queueLatency=average+((latency-average)>>3);
+    }
+
     /* ------------------------------------------------------------ */
     public boolean dispatch(Runnable job)
     {
@@ -351,10 +457,11 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
         {
             final int jobQ = _jobs.size();
             final int idle = getIdleThreads();
-            if(_jobs.offer(job))
+            if(_jobs.offer(_adaptive?new QueuedJob(job):job))
             {
-                // If we had no idle threads or the jobQ is greater than the idle threads
-                if (idle==0 || jobQ>idle)
+                // If we had no idle threads or the jobQ is greater than the idle threads,
+                // or if adaptive and jobs are waiting too long
+                if (idle==0 || jobQ>idle || (jobQ>0 && isQueueLatencyAbove(_targetQueueLatencyMs)))
                 {
                     int threads=_threadsStarted.get();
                     if (threads<_maxThreads)
@@ -410,10 +517,13 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
 
     /* ------------------------------------------------------------ */
     /**
-     * @return True if the pool is at maxThreads and there are not more idle threads than queued jobs
+     * @return True if the pool is at maxThreads and there are not more idle threads than queued jobs,
+     * or if adaptive, if the pool is at maxThreads and the queue latency is above the target.
      */
     public boolean isLowOnThreads()
     {
+        if (_adaptive)
+            return _threadsStarted.get()>=_maxThreads && isQueueLatencyAbove(_targetQueueLatencyMs);
         return _threadsStarted.get()==_maxThreads && _jobs.size()>=_threadsIdle.get();
     }
 
@@ -512,7 +622,7 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
     @Override
     public String toString()
     {
-        return _name+"{"+getMinThreads()+"<="+getIdleThreads()+"<="+getThreads()+"/"+getMaxThreads()+","+(_jobs==null?-1:_jobs.size())+"}";
+        return _name+"{"+getMinThreads()+"<="+getIdleThreads()+"<="+getThreads()+"/"+getMaxThreads()+","+(_jobs==null?-1:_jobs.size())+(_adaptive?(","+getQueueLatencyMs()+"ms"):"")+"}";
     }
 
     /* ------------------------------------------------------------ */
@@ -535,7 +645,7 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
                     // Job loop
                     while (job!=null && isRunning())
                     {
-                        runJob(job);
+                        runJob(dequeued(job));
                         job=_jobs.poll();
                     }
 
@@ -552,7 +662,7 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
                             {
                                 // maybe we should shrink?
                                 final int size=_threadsStarted.get();
-                                if (size>_minThreads)
+                                if (size>_minThreads && !isQueueLatencyAbove(_targetQueueLatencyMs/2))
                                 {
                                     long last=_lastShrink.get();
                                     long now=System.currentTimeMillis();
@@ -565,6 +675,9 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
                                     }
                                 }
                                 job=idleJobPoll();
+                                // nothing has waited while this thread was idle
+                                if (job==null && _adaptive)
+                                    sampleQueueLatency(0);
                             }
                         }
                     }
@@ -603,9 +716,35 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
         job.run();
     }
 
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A job queued by an adaptive pool, with the time it was queued.
+     */
+    private static class QueuedJob implements Runnable
+    {
+        final Runnable _job;
+        final long _queued=System.nanoTime();
+
+        QueuedJob(Runnable job)
+        {
+            _job=job;
+        }
+
+        public void run()
+        {
+            _job.run();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.valueOf(_job);
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /**
-     * @return the job queue
+     * @return the job queue. Jobs queued by an adaptive pool are wrapped with the time they were queued.
      */
     protected BlockingQueue<Runnable> getQueue()
     {
@@ -25,11 +25,14 @@ import org.eclipse.jetty.util.log.Logger;
  * <p>
  * The nested class Task should be extended by users of this class to obtain call back notification of 
  * expires. 
+ * <p>
+ * Tasks are kept in a list sorted by expiry, so scheduling a task is O(n) in the number of
+ * scheduled tasks. {@link HashedWheelTimeout} may be used instead when there are many tasks.
  */
 public class Timeout
 {
     private static final Logger LOG = Log.getLogger(Timeout.class);
-    private Object _lock;
+    final Object _lock;
     private long _duration;
     private volatile long _now=System.currentTimeMillis();
     private Task _head=new Task();
@@ -215,6 +218,14 @@ public class Timeout
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /** Called by {@link Task#cancel()} holding the lock, before a scheduled task is unlinked.
+     * @param task The task being cancelled
+     */
+    void cancelled(Task task)
+    {
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     public String toString()
@@ -280,7 +291,7 @@ public class Timeout
         }
 
         /* ------------------------------------------------------------ */
-        private void unlink()
+        void unlink()
         {
             _next._prev=_prev;
             _prev._next=_next;
@@ -289,7 +300,7 @@ public class Timeout
         }
 
         /* ------------------------------------------------------------ */
-        private void link(Task task)
+        void link(Task task)
         {
             Task next_next = _next;
             _next._prev=task;
@@ -341,6 +352,8 @@ public class Timeout
             {
                 synchronized (timeout._lock)
                 {
+                    if (isScheduled())
+                        timeout.cancelled(this);
                     unlink();
                     _timestamp=0;
                 }
@@ -0,0 +1,1003 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+
+package org.eclipse.jetty.util.thread;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.AggregateLifeCycle;
+import org.eclipse.jetty.util.component.Dumpable;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.ThreadPool.SizedThreadPool;
+
+/* ------------------------------------------------------------ */
+/** A thread pool with per worker job deques and work stealing.
+ * <p>
+ * A job dispatched when a worker is idle is handed directly to that worker, which is
+ * unparked to run it. Otherwise a job dispatched by a worker of the pool is pushed onto
+ * the deque of that worker, and a job dispatched by any other thread, such as a selector,
+ * is added to a lock free submission queue. Workers take jobs from the tail of their own
+ * deque, then from the submission queue, and then steal them from the head of the deques
+ * of other workers.
+ * <p>
+ * Idle workers are kept in a lock free stack, so that the most recently active worker is
+ * given the next job and the others may become idle for long enough to be stopped.
+ * An idle worker spins for {@link #getIdleSpins()} iterations waiting for a job to be handed
+ * to it before it parks, so that a busy pool can avoid the cost of parking and unparking.
+ * As for {@link QueuedThreadPool}, threads are started when a job is queued and there is
+ * no idle thread, and stopped after they have been idle for {@link #getMaxIdleTimeMs()}.
+ */
+public class WorkStealingThreadPool extends AbstractLifeCycle implements SizedThreadPool, Executor, Dumpable
+{
+    private static final Logger LOG = Log.getLogger(WorkStealingThreadPool.class);
+
+    /** The slot of a worker that is waiting for a job */
+    private static final Runnable IDLE=new Runnable(){public void run(){}};
+    /** The slot of a worker that has been woken to look for queued jobs */
+    private static final Runnable WAKE=new Runnable(){public void run(){}};
+
+    private final AtomicInteger _threadsStarted = new AtomicInteger();
+    private final AtomicInteger _threadsIdle = new AtomicInteger();
+    private final AtomicInteger _queued = new AtomicInteger();
+    private final AtomicLong _lastShrink = new AtomicLong();
+    private final ConcurrentLinkedQueue<Runnable> _submissions=new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicReference<IdleNode> _idle=new AtomicReference<IdleNode>();
+    private final ThreadLocal<Worker> _current=new ThreadLocal<Worker>();
+    private final Object _joinLock = new Object();
+    private volatile Worker[] _workers=new Worker[0];
+    private String _name;
+    private int _maxIdleTimeMs=60000;
+    private int _maxThreads=254;
+    private int _minThreads=8;
+    private int _maxQueued=-1;
+    private int _idleSpins=64;
+    private int _priority=Thread.NORM_PRIORITY;
+    private boolean _daemon=false;
+    private int _maxStopTime=100;
+    private boolean _detailedDump=false;
+
+    /* ------------------------------------------------------------------- */
+    /** Construct
+     */
+    public WorkStealingThreadPool()
+    {
+        _name="wstp"+super.hashCode();
+    }
+
+    /* ------------------------------------------------------------------- */
+    /** Construct
+     */
+    public WorkStealingThreadPool(int maxThreads)
+    {
+        this();
+        setMaxThreads(maxThreads);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStart() throws Exception
+    {
+        super.doStart();
+        _threadsStarted.set(0);
+        _queued.set(0);
+
+        int threads=_threadsStarted.get();
+        while (isRunning() && threads<_minThreads)
+        {
+            startThread(threads);
+            threads=_threadsStarted.get();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        long start=System.currentTimeMillis();
+
+        // let jobs complete naturally for a while
+        while (_threadsStarted.get()>0 && (System.currentTimeMillis()-start) < (_maxStopTime/2))
+            Thread.sleep(1);
+
+        // kill queued jobs and wake idle workers
+        _submissions.clear();
+        for (Worker worker : _workers)
+        {
+            worker._jobs.clear();
+            LockSupport.unpark(worker._thread);
+        }
+        _queued.set(0);
+        Thread.yield();
+
+        // interrupt remaining threads
+        if (_threadsStarted.get()>0)
+            for (Worker worker : _workers)
+                worker._thread.interrupt();
+
+        // wait for remaining threads to die
+        while (_threadsStarted.get()>0 && (System.currentTimeMillis()-start) < _maxStopTime)
+        {
+            Thread.sleep(1);
+        }
+        Thread.yield();
+        Worker[] workers=_workers;
+        if (workers.length>0)
+        {
+            LOG.warn(workers.length+" threads could not be stopped");
+
+            if (workers.length==1 || LOG.isDebugEnabled())
+            {
+                for (Worker unstopped : workers)
+                {
+                    LOG.info("Couldn't stop "+unstopped._thread);
+                    for (StackTraceElement element : unstopped._thread.getStackTrace())
+                    {
+                        LOG.info(" at "+element);
+                    }
+                }
+            }
+        }
+        _idle.set(null);
+
+        synchronized (_joinLock)
+        {
+            _joinLock.notifyAll();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    public void setDaemon(boolean daemon)
+    {
+        _daemon=daemon;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Set the maximum thread idle time.
+     * Threads that are idle for longer than this period may be
+     * stopped.
+     * @see #getMaxIdleTimeMs
+     * @param maxIdleTimeMs Max idle time in ms.
+     */
+    public void setMaxIdleTimeMs(int maxIdleTimeMs)
+    {
+        _maxIdleTimeMs=maxIdleTimeMs;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param stopTimeMs maximum total time that stop() will wait for threads to die.
+     */
+    public void setMaxStopTimeMs(int stopTimeMs)
+    {
+        _maxStopTime = stopTimeMs;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Set the maximum number of threads.
+     * @see #getMaxThreads
+     * @param maxThreads maximum number of threads.
+     */
+    public void setMaxThreads(int maxThreads)
+    {
+        _maxThreads=maxThreads;
+        if (_minThreads>_maxThreads)
+            _minThreads=_maxThreads;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Set the minimum number of threads.
+     * @see #getMinThreads
+     * @param minThreads minimum number of threads
+     */
+    public void setMinThreads(int minThreads)
+    {
+        _minThreads=minThreads;
+
+        if (_minThreads>_maxThreads)
+            _maxThreads=_minThreads;
+
+        int threads=_threadsStarted.get();
+        while (isStarted() && threads<_minThreads)
+        {
+            startThread(threads);
+            threads=_threadsStarted.get();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param name Name of the thread pool to use when naming Threads.
+     */
+    public void setName(String name)
+    {
+        if (isRunning())
+            throw new IllegalStateException("started");
+        _name= name;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Set the priority of the pool threads.
+     *  @param priority the new thread priority.
+     */
+    public void setThreadsPriority(int priority)
+    {
+        _priority=priority;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return maximum number of queued jobs, or -1 for no limit
+     */
+    public int getMaxQueued()
+    {
+        return _maxQueued;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param max maximum number of queued jobs, or -1 for no limit. Jobs
+     * dispatched when there is no idle thread and the limit is reached are rejected.
+     */
+    public void setMaxQueued(int max)
+    {
+        if (isRunning())
+            throw new IllegalStateException("started");
+        _maxQueued=max;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of times an idle thread checks for a job before it parks
+     */
+    public int getIdleSpins()
+    {
+        return _idleSpins;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param spins the number of times an idle thread checks for a job, yielding
+     * between checks, before it parks. 0 parks idle threads immediately.
+     */
+    public void setIdleSpins(int spins)
+    {
+        _idleSpins=spins;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Get the maximum thread idle time.
+     * @see #setMaxIdleTimeMs
+     * @return Max idle time in ms.
+     */
+    public int getMaxIdleTimeMs()
+    {
+        return _maxIdleTimeMs;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return maximum total time that stop() will wait for threads to die.
+     */
+    public int getMaxStopTimeMs()
+    {
+        return _maxStopTime;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Get the maximum number of threads.
+     * @see #setMaxThreads
+     * @return maximum number of threads.
+     */
+    public int getMaxThreads()
+    {
+        return _maxThreads;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Get the minimum number of threads.
+     * @see #setMinThreads
+     * @return minimum number of threads.
+     */
+    public int getMinThreads()
+    {
+        return _minThreads;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The name of the thread pool.
+     */
+    public String getName()
+    {
+        return _name;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Get the priority of the pool threads.
+     *  @return the priority of the pool threads.
+     */
+    public int getThreadsPriority()
+    {
+        return _priority;
+    }
+
+    /* ------------------------------------------------------------ */
+    public boolean isDaemon()
+    {
+        return _daemon;
+    }
+
+    /* ------------------------------------------------------------ */
+    public boolean isDetailedDump()
+    {
+        return _detailedDump;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void setDetailedDump(boolean detailedDump)
+    {
+        _detailedDump = detailedDump;
+    }
+
+    /* ------------------------------------------------------------ */
+    public boolean dispatch(Runnable job)
+    {
+        if (isRunning())
+        {
+            // Hand the job to an idle worker
+            if (signal(job))
+                return true;
+
+            if (_maxQueued<0 || _queued.get()<_maxQueued)
+            {
+                _queued.incrementAndGet();
+                Worker worker=_current.get();
+                if (worker!=null)
+                    worker._jobs.addLast(job);
+                else
+                    _submissions.offer(job);
+
+                // Wake any worker that has become idle since, else start a new one
+                if (!signal(WAKE))
+                {
+                    int threads=_threadsStarted.get();
+                    if (threads<_maxThreads)
+                        startThread(threads);
+                }
+                return true;
+            }
+        }
+        LOG.debug("Dispatched {} to stopped {}",job,this);
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void execute(Runnable job)
+    {
+        if (!dispatch(job))
+            throw new RejectedExecutionException();
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Give a job, or a wake up, to an idle worker.
+     * @param job the job or {@link #WAKE}
+     * @return true if an idle worker was given the job
+     */
+    private boolean signal(Runnable job)
+    {
+        while (true)
+        {
+            IdleNode head=_idle.get();
+            if (head==null)
+                return false;
+            if (!_idle.compareAndSet(head,head._next))
+                continue;
+
+            // Clear listed before the worker is claimed, so that a worker that is not
+            // idle now will list itself again when it is
+            Worker worker=head._worker;
+            worker._listed.set(false);
+            if (worker._slot.compareAndSet(IDLE,job))
+            {
+                LockSupport.unpark(worker._thread);
+                return true;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** List an idle worker, so that it is the next to be given a job.
+     */
+    private void listIdle(Worker worker)
+    {
+        if (worker._listed.compareAndSet(false,true))
+        {
+            IdleNode node=new IdleNode(worker);
+            do
+            {
+                node._next=_idle.get();
+            }
+            while (!_idle.compareAndSet(node._next,node));
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Blocks until the thread pool is {@link LifeCycle#stop stopped}.
+     */
+    public void join() throws InterruptedException
+    {
+        synchronized (_joinLock)
+        {
+            while (isRunning())
+                _joinLock.wait();
+        }
+
+        while (isStopping())
+            Thread.sleep(1);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The total number of threads currently in the pool
+     */
+    public int getThreads()
+    {
+        return _threadsStarted.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of idle threads in the pool
+     */
+    public int getIdleThreads()
+    {
+        return _threadsIdle.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of queued jobs
+     */
+    public int getQueueSize()
+    {
+        return _queued.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of jobs that have been stolen from the deque of another worker
+     */
+    public long getStolenJobs()
+    {
+        long stolen=0;
+        for (Worker worker : _workers)
+            stolen+=worker._stolen;
+        return stolen;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return True if the pool is at maxThreads and there are not more idle threads than queued jobs
+     */
+    public boolean isLowOnThreads()
+    {
+        return _threadsStarted.get()==_maxThreads && _queued.get()>=_threadsIdle.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    private boolean startThread(int threads)
+    {
+        final int next=threads+1;
+        if (!_threadsStarted.compareAndSet(threads,next))
+            return false;
+
+        boolean started=false;
+        try
+        {
+            Worker worker=new Worker();
+            Thread thread=newThread(worker);
+            thread.setDaemon(_daemon);
+            thread.setPriority(_priority);
+            thread.setName(_name+"-"+thread.getId());
+            worker._thread=thread;
+            addWorker(worker);
+
+            thread.start();
+            started=true;
+        }
+        finally
+        {
+            if (!started)
+                _threadsStarted.decrementAndGet();
+        }
+        return started;
+    }
+
+    /* ------------------------------------------------------------ */
+    protected Thread newThread(Runnable runnable)
+    {
+        return new Thread(runnable);
+    }
+
+    /* ------------------------------------------------------------ */
+    private synchronized void addWorker(Worker worker)
+    {
+        Worker[] workers=new Worker[_workers.length+1];
+        System.arraycopy(_workers,0,workers,0,_workers.length);
+        workers[_workers.length]=worker;
+        _workers=workers;
+    }
+
+    /* ------------------------------------------------------------ */
+    private synchronized void removeWorker(Worker worker)
+    {
+        List<Worker> workers=new ArrayList<Worker>(Arrays.asList(_workers));
+        if (workers.remove(worker))
+            _workers=workers.toArray(new Worker[workers.size()]);
+    }
+
+    /* ------------------------------------------------------------ */
+    public String dump()
+    {
+        return AggregateLifeCycle.dump(this);
+    }
+
+    /* ------------------------------------------------------------ */
+    public void dump(Appendable out, String indent) throws IOException
+    {
+        List<Object> dump = new ArrayList<Object>(getMaxThreads());
+        for (final Worker worker: _workers)
+        {
+            final Thread thread=worker._thread;
+            final StackTraceElement[] trace=thread.getStackTrace();
+            boolean inIdleWait=false;
+            // trace can be null on early java 6 jvms
+            if (trace != null)
+            {
+                for (StackTraceElement t : trace)
+                {
+                    if ("idleWait".equals(t.getMethodName()))
+                    {
+                        inIdleWait = true;
+                        break;
+                    }
+                }
+            }
+            final boolean idle=inIdleWait;
+            final int jobs=worker._jobs.size();
+
+            if (_detailedDump)
+            {
+                dump.add(new Dumpable()
+                {
+                    public void dump(Appendable out, String indent) throws IOException
+                    {
+                        out.append(String.valueOf(thread.getId())).append(' ').append(thread.getName()).append(' ').append(thread.getState().toString()).append(idle?" IDLE":"").append(" jobs=").append(String.valueOf(jobs)).append('\n');
+                        if (!idle)
+                            AggregateLifeCycle.dump(out,indent,Arrays.asList(trace));
+                    }
+
+                    public String dump()
+                    {
+                        return null;
+                    }
+                });
+            }
+            else
+            {
+                dump.add(thread.getId()+" "+thread.getName()+" "+thread.getState()+" @ "+(trace.length>0?trace[0]:"???")+(idle?" IDLE":"")+" jobs="+jobs);
+            }
+        }
+
+        AggregateLifeCycle.dumpObject(out,this);
+        AggregateLifeCycle.dump(out,indent,dump);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return _name+"{"+getMinThreads()+"<="+getIdleThreads()+"<="+getThreads()+"/"+getMaxThreads()+","+getQueueSize()+"}";
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>Runs the given job in the {@link Thread#currentThread() current thread}.</p>
+     * <p>Subclasses may override to perform pre/post actions before/after the job is run.</p>
+     *
+     * @param job the job to run
+     */
+    protected void runJob(Runnable job)
+    {
+        job.run();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param id The thread ID to stop.
+     * @return true if the thread was found and stopped.
+     * @deprecated Use {@link #interruptThread(long)} in preference
+     */
+    @Deprecated
+    public boolean stopThread(long id)
+    {
+        for (Worker worker: _workers)
+        {
+            if (worker._thread.getId()==id)
+            {
+                worker._thread.stop();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param id The thread ID to interrupt.
+     * @return true if the thread was found and interrupted.
+     */
+    public boolean interruptThread(long id)
+    {
+        for (Worker worker: _workers)
+        {
+            if (worker._thread.getId()==id)
+            {
+                worker._thread.interrupt();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param id The thread ID to dump.
+     * @return the stack of the thread, or null if it was not found
+     */
+    public String dumpThread(long id)
+    {
+        for (Worker worker: _workers)
+        {
+            Thread thread=worker._thread;
+            if (thread.getId()==id)
+            {
+                StringBuilder buf = new StringBuilder();
+                buf.append(thread.getId()).append(" ").append(thread.getName()).append(" ").append(thread.getState()).append(":\n");
+                for (StackTraceElement element : thread.getStackTrace())
+                    buf.append("  at ").append(element.toString()).append('\n');
+                return buf.toString();
+            }
+        }
+        return null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A worker thread of the pool, with its deque of jobs.
+     */
+    private class Worker implements Runnable
+    {
+        final JobDeque _jobs=new JobDeque();
+        /** null while running jobs, {@link #IDLE} while idle, or a job or {@link #WAKE} given by {@link #signal(Runnable)} */
+        final AtomicReference<Runnable> _slot=new AtomicReference<Runnable>();
+        /** true while this worker is in the idle stack */
+        final AtomicBoolean _listed=new AtomicBoolean();
+        volatile Thread _thread;
+        volatile long _stolen;
+        int _seed=System.identityHashCode(this)|1;
+
+        /* ------------------------------------------------------------ */
+        public void run()
+        {
+            _current.set(this);
+            boolean shrink=false;
+            try
+            {
+                Runnable job=null;
+                while (isRunning())
+                {
+                    if (job==null)
+                        job=nextJob();
+
+                    if (job!=null)
+                    {
+                        try
+                        {
+                            runJob(job);
+                        }
+                        catch(RuntimeException e)
+                        {
+                            LOG.warn(e);
+                        }
+                        job=null;
+                        continue;
+                    }
+
+                    _threadsIdle.incrementAndGet();
+                    try
+                    {
+                        job=idleWait();
+                    }
+                    finally
+                    {
+                        _threadsIdle.decrementAndGet();
+                    }
+
+                    if (job==this)
+                    {
+                        shrink=true;
+                        return;
+                    }
+                }
+            }
+            catch(Exception e)
+            {
+                LOG.warn(e);
+            }
+            finally
+            {
+                _slot.set(null);
+                _current.remove();
+                removeWorker(this);
+                if (!shrink)
+                    _threadsStarted.decrementAndGet();
+
+                // Hand over any jobs left in the deque, which remain queued
+                boolean orphaned=false;
+                for (Runnable job=_jobs.pollFirst();job!=null;job=_jobs.pollFirst())
+                {
+                    _submissions.offer(job);
+                    orphaned=true;
+                }
+                if (orphaned && isRunning() && !signal(WAKE))
+                {
+                    int threads=_threadsStarted.get();
+                    if (threads<_maxThreads)
+                        startThread(threads);
+                }
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return a queued job from this worker's deque, the submission queue or another worker's deque
+         */
+        private Runnable nextJob()
+        {
+            Runnable job=_jobs.pollLast();
+            if (job==null)
+                job=_submissions.poll();
+            if (job==null)
+                job=steal();
+            if (job!=null)
+                _queued.decrementAndGet();
+            return job;
+        }
+
+        /* ------------------------------------------------------------ */
+        private Runnable steal()
+        {
+            Worker[] workers=_workers;
+            int n=workers.length;
+            if (n<2)
+                return null;
+            _seed^=_seed<<13;
+            _seed^=_seed>>>17;
+            _seed^=_seed<<5;
+            int start=(_seed&Integer.MAX_VALUE)%n;
+            for (int i=0;i<n;i++)
+            {
+                Worker victim=workers[(start+i)%n];
+                if (victim!=this && victim._jobs.size()>0)
+                {
+                    Runnable job=victim._jobs.pollFirst();
+                    if (job!=null)
+                    {
+                        _stolen++;
+                        return job;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /* ------------------------------------------------------------ */
+        /** Wait for a job.
+         * @return a job to run, null to look for queued jobs or this worker if the thread should exit
+         */
+        private Runnable idleWait()
+        {
+            _slot.set(IDLE);
+            listIdle(this);
+
+            // A job may have been queued before this worker was listed
+            Runnable job=nextJob();
+            if (job!=null)
+            {
+                if (_slot.compareAndSet(IDLE,null))
+                    return job;
+                // a job was handed over as well, so keep the one found for later
+                _queued.incrementAndGet();
+                _jobs.addLast(job);
+                return take();
+            }
+
+            int spins=_idleSpins;
+            long idleSince=System.currentTimeMillis();
+            while (isRunning())
+            {
+                if (_slot.get()!=IDLE)
+                    return take();
+
+                if (spins>0)
+                {
+                    spins--;
+                    Thread.yield();
+                    continue;
+                }
+
+                if (_maxIdleTimeMs<=0)
+                    LockSupport.park();
+                else
+                {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(_maxIdleTimeMs));
+                    // clear any interrupt so that the worker can park again
+                    Thread.interrupted();
+
+                    // maybe we should shrink?
+                    long now=System.currentTimeMillis();
+                    final int size=_threadsStarted.get();
+                    if (_slot.get()==IDLE && (now-idleSince)>=_maxIdleTimeMs && size>_minThreads)
+                    {
+                        long last=_lastShrink.get();
+                        if ((last==0 || (now-last)>_maxIdleTimeMs) && _lastShrink.compareAndSet(last,now))
+                        {
+                            if (!_slot.compareAndSet(IDLE,null))
+                                return take();
+                            if (_threadsStarted.compareAndSet(size,size-1))
+                                return this;
+                            // no longer idle, so look for jobs before waiting again
+                            return null;
+                        }
+                    }
+                }
+            }
+
+            if (_slot.compareAndSet(IDLE,null))
+                return null;
+            return take();
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the job given to this worker, or null if it was woken
+         */
+        private Runnable take()
+        {
+            Runnable job=_slot.getAndSet(null);
+            return (job==WAKE||job==IDLE)?null:job;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String toString()
+        {
+            return String.valueOf(_thread);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A node of the lock free stack of idle workers. Nodes are not reused, so that
+     * a worker that is listed again cannot be confused with its previous listing.
+     */
+    private static class IdleNode
+    {
+        final Worker _worker;
+        IdleNode _next;
+
+        IdleNode(Worker worker)
+        {
+            _worker=worker;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A deque of jobs. Only the owning worker adds jobs and takes them from the tail, other
+     * workers steal from the head. The lock is only contended by stealing workers.
+     */
+    private static class JobDeque
+    {
+        private Runnable[] _elements=new Runnable[16];
+        private int _head;
+        private volatile int _size;
+
+        /* ------------------------------------------------------------ */
+        synchronized void addLast(Runnable job)
+        {
+            if (_size==_elements.length)
+            {
+                Runnable[] elements=new Runnable[_elements.length*2];
+                for (int i=0;i<_size;i++)
+                    elements[i]=_elements[(_head+i)%_elements.length];
+                _elements=elements;
+                _head=0;
+            }
+            _elements[(_head+_size)%_elements.length]=job;
+            _size++;
+        }
+
+        /* ------------------------------------------------------------ */
+        Runnable pollLast()
+        {
+            if (_size==0)
+                return null;
+            synchronized (this)
+            {
+                if (_size==0)
+                    return null;
+                int tail=(_head+_size-1)%_elements.length;
+                Runnable job=_elements[tail];
+                _elements[tail]=null;
+                _size--;
+                return job;
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        synchronized Runnable pollFirst()
+        {
+            if (_size==0)
+                return null;
+            Runnable job=_elements[_head];
+            _elements[_head]=null;
+            _head=(_head+1)%_elements.length;
+            _size--;
+            return job;
+        }
+
+        /* ------------------------------------------------------------ */
+        synchronized void clear()
+        {
+            Arrays.fill(_elements,null);
+            _head=0;
+            _size=0;
+        }
+
+        /* ------------------------------------------------------------ */
+        int size()
+        {
+            return _size;
+        }
+    }
+}
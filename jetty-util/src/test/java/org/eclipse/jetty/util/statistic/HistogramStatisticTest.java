@@ -0,0 +1,72 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.util.statistic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/* ------------------------------------------------------------ */
+public class HistogramStatisticTest
+{
+    @Test
+    public void testBuckets() throws Exception
+    {
+        long[] samples = {0,1,15,16,17,31,32,33,100,1000,12345,1L<<40,Long.MAX_VALUE};
+        int last=-1;
+        for (long sample : samples)
+        {
+            int bucket=HistogramStatistic.bucket(sample);
+            assertTrue("ordered "+sample,bucket>=last);
+            assertTrue("highest "+sample,HistogramStatistic.highest(bucket)>=sample);
+            assertTrue("precision "+sample,HistogramStatistic.highest(bucket)-sample<=sample/16);
+            last=bucket;
+        }
+        assertEquals(16,HistogramStatistic.bucket(16));
+        assertEquals(31,HistogramStatistic.bucket(31));
+        assertEquals(32,HistogramStatistic.bucket(32));
+        assertEquals(33,HistogramStatistic.bucket(34));
+        assertEquals(Long.MAX_VALUE,HistogramStatistic.highest(HistogramStatistic.bucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception
+    {
+        HistogramStatistic stats = new HistogramStatistic();
+        assertEquals(0,stats.getValueAtPercentile(99.0));
+
+        for (int i=1;i<=1000;i++)
+            stats.set(i);
+
+        assertEquals(1000,stats.getCount());
+        assertEquals(1000,stats.getMax());
+        assertEquals(500.5,stats.getMean(),0.01);
+        assertNear(500,stats.getValueAtPercentile(50.0));
+        assertNear(900,stats.getValueAtPercentile(90.0));
+        assertNear(990,stats.getValueAtPercentile(99.0));
+        assertEquals(1000,stats.getValueAtPercentile(100.0));
+        assertEquals(1,stats.getValueAtPercentile(0.0));
+
+        stats.reset();
+        assertEquals(0,stats.getCount());
+        assertEquals(0,stats.getValueAtPercentile(50.0));
+    }
+
+    private void assertNear(long expected, long actual)
+    {
+        assertTrue("expected="+expected+" actual="+actual,actual>=expected && actual<=expected+expected/16);
+    }
+}
@@ -0,0 +1,110 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.util.statistic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+
+/* ------------------------------------------------------------ */
+public class StripedStatisticTest
+{
+    @Test
+    public void testConcurrentCounts() throws Exception
+    {
+        final StripedLong striped = new StripedLong();
+        final CounterStatistic counter = new StripedCounterStatistic();
+        final SampleStatistic samples = new StripedSampleStatistic();
+        final int threads=8;
+        final int count=10000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+
+        for (int t=0;t<threads;t++)
+        {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i=0;i<count;i++)
+                    {
+                        striped.increment();
+                        counter.increment();
+                        samples.set(i%10);
+                        counter.decrement();
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        latch.await();
+
+        assertEquals(threads*count,striped.get());
+        assertEquals(threads*count,counter.getTotal());
+        assertEquals(0,counter.getCurrent());
+        assertEquals(threads*count,samples.getCount());
+        assertEquals(threads*count*45/10,samples.getTotal());
+        assertEquals(9,samples.getMax());
+        assertEquals(4.5,samples.getMean(),0.0001);
+
+        striped.reset();
+        counter.reset();
+        samples.reset();
+        assertEquals(0,striped.get());
+        assertEquals(0,counter.getTotal());
+        assertEquals(0,samples.getCount());
+    }
+
+    @Test
+    public void testVariance() throws Exception
+    {
+        SampleStatistic stats = new StripedSampleStatistic();
+        long[] data={100,100,100,100,100,100,100,100,100,100,90,110};
+        for (long x : data)
+            stats.set(x);
+        assertEquals(12,stats.getCount());
+        assertEquals(100.0,stats.getMean(),0.0001);
+        assertEquals((10*10+10*10)/11.0,stats.getVariance(),0.0001);
+
+        stats.reset();
+        stats.set(5);
+        assertEquals(0.0,stats.getVariance(),0.0);
+        assertEquals(5,stats.getMax());
+    }
+
+    @Test
+    public void testCounterMax() throws Exception
+    {
+        CounterStatistic counter = new StripedCounterStatistic();
+        counter.increment();
+        counter.increment();
+        counter.decrement();
+        counter.add(5);
+        assertEquals(6,counter.getMax());
+        counter.subtract(6);
+        assertEquals(0,counter.getCurrent());
+        assertEquals(6,counter.getMax());
+        assertEquals(7,counter.getTotal());
+
+        // The maximum is sampled, so a peak between reads is missed
+        counter.add(10);
+        counter.subtract(10);
+        assertEquals(6,counter.getMax());
+        counter.add(8);
+        assertEquals(8,counter.getMax());
+    }
+}
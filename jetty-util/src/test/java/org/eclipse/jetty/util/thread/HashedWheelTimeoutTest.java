@@ -0,0 +1,147 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.util.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HashedWheelTimeoutTest extends TimeoutTest
+{
+    /* ------------------------------------------------------------ */
+    @Override
+    protected Timeout newTimeout(Object lock)
+    {
+        // A small wheel, so that tasks wrap around in rounds
+        return new HashedWheelTimeout(lock,50,8);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Test
+    public void testRounds()
+    {
+        Timeout wheel = newTimeout(lock);
+        wheel.setNow(10000);
+        Timeout.Task near = new Timeout.Task();
+        Timeout.Task far = new Timeout.Task();
+        wheel.schedule(near,100);
+        wheel.schedule(far,100+8*50*3);
+
+        assertEquals(100,wheel.getTimeToNext());
+
+        wheel.tick(10100);
+        assertTrue(near.isExpired());
+        assertTrue(!far.isExpired());
+        assertTrue(!wheel.isEmpty());
+
+        // far is in a later round so only the end of the revolution is known
+        assertTrue(wheel.getTimeToNext()>0);
+        assertTrue(wheel.getTimeToNext()<=1200);
+
+        wheel.tick(11299);
+        assertTrue(!far.isExpired());
+        wheel.tick(11300);
+        assertTrue(far.isExpired());
+        assertTrue(wheel.isEmpty());
+        assertEquals(-1,wheel.getTimeToNext());
+    }
+
+    /* ------------------------------------------------------------ */
+    @Test
+    public void testExpiredTask()
+    {
+        Timeout wheel = newTimeout(lock);
+        wheel.setNow(10000);
+        Timeout.Task[] tasks = new Timeout.Task[20];
+        for (int i=0;i<tasks.length;i++)
+        {
+            tasks[i]=new Timeout.Task();
+            wheel.schedule(tasks[i],i*100);
+        }
+        tasks[5].cancel();
+
+        wheel.setNow(11000);
+        int expired=0;
+        while (wheel.expired()!=null)
+            expired++;
+        assertEquals(10,expired);
+        for (int i=0;i<tasks.length;i++)
+            assertEquals("isExpired "+i,i<=10 && i!=5,tasks[i].isExpired());
+    }
+
+    /* ------------------------------------------------------------ */
+    @Test
+    public void testCancelEarliest()
+    {
+        Timeout wheel = newTimeout(lock);
+        wheel.setNow(10000);
+        Timeout.Task first = new Timeout.Task();
+        Timeout.Task second = new Timeout.Task();
+        Timeout.Task third = new Timeout.Task();
+        wheel.schedule(first,100);
+        wheel.schedule(second,200);
+        wheel.schedule(third,300);
+        assertEquals(100,wheel.getTimeToNext());
+
+        first.cancel();
+        first.cancel();
+        assertTrue(!wheel.isEmpty());
+        assertEquals(200,wheel.getTimeToNext());
+
+        // rescheduling earlier than the cached next tick is seen
+        wheel.schedule(third,50);
+        assertEquals(50,wheel.getTimeToNext());
+        wheel.schedule(third,250);
+        assertEquals(200,wheel.getTimeToNext());
+
+        second.cancel();
+        assertEquals(250,wheel.getTimeToNext());
+        wheel.tick(10250);
+        assertTrue(third.isExpired());
+        assertTrue(wheel.isEmpty());
+        assertEquals(-1,wheel.getTimeToNext());
+        assertTrue(wheel.toString().contains("[0 tasks"));
+    }
+
+    /* ------------------------------------------------------------ */
+    @Test
+    public void testCancelAfterCancelAll()
+    {
+        Timeout wheel = newTimeout(lock);
+        wheel.setNow(10000);
+        Timeout.Task first = new Timeout.Task();
+        Timeout.Task second = new Timeout.Task();
+        wheel.schedule(first,100);
+        wheel.schedule(second,100);
+
+        wheel.cancelAll();
+        assertTrue(!first.isScheduled());
+        assertTrue(!second.isScheduled());
+
+        // cancelling or rescheduling a task does not count it again
+        first.cancel();
+        assertTrue(wheel.isEmpty());
+        assertEquals(-1,wheel.getTimeToNext());
+        assertTrue(wheel.toString().contains("[0 tasks"));
+
+        wheel.schedule(second,200);
+        assertTrue(!wheel.isEmpty());
+        assertTrue(wheel.toString().contains("[1 tasks"));
+        assertEquals(200,wheel.getTimeToNext());
+        second.cancel();
+        assertTrue(wheel.isEmpty());
+        assertTrue(wheel.toString().contains("[0 tasks"));
+    }
+}
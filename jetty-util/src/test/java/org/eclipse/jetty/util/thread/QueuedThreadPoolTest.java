@@ -13,6 +13,7 @@
 
 package org.eclipse.jetty.util.thread;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.concurrent.CountDownLatch;
@@ -185,6 +186,44 @@ public class QueuedThreadPoolTest
         waitForIdle(tp,2);
     }
 
+    @Test
+    public void testAdaptive() throws Exception
+    {
+        QueuedThreadPool tp= new QueuedThreadPool();
+        tp.setMinThreads(2);
+        tp.setMaxThreads(4);
+        tp.setMaxIdleTimeMs(400);
+        tp.setAdaptive(true);
+        tp.setTargetQueueLatencyMs(100);
+        tp.start();
+        waitForIdle(tp,2);
+
+        RunningJob[] jobs = new RunningJob[6];
+        for (int i=0;i<jobs.length;i++)
+        {
+            jobs[i]=new RunningJob();
+            tp.dispatch(jobs[i]);
+        }
+        waitForThreads(tp,4);
+        waitForIdle(tp,0);
+
+        // At max threads, but the queued jobs have not waited long enough to be low on threads
+        assertFalse(tp.isLowOnThreads());
+        Thread.sleep(200);
+        assertTrue(tp.getQueueLatencyMs()>=100);
+        assertTrue(tp.isLowOnThreads());
+
+        for (RunningJob job : jobs)
+            job.stop();
+        assertFalse(tp.isLowOnThreads());
+
+        // The average decays as the threads are idle, and the pool shrinks
+        waitForThreads(tp,2);
+        waitForIdle(tp,2);
+        assertTrue(tp.getQueueLatencyMs()<50);
+        tp.stop();
+    }
+
     @Test
     public void testMaxStopTime() throws Exception
     {
@@ -221,6 +260,7 @@ public class QueuedThreadPoolTest
             }
             catch(InterruptedException e)
             {}
+            now=System.currentTimeMillis();
         }
         Assert.assertEquals(idle,tp.getIdleThreads());
     }
@@ -0,0 +1,361 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+package org.eclipse.jetty.util.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+public class WorkStealingThreadPoolTest
+{
+    class RunningJob implements Runnable
+    {
+        private final CountDownLatch _run = new CountDownLatch(1);
+        private final CountDownLatch _stopping = new CountDownLatch(1);
+        private final CountDownLatch _stopped = new CountDownLatch(1);
+        public void run()
+        {
+            try 
+            {
+                _run.countDown();
+                _stopping.await();
+            }
+            catch(Exception e)
+            {
+                e.printStackTrace();
+            }
+            finally
+            {
+                _stopped.countDown();
+            }
+        }
+        
+        public void stop() throws InterruptedException
+        {
+            _run.await(10,TimeUnit.SECONDS);
+            _stopping.countDown();
+            if (!_stopped.await(10,TimeUnit.SECONDS))
+                throw new IllegalStateException(); 
+        }
+    };   
+    
+    @Test
+    public void testThreadPool() throws Exception
+    {        
+        WorkStealingThreadPool tp= new WorkStealingThreadPool();
+        tp.setMinThreads(5);
+        tp.setMaxThreads(10);
+        tp.setMaxIdleTimeMs(1000);
+        tp.start();
+        
+        waitForThreads(tp,5);
+        waitForIdle(tp,5);
+        
+        RunningJob job=new RunningJob();
+        tp.dispatch(job);
+        waitForIdle(tp,4);
+        waitForThreads(tp,5);
+
+        job.stop();
+        waitForIdle(tp,5);
+        waitForThreads(tp,5);
+
+        RunningJob[] jobs = new RunningJob[5];
+        for (int i=0;i<jobs.length;i++)
+        {
+            jobs[i]=new RunningJob();
+            tp.dispatch(jobs[i]);
+        }
+        waitForIdle(tp,0);
+        waitForThreads(tp,5);
+        
+        job=new RunningJob();
+        tp.dispatch(job);
+        waitForThreads(tp,6);
+        
+        job.stop();
+        waitForThreads(tp,5);
+
+        for (int i=0;i<jobs.length;i++)
+            jobs[i].stop();
+        waitForIdle(tp,5);
+        waitForThreads(tp,5);
+        
+        jobs = new RunningJob[15];
+        for (int i=0;i<jobs.length;i++)
+        {
+            jobs[i]=new RunningJob();
+            tp.dispatch(jobs[i]);
+        }
+        waitForIdle(tp,0);
+        waitForThreads(tp,10);
+        assertEquals(5,tp.getQueueSize());
+        assertTrue(tp.isLowOnThreads());
+        for (int i=0;i<9;i++)
+            jobs[i].stop();
+        waitForThreads(tp,9);
+        assertFalse(tp.isLowOnThreads());
+        
+        for (int i=9;i<jobs.length;i++)
+            jobs[i].stop();
+        waitForIdle(tp,5);
+        assertEquals(0,tp.getQueueSize());
+        assertTrue(tp.dump().contains("IDLE"));
+        tp.stop();
+    }
+
+    @Test
+    public void testWorkStealing() throws Exception
+    {
+        final WorkStealingThreadPool tp= new WorkStealingThreadPool();
+        tp.setMinThreads(4);
+        tp.setMaxThreads(4);
+        tp.setIdleSpins(0);
+        tp.start();
+        waitForIdle(tp,4);
+
+        final int count=1000;
+        final CountDownLatch done=new CountDownLatch(count);
+        final Runnable task=new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(1);
+                }
+                catch(InterruptedException e)
+                {
+                }
+                done.countDown();
+            }
+        };
+
+        // A job that dispatches jobs from a worker, so they go onto its own deque
+        tp.dispatch(new Runnable()
+        {
+            public void run()
+            {
+                for (int i=0;i<count;i++)
+                    tp.dispatch(task);
+            }
+        });
+
+        assertTrue(done.await(10,TimeUnit.SECONDS));
+        assertTrue(tp.getStolenJobs()>0);
+        waitForIdle(tp,4);
+        assertEquals(0,tp.getQueueSize());
+        tp.stop();
+    }
+
+    @Test
+    public void testJobThrows() throws Exception
+    {
+        final WorkStealingThreadPool tp= new WorkStealingThreadPool();
+        tp.setMinThreads(1);
+        tp.setMaxThreads(1);
+        tp.setIdleSpins(0);
+        tp.start();
+        waitForIdle(tp,1);
+
+        final int count=10;
+        final CountDownLatch done=new CountDownLatch(2*count);
+        final Runnable task=new Runnable()
+        {
+            public void run()
+            {
+                done.countDown();
+            }
+        };
+
+        // Jobs queued on the deque of a worker whose job throws are still run,
+        // by the same worker for an exception or by a new worker for an error
+        tp.dispatch(new Runnable()
+        {
+            public void run()
+            {
+                for (int i=0;i<count;i++)
+                    tp.dispatch(task);
+                throw new IllegalStateException("Expected by test");
+            }
+        });
+        tp.dispatch(new Runnable()
+        {
+            public void run()
+            {
+                for (int i=0;i<count;i++)
+                    tp.dispatch(task);
+                throw new Error("Expected by test");
+            }
+        });
+
+        assertTrue(done.await(10,TimeUnit.SECONDS));
+        waitForIdle(tp,1);
+        assertEquals(0,tp.getQueueSize());
+        assertEquals(1,tp.getThreads());
+        tp.stop();
+    }
+
+    @Test
+    public void testManyDispatchers() throws Exception
+    {
+        final WorkStealingThreadPool tp= new WorkStealingThreadPool();
+        tp.setMinThreads(2);
+        tp.setMaxThreads(8);
+        tp.start();
+
+        final int dispatchers=4;
+        final int count=20000;
+        final AtomicInteger run=new AtomicInteger();
+        final CountDownLatch done=new CountDownLatch(dispatchers*count);
+        final Runnable task=new Runnable()
+        {
+            public void run()
+            {
+                run.incrementAndGet();
+                done.countDown();
+            }
+        };
+
+        Thread[] threads=new Thread[dispatchers];
+        for (int t=0;t<dispatchers;t++)
+        {
+            threads[t]=new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i=0;i<count;i++)
+                        tp.execute(task);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertTrue(done.await(10,TimeUnit.SECONDS));
+        assertEquals(dispatchers*count,run.get());
+        tp.stop();
+    }
+
+    @Test
+    public void testShrink() throws Exception
+    {
+        final AtomicInteger sleep = new AtomicInteger(100);
+        Runnable job = new Runnable()
+        {
+            public void run()
+            {
+                try 
+                {
+                    Thread.sleep(sleep.get());
+                }
+                catch(Exception e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        };
+        
+        WorkStealingThreadPool tp= new WorkStealingThreadPool();
+        tp.setMinThreads(2);
+        tp.setMaxThreads(10);
+        tp.setMaxIdleTimeMs(400);
+        tp.start();
+        waitForIdle(tp,2);
+        waitForThreads(tp,2);
+        
+        sleep.set(200);
+        for (int i=0;i<22;i++)
+            tp.dispatch(job);
+
+        waitForThreads(tp,10);
+        waitForIdle(tp,0);
+        
+        sleep.set(5);
+        for (int i=0;i<200;i++)
+        {
+            tp.dispatch(job);
+            Thread.sleep(10);
+        }
+        waitForThreads(tp,2);
+        waitForIdle(tp,2);
+        tp.stop();
+    }
+
+    @Test
+    public void testMaxStopTime() throws Exception
+    {
+        WorkStealingThreadPool tp= new WorkStealingThreadPool();
+        tp.setMaxStopTimeMs(500);
+        tp.start();
+        tp.dispatch(new Runnable(){
+            public void run () {
+                while (true) {
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException ie) {}
+                }
+            }
+        });
+
+        long beforeStop = System.currentTimeMillis();
+        tp.stop();
+        long afterStop = System.currentTimeMillis();
+        assertTrue(tp.isStopped());
+        assertTrue(afterStop - beforeStop < 1000);
+    }
+
+    private void waitForIdle(WorkStealingThreadPool tp, int idle)
+    {
+        long now=System.currentTimeMillis();
+        long start=now;
+        while (tp.getIdleThreads()!=idle && (now-start)<10000)
+        {
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {}
+            now=System.currentTimeMillis();
+        }
+        assertEquals(idle,tp.getIdleThreads());
+    }
+
+    private void waitForThreads(WorkStealingThreadPool tp, int threads)
+    {
+        long now=System.currentTimeMillis();
+        long start=now;
+        while (tp.getThreads()!=threads && (now-start)<10000)
+        {
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {} 
+            now=System.currentTimeMillis();
+        }
+        assertEquals(threads,tp.getThreads());
+    }
+}
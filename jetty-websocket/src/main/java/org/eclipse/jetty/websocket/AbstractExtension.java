@@ -16,6 +16,7 @@
 package org.eclipse.jetty.websocket;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -48,6 +49,11 @@ public class AbstractExtension implements Extension
         return true;
     }
     
+    public Map<String,String> getInitParameters()
+    {
+        return Collections.unmodifiableMap(_parameters);
+    }
+
     public String getInitParameter(String name)
     {
         return _parameters.get(name);
@@ -86,7 +92,12 @@ public class AbstractExtension implements Extension
         StringBuilder name = new StringBuilder();
         name.append(_name);
         for (String param : _parameters.keySet())
-            name.append(';').append(param).append('=').append(QuotedStringTokenizer.quoteIfNeeded(_parameters.get(param),";="));
+        {
+            String value=_parameters.get(param);
+            name.append(';').append(param);
+            if (value!=null)
+                name.append('=').append(QuotedStringTokenizer.quoteIfNeeded(value,";="));
+        }
         return name.toString();
     }
 
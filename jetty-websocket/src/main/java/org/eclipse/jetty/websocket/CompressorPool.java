@@ -0,0 +1,164 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.websocket;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/* ------------------------------------------------------------ */
+/** A pool of {@link Deflater}s and {@link Inflater}s.
+ * <p>
+ * Each deflater and inflater holds native zlib memory until it is ended, so
+ * rather than each connection holding its own for its whole lifetime, they are
+ * borrowed from this pool while a frame is compressed or decompressed and then
+ * returned. At most {@link #getMaxIdle()} of each are kept idle in the pool, any
+ * others returned are ended.
+ */
+public class CompressorPool
+{
+    private final Queue<Deflater> _deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final Queue<Inflater> _inflaters = new ConcurrentLinkedQueue<Inflater>();
+    private final AtomicInteger _idleDeflaters = new AtomicInteger();
+    private final AtomicInteger _idleInflaters = new AtomicInteger();
+    private final int _level;
+    private final int _maxIdle;
+
+    /* ------------------------------------------------------------ */
+    public CompressorPool()
+    {
+        this(Deflater.DEFAULT_COMPRESSION,Runtime.getRuntime().availableProcessors()*4);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param level The compression level of the deflaters
+     * @param maxIdle The maximum number of idle deflaters and of idle inflaters kept in the pool
+     */
+    public CompressorPool(int level, int maxIdle)
+    {
+        _level=level;
+        _maxIdle=maxIdle;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getLevel()
+    {
+        return _level;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getMaxIdle()
+    {
+        return _maxIdle;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getIdleDeflaters()
+    {
+        return _idleDeflaters.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getIdleInflaters()
+    {
+        return _idleInflaters.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return An idle deflater from the pool, or a new deflater if there is none
+     */
+    public Deflater getDeflater()
+    {
+        Deflater deflater=_deflaters.poll();
+        if (deflater==null)
+            return new Deflater(_level);
+        _idleDeflaters.decrementAndGet();
+        return deflater;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param deflater The deflater to reset and return to the pool, or to end if the pool is full
+     */
+    public void returnDeflater(Deflater deflater)
+    {
+        if (_idleDeflaters.incrementAndGet()>_maxIdle)
+        {
+            _idleDeflaters.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        _deflaters.offer(deflater);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return An idle inflater from the pool, or a new inflater if there is none
+     */
+    public Inflater getInflater()
+    {
+        Inflater inflater=_inflaters.poll();
+        if (inflater==null)
+            return new Inflater();
+        _idleInflaters.decrementAndGet();
+        return inflater;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param inflater The inflater to reset and return to the pool, or to end if the pool is full
+     */
+    public void returnInflater(Inflater inflater)
+    {
+        if (_idleInflaters.incrementAndGet()>_maxIdle)
+        {
+            _idleInflaters.decrementAndGet();
+            inflater.end();
+            return;
+        }
+        inflater.reset();
+        _inflaters.offer(inflater);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Ends all the idle deflaters and inflaters in the pool.
+     */
+    public void clear()
+    {
+        for (Deflater deflater=_deflaters.poll();deflater!=null;deflater=_deflaters.poll())
+        {
+            _idleDeflaters.decrementAndGet();
+            deflater.end();
+        }
+        for (Inflater inflater=_inflaters.poll();inflater!=null;inflater=_inflaters.poll())
+        {
+            _idleInflaters.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{level=%d,idle=%d/%d,maxIdle=%d}",getClass().getSimpleName(),hashCode(),_level,_idleDeflaters.get(),_idleInflaters.get(),_maxIdle);
+    }
+}
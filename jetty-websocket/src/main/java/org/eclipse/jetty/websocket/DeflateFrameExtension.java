@@ -28,13 +28,23 @@ import org.eclipse.jetty.util.log.Logger;
 
 /**
  * TODO Implement proposed deflate frame draft
+ * <p>
+ * The {@link Deflater}s and {@link Inflater}s are borrowed from a {@link CompressorPool} only while
+ * a frame is compressed or decompressed, and the frames are inflated and deflated into buffers from
+ * the {@link WebSocketBuffers} of the connection where they fit. Outgoing frames are always compressed
+ * without context takeover. An incoming compressed stream that continues over several frames keeps
+ * its inflater until the stream is finished, unless the "no_context_takeover" parameter is given, in
+ * which case each frame must be a complete compressed stream.
  */
 public class DeflateFrameExtension extends AbstractExtension
 {
     private static final Logger LOG = Log.getLogger(DeflateFrameExtension.class);
+    private static final CompressorPool __compressors = new CompressorPool();
 
     private int _minLength=8;
-    private Deflater _deflater;
+    private boolean _noContextTakeover;
+    private CompressorPool _compressors=__compressors;
+    private WebSocketBuffers _buffers;
     private Inflater _inflater;
 
     public DeflateFrameExtension()
@@ -42,6 +52,36 @@ public class DeflateFrameExtension extends AbstractExtension
         super("x-deflate-frame");
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @param compressors The pool to borrow deflaters and inflaters from
+     */
+    public void setCompressorPool(CompressorPool compressors)
+    {
+        _compressors=compressors;
+    }
+
+    /* ------------------------------------------------------------ */
+    public CompressorPool getCompressorPool()
+    {
+        return _compressors;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param buffers The buffers to inflate and deflate frames into, or null to allocate them
+     */
+    public void setBuffers(WebSocketBuffers buffers)
+    {
+        _buffers=buffers;
+    }
+
+    /* ------------------------------------------------------------ */
+    public boolean isNoContextTakeover()
+    {
+        return _noContextTakeover;
+    }
+
     @Override
     public boolean init(Map<String, String> parameters)
     {
@@ -50,10 +90,7 @@ public class DeflateFrameExtension extends AbstractExtension
         if(super.init(parameters))
         {
             _minLength=getInitParameter("minLength",_minLength);
-
-            _deflater=new Deflater();
-            _inflater=new Inflater();
-
+            _noContextTakeover=parameters.containsKey("no_context_takeover");
             return true;
         }
         return false;
@@ -85,25 +122,63 @@ public class DeflateFrameExtension extends AbstractExtension
 
         // TODO check a max framesize
 
-        _inflater.setInput(buffer.array(),buffer.getIndex(),buffer.length());
-        ByteArrayBuffer buf = new ByteArrayBuffer(length);
+        Inflater inflater=_inflater;
+        _inflater=null;
+        if (inflater==null)
+            inflater=_compressors.getInflater();
+        inflater.setInput(buffer.array(),buffer.getIndex(),buffer.length());
+
+        boolean pooled=_buffers!=null && length<=_buffers.getBufferSize();
+        Buffer buf = pooled?_buffers.getBuffer():new ByteArrayBuffer(length);
         try
         {
-            while(_inflater.getRemaining()>0)
+            try
+            {
+                while(inflater.getRemaining()>0)
+                {
+                    int inflated=inflater.inflate(buf.array(),buf.putIndex(),Math.min(buf.space(),length-buf.length()));
+                    if (inflated==0)
+                        throw new DataFormatException("insufficient data");
+                    buf.setPutIndex(buf.putIndex()+inflated);
+                }
+            }
+            finally
             {
-                int inflated=_inflater.inflate(buf.array(),buf.putIndex(),buf.space());
-                if (inflated==0)
-                    throw new DataFormatException("insufficient data");
-                buf.setPutIndex(buf.putIndex()+inflated);
+                // Only hold the inflater while the compressed stream continues into the next frame
+                if (_noContextTakeover || inflater.finished())
+                    _compressors.returnInflater(inflater);
+                else
+                    _inflater=inflater;
             }
 
             super.onFrame(clearFlag(flags,1),opcode,buf);
         }
         catch(DataFormatException e)
         {
+            if (_inflater!=null)
+            {
+                _compressors.returnInflater(_inflater);
+                _inflater=null;
+            }
             LOG.warn(e);
             getConnection().close(WebSocketConnectionRFC6455.CLOSE_BAD_PAYLOAD,e.toString());
         }
+        finally
+        {
+            if (pooled)
+                _buffers.returnBuffer(buf);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void close(int code, String message)
+    {
+        Inflater inflater=_inflater;
+        _inflater=null;
+        if (inflater!=null)
+            _compressors.returnInflater(inflater);
+        super.close(code,message);
     }
 
     /* (non-Javadoc)
@@ -118,44 +193,63 @@ public class DeflateFrameExtension extends AbstractExtension
             return;
         }
 
-        // prepare the uncompressed input
-        _deflater.reset();
-        _deflater.setInput(content,offset,length);
-        _deflater.finish();
-
         // prepare the output buffer
-        byte[] out= new byte[length];
-        int out_offset=0;
-
-        // write the uncompressed length
-        if (length>0xffff)
-        {
-            out[out_offset++]=0x7f;
-            out[out_offset++]=(byte)0;
-            out[out_offset++]=(byte)0;
-            out[out_offset++]=(byte)0;
-            out[out_offset++]=(byte)0;
-            out[out_offset++]=(byte)((length>>24)&0xff);
-            out[out_offset++]=(byte)((length>>16)&0xff);
-            out[out_offset++]=(byte)((length>>8)&0xff);
-            out[out_offset++]=(byte)(length&0xff);
-        }
-        else if (length >=0x7e)
+        boolean pooled=_buffers!=null && length<=_buffers.getBufferSize();
+        Buffer buffer=pooled?_buffers.getBuffer():null;
+        try
         {
-            out[out_offset++]=0x7e;
-            out[out_offset++]=(byte)(length>>8);
-            out[out_offset++]=(byte)(length&0xff);
+            byte[] out=pooled?buffer.array():new byte[length];
+            int out_offset=0;
+
+            // write the uncompressed length
+            if (length>0xffff)
+            {
+                out[out_offset++]=0x7f;
+                out[out_offset++]=(byte)0;
+                out[out_offset++]=(byte)0;
+                out[out_offset++]=(byte)0;
+                out[out_offset++]=(byte)0;
+                out[out_offset++]=(byte)((length>>24)&0xff);
+                out[out_offset++]=(byte)((length>>16)&0xff);
+                out[out_offset++]=(byte)((length>>8)&0xff);
+                out[out_offset++]=(byte)(length&0xff);
+            }
+            else if (length >=0x7e)
+            {
+                out[out_offset++]=0x7e;
+                out[out_offset++]=(byte)(length>>8);
+                out[out_offset++]=(byte)(length&0xff);
+            }
+            else
+            {
+                out[out_offset++]=(byte)(length&0x7f);
+            }
+
+            // compress the whole frame with a borrowed deflater
+            int l;
+            boolean finished;
+            Deflater deflater=_compressors.getDeflater();
+            try
+            {
+                deflater.setInput(content,offset,length);
+                deflater.finish();
+                l = deflater.deflate(out,out_offset,length-out_offset);
+                finished=deflater.finished();
+            }
+            finally
+            {
+                _compressors.returnDeflater(deflater);
+            }
+
+            if (finished)
+                super.addFrame(setFlag(flags,1),opcode,out,0,l+out_offset);
+            else
+                super.addFrame(clearFlag(flags,1),opcode,content,offset,length);
         }
-        else
+        finally
         {
-            out[out_offset++]=(byte)(length&0x7f);
+            if (pooled)
+                _buffers.returnBuffer(buffer);
         }
-
-        int l = _deflater.deflate(out,out_offset,length-out_offset);
-
-        if (_deflater.finished())
-            super.addFrame(setFlag(flags,1),opcode,out,0,l+out_offset);
-        else
-            super.addFrame(clearFlag(flags,1),opcode,content,offset,length);
     }
 }
@@ -0,0 +1,274 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.io.ByteArrayEndPoint;
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+
+/* ------------------------------------------------------------ */
+/** Send the same message to many WebSocket connections.
+ * <p>
+ * The message is generated once into an immutable shared buffer for each distinct
+ * set of negotiated extensions (and buffer size), so that for example a message is
+ * compressed once for all the connections using the same x-deflate-frame parameters.
+ * The shared frame is then queued on each connection without being copied, and
+ * written without blocking the broadcasting thread.
+ * <p>
+ * A connection that has more than {@link #getMaxQueuedBytes()} unflushed bytes is a slow consumer,
+ * and depending on the {@link SlowConsumerPolicy} either the message is dropped for that connection
+ * or the connection is closed.
+ * <p>
+ * Only the server side connections of RFC 6455 can share frames. The message is sent to other
+ * connections, such as client connections that must mask each frame, with
+ * {@link WebSocket.Connection#sendMessage(String)}, which may block and is not limited.
+ */
+public class WebSocketBroadcaster
+{
+    private static final Logger LOG = Log.getLogger(WebSocketBroadcaster.class);
+
+    public enum SlowConsumerPolicy
+    {
+        /** Do not send the message to a slow consumer */
+        DROP,
+        /** Close the connection of a slow consumer */
+        CLOSE
+    }
+
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _closed = new AtomicLong();
+    private volatile int _maxQueuedBytes = 256 * 1024;
+    private volatile SlowConsumerPolicy _policy = SlowConsumerPolicy.DROP;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The maximum number of unflushed bytes for a connection, beyond which it is a slow consumer, or -1 for no limit
+     */
+    public int getMaxQueuedBytes()
+    {
+        return _maxQueuedBytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxQueuedBytes The maximum number of unflushed bytes for a connection, beyond which it is a slow consumer, or -1 for no limit
+     */
+    public void setMaxQueuedBytes(int maxQueuedBytes)
+    {
+        _maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    public SlowConsumerPolicy getSlowConsumerPolicy()
+    {
+        return _policy;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy policy)
+    {
+        _policy = policy;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of messages not sent to slow consumers
+     */
+    public long getDropped()
+    {
+        return _dropped.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of slow consumer connections closed
+     */
+    public long getClosed()
+    {
+        return _closed.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Send a text message to connections.
+     * @param connections The connections to send to
+     * @param message The text message
+     * @return The number of connections the message was sent or queued on
+     */
+    public int broadcast(Iterable<? extends WebSocket.Connection> connections, String message)
+    {
+        byte[] data = StringUtil.getBytes(message,StringUtil.__UTF8);
+        return broadcast(connections,WebSocketConnectionRFC6455.OP_TEXT,message,data,0,data.length);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Send a binary message to connections.
+     * @param connections The connections to send to
+     * @param data The binary message, which must not be modified during the call
+     * @param offset The offset of the message in data
+     * @param length The length of the message
+     * @return The number of connections the message was sent or queued on
+     */
+    public int broadcast(Iterable<? extends WebSocket.Connection> connections, byte[] data, int offset, int length)
+    {
+        return broadcast(connections,WebSocketConnectionRFC6455.OP_BINARY,null,data,offset,length);
+    }
+
+    /* ------------------------------------------------------------ */
+    private int broadcast(Iterable<? extends WebSocket.Connection> connections, byte opcode, String text, byte[] data, int offset, int length)
+    {
+        Map<String,Buffer> frames = new HashMap<String,Buffer>();
+        int sent=0;
+
+        for (WebSocket.Connection connection : connections)
+        {
+            try
+            {
+                if (!connection.isOpen())
+                    continue;
+
+                WebSocketConnectionRFC6455 rfc6455 = connection instanceof WebSocketConnectionRFC6455.WSFrameConnection
+                    ?((WebSocketConnectionRFC6455.WSFrameConnection)connection).getWebSocketConnection():null;
+                String key = rfc6455==null?null:getFrameKey(rfc6455);
+
+                if (key==null)
+                {
+                    if (text==null)
+                        connection.sendMessage(data,offset,length);
+                    else
+                        connection.sendMessage(text);
+                    sent++;
+                    continue;
+                }
+
+                Buffer frame = frames.get(key);
+                if (frame==null)
+                {
+                    frame=newFrame(rfc6455,opcode,data,offset,length);
+                    frames.put(key,frame);
+                }
+
+                if (rfc6455.sendSharedFrame(frame,_maxQueuedBytes))
+                    sent++;
+                else
+                    slowConsumer(rfc6455);
+            }
+            catch(IllegalStateException e)
+            {
+                // The application is sending a fragmented message on the connection
+                LOG.debug(e);
+                _dropped.incrementAndGet();
+            }
+            catch(IOException e)
+            {
+                LOG.debug(e);
+            }
+        }
+
+        return sent;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Handle a connection with too many unflushed bytes.
+     * @param connection The slow connection
+     */
+    protected void slowConsumer(WebSocketConnectionRFC6455 connection)
+    {
+        LOG.debug("slow consumer {} {}",_policy,connection);
+        switch(_policy)
+        {
+            case CLOSE:
+                _closed.incrementAndGet();
+                connection.abort();
+                break;
+            default:
+                _dropped.incrementAndGet();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return A key that is equal for connections that generate the same frames, or null
+     * if the frames of the connection cannot be shared
+     */
+    private String getFrameKey(WebSocketConnectionRFC6455 connection)
+    {
+        if (!connection.isFrameShareable())
+            return null;
+
+        StringBuilder key = new StringBuilder();
+        key.append(connection.getBuffers().getBufferSize());
+        for (Extension extension : connection.getExtensions())
+        {
+            if (!(extension instanceof AbstractExtension))
+                return null;
+            key.append(',').append(extension.getParameterizedName());
+        }
+        return key.toString();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Generate a message into a shared buffer, passing it through new instances of the
+     * extensions of the connection.
+     */
+    private Buffer newFrame(WebSocketConnectionRFC6455 connection, byte opcode, byte[] data, int offset, int length) throws IOException
+    {
+        ByteArrayEndPoint endp = new ByteArrayEndPoint(new byte[0],length+16);
+        endp.setGrowOutput(true);
+        WebSocketGeneratorRFC6455 generator = new WebSocketGeneratorRFC6455(connection.getBuffers(),endp);
+
+        WebSocketGenerator outbound=generator;
+        List<Extension> extensions=connection.getExtensions();
+        for (Extension extension : extensions)
+        {
+            AbstractExtension copy;
+            try
+            {
+                copy=(AbstractExtension)extension.getClass().newInstance();
+            }
+            catch(Exception e)
+            {
+                throw new IllegalStateException(e);
+            }
+            copy.init(new HashMap<String,String>(((AbstractExtension)extension).getInitParameters()));
+            copy.bind((WebSocket.FrameConnection)connection.getConnection(),null,outbound);
+            outbound=copy;
+        }
+
+        outbound.addFrame((byte)WebSocketConnectionRFC6455.FLAG_FIN,opcode,data,offset,length);
+        generator.flush();
+        generator.returnBuffer();
+
+        ByteArrayBuffer out = endp.getOut();
+        ByteBuffer bytes = ByteBuffer.allocateDirect(out.length());
+        bytes.put(out.array(),out.getIndex(),out.length());
+        bytes.flip();
+        return new DirectNIOBuffer(bytes,true);
+    }
+}
@@ -413,6 +413,58 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
         _parser.fill(buffer);
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if the frames sent on this connection are not masked, so
+     * frames generated for another connection can be shared with it.
+     * @see WebSocketBroadcaster
+     */
+    boolean isFrameShareable()
+    {
+        return !_generator.isMasking();
+    }
+
+    /* ------------------------------------------------------------ */
+    WebSocketBuffers getBuffers()
+    {
+        return _generator.getBuffers();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Queue a frame generated into a shared buffer, bypassing the extensions,
+     * which must already have been applied to the frame.
+     * @param frame The buffer containing the frame, which is not consumed
+     * @param maxQueuedBytes The maximum number of unflushed bytes, or -1 for no limit
+     * @return true if the frame was queued, false if the connection has too many unflushed bytes
+     * @see WebSocketGeneratorRFC6455#addSharedFrame(Buffer, int)
+     */
+    boolean sendSharedFrame(Buffer frame, int maxQueuedBytes) throws IOException
+    {
+        if (_closedOut)
+            throw new IOException("closedOut "+_closeCode+":"+_closeMessage);
+        boolean queued=_generator.addSharedFrame(frame,maxQueuedBytes);
+        checkWriteable();
+        return queued;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Close the endpoint without sending a close frame, which could not be
+     * written before the unflushed frames of a slow consumer.
+     */
+    void abort()
+    {
+        try
+        {
+            _endp.close();
+        }
+        catch(IOException e)
+        {
+            LOG.ignore(e);
+        }
+    }
+
     /* ------------------------------------------------------------ */
     private void checkWriteable()
     {
@@ -436,10 +488,16 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
     }
 
     /* ------------------------------------------------------------ */
-    private class WSFrameConnection implements WebSocket.FrameConnection
+    class WSFrameConnection implements WebSocket.FrameConnection
     {
         private volatile boolean _disconnecting;
 
+        /* ------------------------------------------------------------ */
+        WebSocketConnectionRFC6455 getWebSocketConnection()
+        {
+            return WebSocketConnectionRFC6455.this;
+        }
+
         /* ------------------------------------------------------------ */
         public void sendMessage(String content) throws IOException
         {
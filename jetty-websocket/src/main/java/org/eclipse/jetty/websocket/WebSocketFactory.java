@@ -88,6 +88,7 @@ public class WebSocketFactory extends AbstractLifeCycle
 
     private final Acceptor _acceptor;
     private WebSocketBuffers _buffers;
+    private CompressorPool _compressors = new CompressorPool();
     private int _maxIdleTime = 300000;
     private int _maxTextMessageSize = 16 * 1024;
     private int _maxBinaryMessageSize = -1;
@@ -152,6 +153,22 @@ public class WebSocketFactory extends AbstractLifeCycle
             _buffers = new WebSocketBuffers(bufferSize);
     }
 
+    /**
+     * @return The pool of deflaters and inflaters shared by the connections using compression extensions
+     */
+    public CompressorPool getCompressorPool()
+    {
+        return _compressors;
+    }
+
+    /**
+     * @param compressors The pool of deflaters and inflaters shared by the connections using compression extensions
+     */
+    public void setCompressorPool(CompressorPool compressors)
+    {
+        _compressors = compressors;
+    }
+
     /**
      * @return The initial maximum text message size (in characters) for a connection
      */
@@ -192,6 +209,7 @@ public class WebSocketFactory extends AbstractLifeCycle
     protected void doStop() throws Exception
     {
         closeConnections();
+        _compressors.clear();
     }
 
     /**
@@ -386,6 +404,12 @@ public class WebSocketFactory extends AbstractLifeCycle
             if (extension==null)
                 continue;
 
+            if (extension instanceof DeflateFrameExtension)
+            {
+                ((DeflateFrameExtension)extension).setCompressorPool(_compressors);
+                ((DeflateFrameExtension)extension).setBuffers(_buffers);
+            }
+
             if (extension.init(parameters))
             {
                 LOG.debug("add {} {}",extName,parameters);
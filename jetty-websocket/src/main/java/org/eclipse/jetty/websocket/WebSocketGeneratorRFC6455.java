@@ -29,10 +29,14 @@
 package org.eclipse.jetty.websocket;
 
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Queue;
 
 import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.io.View;
+import org.eclipse.jetty.io.nio.ChannelEndPoint;
 
 
 /* ------------------------------------------------------------ */
@@ -41,6 +45,15 @@ import org.eclipse.jetty.io.EofException;
  * It is fully synchronized because it is likely that async
  * threads will call the addMessage methods while other
  * threads are flushing the generator.
+ * <p>
+ * As well as generating frames into its own buffer, the generator
+ * can queue frames that have already been generated into shared
+ * buffers (see {@link #addSharedFrame(Buffer, int)}), which are
+ * written without being copied. Queued frames are written before
+ * the buffer, so when a shared frame is queued, the content of the
+ * buffer is queued ahead of it, and while frames are queued, a full
+ * buffer is queued behind them rather than waiting for them to be
+ * written.
  */
 public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
 {
@@ -52,6 +65,8 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
     private boolean _opsent;
     private final MaskGen _maskGen;
     private boolean _closed;
+    private final Queue<Buffer> _frames=new LinkedList<Buffer>();
+    private int _queuedBytes;
 
     public WebSocketGeneratorRFC6455(WebSocketBuffers buffers, EndPoint endp)
     {
@@ -72,19 +87,89 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
         return _buffer;
     }
 
+    WebSocketBuffers getBuffers()
+    {
+        return _buffers;
+    }
+
+    public boolean isMasking()
+    {
+        return _maskGen!=null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of bytes generated or queued but not yet flushed
+     */
+    public synchronized int getQueuedBytes()
+    {
+        return _queuedBytes+(_buffer==null?0:_buffer.length());
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Queue a complete frame that has already been generated. The frame buffer is not
+     * copied or consumed, so the same buffer may be queued on many generators.
+     * The frame is written after any frames already generated or queued, without blocking.
+     * @param frame The buffer containing one or more complete, unmasked frames
+     * @param maxQueuedBytes The maximum number of unflushed bytes, including the frame, or -1 for no limit.
+     * A frame is always queued if nothing else is.
+     * @return true if the frame was queued, false if it would exceed maxQueuedBytes
+     * @throws IllegalStateException if a fragmented message is being generated
+     */
+    public synchronized boolean addSharedFrame(Buffer frame, int maxQueuedBytes) throws IOException
+    {
+        if (_closed)
+            throw new EofException("Closed");
+        if (_opsent)
+            throw new IllegalStateException("Message in progress");
+
+        int queued=getQueuedBytes();
+        if (maxQueuedBytes>=0 && queued>0 && queued+frame.length()>maxQueuedBytes)
+            return false;
+
+        queueBuffer();
+        _frames.add(new View(frame));
+        _queuedBytes+=frame.length();
+        flushBuffer();
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Queue the content of the buffer behind the queued frames, so that it is
+     * written in order with them and the buffer may be replaced without waiting.
+     */
+    private void queueBuffer()
+    {
+        if (_buffer!=null && _buffer.length()>0)
+        {
+            _frames.add(_buffer);
+            _queuedBytes+=_buffer.length();
+            _buffer=null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private Buffer newBuffer()
+    {
+        return _maskGen!=null?_buffers.getBuffer():_buffers.getDirectBuffer();
+    }
+
     public synchronized void addFrame(byte flags, byte opcode, byte[] content, int offset, int length) throws IOException
     {
         // System.err.printf("<< %s %s %s\n",TypeUtil.toHexString(flags),TypeUtil.toHexString(opcode),length);
 
         if (_closed)
             throw new EofException("Closed");
+
         if (opcode==WebSocketConnectionRFC6455.OP_CLOSE)
             _closed=true;
 
         boolean mask=_maskGen!=null;
 
         if (_buffer==null)
-            _buffer=mask?_buffers.getBuffer():_buffers.getDirectBuffer();
+            _buffer=newBuffer();
 
         boolean last=WebSocketConnectionRFC6455.isLastFrame(flags);
 
@@ -110,7 +195,16 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
             if (_buffer.space() <= space)
             {
                 flushBuffer();
-                if (_buffer.space() <= space)
+                if (!_frames.isEmpty())
+                {
+                    // Rather than wait for the queued frames, queue the buffer behind them
+                    queueBuffer();
+                    if (_buffer==null)
+                        _buffer=newBuffer();
+                    else
+                        _buffer.compact();
+                }
+                else if (_buffer.space() <= space)
                     flush();
             }
 
@@ -173,6 +267,12 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
                     // Gently flush the data, issuing a non-blocking write
                     flushBuffer();
                 }
+                else if (!_frames.isEmpty())
+                {
+                    // Rather than wait for the queued frames, queue the full buffer behind them
+                    queueBuffer();
+                    _buffer=newBuffer();
+                }
                 else
                 {
                     // Forcibly flush the data, issuing a blocking write
@@ -202,20 +302,55 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
         if (!_endp.isOpen())
             throw new EofException();
 
-        if (_buffer!=null)
+        // The queued frames are written before the buffer
+        int flushed=0;
+        if (!_frames.isEmpty())
+            flushed=flushFrames();
+
+        if (_buffer!=null && _frames.isEmpty())
         {
-            int flushed=_buffer.hasContent()?_endp.flush(_buffer):0;
+            flushed+=_buffer.hasContent()?_endp.flush(_buffer):0;
             if (_closed&&_buffer.length()==0)
                 _endp.shutdownOutput();
-            return flushed;
+        }
+        else if (_buffer==null && _closed && _frames.isEmpty())
+            _endp.shutdownOutput();
+
+        return flushed;
+    }
+
+    private int flushFrames() throws IOException
+    {
+        int flushed=0;
+        if (_endp instanceof ChannelEndPoint)
+        {
+            // Gather all the queued frames into one write
+            flushed=((ChannelEndPoint)_endp).flush(_frames.toArray(new Buffer[_frames.size()]));
+        }
+        else
+        {
+            for (Buffer frame : _frames)
+            {
+                flushed+=_endp.flush(frame);
+                if (frame.length()>0)
+                    break;
+            }
         }
 
-        return 0;
+        while (!_frames.isEmpty() && _frames.peek().length()==0)
+        {
+            // Shared frames are queued as views, queued buffers are our own
+            Buffer frame=_frames.poll();
+            if (!(frame instanceof View))
+                _buffers.returnBuffer(frame);
+        }
+        _queuedBytes-=flushed;
+        return flushed;
     }
 
     public synchronized int flush() throws IOException
     {
-        if (_buffer==null)
+        if (_buffer==null && _frames.isEmpty())
             return 0;
         int result = flushBuffer();
 
@@ -223,7 +358,7 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
         {
             long now = System.currentTimeMillis();
             long end=now+_endp.getMaxIdleTime();
-            while (_buffer.length()>0)
+            while (!isBufferEmpty())
             {
                 boolean ready = _endp.blockWritable(end-now);
                 if (!ready)
@@ -237,13 +372,14 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
                 result += flushBuffer();
             }
         }
-        _buffer.compact();
+        if (_buffer!=null)
+            _buffer.compact();
         return result;
     }
 
     public synchronized boolean isBufferEmpty()
     {
-        return _buffer==null || _buffer.length()==0;
+        return (_buffer==null || _buffer.length()==0) && _frames.isEmpty();
     }
 
     public synchronized void returnBuffer()
@@ -262,10 +398,11 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
         // because it's very easy to deadlock when debugging is enabled.
         // We do a best effort to print the right toString() and that's it.
         Buffer buffer = _buffer;
-        return String.format("%s@%x closed=%b buffer=%d",
+        return String.format("%s@%x closed=%b buffer=%d queued=%d",
                 getClass().getSimpleName(),
                 hashCode(),
                 _closed,
-                buffer == null ? -1 : buffer.length());
+                buffer == null ? -1 : buffer.length(),
+                _queuedBytes);
     }
 }
@@ -0,0 +1,88 @@
+// ========================================================================
+// Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+
+package org.eclipse.jetty.websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+public class CompressorPoolTest
+{
+    @Test
+    public void testReuse() throws Exception
+    {
+        CompressorPool pool = new CompressorPool(Deflater.DEFAULT_COMPRESSION,1);
+
+        Deflater deflater = pool.getDeflater();
+        pool.returnDeflater(deflater);
+        assertEquals(1,pool.getIdleDeflaters());
+        assertSame(deflater,pool.getDeflater());
+        assertEquals(0,pool.getIdleDeflaters());
+
+        Inflater inflater = pool.getInflater();
+        pool.returnInflater(inflater);
+        assertEquals(1,pool.getIdleInflaters());
+        assertSame(inflater,pool.getInflater());
+        assertNotSame(inflater,pool.getInflater());
+    }
+
+    @Test
+    public void testMaxIdle() throws Exception
+    {
+        CompressorPool pool = new CompressorPool(Deflater.DEFAULT_COMPRESSION,1);
+
+        Inflater a = pool.getInflater();
+        Inflater b = pool.getInflater();
+        pool.returnInflater(a);
+        pool.returnInflater(b);
+        assertEquals(1,pool.getIdleInflaters());
+
+        pool.clear();
+        assertEquals(0,pool.getIdleInflaters());
+        assertEquals(0,pool.getIdleDeflaters());
+    }
+
+    @Test
+    public void testReturnedCompressorsAreReset() throws Exception
+    {
+        CompressorPool pool = new CompressorPool(Deflater.DEFAULT_COMPRESSION,1);
+        byte[] data = "0123456789ABCDEF 0123456789ABCDEF 0123456789ABCDEF".getBytes("utf-8");
+
+        for (int i=0;i<2;i++)
+        {
+            Deflater deflater = pool.getDeflater();
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] compressed = new byte[128];
+            int length = deflater.deflate(compressed);
+            assertTrue(deflater.finished());
+            pool.returnDeflater(deflater);
+
+            Inflater inflater = pool.getInflater();
+            inflater.setInput(compressed,0,length);
+            byte[] result = new byte[data.length];
+            assertEquals(data.length,inflater.inflate(result));
+            assertTrue(inflater.finished());
+            pool.returnInflater(inflater);
+            assertArrayEquals(data,result);
+        }
+    }
+}
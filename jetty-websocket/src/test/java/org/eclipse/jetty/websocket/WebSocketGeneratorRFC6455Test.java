@@ -17,6 +17,7 @@ package org.eclipse.jetty.websocket;
 
 import static junit.framework.Assert.*;
 
+import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.io.ByteArrayBuffer;
 import org.eclipse.jetty.io.ByteArrayEndPoint;
 import org.eclipse.jetty.io.EofException;
@@ -248,4 +249,93 @@ public class WebSocketGeneratorRFC6455Test
         
         assertTrue(_endPoint.isOutputShutdown());
     }
+
+    @Test
+    public void testSharedFrame() throws Exception
+    {
+        byte[] bytes = {(byte)0x81,(byte)0x02,'H','i'};
+        Buffer frame = new ByteArrayBuffer(bytes,0,bytes.length,Buffer.IMMUTABLE);
+
+        for (int i=0;i<2;i++)
+        {
+            setUp();
+            WebSocketGeneratorRFC6455 generator = new WebSocketGeneratorRFC6455(_buffers, _endPoint,null);
+            assertTrue(generator.addSharedFrame(frame,-1));
+
+            byte[] data = "Ho".getBytes(StringUtil.__UTF8);
+            generator.addFrame((byte)0x8,(byte)0x01,data,0,data.length);
+            generator.flush();
+            assertTrue(generator.isBufferEmpty());
+
+            assertEquals((byte)0x81,_out.get());
+            assertEquals(2,_out.get());
+            assertEquals('H',_out.get());
+            assertEquals('i',_out.get());
+            assertEquals((byte)0x81,_out.get());
+            assertEquals(2,_out.get());
+            assertEquals('H',_out.get());
+            assertEquals('o',_out.get());
+            assertEquals(0,_out.length());
+        }
+
+        // The shared frame is not consumed
+        assertEquals(bytes.length,frame.length());
+    }
+
+    @Test
+    public void testSharedFrameMaxQueued() throws Exception
+    {
+        _out = new ByteArrayBuffer(4);
+        _endPoint.setOut(_out);
+        WebSocketGeneratorRFC6455 generator = new WebSocketGeneratorRFC6455(_buffers, _endPoint,null);
+
+        byte[] bytes = {(byte)0x81,(byte)0x02,'H','i'};
+        Buffer frame = new ByteArrayBuffer(bytes,0,bytes.length,Buffer.IMMUTABLE);
+
+        // The first frame is flushed, the second is queued, the third exceeds the limit
+        assertTrue(generator.addSharedFrame(frame,6));
+        assertEquals(0,generator.getQueuedBytes());
+        assertTrue(generator.addSharedFrame(frame,6));
+        assertEquals(4,generator.getQueuedBytes());
+        assertFalse(generator.addSharedFrame(frame,6));
+        assertFalse(generator.isBufferEmpty());
+
+        // Once the endpoint is writable, the queued frame is flushed
+        _out.clear();
+        assertEquals(4,generator.flushBuffer());
+        assertEquals(0,generator.getQueuedBytes());
+        assertTrue(generator.isBufferEmpty());
+    }
+
+    @Test
+    public void testFrameQueuedBehindSharedFrame() throws Exception
+    {
+        _out = new ByteArrayBuffer(4);
+        _endPoint.setOut(_out);
+        _endPoint.setNonBlocking(true);
+        WebSocketGeneratorRFC6455 generator = new WebSocketGeneratorRFC6455(_buffers, _endPoint,null);
+
+        byte[] bytes = {(byte)0x81,(byte)0x02,'H','i'};
+        Buffer frame = new ByteArrayBuffer(bytes,0,bytes.length,Buffer.IMMUTABLE);
+        assertTrue(generator.addSharedFrame(frame,-1));
+        assertTrue(generator.addSharedFrame(frame,-1));
+        assertEquals(4,generator.getQueuedBytes());
+
+        // The frame is generated without waiting for the queued frame to be written
+        byte[] data = "Ho".getBytes(StringUtil.__UTF8);
+        generator.addFrame((byte)0x8,(byte)0x0A,data,0,data.length);
+        assertEquals(8,generator.getQueuedBytes());
+
+        // and is written after it
+        _out.clear();
+        assertEquals(4,generator.flushBuffer());
+        assertEquals('H',_out.peek(2));
+        assertEquals('i',_out.peek(3));
+        _out.clear();
+        assertEquals(4,generator.flushBuffer());
+        assertEquals((byte)0x8A,_out.peek(0));
+        assertEquals('H',_out.peek(2));
+        assertEquals('o',_out.peek(3));
+        assertTrue(generator.isBufferEmpty());
+    }
 }
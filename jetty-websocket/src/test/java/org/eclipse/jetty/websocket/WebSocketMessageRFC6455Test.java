@@ -24,6 +24,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.Collections;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -146,6 +147,48 @@ public class WebSocketMessageRFC6455Test
         lookFor(data.substring(0x1ff6),input);
     }
 
+    @Test
+    public void testServerBroadcast() throws Exception
+    {
+        Socket socket = new Socket("localhost", __connector.getLocalPort());
+        OutputStream output = socket.getOutputStream();
+        output.write(
+                ("GET /chat HTTP/1.1\r\n"+
+                 "Host: server.example.com\r\n"+
+                 "Upgrade: websocket\r\n"+
+                 "Connection: Upgrade\r\n"+
+                 "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"+
+                 "Sec-WebSocket-Origin: http://example.com\r\n"+
+                 "Sec-WebSocket-Protocol: chat, superchat\r\n"+
+                 "Sec-WebSocket-Version: "+WebSocketConnectionRFC6455.VERSION+"\r\n"+
+                 "\r\n").getBytes("ISO-8859-1"));
+        output.flush();
+
+        // Make sure the read times out if there are problems with the implementation
+        socket.setSoTimeout(1000);
+
+        InputStream input = socket.getInputStream();
+
+        lookFor("HTTP/1.1 101 Switching Protocols\r\n",input);
+        skipTo("\r\n\r\n",input);
+
+        assertTrue(__serverWebSocket.awaitConnected(1000));
+        assertNotNull(__serverWebSocket.connection);
+
+        WebSocketBroadcaster broadcaster = new WebSocketBroadcaster();
+        assertEquals(1,broadcaster.broadcast(Collections.singleton(__serverWebSocket.connection),"Hello"));
+        byte[] data = "World".getBytes(StringUtil.__UTF8);
+        assertEquals(1,broadcaster.broadcast(Collections.singleton(__serverWebSocket.connection),data,0,data.length));
+
+        assertEquals(0x80|WebSocketConnectionRFC6455.OP_TEXT,input.read());
+        assertEquals(0x05,input.read());
+        lookFor("Hello",input);
+        assertEquals(0x80|WebSocketConnectionRFC6455.OP_BINARY,input.read());
+        assertEquals(0x05,input.read());
+        lookFor("World",input);
+        assertEquals(0,broadcaster.getDropped());
+    }
+
     @Test
     public void testServerSendOnConnect() throws Exception
     {
@@ -0,0 +1,113 @@
+//========================================================================
+// Copyright 2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+
+import org.eclipse.jetty.server.Server;
+import org.junit.Test;
+
+/**
+ * IdFilterTest
+ *
+ * Test that newly generated ids are checked against the filter of ids in
+ * the id table, and that requested ids are still checked in the database.
+ */
+public class IdFilterTest
+{
+    @Test
+    public void testIdFilter() throws Exception
+    {
+        final int[] queries = new int[1];
+        JDBCSessionIdManager idManager = new JDBCSessionIdManager(new Server())
+        {
+            @Override
+            public boolean idInUse(String id)
+            {
+                queries[0]++;
+                return super.idInUse(id);
+            }
+        };
+        idManager.setDriverInfo(JdbcTestServer.DRIVER_CLASS, JdbcTestServer.DEFAULT_CONNECTION_URL);
+        idManager.setIdFilterRefreshInterval(60);
+        idManager.start();
+        try
+        {
+            insert("idfilter-old");
+            idManager.refreshIdFilter();
+            assertNotNull(idManager._idFilter);
+            insert("idfilter-new");
+
+            // newly generated ids are checked in the filter
+            assertTrue(idManager.newIdInUse("idfilter-old"));
+            assertFalse(idManager.newIdInUse("idfilter-unused"));
+            assertEquals(1, queries[0]);
+
+            // requested ids are checked in the database
+            assertTrue(idManager.idInUse("idfilter-new"));
+            assertFalse(idManager.idInUse("idfilter-unused"));
+
+            // the filter includes ids inserted since it was built once it is refreshed
+            idManager.refreshIdFilter();
+            queries[0] = 0;
+            assertTrue(idManager.newIdInUse("idfilter-new"));
+            assertEquals(1, queries[0]);
+        }
+        finally
+        {
+            idManager.removeSession("idfilter-old");
+            idManager.removeSession("idfilter-new");
+            idManager.stop();
+        }
+    }
+
+    @Test
+    public void testNoIdFilterByDefault() throws Exception
+    {
+        JDBCSessionIdManager idManager = new JDBCSessionIdManager(new Server());
+        idManager.setDriverInfo(JdbcTestServer.DRIVER_CLASS, JdbcTestServer.DEFAULT_CONNECTION_URL);
+        idManager.start();
+        try
+        {
+            assertEquals(0, idManager.getIdFilterRefreshInterval());
+            assertNull(idManager._idFilter);
+        }
+        finally
+        {
+            idManager.stop();
+        }
+    }
+
+    private void insert(String id) throws Exception
+    {
+        Connection connection = DriverManager.getConnection(JdbcTestServer.DEFAULT_CONNECTION_URL);
+        try
+        {
+            PreparedStatement statement = connection.prepareStatement("insert into JettySessionIds (id) values (?)");
+            statement.setString(1, id);
+            statement.executeUpdate();
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+}
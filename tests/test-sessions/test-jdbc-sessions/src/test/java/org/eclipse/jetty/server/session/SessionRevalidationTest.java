@@ -0,0 +1,147 @@
+//========================================================================
+// Copyright 2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.eclipse.jetty.client.ContentExchange;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.http.HttpMethods;
+import org.junit.Test;
+
+/**
+ * SessionRevalidationTest
+ *
+ * Test that a stale session that has not been used by another node is
+ * revalidated rather than loaded again, and that a session changed by
+ * another node is loaded again.
+ */
+public class SessionRevalidationTest
+{
+    @Test
+    public void testRevalidation() throws Exception
+    {
+        String contextPath = "";
+        String servletMapping = "/server";
+        AbstractTestServer server1 = new JdbcTestServer(0);
+        server1.addContext(contextPath).addServlet(TestServlet.class, servletMapping);
+        server1.start();
+        int port1=server1.getPort();
+        try
+        {
+            AbstractTestServer server2 = new JdbcTestServer(0);
+            server2.addContext(contextPath).addServlet(TestServlet.class, servletMapping);
+            server2.start();
+            int port2=server2.getPort();
+            try
+            {
+                HttpClient client = new HttpClient();
+                client.setConnectorType(HttpClient.CONNECTOR_SOCKET);
+                client.start();
+                try
+                {
+                    String url1 = "http://localhost:" + port1 + contextPath + servletMapping;
+                    String url2 = "http://localhost:" + port2 + contextPath + servletMapping;
+
+                    ContentExchange exchange = send(client, url1 + "?action=set&value=1", null);
+                    String sessionCookie = exchange.getResponseFields().getStringField("Set-Cookie");
+                    assertTrue(sessionCookie != null);
+                    // Mangle the cookie, replacing Path with $Path, etc.
+                    sessionCookie = sessionCookie.replaceFirst("(\\W)(P|p)ath=", "$1\\$Path=");
+
+                    // The session is stale, but has not been used elsewhere, so the same attribute is seen
+                    Thread.sleep(JdbcTestServer.SAVE_INTERVAL * 1000L + 100);
+                    exchange = send(client, url1 + "?action=get", sessionCookie);
+                    assertEquals("1 same", exchange.getResponseContent().trim());
+
+                    // Change the session on server2
+                    exchange = send(client, url2 + "?action=set&value=2", sessionCookie);
+
+                    // The session is loaded again by server1
+                    Thread.sleep(JdbcTestServer.SAVE_INTERVAL * 1000L + 100);
+                    exchange = send(client, url1 + "?action=get", sessionCookie);
+                    assertEquals("2 loaded", exchange.getResponseContent().trim());
+                }
+                finally
+                {
+                    client.stop();
+                }
+            }
+            finally
+            {
+                server2.stop();
+            }
+        }
+        finally
+        {
+            server1.stop();
+        }
+    }
+
+    private ContentExchange send(HttpClient client, String url, String sessionCookie) throws Exception
+    {
+        ContentExchange exchange = new ContentExchange(true);
+        exchange.setMethod(HttpMethods.GET);
+        exchange.setURL(url);
+        if (sessionCookie != null)
+            exchange.getRequestFields().add("Cookie", sessionCookie);
+        client.send(exchange);
+        exchange.waitForDone();
+        assertEquals(HttpServletResponse.SC_OK,exchange.getResponseStatus());
+        return exchange;
+    }
+
+    public static class Value implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        int _value;
+    }
+
+    public static class TestServlet extends HttpServlet
+    {
+        static Value __last;
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+        {
+            HttpSession session = request.getSession(true);
+            PrintWriter writer = response.getWriter();
+            String action = request.getParameter("action");
+            if ("set".equals(action))
+            {
+                Value value = new Value();
+                value._value = Integer.parseInt(request.getParameter("value"));
+                session.setAttribute("value", value);
+                __last = value;
+                writer.println(value._value);
+            }
+            else if ("get".equals(action))
+            {
+                Value value = (Value)session.getAttribute("value");
+                writer.println(value._value + (value == __last ? " same" : " loaded"));
+            }
+            writer.flush();
+        }
+    }
+}
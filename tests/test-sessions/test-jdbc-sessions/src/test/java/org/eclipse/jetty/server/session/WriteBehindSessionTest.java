@@ -0,0 +1,145 @@
+//========================================================================
+// Copyright 2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses.
+// ========================================================================
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.ContentExchange;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.server.SessionManager;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.Test;
+
+/**
+ * WriteBehindSessionTest
+ *
+ * Test that sessions written by the writer threads are seen by another node,
+ * and that queued sessions are written when the session manager is stopped.
+ */
+public class WriteBehindSessionTest
+{
+    public AbstractTestServer createServer(int port)
+    {
+        return new JdbcTestServer(port)
+        {
+            @Override
+            public SessionManager newSessionManager()
+            {
+                JDBCSessionManager manager = (JDBCSessionManager)super.newSessionManager();
+                manager.setWriteBehind(true);
+                manager.setWriteBehindThreads(2);
+                return manager;
+            }
+        };
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception
+    {
+        String contextPath = "";
+        String servletMapping = "/server";
+        AbstractTestServer server1 = createServer(0);
+        ServletContextHandler context1 = server1.addContext(contextPath);
+        context1.addServlet(AbstractSessionMigrationTest.TestServlet.class, servletMapping);
+        server1.start();
+        int port1=server1.getPort();
+        try
+        {
+            AbstractTestServer server2 = createServer(0);
+            server2.addContext(contextPath).addServlet(AbstractSessionMigrationTest.TestServlet.class, servletMapping);
+            server2.start();
+            int port2=server2.getPort();
+            try
+            {
+                HttpClient client = new HttpClient();
+                client.setConnectorType(HttpClient.CONNECTOR_SOCKET);
+                client.start();
+                try
+                {
+                    String sessionCookie = null;
+                    for (int value=1; value<=10; value++)
+                    {
+                        ContentExchange exchange = new ContentExchange(true);
+                        exchange.setMethod(HttpMethods.POST);
+                        exchange.setURL("http://localhost:" + port1 + contextPath + servletMapping + "?action=set&value=" + value);
+                        if (sessionCookie != null)
+                            exchange.getRequestFields().add("Cookie", sessionCookie);
+                        client.send(exchange);
+                        exchange.waitForDone();
+                        assertEquals(HttpServletResponse.SC_OK,exchange.getResponseStatus());
+                        if (sessionCookie == null)
+                        {
+                            sessionCookie = exchange.getResponseFields().getStringField("Set-Cookie");
+                            assertTrue(sessionCookie != null);
+                            // Mangle the cookie, replacing Path with $Path, etc.
+                            sessionCookie = sessionCookie.replaceFirst("(\\W)(P|p)ath=", "$1\\$Path=");
+                        }
+                    }
+
+                    // Wait for the writer threads to write the session
+                    JDBCSessionManager manager = (JDBCSessionManager)context1.getSessionHandler().getSessionManager();
+                    long end = System.currentTimeMillis() + 10000;
+                    while (manager.getWriteBehindPending() > 0 && System.currentTimeMillis() < end)
+                        Thread.sleep(10);
+                    assertEquals(0,manager.getWriteBehindPending());
+
+                    ContentExchange exchange2 = new ContentExchange(true);
+                    exchange2.setMethod(HttpMethods.GET);
+                    exchange2.setURL("http://localhost:" + port2 + contextPath + servletMapping + "?action=get");
+                    exchange2.getRequestFields().add("Cookie", sessionCookie);
+                    client.send(exchange2);
+                    exchange2.waitForDone();
+                    assertEquals(HttpServletResponse.SC_OK,exchange2.getResponseStatus());
+                    assertEquals("10",exchange2.getResponseContent().trim());
+
+                    // Change the session on server2 and stop it, which writes the queued session
+                    ContentExchange exchange3 = new ContentExchange(true);
+                    exchange3.setMethod(HttpMethods.POST);
+                    exchange3.setURL("http://localhost:" + port2 + contextPath + servletMapping + "?action=set&value=20");
+                    exchange3.getRequestFields().add("Cookie", sessionCookie);
+                    client.send(exchange3);
+                    exchange3.waitForDone();
+                    assertEquals(HttpServletResponse.SC_OK,exchange3.getResponseStatus());
+                    server2.stop();
+
+                    // The session on server1 is stale, so it is reloaded
+                    Thread.sleep(JdbcTestServer.SAVE_INTERVAL * 1000L + 100);
+                    ContentExchange exchange4 = new ContentExchange(true);
+                    exchange4.setMethod(HttpMethods.GET);
+                    exchange4.setURL("http://localhost:" + port1 + contextPath + servletMapping + "?action=get");
+                    exchange4.getRequestFields().add("Cookie", sessionCookie);
+                    client.send(exchange4);
+                    exchange4.waitForDone();
+                    assertEquals(HttpServletResponse.SC_OK,exchange4.getResponseStatus());
+                    assertEquals("20",exchange4.getResponseContent().trim());
+                }
+                finally
+                {
+                    client.stop();
+                }
+            }
+            finally
+            {
+                server2.stop();
+            }
+        }
+        finally
+        {
+            server1.stop();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.eclipse.jetty.nosql.mongodb;
+//========================================================================
+//Copyright (c) 2012 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//All rights reserved. This program and the accompanying materials
+//are made available under the terms of the Eclipse Public License v1.0
+//and Apache License v2.0 which accompanies this distribution.
+//The Eclipse Public License is available at
+//http://www.eclipse.org/legal/epl-v10.html
+//The Apache License v2.0 is available at
+//http://www.opensource.org/licenses/apache2.0.php
+//You may elect to redistribute this code under either of these licenses.
+//========================================================================
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.ContentExchange;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.server.SessionManager;
+import org.eclipse.jetty.server.session.AbstractSessionMigrationTest;
+import org.eclipse.jetty.server.session.AbstractTestServer;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.Test;
+
+/**
+ * FlushedSessionTest
+ *
+ * Test that session saves written by flush threads are seen by another node.
+ */
+public class FlushedSessionTest
+{
+    public AbstractTestServer createServer(int port)
+    {
+        return new MongoTestServer(port)
+        {
+            @Override
+            public SessionManager newSessionManager()
+            {
+                MongoSessionManager manager = (MongoSessionManager)super.newSessionManager();
+                manager.setFlushThreads(2);
+                return manager;
+            }
+        };
+    }
+
+    @Test
+    public void testFlushedSession() throws Exception
+    {
+        String contextPath = "";
+        String servletMapping = "/server";
+        AbstractTestServer server1 = createServer(0);
+        ServletContextHandler context1 = server1.addContext(contextPath);
+        context1.addServlet(AbstractSessionMigrationTest.TestServlet.class, servletMapping);
+        server1.start();
+        int port1=server1.getPort();
+        try
+        {
+            AbstractTestServer server2 = createServer(0);
+            server2.addContext(contextPath).addServlet(AbstractSessionMigrationTest.TestServlet.class, servletMapping);
+            server2.start();
+            int port2=server2.getPort();
+            try
+            {
+                HttpClient client = new HttpClient();
+                client.setConnectorType(HttpClient.CONNECTOR_SOCKET);
+                client.start();
+                try
+                {
+                    String sessionCookie = null;
+                    for (int value=1; value<=10; value++)
+                    {
+                        ContentExchange exchange = new ContentExchange(true);
+                        exchange.setMethod(HttpMethods.POST);
+                        exchange.setURL("http://localhost:" + port1 + contextPath + servletMapping + "?action=set&value=" + value);
+                        if (sessionCookie != null)
+                            exchange.getRequestFields().add("Cookie", sessionCookie);
+                        client.send(exchange);
+                        exchange.waitForDone();
+                        assertEquals(HttpServletResponse.SC_OK,exchange.getResponseStatus());
+                        if (sessionCookie == null)
+                        {
+                            sessionCookie = exchange.getResponseFields().getStringField("Set-Cookie");
+                            assertTrue(sessionCookie != null);
+                            // Mangle the cookie, replacing Path with $Path, etc.
+                            sessionCookie = sessionCookie.replaceFirst("(\\W)(P|p)ath=", "$1\\$Path=");
+                        }
+                    }
+
+                    // Wait for the flush threads to write the session
+                    MongoSessionManager manager = (MongoSessionManager)context1.getSessionHandler().getSessionManager();
+                    manager.flushAll();
+                    assertEquals(0,manager.getFlushPending());
+
+                    ContentExchange exchange2 = new ContentExchange(true);
+                    exchange2.setMethod(HttpMethods.GET);
+                    exchange2.setURL("http://localhost:" + port2 + contextPath + servletMapping + "?action=get");
+                    exchange2.getRequestFields().add("Cookie", sessionCookie);
+                    client.send(exchange2);
+                    exchange2.waitForDone();
+                    assertEquals(HttpServletResponse.SC_OK,exchange2.getResponseStatus());
+                    assertEquals("10",exchange2.getResponseContent().trim());
+                }
+                finally
+                {
+                    client.stop();
+                }
+            }
+            finally
+            {
+                server2.stop();
+            }
+        }
+        finally
+        {
+            server1.stop();
+        }
+    }
+}